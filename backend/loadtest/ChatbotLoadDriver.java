@@ -0,0 +1,372 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays recorded chatbot sessions against the backend and reports throughput and latency percentiles
+ * Each virtual user plays sessions one after another, sending every customer message to
+ * /ai/chatbot/response (or /ai/chatbot/response/stream) with the conversation history and a session id
+ * the way the chat widget does. At the end it prints the backend's own scheduler, prompt stage and
+ * context statistics. Run it against a backend that talks to FakeOllamaServer to measure the backend on
+ * its own: with an instant fake (--ttft fixed:0 --tokens-per-sec 0) the limits found are the backend's.
+ * JDK only; run with: java backend/loadtest/ChatbotLoadDriver.java [options]
+ *
+ * Options:
+ *   --base-url http://localhost:8080/api   backend URL including the context path
+ *   --sessions backend/loadtest/sessions.txt  recorded sessions: one customer message per line,
+ *                                          sessions separated by blank lines, # starts a comment
+ *   --users 10                             concurrent virtual users
+ *   --duration 60                          seconds to run after warm-up
+ *   --warmup 5                             seconds of load before measuring starts
+ *   --think-ms 0                           pause between a response and the user's next message
+ *   --history 4                            previous messages sent as history (the end-user widget sends 4)
+ *   --stream                               use the streaming endpoint and also report time to first delta
+ *   --timeout 120                          seconds before a request counts as failed
+ *   --report-every 10                      seconds between progress lines
+ */
+public class ChatbotLoadDriver {
+    
+    // Responses the backend gives when generation failed; counted separately from HTTP errors
+    private static final String[] FALLBACK_PREFIXES = {
+        "Thank you for contacting us. I'm here to help you with your inquiry.",
+        "I apologize, but I encountered an error."
+    };
+    
+    private final String baseUrl;
+    private final List<List<String>> sessions;
+    private final int historySize;
+    private final long thinkMillis;
+    private final boolean stream;
+    private final Duration timeout;
+    private final HttpClient client;
+    
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean measuring = false;
+    private volatile boolean stopping = false;
+    private final Recorder total = new Recorder();
+    private volatile Recorder window = new Recorder();
+    
+    ChatbotLoadDriver(Map<String, String> options, List<List<String>> sessions) {
+        this.baseUrl = options.getOrDefault("base-url", "http://localhost:8080/api").replaceAll("/+$", "");
+        this.sessions = sessions;
+        this.historySize = Integer.parseInt(options.getOrDefault("history", "4"));
+        this.thinkMillis = Long.parseLong(options.getOrDefault("think-ms", "0"));
+        this.stream = options.containsKey("stream");
+        this.timeout = Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "120")));
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<List<String>> sessions = readSessions(Path.of(options.getOrDefault("sessions", "backend/loadtest/sessions.txt")));
+        int users = Integer.parseInt(options.getOrDefault("users", "10"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration", "60"));
+        long warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "5"));
+        long reportSeconds = Math.max(1, Long.parseLong(options.getOrDefault("report-every", "10")));
+        
+        ChatbotLoadDriver driver = new ChatbotLoadDriver(options, sessions);
+        System.out.println("Replaying " + sessions.size() + " sessions with " + users + " users against " + driver.baseUrl
+            + (driver.stream ? " (streaming)" : "") + " for " + warmupSeconds + "s warm-up + " + durationSeconds + "s");
+        
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < users; i++) {
+            executor.submit(driver::runUser);
+        }
+        
+        Thread.sleep(warmupSeconds * 1000);
+        driver.window = new Recorder();
+        driver.measuring = true;
+        long measureStart = System.nanoTime();
+        long deadline = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(reportSeconds * 1000, Math.max(1, (deadline - System.nanoTime()) / 1_000_000)));
+            Recorder finished = driver.window;
+            driver.window = new Recorder();
+            long elapsed = (System.nanoTime() - measureStart) / 1_000_000_000;
+            System.out.printf("[%4ds] %s  in-flight %d%n", elapsed, finished.summary(reportSeconds), driver.inFlight.get());
+        }
+        driver.measuring = false;
+        driver.stopping = true;
+        executor.shutdownNow();
+        
+        System.out.println();
+        System.out.println("=== RESULT (" + durationSeconds + "s measured, " + users + " users) ===");
+        System.out.println(driver.total.summary(durationSeconds));
+        System.out.println("latency   " + driver.total.percentiles(driver.total.latencies));
+        if (driver.stream) {
+            System.out.println("first delta " + driver.total.percentiles(driver.total.firstDeltas));
+        }
+        for (String path : List.of("/ai/llm-scheduler", "/ai/chatbot/prompt-stages", "/ai/chatbot/context-sessions",
+                "/ai/chatbot/answer-cache", "/ai/conversation-summaries")) {
+            System.out.println(path + ": " + driver.get(path));
+        }
+        System.exit(0);
+    }
+    
+    private void runUser() {
+        while (!stopping) {
+            List<String> session = sessions.get(Math.floorMod(nextSession.getAndIncrement(), sessions.size()));
+            String sessionId = "load-" + UUID.randomUUID();
+            List<String> history = new ArrayList<>();
+            for (String message : session) {
+                if (stopping) {
+                    return;
+                }
+                String reply = send(message, history, sessionId);
+                history.add("User: " + message);
+                history.add("Agent: " + (reply != null ? reply : ""));
+                if (thinkMillis > 0) {
+                    try {
+                        Thread.sleep(thinkMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            try {
+                // Ends the session like a closed chat, so its stored context and summary are dropped
+                client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/ai/chatbot/context-sessions/" + sessionId))
+                    .DELETE().timeout(timeout).build(), HttpResponse.BodyHandlers.discarding());
+            } catch (Exception e) {
+                if (stopping) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    // One chatbot turn; returns the reply, or null if the request failed
+    private String send(String message, List<String> history, String sessionId) {
+        String conversationHistory = String.join("\n", history.subList(Math.max(0, history.size() - historySize), history.size()));
+        String body = "{\"message\":" + quote(message)
+            + ",\"conversationHistory\":" + quote(conversationHistory)
+            + ",\"isActionTriggered\":false,\"sessionId\":" + quote(sessionId) + "}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + (stream ? "/ai/chatbot/response/stream" : "/ai/chatbot/response")))
+            .header("Content-Type", "application/json")
+            .header("Accept", stream ? "text/event-stream" : "application/json")
+            .timeout(timeout)
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        
+        boolean counted = measuring;
+        inFlight.incrementAndGet();
+        long started = System.nanoTime();
+        long firstDelta = -1;
+        String reply = null;
+        int status;
+        try {
+            if (stream) {
+                HttpResponse<java.util.stream.Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+                status = response.statusCode();
+                String event = "";
+                for (Iterator<String> lines = response.body().iterator(); lines.hasNext(); ) {
+                    String line = lines.next();
+                    if (line.startsWith("event:")) {
+                        event = line.substring(6).trim();
+                    } else if (line.startsWith("data:")) {
+                        if (firstDelta < 0) {
+                            firstDelta = System.nanoTime() - started;
+                        }
+                        if (event.equals("done")) {
+                            reply = stringField(line.substring(5), "response");
+                        }
+                    }
+                }
+            } else {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                status = response.statusCode();
+                reply = stringField(response.body(), "response");
+            }
+        } catch (IOException | InterruptedException e) {
+            status = -1;
+            if (stopping) {
+                inFlight.decrementAndGet();
+                return null;
+            }
+        }
+        long elapsed = System.nanoTime() - started;
+        inFlight.decrementAndGet();
+        
+        boolean ok = status == 200 && reply != null;
+        boolean fallback = ok && isFallback(reply);
+        if (counted && measuring) {
+            total.record(ok, fallback, elapsed, firstDelta);
+            window.record(ok, fallback, elapsed, firstDelta);
+        }
+        return ok ? reply : null;
+    }
+    
+    private String get(String path) {
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(timeout).build(),
+                HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 ? response.body() : "HTTP " + response.statusCode();
+        } catch (Exception e) {
+            return "unavailable (" + e.getMessage() + ")";
+        }
+    }
+    
+    private static boolean isFallback(String reply) {
+        for (String prefix : FALLBACK_PREFIXES) {
+            if (reply.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Latencies and outcomes of the requests that finished in one interval (or the whole run)
+     */
+    static class Recorder {
+        final List<Long> latencies = new ArrayList<>();
+        final List<Long> firstDeltas = new ArrayList<>();
+        long succeeded = 0;
+        long failed = 0;
+        long fallbacks = 0;
+        
+        synchronized void record(boolean ok, boolean fallback, long latencyNanos, long firstDeltaNanos) {
+            if (!ok) {
+                failed++;
+                return;
+            }
+            succeeded++;
+            if (fallback) {
+                fallbacks++;
+            }
+            latencies.add(latencyNanos / 1_000_000);
+            if (firstDeltaNanos >= 0) {
+                firstDeltas.add(firstDeltaNanos / 1_000_000);
+            }
+        }
+        
+        synchronized String summary(long seconds) {
+            return String.format("%7.1f req/s  ok %d  errors %d  fallbacks %d  %s",
+                succeeded / (double) Math.max(1, seconds), succeeded, failed, fallbacks, percentiles(latencies));
+        }
+        
+        synchronized String percentiles(List<Long> values) {
+            if (values.isEmpty()) {
+                return "p50 -  p90 -  p99 -  max -";
+            }
+            List<Long> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            return String.format("p50 %dms  p90 %dms  p99 %dms  max %dms",
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted.get(sorted.size() - 1));
+        }
+        
+        private static long percentile(List<Long> sorted, int p) {
+            int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+        }
+    }
+    
+    static List<List<String>> readSessions(Path file) throws IOException {
+        List<List<String>> sessions = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#")) {
+                continue;
+            }
+            if (trimmed.isEmpty()) {
+                if (!current.isEmpty()) {
+                    sessions.add(current);
+                    current = new ArrayList<>();
+                }
+                continue;
+            }
+            current.add(trimmed);
+        }
+        if (!current.isEmpty()) {
+            sessions.add(current);
+        }
+        if (sessions.isEmpty()) {
+            throw new IllegalArgumentException("No sessions in " + file);
+        }
+        return sessions;
+    }
+    
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+            options.put(name, hasValue ? args[++i] : "true");
+        }
+        return options;
+    }
+    
+    // Value of a top-level string field of a JSON object, or null
+    static String stringField(String json, String field) {
+        int at = json.indexOf("\"" + field + "\"");
+        if (at < 0) {
+            return null;
+        }
+        int start = json.indexOf('"', json.indexOf(':', at + field.length() + 2) + 1);
+        if (start < 0) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder();
+        for (int i = start + 1; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c == '\\' && i + 1 < json.length()) {
+                char escaped = json.charAt(++i);
+                switch (escaped) {
+                    case 'n' -> value.append('\n');
+                    case 't' -> value.append('\t');
+                    case 'r' -> value.append('\r');
+                    case 'u' -> {
+                        value.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    default -> value.append(escaped);
+                }
+                continue;
+            }
+            value.append(c);
+        }
+        return null;
+    }
+    
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
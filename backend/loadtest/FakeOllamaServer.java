@@ -0,0 +1,437 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for Ollama when load-testing the backend
+ * Serves /api/generate (streaming and non-streaming), /api/embeddings, /api/embed and /api/tags with
+ * configurable latency and token rate. Outputs are deterministic: the same prompt always produces the
+ * same text, and embeddings are bag-of-words hashes, so similar texts get similar vectors (the answer
+ * cache and retrieval behave as they would with a real model). Latencies are drawn from a seeded random
+ * source. JDK only; run with: java backend/loadtest/FakeOllamaServer.java [options]
+ *
+ * Options (latencies in ms; distributions are fixed:X, uniform:A-B or lognormal:MEDIAN,SIGMA):
+ *   --port 11435                  port to listen on
+ *   --seed 42                     seed for latencies and generated text
+ *   --ttft lognormal:300,0.5      time to first token of a generation (includes prompt evaluation)
+ *   --tokens-per-sec 40           generation speed; 0 answers instantly
+ *   --response-tokens uniform:30-90  length of generated responses in tokens
+ *   --embed-latency fixed:15      latency of one embedding request
+ *   --parallel 0                  generations served at once, like OLLAMA_NUM_PARALLEL; others queue (0 = unlimited)
+ *   --error-rate 0                fraction of requests answered with HTTP 500
+ *   --dimension 768               embedding dimension
+ */
+public class FakeOllamaServer {
+    
+    private static final String[] WORDS = {
+        "thanks", "for", "reaching", "out", "I", "can", "help", "you", "with", "that", "your", "order", "account",
+        "please", "check", "the", "settings", "page", "and", "try", "again", "it", "looks", "like", "we", "have",
+        "updated", "refund", "shipping", "password", "reset", "link", "email", "support", "team", "will", "follow",
+        "up", "shortly", "is", "there", "anything", "else", "today", "our", "records", "show", "a", "delay", "on",
+        "this", "request", "should", "arrive", "within", "two", "business", "days", "let", "me", "know", "if"
+    };
+    
+    private final Random random;
+    private final long seed;
+    private final Distribution ttft;
+    private final double tokensPerSecond;
+    private final Distribution responseTokens;
+    private final Distribution embedLatency;
+    private final Semaphore generationSlots;
+    private final double errorRate;
+    private final int dimension;
+    
+    private final AtomicLong generateRequests = new AtomicLong();
+    private final AtomicLong streamRequests = new AtomicLong();
+    private final AtomicLong embeddingRequests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong activeGenerations = new AtomicLong();
+    private final AtomicLong peakGenerations = new AtomicLong();
+    
+    FakeOllamaServer(Map<String, String> options) {
+        this.seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        this.random = new Random(seed);
+        this.ttft = Distribution.parse(options.getOrDefault("ttft", "lognormal:300,0.5"));
+        this.tokensPerSecond = Double.parseDouble(options.getOrDefault("tokens-per-sec", "40"));
+        this.responseTokens = Distribution.parse(options.getOrDefault("response-tokens", "uniform:30-90"));
+        this.embedLatency = Distribution.parse(options.getOrDefault("embed-latency", "fixed:15"));
+        int parallel = Integer.parseInt(options.getOrDefault("parallel", "0"));
+        this.generationSlots = parallel > 0 ? new Semaphore(parallel, true) : null;
+        this.errorRate = Double.parseDouble(options.getOrDefault("error-rate", "0"));
+        this.dimension = Integer.parseInt(options.getOrDefault("dimension", "768"));
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        int port = Integer.parseInt(options.getOrDefault("port", "11435"));
+        FakeOllamaServer fake = new FakeOllamaServer(options);
+        
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 512);
+        server.createContext("/api/generate", exchange -> fake.handle(exchange, fake::generate));
+        server.createContext("/api/embeddings", exchange -> fake.handle(exchange, fake::embeddings));
+        server.createContext("/api/embed", exchange -> fake.handle(exchange, fake::embed));
+        server.createContext("/api/tags", exchange -> fake.handle(exchange, (ex, body) ->
+            fake.respond(ex, 200, "{\"models\":[{\"name\":\"llama3.2:3b\"},{\"name\":\"nomic-embed-text\"}]}")));
+        server.createContext("/fake/stats", exchange -> fake.handle(exchange, (ex, body) -> fake.respond(ex, 200, fake.stats())));
+        // One virtual thread per request, so slow fake generations never limit concurrency on this side
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        System.out.println("Fake Ollama listening on http://localhost:" + port + " " + options);
+        System.out.println("Start the backend with OLLAMA_BASE_URL=http://localhost:" + port);
+    }
+    
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, Object> body) throws Exception;
+    }
+    
+    private void handle(HttpExchange exchange, Handler handler) {
+        try (exchange) {
+            Map<String, Object> body = Map.of();
+            if ("POST".equals(exchange.getRequestMethod())) {
+                Object parsed = new Json(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).parse();
+                if (parsed instanceof Map<?, ?> map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> object = (Map<String, Object>) map;
+                    body = object;
+                }
+            }
+            if (errorRate > 0 && nextDouble() < errorRate && exchange.getRequestURI().getPath().startsWith("/api/")
+                    && !exchange.getRequestURI().getPath().equals("/api/tags")) {
+                injectedErrors.incrementAndGet();
+                respond(exchange, 500, "{\"error\":\"injected failure\"}");
+                return;
+            }
+            handler.handle(exchange, body);
+        } catch (Exception e) {
+            System.err.println("Fake Ollama: " + exchange.getRequestURI() + " failed: " + e);
+        }
+    }
+    
+    private void generate(HttpExchange exchange, Map<String, Object> body) throws Exception {
+        String prompt = String.valueOf(body.getOrDefault("prompt", ""));
+        boolean stream = !Boolean.FALSE.equals(body.get("stream"));
+        (stream ? streamRequests : generateRequests).incrementAndGet();
+        
+        long contextLength = body.get("context") instanceof List<?> context ? context.size() : 0;
+        int promptTokens = countTokens(prompt);
+        List<String> tokens = generateTokens(prompt);
+        
+        if (generationSlots != null) {
+            generationSlots.acquire();
+        }
+        try {
+            long active = activeGenerations.incrementAndGet();
+            peakGenerations.accumulateAndGet(active, Math::max);
+            long started = System.nanoTime();
+            Thread.sleep(sample(ttft));
+            long tokenDelay = tokensPerSecond > 0 ? Math.round(1000 / tokensPerSecond) : 0;
+            
+            if (!stream) {
+                Thread.sleep(tokenDelay * tokens.size());
+                String text = String.join("", tokens);
+                respond(exchange, 200, "{\"model\":\"llama3.2:3b\",\"response\":" + Json.quote(text)
+                    + ",\"done\":true" + doneFields(contextLength, promptTokens, tokens.size(), started) + "}");
+                return;
+            }
+            
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (i > 0) {
+                    Thread.sleep(tokenDelay);
+                }
+                out.write(("{\"model\":\"llama3.2:3b\",\"response\":" + Json.quote(tokens.get(i)) + ",\"done\":false}\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            out.write(("{\"model\":\"llama3.2:3b\",\"response\":\"\",\"done\":true"
+                + doneFields(contextLength, promptTokens, tokens.size(), started) + "}\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } finally {
+            activeGenerations.decrementAndGet();
+            if (generationSlots != null) {
+                generationSlots.release();
+            }
+        }
+    }
+    
+    // Context grows like Ollama's: the previous context plus this prompt and answer, as token ids
+    private String doneFields(long contextLength, int promptTokens, int evalTokens, long startedNanos) {
+        long length = Math.min(contextLength + promptTokens + evalTokens, 8192);
+        StringBuilder fields = new StringBuilder(",\"context\":[");
+        for (long i = 0; i < length; i++) {
+            if (i > 0) {
+                fields.append(',');
+            }
+            fields.append((i * 7919 + seed) % 32000);
+        }
+        fields.append("],\"prompt_eval_count\":").append(promptTokens)
+            .append(",\"eval_count\":").append(evalTokens)
+            .append(",\"total_duration\":").append(System.nanoTime() - startedNanos);
+        return fields.toString();
+    }
+    
+    private void embeddings(HttpExchange exchange, Map<String, Object> body) throws Exception {
+        embeddingRequests.incrementAndGet();
+        Thread.sleep(sample(embedLatency));
+        respond(exchange, 200, "{\"embedding\":" + vectorJson(String.valueOf(body.getOrDefault("prompt", ""))) + "}");
+    }
+    
+    private void embed(HttpExchange exchange, Map<String, Object> body) throws Exception {
+        embeddingRequests.incrementAndGet();
+        Object input = body.getOrDefault("input", "");
+        List<?> inputs = input instanceof List<?> list ? list : List.of(input);
+        Thread.sleep(sample(embedLatency));
+        StringBuilder json = new StringBuilder("{\"model\":\"nomic-embed-text\",\"embeddings\":[");
+        for (int i = 0; i < inputs.size(); i++) {
+            json.append(i > 0 ? "," : "").append(vectorJson(String.valueOf(inputs.get(i))));
+        }
+        respond(exchange, 200, json.append("]}").toString());
+    }
+    
+    // Bag of words hashed into the vector and normalized: texts sharing words point the same way
+    private String vectorJson(String text) {
+        double[] vector = new double[dimension];
+        for (String word : text.toLowerCase().split("[^a-z0-9]+")) {
+            if (!word.isEmpty()) {
+                int hash = word.hashCode() * 31 + (int) seed;
+                vector[Math.floorMod(hash, dimension)] += (hash & 1) == 0 ? 1 : -1;
+            }
+        }
+        double norm = 0;
+        for (double value : vector) {
+            norm += value * value;
+        }
+        norm = norm > 0 ? Math.sqrt(norm) : 1;
+        StringBuilder json = new StringBuilder(dimension * 4).append('[');
+        for (int i = 0; i < dimension; i++) {
+            json.append(i > 0 ? "," : "").append((float) (vector[i] / norm));
+        }
+        return json.append(']').toString();
+    }
+    
+    // Same prompt, same answer: the text is drawn from a generator seeded with the prompt
+    private List<String> generateTokens(String prompt) {
+        Random text = new Random(seed * 31 + prompt.hashCode());
+        int count = Math.max(1, (int) responseTokens.sample(text));
+        List<String> tokens = new ArrayList<>(count);
+        boolean sentenceStart = true;
+        for (int i = 0; i < count; i++) {
+            String word = WORDS[text.nextInt(WORDS.length)];
+            if (sentenceStart) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            sentenceStart = i == count - 1 || text.nextInt(12) == 0;
+            tokens.add((i == 0 ? "" : " ") + word + (sentenceStart ? "." : ""));
+        }
+        return tokens;
+    }
+    
+    private static int countTokens(String text) {
+        return text.length() / 4 + 1;
+    }
+    
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+    
+    private long sample(Distribution distribution) {
+        synchronized (random) {
+            return distribution.sample(random);
+        }
+    }
+    
+    private void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+    
+    private String stats() {
+        return "{\"generateRequests\":" + generateRequests.get()
+            + ",\"streamRequests\":" + streamRequests.get()
+            + ",\"embeddingRequests\":" + embeddingRequests.get()
+            + ",\"injectedErrors\":" + injectedErrors.get()
+            + ",\"activeGenerations\":" + activeGenerations.get()
+            + ",\"peakGenerations\":" + peakGenerations.get() + "}";
+    }
+    
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+            options.put(name, hasValue ? args[++i] : "true");
+        }
+        return options;
+    }
+    
+    /**
+     * Latency or length distribution: fixed:X, uniform:A-B or lognormal:MEDIAN,SIGMA
+     */
+    record Distribution(String kind, double a, double b) {
+        static Distribution parse(String spec) {
+            String[] parts = spec.split(":", 2);
+            String[] values = parts.length > 1 ? parts[1].split("[-,]") : new String[] {parts[0]};
+            String kind = parts.length > 1 ? parts[0] : "fixed";
+            double a = Double.parseDouble(values[0]);
+            double b = values.length > 1 ? Double.parseDouble(values[1]) : a;
+            if (!kind.equals("fixed") && !kind.equals("uniform") && !kind.equals("lognormal")) {
+                throw new IllegalArgumentException("Unknown distribution: " + spec);
+            }
+            return new Distribution(kind, a, b);
+        }
+        
+        long sample(Random random) {
+            return switch (kind) {
+                case "uniform" -> Math.round(a + random.nextDouble() * (b - a));
+                case "lognormal" -> Math.round(a * Math.exp(b * random.nextGaussian()));
+                default -> Math.round(a);
+            };
+        }
+    }
+    
+    /**
+     * Just enough JSON for request bodies: objects, arrays, strings, numbers, booleans and null
+     */
+    static class Json {
+        private final String text;
+        private int position = 0;
+        
+        Json(String text) {
+            this.text = text;
+        }
+        
+        Object parse() {
+            skipWhitespace();
+            if (position >= text.length()) {
+                return null;
+            }
+            char c = text.charAt(position);
+            if (c == '{') {
+                Map<String, Object> object = new LinkedHashMap<>();
+                position++;
+                skipWhitespace();
+                if (peek('}')) {
+                    return object;
+                }
+                do {
+                    skipWhitespace();
+                    String key = (String) parse();
+                    skipWhitespace();
+                    expect(':');
+                    object.put(key, parse());
+                    skipWhitespace();
+                } while (peek(','));
+                expect('}');
+                return object;
+            }
+            if (c == '[') {
+                List<Object> array = new ArrayList<>();
+                position++;
+                skipWhitespace();
+                if (peek(']')) {
+                    return array;
+                }
+                do {
+                    array.add(parse());
+                    skipWhitespace();
+                } while (peek(','));
+                expect(']');
+                return array;
+            }
+            if (c == '"') {
+                StringBuilder string = new StringBuilder();
+                position++;
+                while (text.charAt(position) != '"') {
+                    char next = text.charAt(position++);
+                    if (next != '\\') {
+                        string.append(next);
+                        continue;
+                    }
+                    char escaped = text.charAt(position++);
+                    switch (escaped) {
+                        case 'n' -> string.append('\n');
+                        case 't' -> string.append('\t');
+                        case 'r' -> string.append('\r');
+                        case 'b' -> string.append('\b');
+                        case 'f' -> string.append('\f');
+                        case 'u' -> {
+                            string.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                            position += 4;
+                        }
+                        default -> string.append(escaped);
+                    }
+                }
+                position++;
+                return string.toString();
+            }
+            int start = position;
+            while (position < text.length() && ",}] \t\r\n".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            return switch (literal) {
+                case "true" -> Boolean.TRUE;
+                case "false" -> Boolean.FALSE;
+                case "null" -> null;
+                default -> Double.parseDouble(literal);
+            };
+        }
+        
+        static String quote(String value) {
+            StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+            for (char c : value.toCharArray()) {
+                switch (c) {
+                    case '"' -> quoted.append("\\\"");
+                    case '\\' -> quoted.append("\\\\");
+                    case '\n' -> quoted.append("\\n");
+                    case '\r' -> quoted.append("\\r");
+                    case '\t' -> quoted.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            quoted.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            quoted.append(c);
+                        }
+                    }
+                }
+            }
+            return quoted.append('"').toString();
+        }
+        
+        private boolean peek(char c) {
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+        
+        private void expect(char c) {
+            if (!peek(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + position);
+            }
+        }
+        
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.prototype.config;
+
+import com.prototype.rag.chunking.CharacterWindowChunkingStrategy;
+import com.prototype.rag.chunking.ChunkingStrategy;
+import com.prototype.rag.chunking.DocumentChunker;
+import com.prototype.rag.chunking.SentenceChunkingStrategy;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chunking strategy configuration for RAG indexing (rag.chunking.*)
+ * The default strategy applies to every article; categories can override target size and overlap
+ */
+@Configuration
+@EnableConfigurationProperties(ChunkingConfig.ChunkingProperties.class)
+public class ChunkingConfig {
+    
+    @Bean
+    public DocumentChunker documentChunker(ChunkingProperties properties) {
+        ChunkingStrategy defaultStrategy = createStrategy(properties.getStrategy(), properties);
+        
+        Map<String, ChunkingStrategy> categoryStrategies = new HashMap<>();
+        for (Map.Entry<String, ChunkingProperties.CategorySettings> entry : properties.getCategories().entrySet()) {
+            ChunkingProperties.CategorySettings settings = entry.getValue();
+            ChunkingProperties merged = new ChunkingProperties();
+            merged.setTargetTokens(settings.getTargetTokens() != null ? settings.getTargetTokens() : properties.getTargetTokens());
+            merged.setOverlapTokens(settings.getOverlapTokens() != null ? settings.getOverlapTokens() : properties.getOverlapTokens());
+            merged.setChunkSize(properties.getChunkSize());
+            merged.setChunkOverlap(properties.getChunkOverlap());
+            String strategy = settings.getStrategy() != null ? settings.getStrategy() : properties.getStrategy();
+            categoryStrategies.put(entry.getKey().trim().toLowerCase(), createStrategy(strategy, merged));
+        }
+        
+        System.out.println("DocumentChunker configured (strategy: " + properties.getStrategy() +
+            ", target tokens: " + properties.getTargetTokens() + ", category overrides: " + categoryStrategies.keySet() + ")");
+        return new DocumentChunker(defaultStrategy, categoryStrategies);
+    }
+    
+    private ChunkingStrategy createStrategy(String name, ChunkingProperties properties) {
+        if ("window".equalsIgnoreCase(name)) {
+            return new CharacterWindowChunkingStrategy(properties.getChunkSize(), properties.getChunkOverlap());
+        }
+        return new SentenceChunkingStrategy(properties.getTargetTokens(), properties.getOverlapTokens());
+    }
+    
+    @ConfigurationProperties(prefix = "rag.chunking")
+    public static class ChunkingProperties {
+        // sentence (token-budgeted, sentence boundaries) or window (fixed character window)
+        private String strategy = "sentence";
+        private int targetTokens = 256;
+        private int overlapTokens = 32;
+        private int chunkSize = 500;
+        private int chunkOverlap = 100;
+        private Map<String, CategorySettings> categories = new HashMap<>();
+        
+        public String getStrategy() { return strategy; }
+        public void setStrategy(String strategy) { this.strategy = strategy; }
+        
+        public int getTargetTokens() { return targetTokens; }
+        public void setTargetTokens(int targetTokens) { this.targetTokens = targetTokens; }
+        
+        public int getOverlapTokens() { return overlapTokens; }
+        public void setOverlapTokens(int overlapTokens) { this.overlapTokens = overlapTokens; }
+        
+        public int getChunkSize() { return chunkSize; }
+        public void setChunkSize(int chunkSize) { this.chunkSize = chunkSize; }
+        
+        public int getChunkOverlap() { return chunkOverlap; }
+        public void setChunkOverlap(int chunkOverlap) { this.chunkOverlap = chunkOverlap; }
+        
+        public Map<String, CategorySettings> getCategories() { return categories; }
+        public void setCategories(Map<String, CategorySettings> categories) { this.categories = categories; }
+        
+        public static class CategorySettings {
+            private String strategy;
+            private Integer targetTokens;
+            private Integer overlapTokens;
+            
+            public String getStrategy() { return strategy; }
+            public void setStrategy(String strategy) { this.strategy = strategy; }
+            
+            public Integer getTargetTokens() { return targetTokens; }
+            public void setTargetTokens(Integer targetTokens) { this.targetTokens = targetTokens; }
+            
+            public Integer getOverlapTokens() { return overlapTokens; }
+            public void setOverlapTokens(Integer overlapTokens) { this.overlapTokens = overlapTokens; }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.prototype.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Thread model for blocking work (spring.threads.virtual.enabled)
+ * With virtual threads enabled, Spring Boot runs Tomcat requests, @Async and scheduled tasks on virtual
+ * threads, so blocking model, embedding and metadata calls park instead of holding a pool thread.
+ * The blocking scheduler is where the reactive AI paths run their blocking steps (JPA reads,
+ * knowledge-base search): virtual threads in that mode, Reactor's bounded elastic pool otherwise.
+ */
+@Configuration
+public class ExecutionModeConfig {
+    
+    @Bean
+    public Scheduler blockingScheduler(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            System.out.println("Execution mode: virtual threads");
+            return Schedulers.fromExecutorService(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("blocking-virtual-", 0).factory()),
+                "blocking-virtual");
+        }
+        System.out.println("Execution mode: platform threads");
+        return Schedulers.boundedElastic();
+    }
+}
@@ -0,0 +1,45 @@
+package com.prototype.config;
+
+import com.prototype.rag.storage.InMemoryVectorStore;
+import com.prototype.rag.storage.TextArena;
+import com.prototype.service.ReindexJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Readiness of the RAG vector index (health component "ragIndex")
+ * OUT_OF_SERVICE until the first background index build finishes, UP afterwards. A build that failed
+ * or left articles unindexed still counts; the details show the failures and the next retry.
+ * Later re-index jobs run on top of the warm index and do not flip it back.
+ */
+@Component("ragIndex")
+public class RAGIndexHealthIndicator implements HealthIndicator {
+    
+    @Autowired
+    private ReindexJobService reindexJobService;
+    
+    @Autowired(required = false)
+    private TextArena textArena;
+    
+    @Autowired(required = false)
+    private InMemoryVectorStore vectorStore;
+    
+    @Override
+    public Health health() {
+        Health.Builder builder = reindexJobService.isWarm() ? Health.up() : Health.outOfService();
+        builder.withDetails(reindexJobService.getStatus());
+        if (textArena != null) {
+            Map<String, Object> arena = new LinkedHashMap<>(textArena.getStats());
+            if (vectorStore != null) {
+                arena.put("referencedBytes", vectorStore.getReferencedArenaBytes());
+            }
+            builder.withDetail("textArena", arena);
+        }
+        return builder.build();
+    }
+}
@@ -1,36 +1,64 @@
 package com.prototype.config;
 
-import com.prototype.service.KnowledgeBaseService;
+import com.prototype.rag.embedding.EmbeddingProviderChangedEvent;
+import com.prototype.rag.embedding.FallbackEmbeddingService;
+import com.prototype.service.ReindexJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
 /**
  * Initialize RAG system by indexing existing articles
  * Runs after DataInitializer to ensure articles exist
+ * Indexing runs as a background job so startup does not wait for embeddings;
+ * the ragIndex health indicator reports when the index is warm
  */
 @Component
 @Order(2) // Run after DataInitializer
 public class RAGInitializer implements CommandLineRunner {
     
     @Autowired(required = false)
-    private KnowledgeBaseService knowledgeBaseService;
+    private ReindexJobService reindexJobService;
+    
+    @Autowired(required = false)
+    private FallbackEmbeddingService fallbackEmbeddingService;
     
     @Override
     public void run(String... args) throws Exception {
-        if (knowledgeBaseService != null) {
+        if (reindexJobService != null) {
             System.out.println("Initializing RAG system...");
             try {
-                knowledgeBaseService.reindexAllArticles();
-                System.out.println("RAG system initialized successfully");
+                if (fallbackEmbeddingService != null) {
+                    fallbackEmbeddingService.probe();
+                    System.out.println("RAG embedding provider: " + fallbackEmbeddingService.getActiveProvider());
+                }
+                reindexJobService.start(true);
+                System.out.println("RAG indexing started in background");
             } catch (Exception e) {
                 System.err.println("Failed to initialize RAG system: " + e.getMessage());
                 System.err.println("RAG will fall back to keyword-based search");
             }
         } else {
-            System.out.println("KnowledgeBaseService not available, skipping RAG initialization");
+            System.out.println("ReindexJobService not available, skipping RAG initialization");
+        }
+    }
+    
+    /**
+     * Re-index when the embedding provider switches at runtime
+     * Existing vectors belong to the old embedding space and would no longer match queries
+     */
+    @EventListener
+    public void onEmbeddingProviderChanged(EmbeddingProviderChangedEvent event) {
+        if (reindexJobService == null) {
+            return;
+        }
+        System.out.println("Embedding provider switched to " + event.getProvider() + " (" + event.getReason() + "), re-indexing articles...");
+        try {
+            reindexJobService.start(true);
+        } catch (Exception e) {
+            System.err.println("Failed to re-index after embedding provider change: " + e.getMessage());
         }
     }
 }
-
@@ -4,15 +4,26 @@ import com.prototype.entity.Ticket;
 import com.prototype.entity.TicketMessage;
 import com.prototype.entity.SenderType;
 import com.prototype.service.AIService;
+import com.prototype.service.ConversationContextStore;
+import com.prototype.service.ConversationSummaryService;
+import com.prototype.service.LlmRequestScheduler;
+import com.prototype.service.PromptStageTimings;
+import com.prototype.service.SemanticAnswerCache;
 import com.prototype.service.TicketService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Optional;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
 @RestController
 @RequestMapping("/ai")
 @CrossOrigin(origins = "*")
@@ -24,6 +35,24 @@ public class AIController {
     @Autowired
     private TicketService ticketService;
     
+    @Autowired(required = false)
+    private SemanticAnswerCache answerCache;
+    
+    @Autowired(required = false)
+    private ConversationContextStore contextStore;
+    
+    @Autowired
+    private Scheduler blockingScheduler;
+    
+    @Autowired
+    private LlmRequestScheduler llmScheduler;
+    
+    @Autowired
+    private PromptStageTimings promptStageTimings;
+    
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+    
     /**
      * Analyze sentiment of a message
      */
@@ -42,45 +71,145 @@ public class AIController {
      * Generate AI response for chatbot (no ticket required)
      */
     @PostMapping("/chatbot/response")
-    public ResponseEntity<Map<String, Object>> generateChatbotResponse(
+    public Mono<ResponseEntity<Map<String, Object>>> generateChatbotResponse(
             @RequestBody ChatbotRequest request) {
-        try {
-            String response = aiService.generateAgentResponseForChatbot(
+        // Returned without blocking: the request thread is released while the model generates
+        return aiService.generateAgentResponseForChatbotAsync(
+                request.getMessage(),
+                request.getConversationHistory(),
+                request.getIsActionTriggered(), // Pass flag to suppress actions
+                request.getSessionId()
+            )
+            .map(response -> {
+                // Extract action placeholders from response
+                Map<String, String> actions = aiService.extractActionPlaceholders(response);
+                
+                // If this is an action-triggered message, suppress actions to prevent loops
+                if (request.getIsActionTriggered()) {
+                    actions = new HashMap<>(); // Clear actions to prevent re-triggering
+                    System.out.println("Action-triggered message detected - suppressing actions to prevent loop");
+                }
+                
+                // Keep action placeholders in the response text - frontend will handle rendering
+                // The actions map is provided separately for the frontend to know which actions to render
+                String cleanedResponse = response.trim();
+                
+                Map<String, Object> result = new HashMap<>();
+                result.put("response", cleanedResponse);
+                result.put("actions", actions);
+                
+                return ResponseEntity.ok(result);
+            })
+            .onErrorResume(e -> {
+                System.err.println("=== ERROR IN CHATBOT CONTROLLER ===");
+                System.err.println("Error message: " + e.getMessage());
+                System.err.println("Error class: " + e.getClass().getName());
+                System.err.println("Request message: " + request.getMessage());
+                e.printStackTrace();
+                System.err.println("=== END ERROR ===");
+                Map<String, Object> result = new HashMap<>();
+                result.put("response", "I apologize, but I encountered an error. Please try again.");
+                result.put("actions", new HashMap<>());
+                return Mono.just(ResponseEntity.ok(result));
+            });
+    }
+    
+    /**
+     * Stream AI response for chatbot as Server-Sent Events
+     * "delta" events carry text as it is generated; the closing "done" event carries the final
+     * response and actions (same shape as /chatbot/response) and its response replaces the streamed text.
+     */
+    @PostMapping(value = "/chatbot/response/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Map<String, Object>>> streamChatbotResponse(@RequestBody ChatbotRequest request) {
+        return aiService.streamAgentResponseForChatbot(
                 request.getMessage(),
                 request.getConversationHistory(),
-                request.getIsActionTriggered() // Pass flag to suppress actions
-            );
-            
-            // Extract action placeholders from response
-            Map<String, String> actions = aiService.extractActionPlaceholders(response);
-            
-            // If this is an action-triggered message, suppress actions to prevent loops
-            if (request.getIsActionTriggered()) {
-                actions = new HashMap<>(); // Clear actions to prevent re-triggering
-                System.out.println("Action-triggered message detected - suppressing actions to prevent loop");
-            }
-            
-            // Keep action placeholders in the response text - frontend will handle rendering
-            // The actions map is provided separately for the frontend to know which actions to render
-            String cleanedResponse = response.trim();
-            
-            Map<String, Object> result = new HashMap<>();
-            result.put("response", cleanedResponse);
-            result.put("actions", actions);
-            
-            return ResponseEntity.ok(result);
-        } catch (Exception e) {
-            System.err.println("=== ERROR IN CHATBOT CONTROLLER ===");
-            System.err.println("Error message: " + e.getMessage());
-            System.err.println("Error class: " + e.getClass().getName());
-            System.err.println("Request message: " + request.getMessage());
-            e.printStackTrace();
-            System.err.println("=== END ERROR ===");
-            Map<String, Object> result = new HashMap<>();
-            result.put("response", "I apologize, but I encountered an error. Please try again.");
-            result.put("actions", new HashMap<>());
-            return ResponseEntity.ok(result);
+                request.getIsActionTriggered(),
+                request.getSessionId())
+            .map(event -> {
+                Map<String, Object> data = new HashMap<>();
+                if (event.isDone()) {
+                    // Action-triggered messages never carry actions, to prevent loops
+                    data.put("response", event.getText().trim());
+                    data.put("actions", request.getIsActionTriggered() ? new HashMap<>() : aiService.extractActionPlaceholders(event.getText()));
+                } else {
+                    data.put("text", event.getText());
+                }
+                return ServerSentEvent.<Map<String, Object>>builder()
+                    .event(event.getType())
+                    .data(data)
+                    .build();
+            });
+    }
+    
+    /**
+     * Semantic answer cache statistics
+     */
+    @GetMapping("/chatbot/answer-cache")
+    public ResponseEntity<Map<String, Object>> getAnswerCacheStats() {
+        if (answerCache == null) {
+            return ResponseEntity.notFound().build();
         }
+        return ResponseEntity.ok(answerCache.getStats());
+    }
+    
+    /**
+     * Drop all cached chatbot answers
+     */
+    @DeleteMapping("/chatbot/answer-cache")
+    public ResponseEntity<Map<String, Object>> clearAnswerCache() {
+        if (answerCache == null) {
+            return ResponseEntity.notFound().build();
+        }
+        answerCache.clear();
+        return ResponseEntity.ok(answerCache.getStats());
+    }
+    
+    /**
+     * Statistics of chatbot sessions continuing from stored model context
+     */
+    @GetMapping("/chatbot/context-sessions")
+    public ResponseEntity<Map<String, Object>> getContextSessionStats() {
+        if (contextStore == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(contextStore.getStats());
+    }
+    
+    /**
+     * Timing statistics of the chatbot prompt stages (rules, actions, knowledge base, answer cache)
+     */
+    @GetMapping("/chatbot/prompt-stages")
+    public ResponseEntity<Map<String, Object>> getPromptStageStats() {
+        return ResponseEntity.ok(promptStageTimings.getStats());
+    }
+    
+    /**
+     * Forget a chat session's stored context (e.g. when the customer ends the chat)
+     */
+    @DeleteMapping("/chatbot/context-sessions/{sessionId}")
+    public ResponseEntity<Void> endContextSession(@PathVariable String sessionId) {
+        if (contextStore != null) {
+            contextStore.invalidate(sessionId);
+        }
+        conversationSummaryService.forgetChatSession(sessionId);
+        return ResponseEntity.noContent().build();
+    }
+    
+    /**
+     * Counters of the rolling conversation summaries that bound prompt history
+     */
+    @GetMapping("/conversation-summaries")
+    public ResponseEntity<Map<String, Object>> getConversationSummaryStats() {
+        return ResponseEntity.ok(conversationSummaryService.getStats());
+    }
+    
+    /**
+     * Queue lengths, admissions and shed requests per priority class of the LLM request scheduler
+     */
+    @GetMapping("/llm-scheduler")
+    public ResponseEntity<Map<String, Object>> getLlmSchedulerStats() {
+        return ResponseEntity.ok(llmScheduler.getStats());
     }
     
     /**
@@ -96,35 +225,40 @@ public class AIController {
      * Generate AI response and optionally add it to the ticket
      */
     @PostMapping("/tickets/{ticketId}/generate-response")
-    public ResponseEntity<AIResponseResult> generateResponse(
+    public Mono<ResponseEntity<AIResponseResult>> generateResponse(
             @PathVariable Long ticketId,
             @RequestBody GenerateResponseRequest request) {
         
-        // Get the ticket for context
-        Optional<Ticket> ticketOpt = ticketService.getTicketById(ticketId);
-        if (ticketOpt.isEmpty()) {
-            return ResponseEntity.notFound().build();
-        }
-        
-        Ticket ticket = ticketOpt.get();
-        String context = ticket.getSubject() + ": " + ticket.getDescription();
-        
-        // Generate AI response with conversation memory using AIService
-        String aiResponse = aiService.generateResponseWithTicketContext(request.getMessage(), context, ticketId);
-        
-        // Optionally add the AI response as a message to the ticket
-        TicketMessage aiMessage = null;
-        if (request.isAddToTicket()) {
-            aiMessage = new TicketMessage();
-            aiMessage.setMessage(aiResponse);
-            aiMessage.setSenderType(SenderType.USER);
-            aiMessage.setSenderName("Customer (AI)");
-            aiMessage.setTicket(ticket);
-            
-            aiMessage = ticketService.addMessage(aiMessage);
-        }
-        
-        return ResponseEntity.ok(new AIResponseResult(aiResponse, aiMessage));
+        // Ticket reads and writes are blocking JPA calls; only the model call itself is non-blocking
+        return Mono.fromCallable(() -> ticketService.getTicketById(ticketId))
+            .subscribeOn(blockingScheduler)
+            .flatMap(ticketOpt -> {
+                if (ticketOpt.isEmpty()) {
+                    return Mono.just(ResponseEntity.notFound().<AIResponseResult>build());
+                }
+                
+                Ticket ticket = ticketOpt.get();
+                String context = ticket.getSubject() + ": " + ticket.getDescription();
+                
+                // Generate AI response with conversation memory using AIService
+                return aiService.generateResponseWithTicketContextAsync(request.getMessage(), context, ticketId)
+                    .publishOn(blockingScheduler)
+                    .map(aiResponse -> {
+                        // Optionally add the AI response as a message to the ticket
+                        TicketMessage aiMessage = null;
+                        if (request.isAddToTicket()) {
+                            aiMessage = new TicketMessage();
+                            aiMessage.setMessage(aiResponse);
+                            aiMessage.setSenderType(SenderType.USER);
+                            aiMessage.setSenderName("Customer (AI)");
+                            aiMessage.setTicket(ticket);
+                            
+                            aiMessage = ticketService.addMessage(aiMessage);
+                        }
+                        
+                        return ResponseEntity.ok(new AIResponseResult(aiResponse, aiMessage));
+                    });
+            });
     }
     
     // Request/Response classes
@@ -159,6 +293,7 @@ public class AIController {
         private String message;
         private String conversationHistory;
         private Boolean isActionTriggered = false; // Flag to indicate this is from an action, not a user message
+        private String sessionId; // Optional chat session id; lets later turns reuse the model's context
         
         public String getMessage() { return message; }
         public void setMessage(String message) { this.message = message; }
@@ -168,5 +303,8 @@ public class AIController {
         
         public Boolean getIsActionTriggered() { return isActionTriggered != null && isActionTriggered; }
         public void setIsActionTriggered(Boolean isActionTriggered) { this.isActionTriggered = isActionTriggered; }
+        
+        public String getSessionId() { return sessionId; }
+        public void setSessionId(String sessionId) { this.sessionId = sessionId; }
     }
 }
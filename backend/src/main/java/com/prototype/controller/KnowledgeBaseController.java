@@ -2,7 +2,9 @@ package com.prototype.controller;
 
 import com.prototype.entity.Article;
 import com.prototype.entity.Category;
+import com.prototype.rag.indexing.AutocompleteIndex;
 import com.prototype.service.KnowledgeBaseService;
+import com.prototype.service.ReindexJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -18,6 +20,9 @@ public class KnowledgeBaseController {
     @Autowired
     private KnowledgeBaseService knowledgeBaseService;
     
+    @Autowired
+    private ReindexJobService reindexJobService;
+    
     // Category endpoints
     @GetMapping("/categories")
     public ResponseEntity<List<Category>> getAllCategories() {
@@ -115,5 +120,45 @@ public class KnowledgeBaseController {
         }
         return ResponseEntity.ok(knowledgeBaseService.searchArticles(query));
     }
+    
+    // Search-box suggestions; served from the autocomplete index, never from a full search
+    @GetMapping("/suggest")
+    public ResponseEntity<Map<String, Object>> suggest(
+            @RequestParam(name = "q", defaultValue = "") String prefix,
+            @RequestParam(defaultValue = "8") int limit) {
+        List<AutocompleteIndex.Suggestion> suggestions = knowledgeBaseService.suggest(prefix, Math.max(1, Math.min(limit, 20)));
+        return ResponseEntity.ok(Map.of("query", prefix, "suggestions", suggestions));
+    }
+    
+    // Vector index maintenance endpoints
+    @PostMapping("/index/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildIndex(@RequestParam(defaultValue = "true") boolean full) {
+        return ResponseEntity.accepted().body(reindexJobService.start(full));
+    }
+    
+    @GetMapping("/index/status")
+    public ResponseEntity<Map<String, Object>> getIndexStatus() {
+        return ResponseEntity.ok(reindexJobService.getStatus());
+    }
+    
+    @GetMapping("/index/queue")
+    public ResponseEntity<Map<String, Object>> getIndexQueueStatus() {
+        return ResponseEntity.ok(knowledgeBaseService.getIndexQueueStatus());
+    }
+    
+    @PostMapping("/index/cancel")
+    public ResponseEntity<Map<String, Object>> cancelReindex() {
+        return ResponseEntity.ok(reindexJobService.cancel());
+    }
+    
+    @GetMapping("/index/reduction-report")
+    public ResponseEntity<Map<String, Object>> getReductionRecallReport(
+            @RequestParam(defaultValue = "10") int k,
+            @RequestParam(defaultValue = "200") int queries) {
+        try {
+            return ResponseEntity.ok(knowledgeBaseService.getReductionRecallReport(k, queries));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage(), "message", e.getMessage()));
+        }
+    }
 }
-
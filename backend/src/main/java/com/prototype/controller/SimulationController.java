@@ -3,8 +3,10 @@ package com.prototype.controller;
 import com.prototype.entity.SimulationResult;
 import com.prototype.entity.Ticket;
 import com.prototype.repository.TicketRepository;
+import com.prototype.service.LlmRequestScheduler;
 import com.prototype.service.SimulationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -84,6 +86,10 @@ public class SimulationController {
             response.setResults(results.stream().map(this::toResultMap).collect(Collectors.toList()));
             
             return ResponseEntity.ok(response);
+        } catch (LlmRequestScheduler.LlmOverloadedException e) {
+            // Results simulated before the batch queue filled up are already saved under the run
+            System.err.println("Simulation run stopped: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().build();
@@ -105,6 +111,9 @@ public class SimulationController {
             result = simulationService.saveResult(result);
             
             return ResponseEntity.ok(toResultMap(result));
+        } catch (LlmRequestScheduler.LlmOverloadedException e) {
+            System.err.println("Simulation stopped: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().build();
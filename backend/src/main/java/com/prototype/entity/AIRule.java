@@ -23,6 +23,10 @@ public class AIRule {
     @Column(name = "display_order", nullable = false)
     private Integer displayOrder; // Order within the category
     
+    // False keeps chatbot answers out of the semantic answer cache while this rule is in place
+    @Column(name = "cache_answers")
+    private Boolean cacheAnswers = true;
+    
     @Column(name = "created_at")
     private LocalDateTime createdAt;
     
@@ -61,6 +65,9 @@ public class AIRule {
     public Integer getDisplayOrder() { return displayOrder; }
     public void setDisplayOrder(Integer displayOrder) { this.displayOrder = displayOrder; }
     
+    public Boolean getCacheAnswers() { return cacheAnswers; }
+    public void setCacheAnswers(Boolean cacheAnswers) { this.cacheAnswers = cacheAnswers; }
+    
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
     
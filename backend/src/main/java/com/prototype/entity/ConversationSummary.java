@@ -0,0 +1,75 @@
+package com.prototype.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Running summary of the older part of a ticket's conversation.
+ * Covers the first summarizedMessages messages of the ticket (in creation order); the last of them
+ * is lastMessageId, which tells whether the summary still matches the ticket's history.
+ */
+@Entity
+@Table(name = "conversation_summaries")
+public class ConversationSummary {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "ticket_id", nullable = false, unique = true)
+    private Long ticketId;
+    
+    @Column(name = "summary", columnDefinition = "TEXT", nullable = false)
+    private String summary;
+    
+    @Column(name = "summarized_messages", nullable = false)
+    private Integer summarizedMessages;
+    
+    @Column(name = "last_message_id")
+    private Long lastMessageId;
+    
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+    
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+    
+    // Constructors
+    public ConversationSummary() {
+        this.summary = "";
+        this.summarizedMessages = 0;
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = LocalDateTime.now();
+    }
+    
+    public ConversationSummary(Long ticketId) {
+        this();
+        this.ticketId = ticketId;
+    }
+    
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    
+    public Long getTicketId() { return ticketId; }
+    public void setTicketId(Long ticketId) { this.ticketId = ticketId; }
+    
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+    
+    public Integer getSummarizedMessages() { return summarizedMessages; }
+    public void setSummarizedMessages(Integer summarizedMessages) { this.summarizedMessages = summarizedMessages; }
+    
+    public Long getLastMessageId() { return lastMessageId; }
+    public void setLastMessageId(Long lastMessageId) { this.lastMessageId = lastMessageId; }
+    
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    
+    @PreUpdate
+    public void preUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
+}
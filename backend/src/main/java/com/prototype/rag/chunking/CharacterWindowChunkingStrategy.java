@@ -0,0 +1,74 @@
+package com.prototype.rag.chunking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size character window chunking with overlap, breaking at word boundaries
+ */
+public class CharacterWindowChunkingStrategy implements ChunkingStrategy {
+    
+    private final int chunkSize;
+    private final int chunkOverlap;
+    
+    public CharacterWindowChunkingStrategy(int chunkSize, int chunkOverlap) {
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+    }
+    
+    /**
+     * Cut chunks while streaming
+     * Only a window of about chunkSize characters of clean text is held at once
+     */
+    @Override
+    public List<String> chunk(HtmlTextReader source) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder window = new StringBuilder(chunkSize + 1);
+        boolean exhausted = false;
+        
+        while (true) {
+            // Fill one char past the chunk limit so a space right at the limit is found
+            while (!exhausted && window.length() <= chunkSize) {
+                int c = source.read();
+                if (c == -1) {
+                    exhausted = true;
+                } else {
+                    window.append((char) c);
+                }
+            }
+            if (window.length() == 0) {
+                break;
+            }
+            
+            boolean atEnd = exhausted && window.length() <= chunkSize;
+            int end = Math.min(chunkSize, window.length());
+            
+            // Try to break at word boundary
+            if (!atEnd) {
+                // Look for the last space before the chunk size limit
+                int lastSpace = window.lastIndexOf(" ", end);
+                if (lastSpace > 0) {
+                    end = lastSpace;
+                }
+            }
+            
+            String chunk = window.substring(0, end).trim();
+            if (!chunk.isEmpty()) {
+                chunks.add(chunk);
+            }
+            
+            if (atEnd) {
+                break;
+            }
+            
+            // Move start position with overlap, always making progress
+            int next = end - chunkOverlap;
+            if (next <= 0) {
+                next = end;
+            }
+            window.delete(0, next);
+        }
+        
+        return chunks;
+    }
+}
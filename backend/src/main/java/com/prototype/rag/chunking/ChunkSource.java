@@ -0,0 +1,59 @@
+package com.prototype.rag.chunking;
+
+/**
+ * Per-article record shared by all of the article's chunks
+ * Holds the title, category and cleaned text once; chunks reference it with offsets
+ * instead of each carrying its own copies. Subclasses may keep the text outside the heap,
+ * in which case offsets are in their own units (e.g. UTF-8 bytes).
+ */
+public class ChunkSource {
+
+    public static final ChunkSource EMPTY = new ChunkSource(null, null, "");
+
+    private final String title;
+    private final String category;
+    private final String text;
+
+    public ChunkSource(String title, String category, String text) {
+        this.title = title;
+        this.category = category;
+        this.text = text != null ? text : "";
+    }
+
+    /**
+     * For sources that store their text elsewhere and override length() and slice()
+     */
+    protected ChunkSource(String title, String category) {
+        this.title = title;
+        this.category = category;
+        this.text = null;
+    }
+
+    public String getTitle() { return title; }
+    public String getCategory() { return category; }
+
+    /**
+     * Length of the text in offset units
+     */
+    public int length() {
+        return text.length();
+    }
+
+    /**
+     * Text between two offsets
+     */
+    public String slice(int start, int end) {
+        return text.substring(start, end);
+    }
+
+    /**
+     * The whole text (materialised if it is not held on the heap)
+     */
+    public String getText() {
+        return slice(0, length());
+    }
+
+    public boolean isOffHeap() {
+        return false;
+    }
+}
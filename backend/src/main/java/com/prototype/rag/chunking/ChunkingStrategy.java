@@ -0,0 +1,16 @@
+package com.prototype.rag.chunking;
+
+import java.util.List;
+
+/**
+ * Strategy for cutting clean article text into chunks
+ */
+public interface ChunkingStrategy {
+    
+    /**
+     * Chunk the text produced by a reader
+     * @param source Clean text stream (HTML already stripped, whitespace normalized)
+     * @return List of text chunks
+     */
+    List<String> chunk(HtmlTextReader source);
+}
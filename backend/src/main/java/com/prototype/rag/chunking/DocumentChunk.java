@@ -1,32 +1,35 @@
 package com.prototype.rag.chunking;
 
-import java.util.List;
-
 /**
  * Represents a chunk of a document with its embedding
+ * Title, category and text live in a ChunkSource shared by the article's chunks; the chunk only
+ * keeps its offsets into the source text and materialises its content when asked.
  */
 public class DocumentChunk {
     private String id;
     private Long articleId;
-    private String title;
-    private String content;
+    // Swapped as one reference so readers never see a new source with old offsets
+    private volatile Span span = new Span(ChunkSource.EMPTY, 0, 0, 0);
     private int chunkIndex;
     private int totalChunks;
-    private List<Float> embedding;
-    private String category;
+    private float[] embedding;
+    private String contentHash;
+    private long simHash;
+    // Set on a near-duplicate of another article's chunk; such chunks carry no embedding of their own
+    private DocumentChunk duplicateOf;
+    // Other articles whose near-duplicate chunks point at this one
+    private java.util.Set<Long> duplicateArticleIds = java.util.Set.of();
     
     public DocumentChunk() {}
     
     public DocumentChunk(String id, Long articleId, String title, String content, 
-                        int chunkIndex, int totalChunks, List<Float> embedding, String category) {
+                        int chunkIndex, int totalChunks, float[] embedding, String category) {
         this.id = id;
         this.articleId = articleId;
-        this.title = title;
-        this.content = content;
+        this.span = Span.of(new ChunkSource(title, category, content));
         this.chunkIndex = chunkIndex;
         this.totalChunks = totalChunks;
         this.embedding = embedding;
-        this.category = category;
     }
     
     // Getters and Setters
@@ -36,11 +39,68 @@ public class DocumentChunk {
     public Long getArticleId() { return articleId; }
     public void setArticleId(Long articleId) { this.articleId = articleId; }
     
-    public String getTitle() { return title; }
-    public void setTitle(String title) { this.title = title; }
+    public String getTitle() { return span.source.getTitle(); }
+    public void setTitle(String title) {
+        // Detaches from the shared source so sibling chunks keep theirs
+        span = Span.of(new ChunkSource(title, getCategory(), getContent()));
+    }
+    
+    /**
+     * Chunk text, cut from the shared source text on each call
+     */
+    public String getContent() {
+        Span current = span;
+        return current.source.slice(current.start, current.end);
+    }
+    
+    /**
+     * Give this chunk its own copy of the text (detached from any shared source)
+     */
+    public void setContent(String content) {
+        Span current = span;
+        span = Span.of(new ChunkSource(current.source.getTitle(), current.source.getCategory(), content));
+    }
+    
+    /**
+     * Length of the content in characters, wherever the source keeps its text
+     */
+    public int getContentLength() {
+        return span.length;
+    }
+    
+    /**
+     * Up to maxLength characters of the content, with "..." if cut
+     */
+    public String getContentPreview(int maxLength) {
+        String content = getContent();
+        return content.length() > maxLength ? content.substring(0, maxLength) + "..." : content;
+    }
+    
+    public ChunkSource getSource() { return span.source; }
+    public int getStart() { return span.start; }
+    public int getEnd() { return span.end; }
     
-    public String getContent() { return content; }
-    public void setContent(String content) { this.content = content; }
+    /**
+     * Point this chunk at a range of a shared source text
+     * @param source The article's shared record
+     * @param start Start offset of the chunk in the source text
+     * @param end End offset (exclusive)
+     */
+    public void setSpan(ChunkSource source, int start, int end) {
+        // Offsets of an off-heap source are not characters; decode once to learn the length
+        setSpan(source, start, end, source.isOffHeap() ? source.slice(start, end).length() : end - start);
+    }
+    
+    /**
+     * Point this chunk at a range of a shared source text whose character length is already known
+     * @param contentLength Length of the range in characters (differs from end - start for off-heap sources)
+     */
+    public void setSpan(ChunkSource source, int start, int end, int contentLength) {
+        if (start < 0 || end > source.length() || start > end) {
+            throw new IllegalArgumentException("Chunk offsets out of range: " + start + ".." + end);
+        }
+        this.span = new Span(source, start, end, contentLength);
+    }
     
     public int getChunkIndex() { return chunkIndex; }
     public void setChunkIndex(int chunkIndex) { this.chunkIndex = chunkIndex; }
@@ -48,10 +108,46 @@ public class DocumentChunk {
     public int getTotalChunks() { return totalChunks; }
     public void setTotalChunks(int totalChunks) { this.totalChunks = totalChunks; }
     
-    public List<Float> getEmbedding() { return embedding; }
-    public void setEmbedding(List<Float> embedding) { this.embedding = embedding; }
+    public float[] getEmbedding() { return embedding; }
+    public void setEmbedding(float[] embedding) { this.embedding = embedding; }
+    
+    public String getCategory() { return span.source.getCategory(); }
+    public void setCategory(String category) {
+        // Detaches from the shared source so sibling chunks keep theirs
+        span = Span.of(new ChunkSource(getTitle(), category, getContent()));
+    }
+    
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+    
+    public long getSimHash() { return simHash; }
+    public void setSimHash(long simHash) { this.simHash = simHash; }
     
-    public String getCategory() { return category; }
-    public void setCategory(String category) { this.category = category; }
+    public DocumentChunk getDuplicateOf() { return duplicateOf; }
+    public void setDuplicateOf(DocumentChunk duplicateOf) { this.duplicateOf = duplicateOf; }
+    
+    public boolean isDuplicate() { return duplicateOf != null; }
+    
+    public java.util.Set<Long> getDuplicateArticleIds() { return duplicateArticleIds; }
+    public void setDuplicateArticleIds(java.util.Set<Long> duplicateArticleIds) { this.duplicateArticleIds = duplicateArticleIds; }
+    
+    private static final class Span {
+        final ChunkSource source;
+        final int start;
+        final int end;
+        // In characters, so length thresholds mean the same before and after the text moves off-heap
+        final int length;
+        
+        Span(ChunkSource source, int start, int end, int length) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            this.length = length;
+        }
+        
+        static Span of(ChunkSource source) {
+            // Only built from on-heap sources, whose offsets are characters
+            return new Span(source, 0, source.length(), source.length());
+        }
+    }
 }
-
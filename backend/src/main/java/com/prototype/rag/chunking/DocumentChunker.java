@@ -1,7 +1,13 @@
 package com.prototype.rag.chunking;
 
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service for chunking documents into smaller pieces for better retrieval
@@ -11,16 +17,24 @@ public class DocumentChunker {
     private static final int DEFAULT_CHUNK_SIZE = 500;
     private static final int DEFAULT_CHUNK_OVERLAP = 100;
     
-    private final int chunkSize;
-    private final int chunkOverlap;
+    private final ChunkingStrategy defaultStrategy;
+    private final Map<String, ChunkingStrategy> categoryStrategies;
     
     public DocumentChunker() {
         this(DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_OVERLAP);
     }
     
     public DocumentChunker(int chunkSize, int chunkOverlap) {
-        this.chunkSize = chunkSize;
-        this.chunkOverlap = chunkOverlap;
+        this(new CharacterWindowChunkingStrategy(chunkSize, chunkOverlap), Map.of());
+    }
+    
+    /**
+     * @param defaultStrategy Strategy for articles without a category override
+     * @param categoryStrategies Per-category strategies, keyed by lower-cased category name
+     */
+    public DocumentChunker(ChunkingStrategy defaultStrategy, Map<String, ChunkingStrategy> categoryStrategies) {
+        this.defaultStrategy = defaultStrategy;
+        this.categoryStrategies = categoryStrategies;
     }
     
     /**
@@ -29,47 +43,37 @@ public class DocumentChunker {
      * @return List of text chunks
      */
     public List<String> chunkText(String text) {
+        return chunkText(text, null);
+    }
+    
+    /**
+     * Chunk a document using the strategy configured for its category
+     * @param text The text to chunk
+     * @param category The article category (optional)
+     * @return List of text chunks
+     */
+    public List<String> chunkText(String text, String category) {
         if (text == null || text.trim().isEmpty()) {
             return List.of();
         }
-        
-        // Strip HTML and normalize whitespace
-        String cleanText = text.replaceAll("<[^>]*>", " ")
-                              .replaceAll("\\s+", " ")
-                              .trim();
-        
-        if (cleanText.length() <= chunkSize) {
-            return List.of(cleanText);
-        }
-        
-        List<String> chunks = new ArrayList<>();
-        int start = 0;
-        
-        while (start < cleanText.length()) {
-            int end = Math.min(start + chunkSize, cleanText.length());
-            
-            // Try to break at word boundary
-            if (end < cleanText.length()) {
-                // Look for the last space before the chunk size limit
-                int lastSpace = cleanText.lastIndexOf(' ', end);
-                if (lastSpace > start) {
-                    end = lastSpace;
-                }
-            }
-            
-            String chunk = cleanText.substring(start, end).trim();
-            if (!chunk.isEmpty()) {
-                chunks.add(chunk);
-            }
-            
-            // Move start position with overlap
-            start = end - chunkOverlap;
-            if (start <= 0) {
-                start = end;
-            }
+        return strategyFor(category).chunk(new HtmlTextReader(text));
+    }
+    
+    /**
+     * Chunk a document read from a stream, e.g. a large imported manual
+     * @param reader Source of HTML or plain text
+     * @param category The article category (optional)
+     * @return List of text chunks
+     */
+    public List<String> chunkText(Reader reader, String category) {
+        return strategyFor(category).chunk(new HtmlTextReader(reader));
+    }
+    
+    private ChunkingStrategy strategyFor(String category) {
+        if (category == null || categoryStrategies.isEmpty()) {
+            return defaultStrategy;
         }
-        
-        return chunks;
+        return categoryStrategies.getOrDefault(category.trim().toLowerCase(), defaultStrategy);
     }
     
     /**
@@ -81,23 +85,63 @@ public class DocumentChunker {
      * @return List of DocumentChunk objects
      */
     public List<DocumentChunk> chunkArticle(Long articleId, String title, String content, String category) {
-        List<String> textChunks = chunkText(content);
+        // Capture the clean text while chunking; chunks become offsets into this one shared copy
+        StringBuilder cleanText = new StringBuilder(content != null ? content.length() : 0);
+        List<String> textChunks = content == null || content.trim().isEmpty()
+            ? List.of()
+            : strategyFor(category).chunk(new HtmlTextReader(content, cleanText));
+        ChunkSource source = new ChunkSource(title, category, cleanText.toString());
+        String text = source.getText();
         List<DocumentChunk> chunks = new ArrayList<>();
+        int searchFrom = 0;
         
+        // Chunk IDs are content-addressed so an unchanged chunk keeps its ID when neighbours change
+        Map<String, Integer> occurrences = new HashMap<>();
         for (int i = 0; i < textChunks.size(); i++) {
-            String chunkId = articleId + "_chunk_" + i;
+            String hash = contentHash(textChunks.get(i));
+            int occurrence = occurrences.merge(hash, 1, Integer::sum) - 1;
+            String chunkId = articleId + "_chunk_" + hash + (occurrence > 0 ? "_" + occurrence : "");
             DocumentChunk chunk = new DocumentChunk();
             chunk.setId(chunkId);
+            chunk.setContentHash(hash);
+            chunk.setSimHash(SimHash.of(textChunks.get(i)));
             chunk.setArticleId(articleId);
-            chunk.setTitle(title);
-            chunk.setContent(textChunks.get(i));
+            // Chunks are in text order and only overlap forwards, so each search starts after the previous chunk's start
+            int start = text.indexOf(textChunks.get(i), searchFrom);
+            if (start < 0) {
+                start = text.indexOf(textChunks.get(i));
+            }
+            if (start >= 0) {
+                chunk.setSpan(source, start, start + textChunks.get(i).length());
+                searchFrom = start + 1;
+            } else {
+                // Not a verbatim slice of the clean text (custom strategy) - keep a private copy
+                chunk.setSpan(new ChunkSource(title, category, textChunks.get(i)), 0, textChunks.get(i).length());
+            }
             chunk.setChunkIndex(i);
             chunk.setTotalChunks(textChunks.size());
-            chunk.setCategory(category);
             chunks.add(chunk);
         }
         
         return chunks;
     }
+    
+    /**
+     * Stable hash of chunk text, used to detect unchanged chunks across re-indexing
+     * @param text Chunk text
+     * @return First 64 bits of the SHA-256 digest as hex
+     */
+    public static String contentHash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
 }
-
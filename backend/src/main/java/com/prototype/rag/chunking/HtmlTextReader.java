@@ -0,0 +1,168 @@
+package com.prototype.rag.chunking;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+/**
+ * Single-pass HTML-to-text reader
+ * Drops tags, collapses every whitespace run (and every tag) to one space and trims both ends,
+ * like replaceAll("<[^>]*>", " ").replaceAll("\\s+", " ").trim() but without materialising
+ * intermediate copies of the document. A '<' only starts a tag when followed by a letter, '/', '!'
+ * or '?' and closed by '>' within MAX_TAG_LENGTH characters; otherwise it is kept as text, so
+ * "timeout < 30 seconds" or "a<b" survive.
+ */
+public class HtmlTextReader {
+    
+    // Longest tag looked for before a '<' is treated as text (generous for inline styles and data URIs)
+    static final int MAX_TAG_LENGTH = 64 * 1024;
+    
+    private final CharSequence text;
+    private final Reader reader;
+    private int position = 0;
+    private int pushedBack = -1;
+    // Characters read while looking for the end of a tag that turned out to be text, read again next
+    private StringBuilder replay;
+    private int replayPosition = 0;
+    
+    private boolean pendingSpace = false;
+    private boolean emittedAny = false;
+    // Optional copy of everything read, so callers can keep the clean text without a second pass
+    private final StringBuilder capture;
+    
+    public HtmlTextReader(CharSequence text) {
+        this(text, null);
+    }
+    
+    /**
+     * @param text HTML (or plain) text
+     * @param capture Receives every character returned by read() (optional)
+     */
+    public HtmlTextReader(CharSequence text, StringBuilder capture) {
+        this.text = text;
+        this.reader = null;
+        this.capture = capture;
+    }
+    
+    public HtmlTextReader(Reader reader) {
+        this.text = null;
+        this.reader = reader;
+        this.capture = null;
+    }
+    
+    /**
+     * Strip HTML and normalize whitespace in one pass
+     * @param html HTML (or plain) text, may be null
+     * @return Clean text, empty string for null input
+     */
+    public static String toPlainText(CharSequence html) {
+        if (html == null) {
+            return "";
+        }
+        HtmlTextReader source = new HtmlTextReader(html);
+        StringBuilder out = new StringBuilder(html.length());
+        int c;
+        while ((c = source.read()) != -1) {
+            out.append((char) c);
+        }
+        return out.toString();
+    }
+    
+    /**
+     * Read the next character of clean text
+     * @return The character, or -1 at end of input
+     */
+    public int read() {
+        while (true) {
+            // A pushed back character has already been read as text
+            boolean pushed = pushedBack != -1;
+            int c = rawRead();
+            if (c == -1) {
+                // Trailing whitespace is dropped (trim)
+                return -1;
+            }
+            if (c == '<' && !pushed && skipTag()) {
+                pendingSpace = emittedAny;
+                continue;
+            }
+            if (isWhitespace(c)) {
+                // Leading whitespace is dropped (trim)
+                pendingSpace = emittedAny;
+                continue;
+            }
+            if (pendingSpace) {
+                pendingSpace = false;
+                pushBack(c);
+                return emit(' ');
+            }
+            emittedAny = true;
+            return emit(c);
+        }
+    }
+    
+    private int emit(int c) {
+        if (capture != null) {
+            capture.append((char) c);
+        }
+        return c;
+    }
+    
+    private void pushBack(int c) {
+        pushedBack = c;
+        emittedAny = true;
+    }
+    
+    // Same set as the regex \s class
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+    
+    /**
+     * Skip a tag after its '<'
+     * @return False if the '<' does not start a tag; the characters looked at are then read again
+     */
+    private boolean skipTag() {
+        StringBuilder body = new StringBuilder();
+        int c;
+        while ((c = rawRead()) != -1) {
+            if (c == '>' && body.length() > 0) {
+                return true;
+            }
+            body.append((char) c);
+            if (body.length() == 1 && !(Character.isLetter(c) || c == '/' || c == '!' || c == '?')) {
+                break;
+            }
+            if (body.length() >= MAX_TAG_LENGTH) {
+                break;
+            }
+        }
+        if (replay != null) {
+            body.append(replay, replayPosition, replay.length());
+        }
+        replay = body;
+        replayPosition = 0;
+        return false;
+    }
+    
+    private int rawRead() {
+        if (pushedBack != -1) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        if (replay != null) {
+            if (replayPosition < replay.length()) {
+                return replay.charAt(replayPosition++);
+            }
+            replay = null;
+        }
+        if (text != null) {
+            return position < text.length() ? text.charAt(position++) : -1;
+        }
+        try {
+            return reader.read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.prototype.rag.chunking;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Token-budgeted chunking that packs whole sentences
+ * Sentences are segmented while streaming and packed into chunks of up to targetTokens;
+ * the trailing sentences of a chunk (up to overlapTokens) are repeated at the start of the next.
+ * A single sentence longer than the budget is split at word boundaries.
+ */
+public class SentenceChunkingStrategy implements ChunkingStrategy {
+    
+    private final int targetTokens;
+    private final int overlapTokens;
+    
+    public SentenceChunkingStrategy(int targetTokens, int overlapTokens) {
+        if (targetTokens <= 0) {
+            throw new IllegalArgumentException("Target tokens must be positive");
+        }
+        this.targetTokens = targetTokens;
+        this.overlapTokens = Math.max(0, Math.min(overlapTokens, targetTokens / 2));
+    }
+    
+    @Override
+    public List<String> chunk(HtmlTextReader source) {
+        Packer packer = new Packer();
+        StringBuilder sentence = new StringBuilder();
+        boolean afterTerminator = false;
+        
+        int c;
+        while ((c = source.read()) != -1) {
+            if (c == ' ' && afterTerminator) {
+                packer.add(sentence.toString());
+                sentence.setLength(0);
+                afterTerminator = false;
+                continue;
+            }
+            sentence.append((char) c);
+            afterTerminator = c == '.' || c == '!' || c == '?';
+        }
+        if (sentence.length() > 0) {
+            packer.add(sentence.toString());
+        }
+        
+        return packer.finish();
+    }
+    
+    private class Packer {
+        private final List<String> chunks = new ArrayList<>();
+        private final Deque<String> sentences = new ArrayDeque<>();
+        private final Deque<Integer> sentenceTokens = new ArrayDeque<>();
+        private int tokens = 0;
+        private boolean hasNewSentence = false;
+        
+        void add(String sentence) {
+            int count = TokenCounter.count(sentence);
+            if (count > targetTokens) {
+                flush(false);
+                splitLongSentence(sentence);
+                return;
+            }
+            if (tokens + count > targetTokens && !sentences.isEmpty()) {
+                flush(true);
+                // Drop overlap from the front if it leaves no room for this sentence
+                while (!sentences.isEmpty() && tokens + count > targetTokens) {
+                    tokens -= sentenceTokens.pollFirst();
+                    sentences.pollFirst();
+                }
+            }
+            sentences.addLast(sentence);
+            sentenceTokens.addLast(count);
+            tokens += count;
+            hasNewSentence = true;
+        }
+        
+        /**
+         * Emit the current chunk, keeping trailing sentences as overlap if requested
+         */
+        private void flush(boolean keepOverlap) {
+            if (hasNewSentence) {
+                chunks.add(String.join(" ", sentences));
+            }
+            hasNewSentence = false;
+            
+            Deque<String> keptSentences = new ArrayDeque<>();
+            Deque<Integer> keptTokens = new ArrayDeque<>();
+            int kept = 0;
+            if (keepOverlap) {
+                while (!sentences.isEmpty() && kept + sentenceTokens.peekLast() <= overlapTokens) {
+                    kept += sentenceTokens.peekLast();
+                    keptTokens.addFirst(sentenceTokens.pollLast());
+                    keptSentences.addFirst(sentences.pollLast());
+                }
+            }
+            sentences.clear();
+            sentenceTokens.clear();
+            sentences.addAll(keptSentences);
+            sentenceTokens.addAll(keptTokens);
+            tokens = kept;
+        }
+        
+        private void splitLongSentence(String sentence) {
+            StringBuilder piece = new StringBuilder();
+            int pieceTokens = 0;
+            for (String word : sentence.split(" ")) {
+                int count = TokenCounter.count(word);
+                if (pieceTokens + count > targetTokens && piece.length() > 0) {
+                    chunks.add(piece.toString());
+                    piece.setLength(0);
+                    pieceTokens = 0;
+                }
+                if (piece.length() > 0) {
+                    piece.append(' ');
+                }
+                piece.append(word);
+                pieceTokens += count;
+            }
+            if (piece.length() > 0) {
+                chunks.add(piece.toString());
+            }
+        }
+        
+        List<String> finish() {
+            flush(false);
+            return chunks;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.prototype.rag.chunking;
+
+/**
+ * 64-bit SimHash fingerprint over word 3-shingles
+ * Texts that share most of their shingles get fingerprints a few bits apart, so near-duplicate
+ * paragraphs (boilerplate with small edits) can be found by Hamming distance.
+ */
+public final class SimHash {
+    
+    private static final int SHINGLE_SIZE = 3;
+    
+    private SimHash() {}
+    
+    /**
+     * Fingerprint of a text; 0 if the text has no words
+     */
+    public static long of(CharSequence text) {
+        int[] weights = new int[64];
+        long[] window = new long[SHINGLE_SIZE];
+        int words = 0;
+        
+        int length = text != null ? text.length() : 0;
+        long wordHash = 0;
+        boolean inWord = false;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                wordHash = (inWord ? wordHash : 0xcbf29ce484222325L) ^ c;
+                wordHash *= 0x100000001b3L;
+                inWord = true;
+                continue;
+            }
+            if (!inWord) {
+                continue;
+            }
+            inWord = false;
+            window[words % SHINGLE_SIZE] = wordHash;
+            words++;
+            if (words >= SHINGLE_SIZE) {
+                addShingle(weights, window, words);
+            }
+        }
+        if (words == 0) {
+            return 0L;
+        }
+        if (words < SHINGLE_SIZE) {
+            // Too short for a full shingle - fingerprint the words that are there
+            addShingle(weights, window, words);
+        }
+        
+        long fingerprint = 0L;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+    
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+    
+    private static void addShingle(int[] weights, long[] window, int words) {
+        long hash = 0;
+        int size = Math.min(words, SHINGLE_SIZE);
+        for (int i = size; i > 0; i--) {
+            hash = hash * 31 + window[(words - i) % SHINGLE_SIZE];
+        }
+        hash = mix(hash);
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((hash >>> bit) & 1L) != 0 ? 1 : -1;
+        }
+    }
+    
+    // MurmurHash3 64-bit finalizer, spreads shingle hashes over all bits
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93e53e63b9bL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
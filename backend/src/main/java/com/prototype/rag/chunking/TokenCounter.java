@@ -0,0 +1,38 @@
+package com.prototype.rag.chunking;
+
+/**
+ * Fast approximate token counter for BPE-style model tokenizers
+ * A word costs one token per started 4 characters and each punctuation mark costs one token,
+ * which tracks real tokenizers closely enough for chunk budgeting without loading a vocabulary.
+ */
+public final class TokenCounter {
+    
+    private static final int CHARS_PER_TOKEN = 4;
+    
+    private TokenCounter() {}
+    
+    public static int count(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                wordLength++;
+                continue;
+            }
+            tokens += wordTokens(wordLength);
+            wordLength = 0;
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+        }
+        return tokens + wordTokens(wordLength);
+    }
+    
+    private static int wordTokens(int length) {
+        return (length + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
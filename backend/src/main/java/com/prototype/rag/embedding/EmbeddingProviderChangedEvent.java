@@ -0,0 +1,20 @@
+package com.prototype.rag.embedding;
+
+/**
+ * Published when the active embedding provider changes at runtime
+ * Vectors from different providers live in different spaces, so listeners must re-index
+ */
+public class EmbeddingProviderChangedEvent {
+    
+    private final String provider;
+    private final String reason;
+    
+    public EmbeddingProviderChangedEvent(String provider, String reason) {
+        this.provider = provider;
+        this.reason = reason;
+    }
+    
+    public String getProvider() { return provider; }
+    
+    public String getReason() { return reason; }
+}
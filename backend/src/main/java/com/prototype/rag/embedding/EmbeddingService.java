@@ -14,6 +14,14 @@ public interface EmbeddingService {
      */
     List<Float> generateEmbedding(String text) throws Exception;
     
+    /**
+     * Generate embedding for a single text as a primitive vector
+     * Preferred over generateEmbedding on hot paths - avoids boxing every component
+     * @param text The text to embed
+     * @return Embedding vector
+     */
+    float[] generateEmbeddingVector(String text) throws Exception;
+    
     /**
      * Generate embeddings for multiple texts (batch)
      * @param texts List of texts to embed
@@ -26,5 +34,11 @@ public interface EmbeddingService {
      * @return Embedding dimension
      */
     int getEmbeddingDimension();
+    
+    /**
+     * Get the minimum cosine similarity for a chunk to count as relevant
+     * Depends on the embedding space - lexical hashing scores lower than dense model vectors
+     * @return Similarity threshold
+     */
+    double getSimilarityThreshold();
 }
-
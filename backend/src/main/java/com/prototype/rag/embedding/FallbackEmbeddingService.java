@@ -0,0 +1,216 @@
+package com.prototype.rag.embedding;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedding service selected by RAG components
+ * Delegates to Ollama or the in-process hashing provider according to rag.embedding.provider:
+ *   ollama  - always use Ollama (failures propagate to the caller)
+ *   hashing - always use the hashing provider (no network)
+ *   auto    - use Ollama, switch to hashing after failure-threshold consecutive Ollama failures and back
+ *             after recovery-probes consecutive successful periodic re-probes (opt-in)
+ * Failures below the threshold propagate to the caller as in ollama mode, so a single timeout under load
+ * does not switch the index. Each runtime switch publishes an EmbeddingProviderChangedEvent so the index
+ * is rebuilt in the new space; the startup probe() does not, since the initial index follows it.
+ * The two providers must produce different dimensions, so vectors of one are never compared with the other's.
+ */
+@Service
+@Primary
+public class FallbackEmbeddingService implements EmbeddingService {
+    
+    private static final String PROBE_TEXT = "embedding provider probe";
+    
+    private final OllamaEmbeddingService ollamaEmbeddingService;
+    private final HashingEmbeddingService hashingEmbeddingService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final String mode;
+    private final long reprobeIntervalSeconds;
+    private final int failureThreshold;
+    private final int recoveryProbes;
+    private final ScheduledExecutorService reprober;
+    
+    private volatile EmbeddingService active;
+    // Consecutive Ollama failures while active, and consecutive successful re-probes while degraded
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private int successfulProbes = 0;
+    
+    public FallbackEmbeddingService(OllamaEmbeddingService ollamaEmbeddingService,
+                                    HashingEmbeddingService hashingEmbeddingService,
+                                    ApplicationEventPublisher eventPublisher,
+                                    @Value("${rag.embedding.provider:ollama}") String mode,
+                                    @Value("${rag.embedding.reprobe-interval-seconds:60}") long reprobeIntervalSeconds,
+                                    @Value("${rag.embedding.failure-threshold:5}") int failureThreshold,
+                                    @Value("${rag.embedding.recovery-probes:3}") int recoveryProbes) {
+        this.ollamaEmbeddingService = ollamaEmbeddingService;
+        this.hashingEmbeddingService = hashingEmbeddingService;
+        this.eventPublisher = eventPublisher;
+        this.mode = mode.trim().toLowerCase();
+        this.reprobeIntervalSeconds = Math.max(1, reprobeIntervalSeconds);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.recoveryProbes = Math.max(1, recoveryProbes);
+        if ("auto".equals(this.mode) && hashingEmbeddingService.getEmbeddingDimension() == ollamaEmbeddingService.getEmbeddingDimension()) {
+            throw new IllegalArgumentException("rag.embedding.hashing.dimension must differ from the Ollama embedding dimension ("
+                + ollamaEmbeddingService.getEmbeddingDimension() + ") in auto mode");
+        }
+        this.active = "hashing".equals(this.mode) ? hashingEmbeddingService : ollamaEmbeddingService;
+        this.reprober = "auto".equals(this.mode) ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "embedding-reprobe");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        System.out.println("FallbackEmbeddingService initialized (mode: " + this.mode + ", active: "
+            + ("hashing".equals(this.mode) ? "hashing" : "ollama") + ")");
+    }
+    
+    @PostConstruct
+    public void start() {
+        if (reprober != null) {
+            reprober.scheduleWithFixedDelay(this::reprobe, reprobeIntervalSeconds, reprobeIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (reprober != null) {
+            reprober.shutdownNow();
+        }
+    }
+    
+    /**
+     * Check the active provider is reachable before a bulk indexing run
+     * In auto mode an unreachable Ollama switches to hashing up front, without publishing an event,
+     * since the caller is about to index with whichever provider is active afterwards.
+     * Only meant for startup; runtime failures go through the failure threshold.
+     */
+    public void probe() {
+        if (!"auto".equals(mode) || active == hashingEmbeddingService) {
+            return;
+        }
+        try {
+            ollamaEmbeddingService.generateEmbeddingVector(PROBE_TEXT);
+        } catch (Exception e) {
+            System.err.println("FallbackEmbeddingService: Ollama probe failed (" + e.getMessage() + "), using hashing embeddings");
+            active = hashingEmbeddingService;
+        }
+    }
+    
+    /**
+     * While degraded, check whether Ollama answers again and switch back once it has for recoveryProbes probes in a row
+     */
+    private void reprobe() {
+        if (!isDegraded()) {
+            return;
+        }
+        boolean reachable;
+        try {
+            ollamaEmbeddingService.generateEmbeddingVector(PROBE_TEXT);
+            reachable = true;
+        } catch (Exception e) {
+            reachable = false;
+        }
+        int probes;
+        synchronized (this) {
+            if (active == ollamaEmbeddingService) {
+                return;
+            }
+            successfulProbes = reachable ? successfulProbes + 1 : 0;
+            probes = successfulProbes;
+            if (probes < recoveryProbes) {
+                if (reachable) {
+                    System.out.println("FallbackEmbeddingService: Ollama probe succeeded (" + probes + "/" + recoveryProbes + ")");
+                }
+                return;
+            }
+            successfulProbes = 0;
+            consecutiveFailures.set(0);
+            active = ollamaEmbeddingService;
+        }
+        System.out.println("FallbackEmbeddingService: Ollama reachable again, switching back to Ollama embeddings");
+        eventPublisher.publishEvent(new EmbeddingProviderChangedEvent("ollama", "Ollama reachable again"));
+    }
+    
+    public String getActiveProvider() {
+        return active == hashingEmbeddingService ? "hashing" : "ollama";
+    }
+    
+    public boolean isDegraded() {
+        return "auto".equals(mode) && active == hashingEmbeddingService;
+    }
+    
+    @Override
+    public List<Float> generateEmbedding(String text) throws Exception {
+        float[] vector = generateEmbeddingVector(text);
+        List<Float> embedding = new java.util.ArrayList<>(vector.length);
+        for (float value : vector) {
+            embedding.add(value);
+        }
+        return embedding;
+    }
+    
+    @Override
+    public float[] generateEmbeddingVector(String text) throws Exception {
+        EmbeddingService current = active;
+        if (current == hashingEmbeddingService || !"auto".equals(mode)) {
+            return current.generateEmbeddingVector(text);
+        }
+        
+        try {
+            float[] vector = current.generateEmbeddingVector(text);
+            consecutiveFailures.set(0);
+            return vector;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            int failures = consecutiveFailures.incrementAndGet();
+            if (failures < failureThreshold) {
+                // Possibly transient (a timeout under load); fail this call only
+                throw e;
+            }
+            switchToHashing(e, failures);
+            return hashingEmbeddingService.generateEmbeddingVector(text);
+        }
+    }
+    
+    private void switchToHashing(Exception cause, int failures) {
+        synchronized (this) {
+            if (active == hashingEmbeddingService) {
+                return;
+            }
+            successfulProbes = 0;
+            active = hashingEmbeddingService;
+        }
+        System.err.println("FallbackEmbeddingService: Ollama embedding failed " + failures + " times in a row (" + cause.getMessage()
+            + "), switching to hashing embeddings");
+        eventPublisher.publishEvent(new EmbeddingProviderChangedEvent("hashing", cause.getMessage()));
+    }
+    
+    @Override
+    public List<List<Float>> generateEmbeddings(List<String> texts) throws Exception {
+        List<List<Float>> embeddings = new java.util.ArrayList<>();
+        for (String text : texts) {
+            embeddings.add(generateEmbedding(text));
+        }
+        return embeddings;
+    }
+    
+    @Override
+    public int getEmbeddingDimension() {
+        return active.getEmbeddingDimension();
+    }
+    
+    @Override
+    public double getSimilarityThreshold() {
+        return active.getSimilarityThreshold();
+    }
+}
@@ -0,0 +1,147 @@
+package com.prototype.rag.embedding;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process embedding service using the hashing trick
+ * Word unigrams and character trigrams are hashed into a fixed-dimension vector,
+ * so embeddings are deterministic, need no network and take microseconds.
+ * Used for load tests and as the degraded-mode provider when Ollama is unavailable.
+ */
+@Component
+public class HashingEmbeddingService implements EmbeddingService {
+    
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float TRIGRAM_WEIGHT = 0.5f;
+    
+    private final int dimension;
+    private final double similarityThreshold;
+    
+    public HashingEmbeddingService(
+            @Value("${rag.embedding.hashing.dimension:1024}") int dimension,
+            @Value("${rag.embedding.hashing.similarity-threshold:0.15}") double similarityThreshold) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Hashing embedding dimension must be positive");
+        }
+        this.dimension = dimension;
+        this.similarityThreshold = similarityThreshold;
+    }
+    
+    @Override
+    public List<Float> generateEmbedding(String text) throws Exception {
+        float[] vector = generateEmbeddingVector(text);
+        List<Float> embedding = new ArrayList<>(vector.length);
+        for (float value : vector) {
+            embedding.add(value);
+        }
+        return embedding;
+    }
+    
+    @Override
+    public float[] generateEmbeddingVector(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("Text cannot be null or empty");
+        }
+        
+        float[] vector = new float[dimension];
+        StringBuilder word = new StringBuilder(32);
+        int length = text.length();
+        
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                addWord(vector, word);
+                word.setLength(0);
+            }
+        }
+        
+        normalize(vector);
+        return vector;
+    }
+    
+    /**
+     * Hash the word itself plus its boundary-padded character trigrams
+     */
+    private void addWord(float[] vector, CharSequence word) {
+        addFeature(vector, hash(word, 0, word.length(), 0x9E3779B9), WORD_WEIGHT);
+        
+        // "^ab", "abc", ..., "yz$" - padding lets short words still produce trigrams
+        int padded = word.length() + 2;
+        for (int start = 0; start + 3 <= padded; start++) {
+            int h = 0x85EBCA6B;
+            for (int k = start; k < start + 3; k++) {
+                char c = k == 0 ? '^' : k == padded - 1 ? '$' : word.charAt(k - 1);
+                h = mix(h, c);
+            }
+            addFeature(vector, h, TRIGRAM_WEIGHT);
+        }
+    }
+    
+    private void addFeature(float[] vector, int hash, float weight) {
+        int h = finish(hash);
+        // Signed hashing keeps collisions from biasing every dimension upwards
+        vector[Math.floorMod(h, dimension)] += (h & 0x80000000) == 0 ? weight : -weight;
+    }
+    
+    private static int hash(CharSequence s, int from, int to, int seed) {
+        int h = seed;
+        for (int i = from; i < to; i++) {
+            h = mix(h, s.charAt(i));
+        }
+        return h;
+    }
+    
+    private static int mix(int h, char c) {
+        h ^= c;
+        return h * 0x01000193;
+    }
+    
+    private static int finish(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+    
+    private static void normalize(float[] vector) {
+        double norm = 0.0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0.0) {
+            return;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+    }
+    
+    @Override
+    public List<List<Float>> generateEmbeddings(List<String> texts) throws Exception {
+        List<List<Float>> embeddings = new ArrayList<>();
+        for (String text : texts) {
+            embeddings.add(generateEmbedding(text));
+        }
+        return embeddings;
+    }
+    
+    @Override
+    public int getEmbeddingDimension() {
+        return dimension;
+    }
+    
+    @Override
+    public double getSimilarityThreshold() {
+        // Sparse lexical vectors score far lower than dense model embeddings for the same match
+        return similarityThreshold;
+    }
+}
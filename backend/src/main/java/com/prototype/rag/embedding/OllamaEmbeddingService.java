@@ -1,11 +1,14 @@
 package com.prototype.rag.embedding;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,17 +24,28 @@ public class OllamaEmbeddingService implements EmbeddingService {
     private final ObjectMapper objectMapper;
     private static final String EMBEDDING_MODEL = "nomic-embed-text";
     private static final int EMBEDDING_DIMENSION = 768; // nomic-embed-text produces 768-dim vectors
+    private static final double SIMILARITY_THRESHOLD = 0.65;
     
-    public OllamaEmbeddingService() {
+    public OllamaEmbeddingService(@Value("${ollama.base-url:http://localhost:11434}") String ollamaBaseUrl) {
         this.webClient = WebClient.builder()
-            .baseUrl("http://localhost:11434")
+            .baseUrl(ollamaBaseUrl)
             .build();
         this.objectMapper = new ObjectMapper();
-        System.out.println("OllamaEmbeddingService initialized with model: " + EMBEDDING_MODEL);
+        System.out.println("OllamaEmbeddingService initialized with model: " + EMBEDDING_MODEL + " at " + ollamaBaseUrl);
     }
     
     @Override
     public List<Float> generateEmbedding(String text) throws Exception {
+        float[] vector = generateEmbeddingVector(text);
+        List<Float> embedding = new ArrayList<>(vector.length);
+        for (float value : vector) {
+            embedding.add(value);
+        }
+        return embedding;
+    }
+    
+    @Override
+    public float[] generateEmbeddingVector(String text) throws Exception {
         if (text == null || text.trim().isEmpty()) {
             throw new IllegalArgumentException("Text cannot be null or empty");
         }
@@ -41,32 +55,61 @@ public class OllamaEmbeddingService implements EmbeddingService {
         requestBody.put("prompt", text);
         
         try {
-            String response = webClient.post()
+            byte[] response = webClient.post()
                 .uri("/api/embeddings")
                 .bodyValue(requestBody)
                 .retrieve()
-                .bodyToMono(String.class)
+                .bodyToMono(byte[].class)
                 .block();
             
-            JsonNode jsonResponse = objectMapper.readTree(response);
-            JsonNode embeddingArray = jsonResponse.get("embedding");
-            
-            if (embeddingArray == null || !embeddingArray.isArray()) {
-                throw new RuntimeException("Invalid embedding response from Ollama");
-            }
-            
-            List<Float> embedding = new ArrayList<>();
-            for (JsonNode value : embeddingArray) {
-                embedding.add((float) value.asDouble());
+            if (response == null) {
+                throw new RuntimeException("Empty embedding response from Ollama");
             }
             
-            return embedding;
+            return parseEmbedding(response);
         } catch (Exception e) {
             System.err.println("Failed to generate embedding: " + e.getMessage());
             throw new RuntimeException("Failed to generate embedding: " + e.getMessage(), e);
         }
     }
     
+    /**
+     * Stream the "embedding" array out of an Ollama response straight into a float[]
+     * Skips every other field without building a JSON tree or boxing values
+     */
+    private float[] parseEmbedding(byte[] response) throws java.io.IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new RuntimeException("Invalid embedding response from Ollama");
+            }
+            
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                
+                if (!"embedding".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (value != JsonToken.START_ARRAY) {
+                    throw new RuntimeException("Invalid embedding response from Ollama");
+                }
+                
+                float[] vector = new float[EMBEDDING_DIMENSION];
+                int size = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (size == vector.length) {
+                        vector = Arrays.copyOf(vector, vector.length * 2);
+                    }
+                    vector[size++] = parser.getFloatValue();
+                }
+                return size == vector.length ? vector : Arrays.copyOf(vector, size);
+            }
+        }
+        
+        throw new RuntimeException("Invalid embedding response from Ollama");
+    }
+    
     @Override
     public List<List<Float>> generateEmbeddings(List<String> texts) throws Exception {
         List<List<Float>> embeddings = new ArrayList<>();
@@ -80,5 +123,9 @@ public class OllamaEmbeddingService implements EmbeddingService {
     public int getEmbeddingDimension() {
         return EMBEDDING_DIMENSION;
     }
+    
+    @Override
+    public double getSimilarityThreshold() {
+        return SIMILARITY_THRESHOLD;
+    }
 }
-
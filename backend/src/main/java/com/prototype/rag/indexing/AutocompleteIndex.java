@@ -0,0 +1,382 @@
+package com.prototype.rag.indexing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Prefix trie over article titles and content terms for search-box suggestions
+ * Every node keeps its best completions precomputed, so a lookup is a walk down the typed prefix.
+ * Titles are reachable from the start of each of their words and rank above plain terms;
+ * terms rank by the number of articles containing them.
+ */
+@Component
+public class AutocompleteIndex {
+    
+    public static final String TYPE_TITLE = "title";
+    public static final String TYPE_TERM = "term";
+    
+    // Any title outranks any term
+    private static final long TITLE_BOOST = 1L << 32;
+    private static final int MAX_TITLE_WORDS = 12;
+    private static final int MIN_TERM_LENGTH = 3;
+    
+    private static final Comparator<Entry> RANKING = Comparator
+        .comparingLong(Entry::weight).reversed()
+        .thenComparingInt(e -> e.display.length())
+        .thenComparing(e -> e.display);
+    
+    private final int suggestionsPerNode;
+    private final Node root = new Node();
+    private final Map<Long, ArticleTerms> articles = new HashMap<>();
+    private volatile boolean built = false;
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    public AutocompleteIndex(@Value("${rag.autocomplete.suggestions-per-node:10}") int suggestionsPerNode) {
+        this.suggestionsPerNode = Math.max(1, suggestionsPerNode);
+    }
+    
+    /**
+     * Top completions for a typed prefix
+     * @param prefix What the user has typed so far
+     * @param limit Maximum number of suggestions (capped at the per-node list size)
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        String key = normalizeKey(prefix);
+        if (key.isEmpty()) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++) {
+                node = node.child(key.charAt(i));
+            }
+            if (node == null) {
+                return List.of();
+            }
+            List<Suggestion> suggestions = new ArrayList<>(Math.min(limit, node.top.length));
+            Set<String> seen = new HashSet<>();
+            for (Entry entry : node.top) {
+                if (suggestions.size() >= limit) {
+                    break;
+                }
+                // A title is stored once per word, so it can surface twice under the same prefix
+                if (seen.add(entry.type + ":" + entry.display)) {
+                    suggestions.add(new Suggestion(entry.display, entry.type, entry.articleId));
+                }
+            }
+            return suggestions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Add or replace an article's title and terms
+     */
+    public void indexArticle(Long articleId, String title, String plainText) {
+        ArticleTerms next = new ArticleTerms(articleId, title, plainText);
+        lock.writeLock().lock();
+        try {
+            ArticleTerms previous = articles.put(articleId, next);
+            apply(previous, next, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void removeArticle(Long articleId) {
+        lock.writeLock().lock();
+        try {
+            ArticleTerms previous = articles.remove(articleId);
+            if (previous != null) {
+                apply(previous, null, true);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Replace the whole index in one pass (used for the initial load)
+     * @param titles Article titles by article ID
+     * @param texts Article plain text by article ID
+     */
+    public void rebuild(Map<Long, String> titles, Map<Long, String> texts) {
+        lock.writeLock().lock();
+        try {
+            for (ArticleTerms previous : new ArrayList<>(articles.values())) {
+                apply(previous, null, false);
+            }
+            articles.clear();
+            for (Map.Entry<Long, String> title : titles.entrySet()) {
+                ArticleTerms next = new ArticleTerms(title.getKey(), title.getValue(), texts.get(title.getKey()));
+                articles.put(title.getKey(), next);
+                apply(null, next, false);
+            }
+            prune(root);
+            recomputeAll(root);
+            built = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public boolean isBuilt() {
+        return built;
+    }
+    
+    private void apply(ArticleTerms previous, ArticleTerms next, boolean incremental) {
+        if (previous != null) {
+            for (String key : previous.titleKeys) {
+                adjust(key, TYPE_TITLE, previous.title, -1, previous.articleId, incremental);
+            }
+        }
+        if (next != null) {
+            for (String key : next.titleKeys) {
+                adjust(key, TYPE_TITLE, next.title, 1, next.articleId, incremental);
+            }
+        }
+        Set<String> oldTerms = previous != null ? previous.terms : Set.of();
+        Set<String> newTerms = next != null ? next.terms : Set.of();
+        for (String term : oldTerms) {
+            if (!newTerms.contains(term)) {
+                adjust(term, TYPE_TERM, term, -1, null, incremental);
+            }
+        }
+        for (String term : newTerms) {
+            if (!oldTerms.contains(term)) {
+                adjust(term, TYPE_TERM, term, 1, null, incremental);
+            }
+        }
+    }
+    
+    private void adjust(String key, String type, String display, int delta, Long articleId, boolean incremental) {
+        Node[] path = new Node[key.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < key.length(); i++) {
+            path[i + 1] = delta > 0 ? path[i].childOrCreate(key.charAt(i)) : path[i].child(key.charAt(i));
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+        
+        Node leaf = path[key.length()];
+        Entry entry = leaf.entry(type, display);
+        if (entry == null) {
+            if (delta <= 0) {
+                return;
+            }
+            entry = new Entry(type, display);
+            leaf.addEntry(entry);
+        }
+        entry.count += delta;
+        if (delta > 0 && articleId != null) {
+            entry.articleId = articleId;
+        }
+        boolean alive = entry.count > 0;
+        if (!alive) {
+            leaf.removeEntry(entry);
+        }
+        if (!incremental) {
+            return;
+        }
+        
+        // Fix the precomputed lists bottom-up; stop once the entry neither was nor becomes a top entry
+        for (int depth = key.length(); depth >= 0; depth--) {
+            Node node = path[depth];
+            if (depth > 0 && node.entries.length == 0 && node.childCount == 0) {
+                path[depth - 1].removeChild(key.charAt(depth - 1));
+                continue;
+            }
+            boolean wasTop = contains(node.top, entry);
+            boolean becomesTop = alive && (node.top.length < suggestionsPerNode
+                || RANKING.compare(entry, node.top[node.top.length - 1]) < 0);
+            if (depth < key.length() && !wasTop && !becomesTop) {
+                break;
+            }
+            recompute(node);
+        }
+    }
+    
+    private static boolean contains(Entry[] entries, Entry entry) {
+        for (Entry e : entries) {
+            if (e == entry) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void recompute(Node node) {
+        List<Entry> candidates = new ArrayList<>();
+        Collections.addAll(candidates, node.entries);
+        for (int i = 0; i < node.childCount; i++) {
+            Collections.addAll(candidates, node.children[i].top);
+        }
+        candidates.sort(RANKING);
+        int size = Math.min(suggestionsPerNode, candidates.size());
+        node.top = candidates.subList(0, size).toArray(new Entry[0]);
+    }
+    
+    private void recomputeAll(Node node) {
+        for (int i = 0; i < node.childCount; i++) {
+            recomputeAll(node.children[i]);
+        }
+        recompute(node);
+    }
+    
+    // Drop subtrees left without any entry after a bulk removal
+    private boolean prune(Node node) {
+        for (int i = node.childCount - 1; i >= 0; i--) {
+            if (prune(node.children[i])) {
+                node.removeChild(node.keys[i]);
+            }
+        }
+        return node != root && node.entries.length == 0 && node.childCount == 0;
+    }
+    
+    private static String normalizeKey(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.toLowerCase().trim().replaceAll("\\s+", " ");
+    }
+    
+    private static class ArticleTerms {
+        final Long articleId;
+        final String title;
+        final List<String> titleKeys = new ArrayList<>();
+        final Set<String> terms = new HashSet<>();
+        
+        ArticleTerms(Long articleId, String title, String plainText) {
+            this.articleId = articleId;
+            this.title = title != null ? title.trim().replaceAll("\\s+", " ") : "";
+            String key = normalizeKey(this.title);
+            if (!key.isEmpty()) {
+                // Title is findable from the start of each word
+                titleKeys.add(key);
+                for (int i = 0; i < key.length() && titleKeys.size() < MAX_TITLE_WORDS; i++) {
+                    if (key.charAt(i) == ' ' && i + 1 < key.length()) {
+                        titleKeys.add(key.substring(i + 1));
+                    }
+                }
+            }
+            addTerms(title);
+            addTerms(plainText);
+        }
+        
+        private void addTerms(String text) {
+            for (String token : InvertedIndex.rawTokens(text)) {
+                if (token.length() >= MIN_TERM_LENGTH && !InvertedIndex.STOP_WORDS.contains(token)
+                        && !Character.isDigit(token.charAt(0))) {
+                    terms.add(token);
+                }
+            }
+        }
+    }
+    
+    private static class Entry {
+        final String type;
+        final String display;
+        // Articles with this title, or articles containing this term
+        int count;
+        Long articleId;
+        
+        Entry(String type, String display) {
+            this.type = type;
+            this.display = display;
+        }
+        
+        long weight() {
+            return (TYPE_TITLE.equals(type) ? TITLE_BOOST : 0) + count;
+        }
+    }
+    
+    // Children kept in parallel sorted arrays rather than a map to keep nodes small
+    private static class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        int childCount;
+        // Completions ending exactly here; several titles can share a word suffix
+        Entry[] entries = new Entry[0];
+        Entry[] top = new Entry[0];
+        
+        Entry entry(String type, String display) {
+            for (Entry e : entries) {
+                if (e.type.equals(type) && e.display.equals(display)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+        
+        void addEntry(Entry entry) {
+            entries = Arrays.copyOf(entries, entries.length + 1);
+            entries[entries.length - 1] = entry;
+        }
+        
+        void removeEntry(Entry entry) {
+            List<Entry> remaining = new ArrayList<>(Arrays.asList(entries));
+            remaining.remove(entry);
+            entries = remaining.toArray(new Entry[0]);
+        }
+        
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            return i >= 0 ? children[i] : null;
+        }
+        
+        Node childOrCreate(char c) {
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int insertAt = -i - 1;
+            if (childCount == keys.length) {
+                int capacity = Math.max(2, childCount * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(keys, insertAt, keys, insertAt + 1, childCount - insertAt);
+            System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+            Node node = new Node();
+            keys[insertAt] = c;
+            children[insertAt] = node;
+            childCount++;
+            return node;
+        }
+        
+        void removeChild(char c) {
+            int i = Arrays.binarySearch(keys, 0, childCount, c);
+            if (i < 0) {
+                return;
+            }
+            System.arraycopy(keys, i + 1, keys, i, childCount - i - 1);
+            System.arraycopy(children, i + 1, children, i, childCount - i - 1);
+            childCount--;
+            children[childCount] = null;
+        }
+    }
+    
+    public static class Suggestion {
+        private final String text;
+        private final String type;
+        private final Long articleId;
+        
+        public Suggestion(String text, String type, Long articleId) {
+            this.text = text;
+            this.type = type;
+            this.articleId = articleId;
+        }
+        
+        public String getText() { return text; }
+        public String getType() { return type; }
+        public Long getArticleId() { return articleId; }
+    }
+}
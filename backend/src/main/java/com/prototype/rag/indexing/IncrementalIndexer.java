@@ -0,0 +1,137 @@
+package com.prototype.rag.indexing;
+
+import com.prototype.rag.chunking.DocumentChunk;
+import com.prototype.rag.chunking.DocumentChunker;
+import com.prototype.rag.embedding.EmbeddingService;
+import com.prototype.rag.storage.VectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Diff-based article indexer
+ * Re-chunks an article, matches the new chunks against the stored ones by content hash,
+ * embeds only the chunks whose text changed and swaps the article's chunk set in one step.
+ * New chunks that near-duplicate another article's chunk share its embedding instead of being embedded.
+ */
+@Component
+public class IncrementalIndexer {
+    
+    private final DocumentChunker documentChunker;
+    private final EmbeddingService embeddingService;
+    private final VectorStore vectorStore;
+    
+    @Autowired
+    public IncrementalIndexer(DocumentChunker documentChunker, EmbeddingService embeddingService, VectorStore vectorStore) {
+        this.documentChunker = documentChunker;
+        this.embeddingService = embeddingService;
+        this.vectorStore = vectorStore;
+    }
+    
+    /**
+     * Index (or re-index) an article
+     * @param articleId The article ID
+     * @param title The article title
+     * @param content The article content (HTML)
+     * @param category The article category (optional)
+     * @param forceReembed Embed every chunk even if unchanged, e.g. after the embedding space changed
+     * @return Counts of added, removed and unchanged chunks
+     */
+    public IndexResult indexArticle(Long articleId, String title, String content, String category, boolean forceReembed) {
+        List<DocumentChunk> chunks = documentChunker.chunkArticle(articleId, title, content, category);
+        
+        // Stored chunks by content hash (several if the same text appears more than once)
+        Map<String, Deque<DocumentChunk>> storedByHash = new HashMap<>();
+        List<DocumentChunk> stored = vectorStore.getChunksByArticleId(articleId);
+        if (!forceReembed) {
+            for (DocumentChunk chunk : stored) {
+                if (chunk.getContentHash() != null && (chunk.getEmbedding() != null || chunk.isDuplicate())) {
+                    storedByHash.computeIfAbsent(chunk.getContentHash(), h -> new ArrayDeque<>()).add(chunk);
+                }
+            }
+        }
+        
+        List<DocumentChunk> next = new ArrayList<>(chunks.size());
+        int added = 0;
+        int unchanged = 0;
+        int failed = 0;
+        int duplicates = 0;
+        
+        for (DocumentChunk chunk : chunks) {
+            Deque<DocumentChunk> matches = storedByHash.get(chunk.getContentHash());
+            DocumentChunk existing = matches != null ? matches.pollFirst() : null;
+            
+            if (existing != null) {
+                // Same text - keep the stored embedding, refresh position and move it onto the new shared source
+                existing.setChunkIndex(chunk.getChunkIndex());
+                existing.setTotalChunks(chunk.getTotalChunks());
+                existing.setSpan(chunk.getSource(), chunk.getStart(), chunk.getEnd(), chunk.getContentLength());
+                next.add(existing);
+                unchanged++;
+                continue;
+            }
+            
+            DocumentChunk original = vectorStore.findNearDuplicate(chunk);
+            if (original != null) {
+                // Boilerplate already indexed for another article - store a reference, not a second embedding
+                chunk.setDuplicateOf(original);
+                next.add(chunk);
+                duplicates++;
+                continue;
+            }
+            
+            try {
+                chunk.setEmbedding(embeddingService.generateEmbeddingVector(chunk.getContent()));
+                next.add(chunk);
+                added++;
+            } catch (Exception e) {
+                System.err.println("    ✗ Failed to generate embedding for chunk " + (chunk.getChunkIndex() + 1) + ": " + e.getMessage());
+                failed++;
+            }
+        }
+        
+        vectorStore.replaceArticleChunks(articleId, next);
+        
+        int removed = stored.size() - unchanged;
+        IndexResult result = new IndexResult(added, removed, unchanged, failed, duplicates);
+        System.out.println("Indexed article '" + title + "' (" + chunks.size() + " chunks): " + result);
+        return result;
+    }
+    
+    /**
+     * Outcome of indexing one article
+     */
+    public static class IndexResult {
+        private final int added;
+        private final int removed;
+        private final int unchanged;
+        private final int failed;
+        private final int duplicates;
+        
+        public IndexResult(int added, int removed, int unchanged, int failed) {
+            this(added, removed, unchanged, failed, 0);
+        }
+        
+        public IndexResult(int added, int removed, int unchanged, int failed, int duplicates) {
+            this.added = added;
+            this.removed = removed;
+            this.unchanged = unchanged;
+            this.failed = failed;
+            this.duplicates = duplicates;
+        }
+        
+        public int getAdded() { return added; }
+        public int getRemoved() { return removed; }
+        public int getUnchanged() { return unchanged; }
+        public int getFailed() { return failed; }
+        public int getDuplicates() { return duplicates; }
+        
+        @Override
+        public String toString() {
+            return added + " embedded, " + removed + " removed, " + unchanged + " unchanged" +
+                (duplicates > 0 ? ", " + duplicates + " shared with other articles" : "") +
+                (failed > 0 ? ", " + failed + " failed" : "");
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.prototype.rag.indexing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over article titles and plain-text content
+ * Maps each term to postings with positions and ranks documents with BM25, so keyword
+ * search touches only the postings of the query terms instead of scanning every article.
+ * Articles are added, replaced and removed one at a time as they are written.
+ */
+@Component
+public class InvertedIndex {
+    
+    static final Set<String> STOP_WORDS = Set.of("what", "is", "are", "the", "a", "an", "and", "or", "but", "in", "on", "at", "to", "for", "of", "with", "from", "by", "as", "this", "that", "these", "those", "i", "you", "he", "she", "it", "we", "they", "do", "does", "did", "can", "could", "will", "would", "should");
+    
+    // Gap between title and content positions so phrases never span the two fields
+    private static final int FIELD_GAP = 16;
+    // Query terms without an exact match are expanded to at most this many indexed terms by prefix
+    private static final int MAX_PREFIX_EXPANSIONS = 16;
+    private static final double PREFIX_MATCH_WEIGHT = 0.5;
+    
+    private final double k1;
+    private final double b;
+    private final int titleWeight;
+    
+    // term -> (articleId -> posting); sorted so prefix expansion is a range scan
+    private final NavigableMap<String, Map<Long, Posting>> postings = new TreeMap<>();
+    private final Map<Long, Document> documents = new HashMap<>();
+    private long totalLength = 0;
+    private volatile boolean built = false;
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    public InvertedIndex(@Value("${rag.keyword-search.bm25.k1:1.2}") double k1,
+                         @Value("${rag.keyword-search.bm25.b:0.75}") double b,
+                         @Value("${rag.keyword-search.title-weight:3}") int titleWeight) {
+        this.k1 = k1;
+        this.b = b;
+        this.titleWeight = Math.max(1, titleWeight);
+    }
+    
+    /**
+     * Add or replace an article
+     * Ignored if the index already holds a newer version of the article.
+     * @param articleId The article ID
+     * @param title The article title
+     * @param plainText The article content with HTML removed
+     * @param updatedAt Version of the article being indexed (optional)
+     */
+    public void indexArticle(Long articleId, String title, String plainText, LocalDateTime updatedAt) {
+        List<String> titleTerms = tokenize(title);
+        List<String> contentTerms = tokenize(plainText);
+        
+        // Build postings outside the lock
+        Map<String, Posting> docPostings = new HashMap<>();
+        int position = 0;
+        for (String term : titleTerms) {
+            docPostings.computeIfAbsent(term, t -> new Posting()).addTitle(position++);
+        }
+        position += FIELD_GAP;
+        for (String term : contentTerms) {
+            docPostings.computeIfAbsent(term, t -> new Posting()).addContent(position++);
+        }
+        int length = titleTerms.size() * titleWeight + contentTerms.size();
+        
+        lock.writeLock().lock();
+        try {
+            Document existing = documents.get(articleId);
+            if (existing != null && existing.updatedAt != null && updatedAt != null && existing.updatedAt.isAfter(updatedAt)) {
+                return;
+            }
+            removeLocked(articleId);
+            for (Map.Entry<String, Posting> entry : docPostings.entrySet()) {
+                entry.getValue().trim();
+                postings.computeIfAbsent(entry.getKey(), t -> new HashMap<>()).put(articleId, entry.getValue());
+            }
+            documents.put(articleId, new Document(docPostings.keySet().toArray(new String[0]), length, updatedAt));
+            totalLength += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void removeArticle(Long articleId) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(articleId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void removeLocked(Long articleId) {
+        Document document = documents.remove(articleId);
+        if (document == null) {
+            return;
+        }
+        totalLength -= document.length;
+        for (String term : document.terms) {
+            Map<Long, Posting> termPostings = postings.get(term);
+            if (termPostings != null) {
+                termPostings.remove(articleId);
+                if (termPostings.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Rank articles against a free-text query
+     * @param query The query text
+     * @param topK Maximum number of results
+     * @return Matching article IDs with their scores, best first
+     */
+    public List<ScoredArticle> search(String query, int topK) {
+        List<String> phrase = tokenize(query);
+        Set<String> keywords = new LinkedHashSet<>();
+        for (String token : rawTokens(query)) {
+            if (token.length() > 2 && !STOP_WORDS.contains(token)) {
+                keywords.add(normalize(token));
+            }
+        }
+        if (keywords.isEmpty()) {
+            return List.of();
+        }
+        
+        lock.readLock().lock();
+        try {
+            int docCount = documents.size();
+            if (docCount == 0) {
+                return List.of();
+            }
+            double avgLength = Math.max(1.0, (double) totalLength / docCount);
+            Map<Long, Double> scores = new HashMap<>();
+            
+            for (String keyword : keywords) {
+                Map<Long, Posting> exact = postings.get(keyword);
+                if (exact != null) {
+                    accumulate(scores, exact, docCount, avgLength, 1.0);
+                    continue;
+                }
+                // No exact term - fall back to indexed terms that start with the keyword
+                int expansions = 0;
+                for (Map.Entry<String, Map<Long, Posting>> entry : postings.tailMap(keyword, true).entrySet()) {
+                    if (!entry.getKey().startsWith(keyword) || expansions++ >= MAX_PREFIX_EXPANSIONS) {
+                        break;
+                    }
+                    accumulate(scores, entry.getValue(), docCount, avgLength, PREFIX_MATCH_WEIGHT);
+                }
+            }
+            
+            // Documents containing the whole query as a phrase get the query's total IDF on top
+            if (phrase.size() > 1) {
+                double phraseBoost = 0;
+                for (String term : phrase) {
+                    Map<Long, Posting> termPostings = postings.get(term);
+                    phraseBoost += termPostings != null ? idf(docCount, termPostings.size()) : 0;
+                }
+                for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+                    if (containsPhrase(entry.getKey(), phrase)) {
+                        entry.setValue(entry.getValue() + phraseBoost);
+                    }
+                }
+            }
+            
+            List<ScoredArticle> results = new ArrayList<>(scores.size());
+            for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+                results.add(new ScoredArticle(entry.getKey(), entry.getValue()));
+            }
+            results.sort(Comparator.comparingDouble(ScoredArticle::getScore).reversed());
+            return results.size() > topK ? new ArrayList<>(results.subList(0, topK)) : results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private void accumulate(Map<Long, Double> scores, Map<Long, Posting> termPostings, int docCount, double avgLength, double weight) {
+        double idf = idf(docCount, termPostings.size());
+        for (Map.Entry<Long, Posting> entry : termPostings.entrySet()) {
+            Document document = documents.get(entry.getKey());
+            Posting posting = entry.getValue();
+            double tf = posting.titleCount * titleWeight + posting.contentCount;
+            double norm = k1 * (1 - b + b * document.length / avgLength);
+            scores.merge(entry.getKey(), weight * idf * tf * (k1 + 1) / (tf + norm), Double::sum);
+        }
+    }
+    
+    private static double idf(int docCount, int docFrequency) {
+        return Math.log(1 + (docCount - docFrequency + 0.5) / (docFrequency + 0.5));
+    }
+    
+    private boolean containsPhrase(Long articleId, List<String> phrase) {
+        Posting first = postingFor(phrase.get(0), articleId);
+        if (first == null) {
+            return false;
+        }
+        for (int i = 0; i < first.size; i++) {
+            int start = first.positions[i];
+            boolean match = true;
+            for (int offset = 1; offset < phrase.size() && match; offset++) {
+                Posting next = postingFor(phrase.get(offset), articleId);
+                match = next != null && Arrays.binarySearch(next.positions, 0, next.size, start + offset) >= 0;
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private Posting postingFor(String term, Long articleId) {
+        Map<Long, Posting> termPostings = postings.get(term);
+        return termPostings != null ? termPostings.get(articleId) : null;
+    }
+    
+    /**
+     * Mark the index as holding the full corpus (set after the initial bulk load)
+     */
+    public void markBuilt() {
+        built = true;
+    }
+    
+    public boolean isBuilt() {
+        return built;
+    }
+    
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Split text into normalized index terms (lower-cased alphanumeric runs, plural 's' removed)
+     */
+    public static List<String> tokenize(String text) {
+        List<String> raw = rawTokens(text);
+        List<String> terms = new ArrayList<>(raw.size());
+        for (String token : raw) {
+            terms.add(normalize(token));
+        }
+        return terms;
+    }
+    
+    static List<String> rawTokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                current.append(c);
+            } else if (current.length() > 0) {
+                tokens.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+    
+    // Singular and plural forms share a term, e.g. "connors" and "connor"
+    private static String normalize(String token) {
+        if (token.length() > 3 && token.endsWith("s") && !token.endsWith("ss")) {
+            return token.substring(0, token.length() - 1);
+        }
+        return token;
+    }
+    
+    private static class Posting {
+        int titleCount;
+        int contentCount;
+        int[] positions = new int[2];
+        int size;
+        
+        void addTitle(int position) {
+            titleCount++;
+            add(position);
+        }
+        
+        void addContent(int position) {
+            contentCount++;
+            add(position);
+        }
+        
+        private void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+        
+        void trim() {
+            if (size < positions.length) {
+                positions = Arrays.copyOf(positions, size);
+            }
+        }
+    }
+    
+    private static class Document {
+        final String[] terms;
+        final int length;
+        final LocalDateTime updatedAt;
+        
+        Document(String[] terms, int length, LocalDateTime updatedAt) {
+            this.terms = terms;
+            this.length = length;
+            this.updatedAt = updatedAt;
+        }
+    }
+    
+    public static class ScoredArticle {
+        private final Long articleId;
+        private final double score;
+        
+        public ScoredArticle(Long articleId, double score) {
+            this.articleId = articleId;
+            this.score = score;
+        }
+        
+        public Long getArticleId() { return articleId; }
+        public double getScore() { return score; }
+    }
+}
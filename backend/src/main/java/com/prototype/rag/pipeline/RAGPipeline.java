@@ -3,6 +3,7 @@ package com.prototype.rag.pipeline;
 import com.prototype.rag.chunking.DocumentChunk;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * RAG Pipeline orchestrator
@@ -27,6 +28,27 @@ public interface RAGPipeline {
      */
     String retrieveContext(String query, int maxChunks, String category) throws Exception;
     
+    /**
+     * Retrieve relevant context and report which articles it was built from
+     * @param query The user query
+     * @param maxChunks Maximum number of chunks to retrieve
+     * @param category Optional category filter
+     * @param sourceArticleIds Receives the IDs of the articles included in the context
+     * @return Formatted context string ready for AI prompt
+     */
+    String retrieveContext(String query, int maxChunks, String category, Set<Long> sourceArticleIds) throws Exception;
+    
+    /**
+     * Retrieve relevant context for a query that has already been embedded
+     * @param query The user query
+     * @param queryEmbedding Embedding of the query, so callers that also need it embed the query only once
+     * @param maxChunks Maximum number of chunks to retrieve
+     * @param category Optional category filter
+     * @param sourceArticleIds Receives the IDs of the articles included in the context
+     * @return Formatted context string ready for AI prompt
+     */
+    String retrieveContext(String query, float[] queryEmbedding, int maxChunks, String category, Set<Long> sourceArticleIds) throws Exception;
+    
     /**
      * Get the retrieved chunks (for debugging/inspection)
      * @param query The user query
@@ -2,6 +2,7 @@ package com.prototype.rag.pipeline;
 
 import com.prototype.rag.chunking.DocumentChunk;
 import com.prototype.rag.retrieval.RetrievalService;
+import com.prototype.rag.storage.VectorStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -10,17 +11,20 @@ import java.util.Set;
 
 /**
  * Implementation of RAG Pipeline
- * Orchestrates retrieval and context building
+ * Orchestrates retrieval and context building. A chunk whose text is shared by other articles
+ * (near-duplicates stored once) lists those articles too, and they count as context sources.
  */
 @Service
 public class RAGPipelineImpl implements RAGPipeline {
     
     private final RetrievalService retrievalService;
+    private final VectorStore vectorStore;
     private static final int DEFAULT_MAX_CHUNKS = 3;
     
     @Autowired
-    public RAGPipelineImpl(RetrievalService retrievalService) {
+    public RAGPipelineImpl(RetrievalService retrievalService, VectorStore vectorStore) {
         this.retrievalService = retrievalService;
+        this.vectorStore = vectorStore;
         System.out.println("RAGPipelineImpl initialized");
     }
     
@@ -31,7 +35,21 @@ public class RAGPipelineImpl implements RAGPipeline {
     
     @Override
     public String retrieveContext(String query, int maxChunks, String category) throws Exception {
-        List<DocumentChunk> chunks = getRetrievedChunks(query, maxChunks, category);
+        return retrieveContext(query, maxChunks, category, null);
+    }
+    
+    @Override
+    public String retrieveContext(String query, int maxChunks, String category, Set<Long> sourceArticleIds) throws Exception {
+        return buildContext(query, getRetrievedChunks(query, maxChunks, category), sourceArticleIds);
+    }
+    
+    @Override
+    public String retrieveContext(String query, float[] queryEmbedding, int maxChunks, String category, Set<Long> sourceArticleIds) throws Exception {
+        int actualMaxChunks = maxChunks > 0 ? maxChunks : DEFAULT_MAX_CHUNKS;
+        return buildContext(query, retrievalService.retrieve(query, queryEmbedding, actualMaxChunks, category), sourceArticleIds);
+    }
+    
+    private String buildContext(String query, List<DocumentChunk> chunks, Set<Long> sourceArticleIds) {
         
         if (chunks.isEmpty()) {
             System.out.println("RAGPipeline: No relevant chunks found for query: '" + query + "' - returning null to avoid irrelevant context");
@@ -45,6 +63,8 @@ public class RAGPipelineImpl implements RAGPipeline {
         
         // Group chunks by article to avoid duplicates
         Set<Long> seenArticleIds = new java.util.HashSet<>();
+        // Every article the context speaks for, including those sharing a chunk's text
+        Set<Long> contextArticleIds = new java.util.LinkedHashSet<>();
         
         // Sort chunks by relevance (assuming first chunks are most relevant from vector store)
         // Only include top chunks per article to avoid repetition
@@ -55,26 +75,55 @@ public class RAGPipelineImpl implements RAGPipeline {
                 continue;
             }
             seenArticleIds.add(chunk.getArticleId());
+            contextArticleIds.add(chunk.getArticleId());
             
             System.out.println("RAGPipeline: Processing chunk from article ID: " + chunk.getArticleId());
             System.out.println("RAGPipeline: Chunk title: " + chunk.getTitle());
-            System.out.println("RAGPipeline: Chunk content length: " + (chunk.getContent() != null ? chunk.getContent().length() : 0));
-            System.out.println("RAGPipeline: Chunk content preview: " + (chunk.getContent() != null && chunk.getContent().length() > 100 ? chunk.getContent().substring(0, 100) + "..." : chunk.getContent()));
+            if (!chunk.getDuplicateArticleIds().isEmpty()) {
+                System.out.println("RAGPipeline: Chunk text is shared with articles " + chunk.getDuplicateArticleIds());
+                contextArticleIds.addAll(chunk.getDuplicateArticleIds());
+            }
+            // Chunk text is only materialised here, for the chunks that make it into the context
+            String content = chunk.getContent();
+            System.out.println("RAGPipeline: Chunk content length: " + content.length());
+            System.out.println("RAGPipeline: Chunk content preview: " + (content.length() > 100 ? content.substring(0, 100) + "..." : content));
             
             context.append("Article: ").append(chunk.getTitle()).append("\n");
+            List<String> sharedTitles = sharedArticleTitles(chunk);
+            if (!sharedTitles.isEmpty()) {
+                context.append("Also in: ").append(String.join(", ", sharedTitles)).append("\n");
+            }
             if (chunk.getCategory() != null && !chunk.getCategory().trim().isEmpty()) {
                 context.append("Category: ").append(chunk.getCategory()).append("\n");
             }
-            context.append("Content: ").append(chunk.getContent()).append("\n\n");
+            context.append("Content: ").append(content).append("\n\n");
+        }
+        
+        if (sourceArticleIds != null) {
+            sourceArticleIds.addAll(contextArticleIds);
         }
         
         String contextString = context.toString();
-        System.out.println("RAGPipeline: Generated context (length: " + contextString.length() + " chars, articles: " + seenArticleIds.size() + ")");
+        System.out.println("RAGPipeline: Generated context (length: " + contextString.length() + " chars, articles: " + contextArticleIds.size() + ")");
         System.out.println("RAGPipeline: Full context: " + contextString);
         
         return contextString;
     }
     
+    /**
+     * Titles of the other articles whose near-duplicate chunks point at this chunk
+     */
+    private List<String> sharedArticleTitles(DocumentChunk chunk) {
+        List<String> titles = new java.util.ArrayList<>();
+        for (Long articleId : chunk.getDuplicateArticleIds()) {
+            List<DocumentChunk> articleChunks = vectorStore.getChunksByArticleId(articleId);
+            if (!articleChunks.isEmpty() && articleChunks.get(0).getTitle() != null) {
+                titles.add(articleChunks.get(0).getTitle());
+            }
+        }
+        return titles;
+    }
+    
     @Override
     public List<DocumentChunk> getRetrievedChunks(String query, int maxChunks) throws Exception {
         return getRetrievedChunks(query, maxChunks, null);
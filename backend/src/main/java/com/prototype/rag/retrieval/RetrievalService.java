@@ -25,5 +25,15 @@ public interface RetrievalService {
      * @return List of relevant document chunks
      */
     List<DocumentChunk> retrieve(String query, int topK, String category) throws Exception;
+    
+    /**
+     * Retrieve relevant chunks for a query that has already been embedded
+     * @param query The search query
+     * @param queryEmbedding Embedding of the query from the active embedding service
+     * @param topK Number of results to return
+     * @param category Optional category filter (null for all categories)
+     * @return List of relevant document chunks
+     */
+    List<DocumentChunk> retrieve(String query, float[] queryEmbedding, int topK, String category) throws Exception;
 }
 
@@ -36,15 +36,23 @@ public class SemanticRetrievalService implements RetrievalService {
             return List.of();
         }
         
-        System.out.println("SemanticRetrievalService: Retrieving for query: '" + query + "' (topK: " + topK + ")");
-        
         // Generate embedding for the query
-        List<Float> queryEmbedding = embeddingService.generateEmbedding(query);
-        System.out.println("SemanticRetrievalService: Generated query embedding (dimension: " + queryEmbedding.size() + ")");
+        float[] queryEmbedding = embeddingService.generateEmbeddingVector(query);
+        System.out.println("SemanticRetrievalService: Generated query embedding (dimension: " + queryEmbedding.length + ")");
+        return retrieve(query, queryEmbedding, topK, category);
+    }
+    
+    @Override
+    public List<DocumentChunk> retrieve(String query, float[] queryEmbedding, int topK, String category) throws Exception {
+        if (query == null || query.trim().isEmpty()) {
+            return List.of();
+        }
+        
+        System.out.println("SemanticRetrievalService: Retrieving for query: '" + query + "' (topK: " + topK + ")");
         
         // Search for similar chunks (get more results if filtering by category)
         int searchTopK = category != null ? topK * 2 : topK;
-        List<DocumentChunk> similarChunks = vectorStore.searchSimilar(queryEmbedding, searchTopK);
+        List<DocumentChunk> similarChunks = vectorStore.searchSimilar(queryEmbedding, searchTopK, embeddingService.getSimilarityThreshold());
         
         System.out.println("SemanticRetrievalService: Found " + similarChunks.size() + " similar chunks");
         
@@ -54,9 +62,8 @@ public class SemanticRetrievalService implements RetrievalService {
             DocumentChunk chunk = similarChunks.get(i);
             System.out.println("SemanticRetrievalService: Chunk " + (i+1) + " - Article ID: " + chunk.getArticleId() + 
                 ", Title: " + chunk.getTitle() + 
-                ", Content length: " + (chunk.getContent() != null ? chunk.getContent().length() : 0) +
-                ", Preview: " + (chunk.getContent() != null && chunk.getContent().length() > 50 ? 
-                chunk.getContent().substring(0, Math.min(50, chunk.getContent().length())) + "..." : chunk.getContent()));
+                ", Content length: " + chunk.getContentLength() +
+                ", Preview: " + chunk.getContentPreview(50));
         }
         
         // Filter by category if specified
@@ -1,6 +1,9 @@
 package com.prototype.rag.storage;
 
+import com.prototype.rag.chunking.ChunkSource;
 import com.prototype.rag.chunking.DocumentChunk;
+import com.prototype.rag.chunking.SimHash;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
@@ -9,19 +12,69 @@ import java.util.stream.Collectors;
 
 /**
  * In-memory implementation of VectorStore
- * Uses cosine similarity for search
+ * Uses cosine similarity for search. Near-duplicate chunks across articles are stored once:
+ * the first copy keeps the embedding and later copies point at it (found via SimHash LSH).
  */
 @Component
 public class InMemoryVectorStore implements VectorStore {
     
-    private final Map<String, DocumentChunk> chunks = new ConcurrentHashMap<>();
+    private static final double DEFAULT_SIMILARITY_THRESHOLD = 0.65;
+    
+    // Key for chunks that do not belong to an article
+    private static final Long NO_ARTICLE = Long.MIN_VALUE;
+    
+    // Chunks grouped per article; each list is immutable and swapped as a whole on write
+    private final Map<Long, List<DocumentChunk>> chunksByArticle = new ConcurrentHashMap<>();
+    
+    private final boolean dedupEnabled;
+    private final int dedupMaxDistance;
+    private final int dedupMinLength;
+    // SimHash LSH: max-distance + 1 bands, so fingerprints within max-distance bits always share a band
+    private final int lshBands;
+    private final int lshBandBits;
+    
+    // Duplicate bookkeeping, only touched by article writes (searches stay lock-free)
+    private final Object dedupLock = new Object();
+    private final Map<Long, List<DocumentChunk>> lshBuckets = new HashMap<>();
+    private final Map<DocumentChunk, Set<DocumentChunk>> aliasesByCanonical = new IdentityHashMap<>();
+    private final Set<DocumentChunk> registeredCanonicals = Collections.newSetFromMap(new IdentityHashMap<>());
+    
+    // Article text of stored chunks is moved here instead of staying on the heap
+    private final TextArena textArena;
+    // Arena text each article's current chunk list points at, guarded by dedupLock. Tracked here rather
+    // than read off the previous chunks, since chunks kept across a re-index are moved onto the new source.
+    private final Map<Long, Set<OffHeapChunkSource>> sourcesByArticle = new HashMap<>();
+    
+    public InMemoryVectorStore(@Value("${rag.dedup.enabled:true}") boolean dedupEnabled,
+                               @Value("${rag.dedup.max-distance:6}") int dedupMaxDistance,
+                               @Value("${rag.dedup.min-length:200}") int dedupMinLength,
+                               TextArena textArena) {
+        this.textArena = textArena;
+        this.dedupEnabled = dedupEnabled;
+        this.dedupMaxDistance = Math.min(Math.max(0, dedupMaxDistance), 15);
+        this.dedupMinLength = dedupMinLength;
+        this.lshBands = this.dedupMaxDistance + 1;
+        this.lshBandBits = 64 / lshBands;
+    }
     
     @Override
     public void addChunk(DocumentChunk chunk) {
         if (chunk == null || chunk.getId() == null) {
             throw new IllegalArgumentException("Chunk and chunk ID cannot be null");
         }
-        chunks.put(chunk.getId(), chunk);
+        Long key = chunk.getArticleId() != null ? chunk.getArticleId() : NO_ARTICLE;
+        chunksByArticle.compute(key, (id, existing) -> {
+            List<DocumentChunk> updated = new ArrayList<>();
+            if (existing != null) {
+                for (DocumentChunk current : existing) {
+                    if (!current.getId().equals(chunk.getId())) {
+                        updated.add(current);
+                    }
+                }
+            }
+            updated.add(chunk);
+            return List.copyOf(updated);
+        });
     }
     
     @Override
@@ -39,38 +92,346 @@ public class InMemoryVectorStore implements VectorStore {
         if (articleId == null) {
             return;
         }
-        chunks.entrySet().removeIf(entry -> 
-            entry.getValue().getArticleId() != null && 
-            entry.getValue().getArticleId().equals(articleId)
-        );
+        replaceArticleChunks(articleId, List.of());
+    }
+    
+    @Override
+    public void replaceArticleChunks(Long articleId, List<DocumentChunk> chunks) {
+        if (articleId == null) {
+            throw new IllegalArgumentException("Article ID cannot be null");
+        }
+        List<DocumentChunk> next = chunks != null ? List.copyOf(chunks) : List.of();
+        moveToArena(next);
+        synchronized (dedupLock) {
+            // A duplicate whose original vanished since it was detected takes over the original's embedding
+            for (DocumentChunk chunk : next) {
+                DocumentChunk canonical = chunk.getDuplicateOf();
+                if (canonical != null && !registeredCanonicals.contains(canonical)) {
+                    promote(chunk, canonical);
+                }
+            }
+            
+            List<DocumentChunk> previous = next.isEmpty()
+                ? chunksByArticle.remove(articleId)
+                : chunksByArticle.put(articleId, next);
+            
+            for (DocumentChunk chunk : next) {
+                if (chunk.getDuplicateOf() != null) {
+                    if (aliasesByCanonical.computeIfAbsent(chunk.getDuplicateOf(), c -> Collections.newSetFromMap(new IdentityHashMap<>())).add(chunk)) {
+                        refreshDuplicateArticleIds(chunk.getDuplicateOf());
+                    }
+                } else {
+                    register(chunk);
+                }
+            }
+            
+            releaseSources(articleId, next);
+            if (previous == null) {
+                return;
+            }
+            Set<DocumentChunk> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+            kept.addAll(next);
+            for (DocumentChunk removed : previous) {
+                if (kept.contains(removed)) {
+                    continue;
+                }
+                if (removed.getDuplicateOf() != null) {
+                    Set<DocumentChunk> aliases = aliasesByCanonical.get(removed.getDuplicateOf());
+                    if (aliases != null && aliases.remove(removed)) {
+                        if (aliases.isEmpty()) {
+                            aliasesByCanonical.remove(removed.getDuplicateOf());
+                        }
+                        refreshDuplicateArticleIds(removed.getDuplicateOf());
+                    }
+                } else if (unregister(removed)) {
+                    rehomeDuplicates(removed, next);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public DocumentChunk findNearDuplicate(DocumentChunk chunk) {
+        if (!dedupEnabled || !isDedupCandidate(chunk)) {
+            return null;
+        }
+        long fingerprint = chunk.getSimHash();
+        synchronized (dedupLock) {
+            DocumentChunk best = null;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int band = 0; band < lshBands; band++) {
+                List<DocumentChunk> bucket = lshBuckets.get(bandKey(fingerprint, band));
+                if (bucket == null) {
+                    continue;
+                }
+                for (DocumentChunk candidate : bucket) {
+                    // Repeats within one article are left alone; only cross-article boilerplate is shared
+                    if (Objects.equals(candidate.getArticleId(), chunk.getArticleId())) {
+                        continue;
+                    }
+                    int distance = SimHash.distance(fingerprint, candidate.getSimHash());
+                    if (distance <= dedupMaxDistance && distance < bestDistance) {
+                        best = candidate;
+                        bestDistance = distance;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+    
+    /**
+     * Copy each heap source of the given chunks into the arena and repoint the chunks at it
+     * Chunk offsets change from chars to UTF-8 bytes, computed in one pass over the text; content
+     * lengths stay in chars.
+     */
+    private void moveToArena(List<DocumentChunk> chunks) {
+        if (textArena == null || !textArena.isEnabled()) {
+            return;
+        }
+        Map<ChunkSource, List<DocumentChunk>> bySource = new IdentityHashMap<>();
+        for (DocumentChunk chunk : chunks) {
+            ChunkSource source = chunk.getSource();
+            if (!source.isOffHeap() && source.length() > 0) {
+                bySource.computeIfAbsent(source, s -> new ArrayList<>()).add(chunk);
+            }
+        }
+        for (Map.Entry<ChunkSource, List<DocumentChunk>> entry : bySource.entrySet()) {
+            ChunkSource source = entry.getKey();
+            String text = source.getText();
+            List<DocumentChunk> sourceChunks = entry.getValue();
+            
+            int[] charOffsets = new int[sourceChunks.size() * 2];
+            for (int i = 0; i < sourceChunks.size(); i++) {
+                charOffsets[i * 2] = sourceChunks.get(i).getStart();
+                charOffsets[i * 2 + 1] = sourceChunks.get(i).getEnd();
+            }
+            int[] order = sortedIndexes(charOffsets);
+            int[] sorted = new int[charOffsets.length];
+            for (int i = 0; i < order.length; i++) {
+                sorted[i] = charOffsets[order[i]];
+            }
+            int[] byteSorted = TextArena.utf8Offsets(text, sorted);
+            int[] byteOffsets = new int[charOffsets.length];
+            for (int i = 0; i < order.length; i++) {
+                byteOffsets[order[i]] = byteSorted[i];
+            }
+            
+            OffHeapChunkSource offHeap = new OffHeapChunkSource(source.getTitle(), source.getCategory(),
+                textArena, textArena.store(text));
+            for (int i = 0; i < sourceChunks.size(); i++) {
+                DocumentChunk chunk = sourceChunks.get(i);
+                chunk.setSpan(offHeap, byteOffsets[i * 2], byteOffsets[i * 2 + 1], chunk.getContentLength());
+            }
+        }
+    }
+    
+    private static int[] sortedIndexes(int[] values) {
+        Integer[] boxed = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, Comparator.comparingInt(i -> values[i]));
+        int[] order = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+    
+    /**
+     * Record the arena text an article's new chunk list points at and give back what it no longer uses
+     */
+    private void releaseSources(Long articleId, List<DocumentChunk> next) {
+        if (textArena == null) {
+            return;
+        }
+        Set<OffHeapChunkSource> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DocumentChunk chunk : next) {
+            if (chunk.getSource() instanceof OffHeapChunkSource offHeap) {
+                inUse.add(offHeap);
+            }
+        }
+        Set<OffHeapChunkSource> before = inUse.isEmpty()
+            ? sourcesByArticle.remove(articleId)
+            : sourcesByArticle.put(articleId, inUse);
+        if (before == null) {
+            return;
+        }
+        for (OffHeapChunkSource source : before) {
+            if (!inUse.contains(source)) {
+                textArena.release(source.getSlice());
+            }
+        }
+    }
+    
+    /**
+     * Arena bytes held for stored chunks
+     * Once released slices are reclaimed, the arena's liveBytes should equal this; a growing gap means leaked text.
+     */
+    public long getReferencedArenaBytes() {
+        synchronized (dedupLock) {
+            long bytes = 0;
+            for (Set<OffHeapChunkSource> sources : sourcesByArticle.values()) {
+                for (OffHeapChunkSource source : sources) {
+                    bytes += source.getSlice().getLength();
+                }
+            }
+            return bytes;
+        }
+    }
+    
+    /**
+     * Number of stored chunks that share another article's chunk instead of holding their own embedding
+     */
+    public int getDuplicateCount() {
+        synchronized (dedupLock) {
+            int count = 0;
+            for (Set<DocumentChunk> aliases : aliasesByCanonical.values()) {
+                count += aliases.size();
+            }
+            return count;
+        }
+    }
+    
+    private boolean isDedupCandidate(DocumentChunk chunk) {
+        return chunk != null && chunk.getSimHash() != 0L && chunk.getContentLength() >= dedupMinLength;
+    }
+    
+    private void register(DocumentChunk chunk) {
+        if (!dedupEnabled || chunk.getEmbedding() == null || !isDedupCandidate(chunk) || !registeredCanonicals.add(chunk)) {
+            return;
+        }
+        for (int band = 0; band < lshBands; band++) {
+            lshBuckets.computeIfAbsent(bandKey(chunk.getSimHash(), band), k -> new ArrayList<>()).add(chunk);
+        }
+    }
+    
+    private boolean unregister(DocumentChunk chunk) {
+        if (!registeredCanonicals.remove(chunk)) {
+            return false;
+        }
+        for (int band = 0; band < lshBands; band++) {
+            long key = bandKey(chunk.getSimHash(), band);
+            List<DocumentChunk> bucket = lshBuckets.get(key);
+            if (bucket != null) {
+                bucket.removeIf(c -> c == chunk);
+                if (bucket.isEmpty()) {
+                    lshBuckets.remove(key);
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Point the duplicates of a removed chunk at a successor
+     * Prefers the closest chunk of the same article's new version (e.g. after re-embedding);
+     * otherwise one of the duplicates is promoted to hold the embedding.
+     */
+    private void rehomeDuplicates(DocumentChunk removed, List<DocumentChunk> replacements) {
+        Set<DocumentChunk> aliases = aliasesByCanonical.remove(removed);
+        removed.setDuplicateArticleIds(Set.of());
+        if (aliases == null || aliases.isEmpty()) {
+            return;
+        }
+        
+        DocumentChunk successor = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (DocumentChunk candidate : replacements) {
+            if (registeredCanonicals.contains(candidate)) {
+                int distance = SimHash.distance(removed.getSimHash(), candidate.getSimHash());
+                if (distance <= dedupMaxDistance && distance < bestDistance) {
+                    successor = candidate;
+                    bestDistance = distance;
+                }
+            }
+        }
+        if (successor == null) {
+            successor = aliases.iterator().next();
+            aliases.remove(successor);
+            promote(successor, removed);
+            register(successor);
+        }
+        
+        for (DocumentChunk alias : aliases) {
+            alias.setDuplicateOf(successor);
+        }
+        if (!aliases.isEmpty()) {
+            aliasesByCanonical.computeIfAbsent(successor, c -> Collections.newSetFromMap(new IdentityHashMap<>())).addAll(aliases);
+        }
+        refreshDuplicateArticleIds(successor);
+    }
+    
+    private static void promote(DocumentChunk duplicate, DocumentChunk original) {
+        float[] embedding = original.getEmbedding();
+        duplicate.setEmbedding(embedding != null ? embedding.clone() : null);
+        duplicate.setDuplicateOf(null);
+    }
+    
+    private void refreshDuplicateArticleIds(DocumentChunk canonical) {
+        Set<DocumentChunk> aliases = aliasesByCanonical.get(canonical);
+        if (aliases == null || aliases.isEmpty()) {
+            canonical.setDuplicateArticleIds(Set.of());
+            return;
+        }
+        Set<Long> articleIds = new TreeSet<>();
+        for (DocumentChunk alias : aliases) {
+            if (alias.getArticleId() != null) {
+                articleIds.add(alias.getArticleId());
+            }
+        }
+        canonical.setDuplicateArticleIds(Collections.unmodifiableSet(articleIds));
+    }
+    
+    private long bandKey(long fingerprint, int band) {
+        long mask = (1L << lshBandBits) - 1;
+        return ((long) band << lshBandBits) | ((fingerprint >>> (band * lshBandBits)) & mask);
     }
     
     @Override
-    public List<DocumentChunk> searchSimilar(List<Float> queryEmbedding, int topK) {
-        if (queryEmbedding == null || queryEmbedding.isEmpty()) {
+    public List<DocumentChunk> getChunksByArticleId(Long articleId) {
+        if (articleId == null) {
+            return List.of();
+        }
+        return chunksByArticle.getOrDefault(articleId, List.of());
+    }
+    
+    @Override
+    public List<DocumentChunk> searchSimilar(float[] queryEmbedding, int topK) {
+        return searchSimilar(queryEmbedding, topK, DEFAULT_SIMILARITY_THRESHOLD);
+    }
+    
+    @Override
+    public List<DocumentChunk> searchSimilar(float[] queryEmbedding, int topK, double minSimilarity) {
+        if (queryEmbedding == null || queryEmbedding.length == 0) {
             return List.of();
         }
         
-        if (chunks.isEmpty()) {
+        if (chunksByArticle.isEmpty()) {
             return List.of();
         }
         
         // Calculate cosine similarity for each chunk
         List<Map.Entry<DocumentChunk, Double>> scoredChunks = new ArrayList<>();
         
-        for (DocumentChunk chunk : chunks.values()) {
-            if (chunk.getEmbedding() == null || chunk.getEmbedding().isEmpty()) {
+        for (DocumentChunk chunk : getAllChunks()) {
+            if (chunk.getEmbedding() == null || chunk.getEmbedding().length == 0) {
+                continue;
+            }
+            if (chunk.getEmbedding().length != queryEmbedding.length) {
+                // Indexed under a different embedding provider - skip until it is re-indexed
                 continue;
             }
             
             double similarity = cosineSimilarity(queryEmbedding, chunk.getEmbedding());
-            // Increased threshold to 0.65 for much better relevance - only return highly relevant articles
+            // Only return highly relevant articles (0.65 for Ollama embeddings)
             // This prevents irrelevant articles from being returned when Knowledge Base is small
-            if (similarity > 0.65) {
+            if (similarity > minSimilarity) {
                 scoredChunks.add(new AbstractMap.SimpleEntry<>(chunk, similarity));
-                System.out.println("  VectorStore: Chunk " + chunk.getId() + " (Article: " + chunk.getTitle() + ") similarity: " + String.format("%.4f", similarity) + " ✓ (above 0.65 threshold)");
+                System.out.println("  VectorStore: Chunk " + chunk.getId() + " (Article: " + chunk.getTitle() + ") similarity: " + String.format("%.4f", similarity) + " ✓ (above " + minSimilarity + " threshold)");
             } else {
-                System.out.println("  VectorStore: Chunk " + chunk.getId() + " (Article: " + chunk.getTitle() + ") similarity: " + String.format("%.4f", similarity) + " ✗ (below 0.65 threshold - not relevant enough)");
+                System.out.println("  VectorStore: Chunk " + chunk.getId() + " (Article: " + chunk.getTitle() + ") similarity: " + String.format("%.4f", similarity) + " ✗ (below " + minSimilarity + " threshold - not relevant enough)");
             }
         }
         
@@ -89,8 +450,8 @@ public class InMemoryVectorStore implements VectorStore {
      * @param vector2 Second vector
      * @return Cosine similarity (0 to 1, where 1 is identical)
      */
-    private double cosineSimilarity(List<Float> vector1, List<Float> vector2) {
-        if (vector1.size() != vector2.size()) {
+    private double cosineSimilarity(float[] vector1, float[] vector2) {
+        if (vector1.length != vector2.length) {
             throw new IllegalArgumentException("Vectors must have the same dimension");
         }
         
@@ -98,9 +459,9 @@ public class InMemoryVectorStore implements VectorStore {
         double norm1 = 0.0;
         double norm2 = 0.0;
         
-        for (int i = 0; i < vector1.size(); i++) {
-            float v1 = vector1.get(i);
-            float v2 = vector2.get(i);
+        for (int i = 0; i < vector1.length; i++) {
+            float v1 = vector1[i];
+            float v2 = vector2[i];
             dotProduct += v1 * v2;
             norm1 += v1 * v1;
             norm2 += v2 * v2;
@@ -113,14 +474,50 @@ public class InMemoryVectorStore implements VectorStore {
         return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
     }
     
+    @Override
+    public List<DocumentChunk> getAllChunks() {
+        List<DocumentChunk> all = new ArrayList<>();
+        for (List<DocumentChunk> articleChunks : chunksByArticle.values()) {
+            all.addAll(articleChunks);
+        }
+        return all;
+    }
+    
     @Override
     public int getChunkCount() {
-        return chunks.size();
+        int count = 0;
+        for (List<DocumentChunk> articleChunks : chunksByArticle.values()) {
+            count += articleChunks.size();
+        }
+        return count;
     }
     
     @Override
     public void clear() {
-        chunks.clear();
+        synchronized (dedupLock) {
+            if (textArena != null) {
+                Set<ChunkSource> released = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (Set<OffHeapChunkSource> sources : sourcesByArticle.values()) {
+                    for (OffHeapChunkSource source : sources) {
+                        if (released.add(source)) {
+                            textArena.release(source.getSlice());
+                        }
+                    }
+                }
+                for (List<DocumentChunk> articleChunks : chunksByArticle.values()) {
+                    for (DocumentChunk chunk : articleChunks) {
+                        if (chunk.getSource() instanceof OffHeapChunkSource offHeap && released.add(offHeap)) {
+                            textArena.release(offHeap.getSlice());
+                        }
+                    }
+                }
+            }
+            chunksByArticle.clear();
+            sourcesByArticle.clear();
+            lshBuckets.clear();
+            aliasesByCanonical.clear();
+            registeredCanonicals.clear();
+        }
     }
 }
 
@@ -0,0 +1,36 @@
+package com.prototype.rag.storage;
+
+import com.prototype.rag.chunking.ChunkSource;
+
+/**
+ * Chunk source whose text lives in the TextArena
+ * Offsets are UTF-8 byte offsets into the stored text; slices are decoded on demand.
+ */
+public class OffHeapChunkSource extends ChunkSource {
+    
+    private final TextArena arena;
+    private final TextArena.Slice slice;
+    
+    public OffHeapChunkSource(String title, String category, TextArena arena, TextArena.Slice slice) {
+        super(title, category);
+        this.arena = arena;
+        this.slice = slice;
+    }
+    
+    public TextArena.Slice getSlice() { return slice; }
+    
+    @Override
+    public int length() {
+        return slice.getLength();
+    }
+    
+    @Override
+    public String slice(int start, int end) {
+        return arena.read(slice, start, end);
+    }
+    
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+}
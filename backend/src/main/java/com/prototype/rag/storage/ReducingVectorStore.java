@@ -0,0 +1,568 @@
+package com.prototype.rag.storage;
+
+import com.prototype.rag.chunking.DocumentChunk;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * VectorStore decorator that reduces embedding dimension before storing and searching
+ * Modes (rag.reduction.mode):
+ *   none     - pass vectors through unchanged
+ *   truncate - keep the first N components (Matryoshka-style prefix, nomic-embed-text v1.5 is trained for this)
+ *   pca      - project onto the top N principal directions fitted on a sample of the stored corpus
+ * Queries go through the same projection, so stored and query vectors always share one space.
+ * A rebuild keeps serving with the current projection; the refitted one replaces it, together with
+ * every stored chunk's reprojected vector, in one step once the rebuild has finished.
+ */
+@Component
+@Primary
+public class ReducingVectorStore implements VectorStore {
+    
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int PCA_ITERATIONS = 20;
+    // Bounds of the recall report, which scans the whole sample at full dimension per query
+    public static final int MAX_REPORT_K = 100;
+    public static final int MAX_REPORT_QUERIES = 200;
+    
+    private final InMemoryVectorStore delegate;
+    private final String mode;
+    private final int targetDimension;
+    
+    // Full-dimension vectors kept (reservoir sampled) for fitting PCA and for the recall report
+    private final List<SampleVector> sample = new ArrayList<>();
+    private final Random random = new Random(42);
+    private long samplesSeen = 0;
+    
+    // Current reduction; null until fitted (pca) or first vector (truncate)
+    private volatile Reduction reduction;
+    // Full-dimension vectors of chunks stored since a rebuild started; null when no rebuild runs
+    private volatile Map<DocumentChunk, float[]> rebuildVectors;
+    // Searches and writes hold the read lock, so none of them sees half of a projection swap
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    
+    public ReducingVectorStore(InMemoryVectorStore delegate,
+                               @Value("${rag.reduction.mode:none}") String mode,
+                               @Value("${rag.reduction.dimension:256}") int targetDimension) {
+        this.delegate = delegate;
+        this.mode = mode.trim().toLowerCase();
+        this.targetDimension = targetDimension;
+        System.out.println("ReducingVectorStore initialized (mode: " + this.mode + ", dimension: " + targetDimension + ")");
+    }
+    
+    @Override
+    public void addChunk(DocumentChunk chunk) {
+        swapLock.readLock().lock();
+        try {
+            if (chunk != null && chunk.getEmbedding() != null && !"none".equals(mode)) {
+                reduceStored(chunk.getArticleId(), chunk);
+            }
+            delegate.addChunk(chunk);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public void addChunks(List<DocumentChunk> chunks) {
+        if (chunks == null) {
+            return;
+        }
+        for (DocumentChunk chunk : chunks) {
+            addChunk(chunk);
+        }
+    }
+    
+    @Override
+    public void removeChunksByArticleId(Long articleId) {
+        delegate.removeChunksByArticleId(articleId);
+        if (articleId != null) {
+            synchronized (sample) {
+                sample.removeIf(s -> articleId.equals(s.articleId));
+            }
+        }
+    }
+    
+    @Override
+    public void replaceArticleChunks(Long articleId, List<DocumentChunk> chunks) {
+        swapLock.readLock().lock();
+        try {
+            if (chunks != null && !"none".equals(mode)) {
+                // Chunks carried over unchanged are already reduced - only transform new ones
+                Set<DocumentChunk> stored = Collections.newSetFromMap(new IdentityHashMap<>());
+                stored.addAll(delegate.getChunksByArticleId(articleId));
+                for (DocumentChunk chunk : chunks) {
+                    if (stored.contains(chunk) || chunk.getEmbedding() == null) {
+                        continue;
+                    }
+                    reduceStored(articleId, chunk);
+                }
+            }
+            delegate.replaceArticleChunks(articleId, chunks);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+    
+    private void reduceStored(Long articleId, DocumentChunk chunk) {
+        float[] full = chunk.getEmbedding();
+        recordSample(articleId, full);
+        Map<DocumentChunk, float[]> pending = rebuildVectors;
+        if (pending != null) {
+            pending.put(chunk, full);
+        }
+        chunk.setEmbedding(reduce(full));
+    }
+    
+    @Override
+    public DocumentChunk findNearDuplicate(DocumentChunk chunk) {
+        return delegate.findNearDuplicate(chunk);
+    }
+    
+    @Override
+    public List<DocumentChunk> getChunksByArticleId(Long articleId) {
+        return delegate.getChunksByArticleId(articleId);
+    }
+    
+    @Override
+    public List<DocumentChunk> searchSimilar(float[] queryEmbedding, int topK) {
+        swapLock.readLock().lock();
+        try {
+            return delegate.searchSimilar(reduceQuery(queryEmbedding), topK);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public List<DocumentChunk> searchSimilar(float[] queryEmbedding, int topK, double minSimilarity) {
+        swapLock.readLock().lock();
+        try {
+            return delegate.searchSimilar(reduceQuery(queryEmbedding), topK, minSimilarity);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public List<DocumentChunk> getAllChunks() {
+        return delegate.getAllChunks();
+    }
+    
+    @Override
+    public int getChunkCount() {
+        return delegate.getChunkCount();
+    }
+    
+    @Override
+    public void clear() {
+        swapLock.writeLock().lock();
+        try {
+            delegate.clear();
+            reduction = null;
+            rebuildVectors = null;
+            synchronized (sample) {
+                sample.clear();
+                samplesSeen = 0;
+            }
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+    
+    private float[] reduceQuery(float[] queryEmbedding) {
+        if (queryEmbedding == null || "none".equals(mode)) {
+            return queryEmbedding;
+        }
+        return reduce(queryEmbedding);
+    }
+    
+    /**
+     * Apply the current reduction; vectors pass through unchanged while PCA is unfitted
+     * Vectors of another dimension (another embedding provider) also stay unreduced, so their
+     * length never matches the stored reduced vectors
+     */
+    private float[] reduce(float[] full) {
+        if (full.length <= targetDimension) {
+            return full;
+        }
+        Reduction current = reduction;
+        if (current == null && "truncate".equals(mode)) {
+            // The first vector after a reset fixes the full dimension
+            synchronized (swapLock) {
+                if (reduction == null) {
+                    reduction = new Reduction(full.length, null);
+                }
+                current = reduction;
+            }
+        }
+        if (current == null || current.fullDimension != full.length) {
+            return full;
+        }
+        return current.apply(full);
+    }
+    
+    private static float[] project(float[][] p, float[] full) {
+        float[] reduced = new float[p.length];
+        for (int i = 0; i < p.length; i++) {
+            float[] row = p[i];
+            double sum = 0.0;
+            for (int j = 0; j < full.length; j++) {
+                sum += row[j] * full[j];
+            }
+            reduced[i] = (float) sum;
+        }
+        return reduced;
+    }
+    
+    private void recordSample(Long articleId, float[] full) {
+        synchronized (sample) {
+            samplesSeen++;
+            if (sample.size() < SAMPLE_SIZE) {
+                sample.add(new SampleVector(articleId, full));
+            } else {
+                long slot = (long) (random.nextDouble() * samplesSeen);
+                if (slot < SAMPLE_SIZE) {
+                    sample.set((int) slot, new SampleVector(articleId, full));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Start collecting the vectors of a full re-index, e.g. after the embedding provider changed
+     * The current reduction keeps serving searches and new chunks until finishRebuild()
+     */
+    public synchronized void beginRebuild() {
+        if ("none".equals(mode)) {
+            return;
+        }
+        synchronized (sample) {
+            sample.clear();
+            samplesSeen = 0;
+        }
+        rebuildVectors = Collections.synchronizedMap(new IdentityHashMap<>());
+    }
+    
+    /**
+     * Keep the current reduction after a cancelled or failed re-index
+     * Chunks stored during it were already reduced with the current reduction.
+     */
+    public synchronized void cancelRebuild() {
+        rebuildVectors = null;
+    }
+    
+    /**
+     * Fit the reduction on the vectors of the finished re-index and swap it in
+     * Every stored chunk is reprojected from its full-dimension vector first; the new reduction and
+     * the new chunk vectors then replace the old ones in one step under the write lock. Chunks that
+     * were not re-embedded during the rebuild have no full-dimension vector left and drop out of
+     * vector search until their article is indexed again.
+     */
+    public synchronized void finishRebuild() {
+        Map<DocumentChunk, float[]> pending = rebuildVectors;
+        if (pending == null) {
+            return;
+        }
+        List<float[]> vectors = sampleVectors();
+        Reduction next = fitReduction(vectors);
+        if (next == null) {
+            rebuildVectors = null;
+            return;
+        }
+        
+        // Project outside the lock; chunks stored meanwhile are projected during the swap
+        Map<DocumentChunk, float[]> projected = new IdentityHashMap<>();
+        synchronized (pending) {
+            for (Map.Entry<DocumentChunk, float[]> entry : pending.entrySet()) {
+                if (entry.getValue().length == next.fullDimension) {
+                    projected.put(entry.getKey(), next.apply(entry.getValue()));
+                }
+            }
+        }
+        
+        int reprojected = 0;
+        int dropped = 0;
+        swapLock.writeLock().lock();
+        try {
+            for (DocumentChunk chunk : delegate.getAllChunks()) {
+                float[] current = chunk.getEmbedding();
+                if (current == null) {
+                    continue;
+                }
+                float[] reduced = projected.get(chunk);
+                if (reduced == null) {
+                    float[] full = pending.get(chunk);
+                    if (full == null && current.length == next.fullDimension) {
+                        full = current;
+                    }
+                    reduced = full != null && full.length == next.fullDimension ? next.apply(full) : null;
+                }
+                if (reduced != null) {
+                    chunk.setEmbedding(reduced);
+                    reprojected++;
+                } else {
+                    chunk.setEmbedding(null);
+                    dropped++;
+                }
+            }
+            reduction = next;
+            rebuildVectors = null;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+        System.out.println("ReducingVectorStore: Swapped in " + next.describe() + ", reprojected " + reprojected +
+            " stored chunks" + (dropped > 0 ? ", " + dropped + " without a re-embedded vector left out of search" : ""));
+    }
+    
+    /**
+     * Build the reduction for the sampled vectors, or null if there is nothing to reduce
+     * PCA uses the uncentered second-moment matrix so dot products - and therefore the cosine
+     * similarity thresholds tuned on raw embeddings - are preserved as closely as possible
+     */
+    private Reduction fitReduction(List<float[]> vectors) {
+        if (vectors.isEmpty()) {
+            System.out.println("ReducingVectorStore: No vectors to fit on, keeping the current reduction");
+            return null;
+        }
+        int d = vectors.get(0).length;
+        if (targetDimension >= d) {
+            System.out.println("ReducingVectorStore: Target dimension " + targetDimension + " >= embedding dimension " + d + ", nothing to reduce");
+            return null;
+        }
+        if ("truncate".equals(mode)) {
+            return new Reduction(d, null);
+        }
+        
+        long start = System.currentTimeMillis();
+        float[][] components = topEigenvectors(secondMoment(vectors, d), targetDimension);
+        System.out.println("ReducingVectorStore: Fitted PCA " + d + " -> " + targetDimension + " on " + vectors.size() +
+            " vectors in " + (System.currentTimeMillis() - start) + "ms");
+        return new Reduction(d, components);
+    }
+    
+    private List<float[]> sampleVectors() {
+        synchronized (sample) {
+            List<float[]> vectors = new ArrayList<>(sample.size());
+            int d = sample.isEmpty() ? -1 : sample.get(sample.size() - 1).vector.length;
+            for (SampleVector s : sample) {
+                // Ignore leftovers from a different embedding provider
+                if (s.vector.length == d) {
+                    vectors.add(s.vector);
+                }
+            }
+            return vectors;
+        }
+    }
+    
+    private static double[][] secondMoment(List<float[]> vectors, int d) {
+        double[][] m = new double[d][d];
+        for (float[] v : vectors) {
+            for (int i = 0; i < d; i++) {
+                double vi = v[i];
+                if (vi == 0.0) {
+                    continue;
+                }
+                double[] row = m[i];
+                for (int j = i; j < d; j++) {
+                    row[j] += vi * v[j];
+                }
+            }
+        }
+        double n = vectors.size();
+        for (int i = 0; i < d; i++) {
+            for (int j = i; j < d; j++) {
+                m[i][j] /= n;
+                m[j][i] = m[i][j];
+            }
+        }
+        return m;
+    }
+    
+    /**
+     * Top-k eigenvectors of a symmetric matrix by orthogonal (subspace) iteration
+     */
+    private float[][] topEigenvectors(double[][] m, int k) {
+        int d = m.length;
+        double[][] q = new double[k][d];
+        Random init = new Random(7);
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < d; j++) {
+                q[i][j] = init.nextGaussian();
+            }
+        }
+        orthonormalize(q);
+        
+        double[][] next = new double[k][d];
+        for (int iter = 0; iter < PCA_ITERATIONS; iter++) {
+            for (int c = 0; c < k; c++) {
+                double[] qc = q[c];
+                double[] out = next[c];
+                for (int i = 0; i < d; i++) {
+                    double[] row = m[i];
+                    double sum = 0.0;
+                    for (int j = 0; j < d; j++) {
+                        sum += row[j] * qc[j];
+                    }
+                    out[i] = sum;
+                }
+            }
+            double[][] swap = q;
+            q = next;
+            next = swap;
+            orthonormalize(q);
+        }
+        
+        float[][] result = new float[k][d];
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < d; j++) {
+                result[i][j] = (float) q[i][j];
+            }
+        }
+        return result;
+    }
+    
+    private static void orthonormalize(double[][] q) {
+        for (int i = 0; i < q.length; i++) {
+            double[] qi = q[i];
+            for (int p = 0; p < i; p++) {
+                double[] qp = q[p];
+                double dot = 0.0;
+                for (int j = 0; j < qi.length; j++) {
+                    dot += qi[j] * qp[j];
+                }
+                for (int j = 0; j < qi.length; j++) {
+                    qi[j] -= dot * qp[j];
+                }
+            }
+            double norm = 0.0;
+            for (double v : qi) {
+                norm += v * v;
+            }
+            norm = Math.sqrt(norm);
+            if (norm > 0.0) {
+                for (int j = 0; j < qi.length; j++) {
+                    qi[j] /= norm;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Compare reduced search against full-dimension search on the sampled vectors
+     * Each sampled vector is used as a query against the rest of the sample; recall@k is the
+     * fraction of its full-dimension top-k neighbours that the reduced search also returns
+     * @param k Neighbours per query, 1 to MAX_REPORT_K
+     * @param maxQueries Maximum number of sampled vectors to use as queries, 1 to MAX_REPORT_QUERIES
+     * @return Report with recall and the scan-cost ratio
+     * @throws IllegalArgumentException If k or maxQueries is out of range
+     */
+    public Map<String, Object> getRecallReport(int k, int maxQueries) {
+        // Each query is an exact full-dimension scan over the sample, so both are bounded
+        if (k < 1 || k > MAX_REPORT_K) {
+            throw new IllegalArgumentException("k must be between 1 and " + MAX_REPORT_K);
+        }
+        if (maxQueries < 1 || maxQueries > MAX_REPORT_QUERIES) {
+            throw new IllegalArgumentException("queries must be between 1 and " + MAX_REPORT_QUERIES);
+        }
+        List<float[]> vectors = sampleVectors();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("mode", mode);
+        Reduction current = reduction;
+        report.put("fullDimension", !vectors.isEmpty() ? vectors.get(0).length : current != null ? current.fullDimension : -1);
+        report.put("sampleSize", vectors.size());
+        report.put("k", k);
+        
+        if ("none".equals(mode) || vectors.size() <= k) {
+            report.put("reducedDimension", report.get("fullDimension"));
+            report.put("queries", 0);
+            report.put("recallAtK", 1.0);
+            return report;
+        }
+        
+        List<float[]> reduced = new ArrayList<>(vectors.size());
+        for (float[] v : vectors) {
+            reduced.add(reduce(v));
+        }
+        int reducedDimension = reduced.get(0).length;
+        int queries = Math.min(maxQueries, vectors.size());
+        
+        double recallSum = 0.0;
+        for (int q = 0; q < queries; q++) {
+            Set<Integer> exact = nearest(vectors, q, k);
+            Set<Integer> approx = nearest(reduced, q, k);
+            approx.retainAll(exact);
+            recallSum += (double) approx.size() / exact.size();
+        }
+        
+        report.put("reducedDimension", reducedDimension);
+        report.put("queries", queries);
+        report.put("recallAtK", recallSum / queries);
+        report.put("scanCostRatio", (double) reducedDimension / vectors.get(0).length);
+        return report;
+    }
+    
+    private static Set<Integer> nearest(List<float[]> vectors, int queryIndex, int k) {
+        float[] query = vectors.get(queryIndex);
+        PriorityQueue<double[]> heap = new PriorityQueue<>(Comparator.comparingDouble(e -> e[0]));
+        for (int i = 0; i < vectors.size(); i++) {
+            if (i == queryIndex) {
+                continue;
+            }
+            heap.add(new double[] {cosine(query, vectors.get(i)), i});
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+        Set<Integer> result = new HashSet<>();
+        for (double[] entry : heap) {
+            result.add((int) entry[1]);
+        }
+        return result;
+    }
+    
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0.0, na = 0.0, nb = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return na == 0.0 || nb == 0.0 ? 0.0 : dot / (Math.sqrt(na) * Math.sqrt(nb));
+    }
+    
+    /**
+     * Immutable reduction from one full dimension; a null projection keeps the leading components
+     */
+    private class Reduction {
+        final int fullDimension;
+        // Row-major (targetDimension x fullDimension)
+        final float[][] projection;
+        
+        Reduction(int fullDimension, float[][] projection) {
+            this.fullDimension = fullDimension;
+            this.projection = projection;
+        }
+        
+        float[] apply(float[] full) {
+            return projection != null ? project(projection, full) : Arrays.copyOf(full, targetDimension);
+        }
+        
+        String describe() {
+            return (projection != null ? "PCA " : "truncation ") + fullDimension + " -> " + targetDimension;
+        }
+    }
+    
+    private static class SampleVector {
+        final Long articleId;
+        final float[] vector;
+        
+        SampleVector(Long articleId, float[] vector) {
+            this.articleId = articleId;
+            this.vector = vector;
+        }
+    }
+}
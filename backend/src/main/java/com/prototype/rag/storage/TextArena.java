@@ -0,0 +1,330 @@
+package com.prototype.rag.storage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Off-heap store for chunk source text
+ * Text is kept as UTF-8 in fixed-size segments (direct ByteBuffers or regions of a memory-mapped
+ * file) and addressed by (segment, offset, length), so large knowledge bases add little to the
+ * Java heap. Released slices are reclaimed after a grace period, since search results built
+ * just before an article changed may still read them; a segment is reused once all its slices are gone.
+ * Reclaiming runs on writes and releases and on a timer, so a read-mostly node frees space too. In
+ * mapped mode a freed oversized segment keeps its file region for later oversized text, so re-indexing
+ * does not keep growing the file.
+ */
+@Component
+public class TextArena {
+    
+    private final String mode;
+    private final int segmentSize;
+    private final long graceMillis;
+    
+    private final Object lock = new Object();
+    private final List<Segment> segments = new ArrayList<>();
+    private final Deque<Segment> freeSegments = new ArrayDeque<>();
+    // Freed oversized segments of the mapped file, by capacity; direct ones are left to the GC instead
+    private final TreeMap<Integer, Deque<Segment>> freeDedicated = new TreeMap<>();
+    private final Deque<PendingRelease> pending = new ArrayDeque<>();
+    private Segment current;
+    private long liveBytes = 0;
+    
+    private FileChannel channel;
+    private Path file;
+    private long fileEnd = 0;
+    
+    private ScheduledExecutorService reclaimer;
+    
+    public TextArena(@Value("${rag.text-arena.mode:direct}") String mode,
+                     @Value("${rag.text-arena.segment-size-mb:4}") int segmentSizeMb,
+                     @Value("${rag.text-arena.file:}") String file,
+                     @Value("${rag.text-arena.grace-seconds:30}") long graceSeconds) {
+        this.mode = mode.trim().toLowerCase();
+        this.segmentSize = Math.max(1, segmentSizeMb) * 1024 * 1024;
+        this.graceMillis = Math.max(0, graceSeconds) * 1000;
+        if ("mapped".equals(this.mode)) {
+            try {
+                this.file = file == null || file.isBlank()
+                    ? Files.createTempFile("rag-text-arena", ".bin")
+                    : Path.of(file);
+                this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                this.file.toFile().deleteOnExit();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open text arena file", e);
+            }
+        }
+        System.out.println("TextArena initialized (mode: " + this.mode + ", segment size: " + segmentSizeMb + "MB" +
+            (this.file != null ? ", file: " + this.file : "") + ")");
+    }
+    
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        reclaimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "text-arena-reclaim");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMillis = Math.max(1000, graceMillis);
+        reclaimer.scheduleWithFixedDelay(() -> {
+            synchronized (lock) {
+                reclaim(System.currentTimeMillis());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Whether chunk text should be moved into the arena ("heap" keeps it as Java strings)
+     */
+    public boolean isEnabled() {
+        return "direct".equals(mode) || "mapped".equals(mode);
+    }
+    
+    /**
+     * Copy text into the arena
+     * @return Handle for reading the text back
+     */
+    public Slice store(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        synchronized (lock) {
+            reclaim(System.currentTimeMillis());
+            Segment segment;
+            if (bytes.length > segmentSize) {
+                // Oversized text gets a segment of its own, dropped (or kept for reuse) when the text is released
+                segment = dedicatedSegment(bytes.length);
+            } else {
+                if (current == null || current.capacity - current.used < bytes.length) {
+                    Segment previous = current;
+                    current = freeSegments.isEmpty() ? newSegment(segmentSize, false) : freeSegments.poll();
+                    if (previous != null && previous.live == 0) {
+                        recycle(previous);
+                    }
+                }
+                segment = current;
+            }
+            int offset = segment.used;
+            segment.buffer.put(offset, bytes);
+            segment.used += bytes.length;
+            segment.live += bytes.length;
+            liveBytes += bytes.length;
+            return new Slice(segment, offset, bytes.length);
+        }
+    }
+    
+    /**
+     * Decode part of a slice
+     * @param slice Handle returned by store()
+     * @param start Start offset in UTF-8 bytes, relative to the slice
+     * @param end End offset in UTF-8 bytes (exclusive)
+     */
+    public String read(Slice slice, int start, int end) {
+        if (start < 0 || end > slice.length || start > end) {
+            throw new IndexOutOfBoundsException("Slice range " + start + ".." + end + " of " + slice.length);
+        }
+        byte[] bytes = new byte[end - start];
+        slice.segment.buffer.get(slice.offset + start, bytes);
+        // Checked after copying: a reclaimed slice's segment may already hold other text
+        if (slice.released) {
+            throw new IllegalStateException("Text arena slice was released");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Give a slice back; its space is reused after the grace period
+     */
+    public void release(Slice slice) {
+        synchronized (lock) {
+            long now = System.currentTimeMillis();
+            reclaim(now);
+            pending.addLast(new PendingRelease(slice, now + graceMillis));
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        synchronized (lock) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long capacity = 0;
+            for (Segment segment : segments) {
+                capacity += segment.capacity;
+            }
+            stats.put("mode", mode);
+            stats.put("segments", segments.size());
+            stats.put("capacityBytes", capacity);
+            stats.put("liveBytes", liveBytes);
+            stats.put("pendingReleases", pending.size());
+            if (channel != null) {
+                long freeDedicatedBytes = 0;
+                for (Map.Entry<Integer, Deque<Segment>> entry : freeDedicated.entrySet()) {
+                    freeDedicatedBytes += (long) entry.getKey() * entry.getValue().size();
+                }
+                stats.put("fileBytes", fileEnd);
+                stats.put("freeDedicatedBytes", freeDedicatedBytes);
+            }
+            return stats;
+        }
+    }
+    
+    private void reclaim(long now) {
+        while (!pending.isEmpty() && pending.peekFirst().due <= now) {
+            Slice slice = pending.pollFirst().slice;
+            if (slice.released) {
+                continue;
+            }
+            slice.released = true;
+            slice.segment.live -= slice.length;
+            liveBytes -= slice.length;
+            if (slice.segment.live == 0 && slice.segment != current) {
+                recycle(slice.segment);
+            }
+        }
+    }
+    
+    private void recycle(Segment segment) {
+        segment.used = 0;
+        if (segment.dedicated) {
+            segments.remove(segment);
+            if (channel != null) {
+                freeDedicated.computeIfAbsent(segment.capacity, c -> new ArrayDeque<>()).addLast(segment);
+            }
+        } else {
+            freeSegments.addLast(segment);
+        }
+    }
+    
+    // Smallest freed oversized segment that fits, else a new one
+    private Segment dedicatedSegment(int capacity) {
+        Map.Entry<Integer, Deque<Segment>> fit = freeDedicated.ceilingEntry(capacity);
+        if (fit == null) {
+            return newSegment(capacity, true);
+        }
+        Segment segment = fit.getValue().pollFirst();
+        if (fit.getValue().isEmpty()) {
+            freeDedicated.remove(fit.getKey());
+        }
+        segments.add(segment);
+        return segment;
+    }
+    
+    private Segment newSegment(int capacity, boolean dedicated) {
+        ByteBuffer buffer;
+        if ("mapped".equals(mode)) {
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, fileEnd, capacity);
+                fileEnd += capacity;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map text arena segment", e);
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        Segment segment = new Segment(buffer, capacity, dedicated);
+        segments.add(segment);
+        return segment;
+    }
+    
+    /**
+     * UTF-8 byte offsets for character offsets of a string
+     * @param text The text
+     * @param charOffsets Character offsets, ascending
+     * @return Byte offsets, aligned with charOffsets
+     */
+    public static int[] utf8Offsets(String text, int[] charOffsets) {
+        int[] byteOffsets = new int[charOffsets.length];
+        int bytes = 0;
+        int position = 0;
+        for (int i = 0; i < charOffsets.length; i++) {
+            int target = charOffsets[i];
+            while (position < target) {
+                char c = text.charAt(position++);
+                if (c < 0x80) {
+                    bytes += 1;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c) && position < text.length() && Character.isLowSurrogate(text.charAt(position))) {
+                    // A surrogate pair encodes as 4 bytes
+                    position++;
+                    bytes += 4;
+                } else {
+                    bytes += 3;
+                }
+            }
+            byteOffsets[i] = bytes;
+        }
+        return byteOffsets;
+    }
+    
+    @PreDestroy
+    public void close() {
+        if (reclaimer != null) {
+            reclaimer.shutdownNow();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("TextArena: Failed to close arena file: " + e.getMessage());
+            }
+        }
+    }
+    
+    private static class Segment {
+        final ByteBuffer buffer;
+        final int capacity;
+        final boolean dedicated;
+        int used;
+        int live;
+        
+        Segment(ByteBuffer buffer, int capacity, boolean dedicated) {
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.dedicated = dedicated;
+        }
+    }
+    
+    private static class PendingRelease {
+        final Slice slice;
+        final long due;
+        
+        PendingRelease(Slice slice, long due) {
+            this.slice = slice;
+            this.due = due;
+        }
+    }
+    
+    /**
+     * Handle to text stored in the arena
+     */
+    public static final class Slice {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private volatile boolean released = false;
+        
+        private Slice(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        public int getLength() { return length; }
+    }
+}
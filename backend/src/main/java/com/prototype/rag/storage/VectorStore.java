@@ -27,13 +27,53 @@ public interface VectorStore {
      */
     void removeChunksByArticleId(Long articleId);
     
+    /**
+     * Atomically replace every chunk of an article
+     * Searches see either the old chunk set or the new one, never a mix or an empty article
+     * @param articleId The article ID
+     * @param chunks The article's complete new chunk set (with embeddings)
+     */
+    void replaceArticleChunks(Long articleId, List<DocumentChunk> chunks);
+    
+    /**
+     * Find a stored chunk of another article whose text is a near-duplicate of the given chunk
+     * A duplicate can then be stored pointing at that chunk instead of being embedded again
+     * @param chunk A chunk about to be indexed (with its SimHash set)
+     * @return The stored chunk to share, or null if there is none
+     */
+    default DocumentChunk findNearDuplicate(DocumentChunk chunk) {
+        return null;
+    }
+    
+    /**
+     * Get the chunks currently stored for an article
+     * @param articleId The article ID
+     * @return The article's chunks (empty if none)
+     */
+    List<DocumentChunk> getChunksByArticleId(Long articleId);
+    
     /**
      * Search for similar chunks using cosine similarity
      * @param queryEmbedding The embedding of the query
      * @param topK Number of results to return
      * @return List of similar document chunks, sorted by similarity (highest first)
      */
-    List<DocumentChunk> searchSimilar(List<Float> queryEmbedding, int topK);
+    List<DocumentChunk> searchSimilar(float[] queryEmbedding, int topK);
+    
+    /**
+     * Search for similar chunks using cosine similarity with an explicit relevance threshold
+     * @param queryEmbedding The embedding of the query
+     * @param topK Number of results to return
+     * @param minSimilarity Minimum cosine similarity for a chunk to be returned
+     * @return List of similar document chunks, sorted by similarity (highest first)
+     */
+    List<DocumentChunk> searchSimilar(float[] queryEmbedding, int topK, double minSimilarity);
+    
+    /**
+     * Get a snapshot of every chunk in the store
+     * @return List of all stored chunks
+     */
+    List<DocumentChunk> getAllChunks();
     
     /**
      * Get the total number of chunks in the store
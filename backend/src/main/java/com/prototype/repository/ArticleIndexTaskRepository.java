@@ -0,0 +1,46 @@
+package com.prototype.repository;
+
+import com.prototype.entity.ArticleIndexTask;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ArticleIndexTaskRepository extends JpaRepository<ArticleIndexTask, Long> {
+    Optional<ArticleIndexTask> findByArticleId(Long articleId);
+    List<ArticleIndexTask> findByPendingTrueAndNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(LocalDateTime now, Pageable pageable);
+    long countByPendingTrue();
+    long countByPendingTrueAndAttemptsGreaterThan(Integer attempts);
+    
+    // Re-queues an article's task for an article write; bumps the version without checking it, so
+    // concurrent writes of one article never conflict while the worker's completion for an older version fails
+    @Modifying
+    @Transactional
+    @Query("UPDATE ArticleIndexTask t SET t.operation = :operation, t.pending = true, t.attempts = 0, " +
+           "t.nextAttemptAt = :now, t.lastError = null, t.updatedAt = :now, t.version = t.version + 1 " +
+           "WHERE t.articleId = :articleId")
+    int requeue(@Param("articleId") Long articleId, @Param("operation") ArticleIndexTask.Operation operation,
+                @Param("now") LocalDateTime now);
+    
+    // Bulk updates leave the version alone, so they only succeed if no edit arrived while the task ran
+    @Modifying
+    @Transactional
+    @Query("UPDATE ArticleIndexTask t SET t.pending = false, t.lastError = null, t.updatedAt = :now " +
+           "WHERE t.id = :id AND t.version = :version")
+    int markCompleted(@Param("id") Long id, @Param("version") Long version, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE ArticleIndexTask t SET t.attempts = t.attempts + 1, t.nextAttemptAt = :nextAttemptAt, " +
+           "t.lastError = :error, t.updatedAt = :now WHERE t.id = :id AND t.version = :version")
+    int markFailed(@Param("id") Long id, @Param("version") Long version, @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                   @Param("error") String error, @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,12 @@
+package com.prototype.repository;
+
+import com.prototype.entity.ConversationSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, Long> {
+    Optional<ConversationSummary> findByTicketId(Long ticketId);
+}
@@ -0,0 +1,16 @@
+package com.prototype.service;
+
+/**
+ * Published when an AI rule, chatbot action or AI configuration is written
+ * Listeners holding prompt material derived from them must rebuild it
+ */
+public class AIConfigChangedEvent {
+    
+    private final String reason;
+    
+    public AIConfigChangedEvent(String reason) {
+        this.reason = reason;
+    }
+    
+    public String getReason() { return reason; }
+}
@@ -0,0 +1,67 @@
+package com.prototype.service;
+
+import com.prototype.entity.AIConfiguration;
+import com.prototype.entity.AIRule;
+import com.prototype.entity.ChatbotAction;
+
+import java.util.List;
+
+/**
+ * One version of the AI rules, active chatbot actions and main configuration
+ * Never modified after it is built; a change produces a new snapshot that replaces this one as a whole,
+ * so a chatbot turn sees one consistent version. The ticket-independent prompt sections are rendered
+ * once per version. The entities are shared between requests and must be treated as read-only.
+ */
+public final class AIConfigSnapshot {
+    
+    private final long version;
+    private final long builtAt;
+    private final List<AIRule> rules;
+    private final List<ChatbotAction> activeActions;
+    private final AIConfiguration configuration;
+    private final String rulesPrompt;
+    private final String configurationPrompt;
+    private final String actionsPrompt;
+    private final boolean answerCachingAllowed;
+    
+    AIConfigSnapshot(long version, List<AIRule> rules, List<ChatbotAction> activeActions, AIConfiguration configuration,
+                     String rulesPrompt, String configurationPrompt, String actionsPrompt) {
+        this.version = version;
+        this.builtAt = System.currentTimeMillis();
+        this.rules = List.copyOf(rules);
+        this.activeActions = List.copyOf(activeActions);
+        this.configuration = configuration;
+        this.rulesPrompt = rulesPrompt;
+        this.configurationPrompt = configurationPrompt;
+        this.actionsPrompt = actionsPrompt;
+        // Every rule is part of every prompt, so a single opted-out rule disables caching
+        this.answerCachingAllowed = this.rules.stream().noneMatch(rule -> Boolean.FALSE.equals(rule.getCacheAnswers()));
+    }
+    
+    public long getVersion() { return version; }
+    public long getBuiltAt() { return builtAt; }
+    
+    /**
+     * All rules, ordered by category and display order
+     */
+    public List<AIRule> getRules() { return rules; }
+    public List<ChatbotAction> getActiveActions() { return activeActions; }
+    public AIConfiguration getConfiguration() { return configuration; }
+    
+    /**
+     * Rules prompt with template variables left in place (AIRuleService.getAllRulesAsPrompt(null))
+     */
+    public String getRulesPrompt() { return rulesPrompt; }
+    
+    /**
+     * Legacy configuration prompt without ticket (AIConfigurationService.getAllActiveConfigurationsAsPrompt())
+     */
+    public String getConfigurationPrompt() { return configurationPrompt; }
+    
+    /**
+     * Available-actions section of the chatbot prompt; empty when there are no active actions
+     */
+    public String getActionsPrompt() { return actionsPrompt; }
+    
+    public boolean isAnswerCachingAllowed() { return answerCachingAllowed; }
+}
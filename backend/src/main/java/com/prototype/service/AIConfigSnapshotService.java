@@ -0,0 +1,116 @@
+package com.prototype.service;
+
+import com.prototype.entity.AIConfiguration;
+import com.prototype.entity.AIRule;
+import com.prototype.entity.ChatbotAction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the current AIConfigSnapshot
+ * The snapshot is built on first use and rebuilt after a rule, action or configuration write commits
+ * (AIConfigChangedEvent); readers never wait for a rebuild except the very first one. A snapshot older
+ * than max-age is refreshed by the next read while other readers keep using it, which picks up writes
+ * that bypass the services (other instances, direct SQL).
+ */
+@Service
+public class AIConfigSnapshotService {
+    
+    @Autowired
+    private AIRuleService airuleService;
+    
+    @Autowired
+    private ChatbotActionService chatbotActionService;
+    
+    @Autowired
+    private AIConfigurationService configurationService;
+    
+    @Value("${chatbot.config-snapshot.max-age-seconds:300}")
+    private long maxAgeSeconds;
+    
+    private final AtomicReference<AIConfigSnapshot> current = new AtomicReference<>();
+    private final AtomicLong versions = new AtomicLong();
+    // Serializes rebuilds; a lock rather than synchronized because building reads from the database
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    
+    /**
+     * The current snapshot, building it if there is none yet
+     */
+    public AIConfigSnapshot current() {
+        AIConfigSnapshot snapshot = current.get();
+        if (snapshot == null) {
+            rebuildLock.lock();
+            try {
+                snapshot = current.get();
+                return snapshot != null ? snapshot : rebuild();
+            } finally {
+                rebuildLock.unlock();
+            }
+        }
+        if (maxAgeSeconds > 0 && System.currentTimeMillis() - snapshot.getBuiltAt() > maxAgeSeconds * 1000
+                && rebuildLock.tryLock()) {
+            // Whoever gets the lock refreshes; everyone else keeps using the old snapshot meanwhile
+            try {
+                if (current.get() == snapshot) {
+                    return rebuild();
+                }
+            } catch (Exception e) {
+                System.err.println("AIConfigSnapshotService: Refresh failed, keeping version " + snapshot.getVersion() + ": " + e.getMessage());
+            } finally {
+                rebuildLock.unlock();
+            }
+            return current.get();
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Rebuild once the write that published the event has committed
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConfigChanged(AIConfigChangedEvent event) {
+        rebuildLock.lock();
+        try {
+            rebuild();
+            System.out.println("AIConfigSnapshotService: Rebuilt snapshot after " + event.getReason());
+        } catch (Exception e) {
+            // Drop the outdated snapshot; the next read builds a fresh one
+            current.set(null);
+            System.err.println("AIConfigSnapshotService: Rebuild after " + event.getReason() + " failed: " + e.getMessage());
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+    
+    // Caller holds rebuildLock
+    private AIConfigSnapshot rebuild() {
+        List<AIRule> rules = airuleService.getAllRules();
+        List<ChatbotAction> actions = chatbotActionService.getActiveActions();
+        AIConfiguration configuration = configurationService.getMainConfiguration();
+        // Parse rule and configuration templates now, while saving, rather than on every ticket prompt
+        List<String> templates = new java.util.ArrayList<>(rules.stream().map(AIRule::getContent).toList());
+        templates.add(configuration.getGeneralRules());
+        templates.add(configuration.getEscalationProcesses());
+        templates.add(configuration.getEdgeCaseRules());
+        configurationService.precompileTemplates(templates);
+        AIConfigSnapshot snapshot = new AIConfigSnapshot(
+            versions.incrementAndGet(),
+            rules,
+            actions,
+            configuration,
+            airuleService.renderRulesAsPrompt(rules, null),
+            configurationService.buildPromptFromConfiguration(configuration, null),
+            chatbotActionService.renderActionsAsPrompt(actions));
+        current.set(snapshot);
+        System.out.println("AIConfigSnapshotService: Built version " + snapshot.getVersion() + " (" + rules.size() +
+            " rules, " + actions.size() + " active actions)");
+        return snapshot;
+    }
+}
@@ -5,11 +5,11 @@ import com.prototype.entity.Ticket;
 import com.prototype.entity.User;
 import com.prototype.repository.AIConfigurationRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class AIConfigurationService {
@@ -20,8 +20,13 @@ public class AIConfigurationService {
     @Autowired(required = false)
     private com.prototype.service.MetadataService metadataService;
     
-    // Pattern for template variables like {{user.name}}, {{user.location}}, etc.
-    private static final Pattern TEMPLATE_PATTERN = Pattern.compile("\\{\\{([^}]+)\\}\\}");
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    // Compiled templates by source text; replaced wholesale by precompileTemplates() when rules or configuration change
+    private volatile Map<String, PromptTemplate> compiledTemplates = new ConcurrentHashMap<>();
+    // Bound for texts compiled on demand (e.g. ad-hoc calls with text that is not a rule)
+    private static final int MAX_COMPILED_TEMPLATES = 1000;
     
     /**
      * Get the main AI configuration (there should only be one)
@@ -73,8 +78,12 @@ public class AIConfigurationService {
     
     /**
      * Build prompt from configuration with priority hierarchy
+     * @param ticket Ticket for template variables, or null to leave them in place
      */
-    private String buildPromptFromConfiguration(AIConfiguration config, Ticket ticket) {
+    public String buildPromptFromConfiguration(AIConfiguration config, Ticket ticket) {
+        // Variables shared by the three sections are resolved once
+        Map<String, String> values = resolveTemplateVariables(
+            Arrays.asList(config.getGeneralRules(), config.getEscalationProcesses(), config.getEdgeCaseRules()), ticket);
         StringBuilder prompt = new StringBuilder();
         prompt.append("=== AI CUSTOMER SERVICE GUIDELINES ===\n\n");
         
@@ -82,7 +91,7 @@ public class AIConfigurationService {
         if (config.getGeneralRules() != null && !config.getGeneralRules().trim().isEmpty()) {
             prompt.append("=== GENERAL GUIDELINES ===\n");
             prompt.append("These guidelines provide the foundation for all interactions. Use them to inform your approach.\n\n");
-            String generalRules = replaceTemplateVariables(config.getGeneralRules(), ticket);
+            String generalRules = renderTemplate(config.getGeneralRules(), ticket, values);
             prompt.append(generalRules).append("\n\n");
         }
         
@@ -90,7 +99,7 @@ public class AIConfigurationService {
         if (config.getEscalationProcesses() != null && !config.getEscalationProcesses().trim().isEmpty()) {
             prompt.append("=== ESCALATION GUIDELINES ===\n");
             prompt.append("When escalation is needed, these guidelines take precedence over general guidelines.\n\n");
-            String escalation = replaceTemplateVariables(config.getEscalationProcesses(), ticket);
+            String escalation = renderTemplate(config.getEscalationProcesses(), ticket, values);
             prompt.append(escalation).append("\n\n");
         }
         
@@ -98,7 +107,7 @@ public class AIConfigurationService {
         if (config.getEdgeCaseRules() != null && !config.getEdgeCaseRules().trim().isEmpty()) {
             prompt.append("=== EDGE CASE GUIDELINES ===\n");
             prompt.append("For specific edge cases, these guidelines take highest priority.\n\n");
-            String edgeCases = replaceTemplateVariables(config.getEdgeCaseRules(), ticket);
+            String edgeCases = renderTemplate(config.getEdgeCaseRules(), ticket, values);
             prompt.append(edgeCases).append("\n\n");
         }
         
@@ -130,49 +139,117 @@ public class AIConfigurationService {
             return text;
         }
         
-        Matcher matcher = TEMPLATE_PATTERN.matcher(text);
-        StringBuffer sb = new StringBuffer();
-        
-        while (matcher.find()) {
-            String variable = matcher.group(1).trim();
-            String replacement = getVariableValue(variable, ticket);
-            // If replacement is empty, replace with empty string (removes the {{variable}} syntax)
-            // This prevents the AI from seeing literal {{user.name}} in the prompt
-            replacement = replacement.replace("$", "\\$");
-            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        PromptTemplate template = compileTemplate(text);
+        if (!template.hasVariables()) {
+            return text;
         }
-        matcher.appendTail(sb);
-        
-        return sb.toString();
+        // If a variable cannot be resolved it renders as empty, which removes the {{variable}} syntax
+        // This prevents the AI from seeing literal {{user.name}} in the prompt
+        return template.render(resolveVariableValues(template.getVariables(), ticket));
+    }
+    
+    /**
+     * Render text that is part of a larger prompt whose variables were resolved together (see resolveTemplateVariables)
+     * Same rules as replaceTemplateVariables: with no ticket the text is returned as-is.
+     */
+    public String renderTemplate(String text, Ticket ticket, Map<String, String> values) {
+        if (text == null || text.trim().isEmpty() || ticket == null) {
+            return text;
+        }
+        return compileTemplate(text).render(values);
+    }
+    
+    /**
+     * Compiled form of a template text, parsed at most once per distinct text
+     */
+    public PromptTemplate compileTemplate(String text) {
+        Map<String, PromptTemplate> templates = compiledTemplates;
+        PromptTemplate template = templates.get(text);
+        if (template == null) {
+            if (templates.size() >= MAX_COMPILED_TEMPLATES) {
+                templates.clear();
+            }
+            template = templates.computeIfAbsent(text, PromptTemplate::compile);
+        }
+        return template;
+    }
+    
+    /**
+     * Compile the current rule and configuration texts ahead of use, dropping templates of texts that are gone
+     * Called whenever rules or the configuration are saved.
+     */
+    public void precompileTemplates(Collection<String> texts) {
+        Map<String, PromptTemplate> templates = new ConcurrentHashMap<>();
+        for (String text : texts) {
+            if (text != null && !text.trim().isEmpty()) {
+                templates.computeIfAbsent(text, PromptTemplate::compile);
+            }
+        }
+        compiledTemplates = templates;
     }
     
     /**
-     * Get the value for a template variable
+     * Resolve every distinct variable used by the given texts, each exactly once
+     * @return Values by variable name (without braces); empty for variables that cannot be resolved
+     */
+    public Map<String, String> resolveTemplateVariables(Collection<String> texts, Ticket ticket) {
+        if (ticket == null) {
+            return Map.of();
+        }
+        Set<String> variables = new LinkedHashSet<>();
+        for (String text : texts) {
+            if (text != null && !text.trim().isEmpty()) {
+                variables.addAll(compileTemplate(text).getVariables());
+            }
+        }
+        return resolveVariableValues(variables, ticket);
+    }
+    
+    /**
+     * Get the values of template variables
      * Returns the actual value if available, or empty string if not available.
      * Empty string removes the {{variable}} syntax, allowing configuration instructions
      * (like "ask for information if not available") to guide the AI.
      * 
-     * Priority: 1. Metadata mappings (external API), 2. Internal ticket/user data
+     * Priority: 1. Metadata mappings (external API, fetched in one batch), 2. Internal ticket/user data
      */
-    private String getVariableValue(String variable, Ticket ticket) {
-        if (variable == null || variable.trim().isEmpty()) {
-            return "";
+    private Map<String, String> resolveVariableValues(Collection<String> variables, Ticket ticket) {
+        Map<String, String> values = new HashMap<>();
+        Set<String> fullVariables = new LinkedHashSet<>();
+        for (String variable : variables) {
+            if (variable != null && !variable.trim().isEmpty()) {
+                fullVariables.add("{{" + variable + "}}");
+            }
         }
         
-        String fullVariable = "{{" + variable + "}}";
-        
-        // First, try to get value from metadata mappings (external API with user context)
-        if (metadataService != null && ticket != null) {
+        // First, try to get values from metadata mappings (external API with user context)
+        Map<String, String> mappedValues = Map.of();
+        if (metadataService != null && !fullVariables.isEmpty()) {
             try {
-                String mappedValue = metadataService.getMappedValue(fullVariable, ticket);
-                if (mappedValue != null && !mappedValue.trim().isEmpty()) {
-                    return mappedValue;
-                }
+                mappedValues = metadataService.getMappedValues(fullVariables, ticket);
             } catch (Exception e) {
-                System.err.println("Failed to get metadata value for " + variable + ": " + e.getMessage());
+                System.err.println("Failed to get metadata values for " + fullVariables + ": " + e.getMessage());
             }
         }
         
+        for (String variable : variables) {
+            if (variable == null || variable.trim().isEmpty() || values.containsKey(variable)) {
+                continue;
+            }
+            String mappedValue = mappedValues.get("{{" + variable + "}}");
+            values.put(variable, mappedValue != null && !mappedValue.trim().isEmpty()
+                ? mappedValue
+                : getInternalVariableValue(variable, ticket));
+        }
+        return values;
+    }
+    
+    /**
+     * Value of a user.* or ticket.* variable from the ticket itself
+     * Metadata mappings have already been consulted by resolveVariableValues; custom fields and entities
+     * that no mapping resolved are empty.
+     */
+    private String getInternalVariableValue(String variable, Ticket ticket) {
         String[] parts = variable.split("\\.");
         if (parts.length < 2) {
             return ""; // Return empty if invalid format (don't pass through literal syntax)
@@ -197,19 +274,8 @@ public class AIConfigurationService {
                     case "device":
                         return user.getDevice() != null && !user.getDevice().trim().isEmpty() ? user.getDevice() : "";
                     default:
-                        // Check metadata mappings for custom user fields
-                        if (metadataService != null && ticket != null) {
-                            String mappedValue = metadataService.getMappedValue(fullVariable, ticket);
-                            if (mappedValue != null && !mappedValue.trim().isEmpty()) {
-                                return mappedValue;
-                            }
-                        }
                         return ""; // Unknown user field, return empty
                 }
-            } else {
-                // No ticket or user available - cannot fetch user-specific data
-                // The configuration text itself contains instructions to ask if needed
-                return "";
             }
         } else if ("ticket".equals(entity)) {
             if (ticket != null) {
@@ -225,30 +291,12 @@ public class AIConfigurationService {
                     case "subject":
                         return ticket.getSubject() != null ? ticket.getSubject() : "";
                     default:
-                        // Check metadata mappings for custom ticket fields
-                        if (metadataService != null && ticket != null) {
-                            String mappedValue = metadataService.getMappedValue(fullVariable, ticket);
-                            if (mappedValue != null && !mappedValue.trim().isEmpty()) {
-                                return mappedValue;
-                            }
-                        }
                         return ""; // Unknown ticket field, return empty
                 }
-            } else {
-                // No ticket available - cannot fetch ticket-specific data
-                return "";
-            }
-        } else {
-            // Custom entity (e.g., order, product) - check metadata mappings with user context
-            if (metadataService != null && ticket != null) {
-                String mappedValue = metadataService.getMappedValue(fullVariable, ticket);
-                if (mappedValue != null && !mappedValue.trim().isEmpty()) {
-                    return mappedValue;
-                }
             }
         }
         
-        // Unknown variable type, return empty string
+        // No ticket/user data for this variable - the configuration text itself contains instructions to ask if needed
         return "";
     }
     
@@ -264,7 +312,9 @@ public class AIConfigurationService {
             configuration.setCreatedAt(existing.getCreatedAt());
         }
         configuration.setUpdatedAt(java.time.LocalDateTime.now());
-        return configurationRepository.save(configuration);
+        AIConfiguration saved = configurationRepository.save(configuration);
+        eventPublisher.publishEvent(new AIConfigChangedEvent("configuration saved"));
+        return saved;
     }
     
     /**
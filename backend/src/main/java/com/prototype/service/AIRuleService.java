@@ -4,10 +4,12 @@ import com.prototype.entity.AIRule;
 import com.prototype.entity.Ticket;
 import com.prototype.repository.AIRuleRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class AIRuleService {
@@ -18,6 +20,9 @@ public class AIRuleService {
     @Autowired
     private AIConfigurationService configurationService;
     
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
     public List<AIRule> getAllRules() {
         return ruleRepository.findAllByOrderByCategoryAscDisplayOrderAsc();
     }
@@ -42,7 +47,9 @@ public class AIRuleService {
                 .orElse(-1);
             rule.setDisplayOrder(maxOrder + 1);
         }
-        return ruleRepository.save(rule);
+        AIRule saved = ruleRepository.save(rule);
+        eventPublisher.publishEvent(new AIConfigChangedEvent("rule created"));
+        return saved;
     }
     
     @Transactional
@@ -54,7 +61,12 @@ public class AIRuleService {
         if (rule.getDisplayOrder() != null) {
             existing.setDisplayOrder(rule.getDisplayOrder());
         }
-        return ruleRepository.save(existing);
+        if (rule.getCacheAnswers() != null) {
+            existing.setCacheAnswers(rule.getCacheAnswers());
+        }
+        AIRule saved = ruleRepository.save(existing);
+        eventPublisher.publishEvent(new AIConfigChangedEvent("rule updated"));
+        return saved;
     }
     
     @Transactional
@@ -69,6 +81,7 @@ public class AIRuleService {
             remainingRules.get(i).setDisplayOrder(i);
             ruleRepository.save(remainingRules.get(i));
         }
+        eventPublisher.publishEvent(new AIConfigChangedEvent("rule deleted"));
     }
     
     @Transactional
@@ -78,6 +91,15 @@ public class AIRuleService {
             existing.setDisplayOrder(rule.getDisplayOrder());
             ruleRepository.save(existing);
         }
+        eventPublisher.publishEvent(new AIConfigChangedEvent("rules reordered"));
+    }
+    
+    /**
+     * Whether chatbot answers may be served from the semantic answer cache
+     * Every rule is part of every prompt, so a single opted-out rule disables caching.
+     */
+    public boolean allowsAnswerCaching() {
+        return getAllRules().stream().noneMatch(rule -> Boolean.FALSE.equals(rule.getCacheAnswers()));
     }
     
     /**
@@ -85,46 +107,75 @@ public class AIRuleService {
      * Priority: ADDITIONAL > ESCALATION > GENERAL
      */
     public String getAllRulesAsPrompt(Ticket ticket) {
-        StringBuilder prompt = new StringBuilder();
+        return renderRulesAsPrompt(getAllRules(), ticket);
+    }
+    
+    /**
+     * Format already loaded rules as a prompt (see getAllRulesAsPrompt)
+     * @param rules Rules of all categories, in display order within each category
+     * @param ticket Ticket for template variables, or null to leave them in place
+     */
+    public String renderRulesAsPrompt(List<AIRule> rules, Ticket ticket) {
+        // Every variable used by any rule is resolved once, then rules render straight into the prompt
+        List<String> contents = rules.stream().map(AIRule::getContent).toList();
+        Map<String, String> values = configurationService.resolveTemplateVariables(contents, ticket);
+        int estimatedLength = 512;
+        for (AIRule rule : rules) {
+            estimatedLength += String.valueOf(rule.getTitle()).length() + String.valueOf(rule.getContent()).length() + 5;
+        }
+        StringBuilder prompt = new StringBuilder(estimatedLength);
         prompt.append("=== AI CUSTOMER SERVICE GUIDELINES ===\n\n");
         
         // 1. General AI Rules (lowest priority)
-        List<AIRule> generalRules = getRulesByCategory(AIRule.RuleCategory.GENERAL);
+        List<AIRule> generalRules = inCategory(rules, AIRule.RuleCategory.GENERAL);
         if (!generalRules.isEmpty()) {
             prompt.append("=== GENERAL GUIDELINES ===\n");
             prompt.append("These guidelines provide the foundation for all interactions. Use them to inform your approach.\n\n");
             for (AIRule rule : generalRules) {
                 prompt.append("[").append(rule.getTitle()).append("]\n");
-                String content = configurationService.replaceTemplateVariables(rule.getContent(), ticket);
-                prompt.append(content).append("\n\n");
+                appendContent(prompt, rule.getContent(), ticket, values);
+                prompt.append("\n\n");
             }
         }
         
         // 2. Escalation Rules (medium priority)
-        List<AIRule> escalationRules = getRulesByCategory(AIRule.RuleCategory.ESCALATION);
+        List<AIRule> escalationRules = inCategory(rules, AIRule.RuleCategory.ESCALATION);
         if (!escalationRules.isEmpty()) {
             prompt.append("=== ESCALATION GUIDELINES ===\n");
             prompt.append("When escalation is needed, these guidelines take precedence over general guidelines.\n\n");
             for (AIRule rule : escalationRules) {
                 prompt.append("[").append(rule.getTitle()).append("]\n");
-                String content = configurationService.replaceTemplateVariables(rule.getContent(), ticket);
-                prompt.append(content).append("\n\n");
+                appendContent(prompt, rule.getContent(), ticket, values);
+                prompt.append("\n\n");
             }
         }
         
         // 3. Additional AI Rules (highest priority)
-        List<AIRule> additionalRules = getRulesByCategory(AIRule.RuleCategory.ADDITIONAL);
+        List<AIRule> additionalRules = inCategory(rules, AIRule.RuleCategory.ADDITIONAL);
         if (!additionalRules.isEmpty()) {
             prompt.append("=== ADDITIONAL GUIDELINES ===\n");
             prompt.append("For specific scenarios, these guidelines take highest priority.\n\n");
             for (AIRule rule : additionalRules) {
                 prompt.append("[").append(rule.getTitle()).append("]\n");
-                String content = configurationService.replaceTemplateVariables(rule.getContent(), ticket);
-                prompt.append(content).append("\n\n");
+                appendContent(prompt, rule.getContent(), ticket, values);
+                prompt.append("\n\n");
             }
         }
         
         return prompt.toString();
     }
+    
+    private void appendContent(StringBuilder prompt, String content, Ticket ticket, Map<String, String> values) {
+        if (ticket == null || content == null || content.trim().isEmpty()) {
+            // Without a ticket variables stay in place for the AI to see (as in replaceTemplateVariables)
+            prompt.append(content);
+        } else {
+            configurationService.compileTemplate(content).renderTo(prompt, values);
+        }
+    }
+    
+    private static List<AIRule> inCategory(List<AIRule> rules, AIRule.RuleCategory category) {
+        return rules.stream().filter(rule -> rule.getCategory() == category).toList();
+    }
 }
 
@@ -2,6 +2,7 @@ package com.prototype.service;
 
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.BodyInserters;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -13,6 +14,9 @@ import com.prototype.repository.TicketMessageRepository;
 import com.prototype.service.AIConfigurationService;
 import com.prototype.service.KnowledgeBaseService;
 import com.prototype.rag.pipeline.RAGPipeline;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 import java.util.Optional;
 import java.util.Map;
@@ -32,6 +36,8 @@ import edu.stanford.nlp.util.CoreMap;
 @Service
 public class AIService {
     
+    private static final String CHATBOT_FALLBACK_RESPONSE = "Thank you for contacting us. I'm here to help you with your inquiry. Could you please provide more details so I can assist you better?";
+    
     private final WebClient webClient;
     private final ObjectMapper objectMapper;
     
@@ -53,12 +59,44 @@ public class AIService {
     @Autowired
     private KnowledgeBaseService knowledgeBaseService;
     
+    @Autowired
+    private ArticleTextCache articleTextCache;
+    
     @Autowired(required = false)
     private RAGPipeline ragPipeline;
     
-    public AIService() {
+    @Autowired(required = false)
+    private SemanticAnswerCache answerCache;
+    
+    @Autowired(required = false)
+    private com.prototype.rag.embedding.EmbeddingService embeddingService;
+    
+    @Autowired(required = false)
+    private ConversationContextStore contextStore;
+    
+    @Autowired(required = false)
+    private AIConfigSnapshotService configSnapshotService;
+    
+    @Autowired
+    private LlmRequestScheduler llmScheduler;
+    
+    @Autowired
+    private PromptStageTimings promptStageTimings;
+    
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+    
+    // Where blocking steps of the reactive paths run (virtual threads in virtual-thread mode)
+    @Autowired
+    private Scheduler blockingScheduler;
+    
+    // Same context window on every generate request, so Ollama does not reload the model between them
+    @Value("${ollama.num-ctx:8192}")
+    private int numCtx;
+    
+    public AIService(@Value("${ollama.base-url:http://localhost:11434}") String ollamaBaseUrl) {
         this.webClient = WebClient.builder()
-            .baseUrl("http://localhost:11434")
+            .baseUrl(ollamaBaseUrl)
             .build();
         this.objectMapper = new ObjectMapper();
         System.out.println("AIService initialized with Ollama integration");
@@ -114,7 +152,7 @@ public class AIService {
             
             System.out.println("Analyzed sentiment for: \"" + text + "\" -> Score: " + averageSentiment + ", Label: " + label);
             return new SentimentAnalysisResult(averageSentiment, label);
-            
+        
         } catch (Exception e) {
             System.err.println("Error analyzing sentiment: " + e.getMessage());
             e.printStackTrace();
@@ -240,7 +278,7 @@ public class AIService {
             
             System.out.println("Conversation sentiment for ticket " + ticketId + ": " + conversationSentiment + " (" + label + ")");
             return new SentimentAnalysisResult(conversationSentiment, label);
-            
+        
         } catch (Exception e) {
             System.err.println("Error analyzing conversation sentiment: " + e.getMessage());
             return new SentimentAnalysisResult(0.0f, "NEUTRAL");
@@ -251,151 +289,155 @@ public class AIService {
      * Generate AI response using Ollama - context determines the AI behavior
      */
     public String generateResponse(String message, String context) {
+        return generateResponseAsync(message, context).block();
+    }
+    
+    /**
+     * Generate AI response using Ollama without blocking the calling thread
+     */
+    public Mono<String> generateResponseAsync(String message, String context) {
         // Check if this is a dashboard analysis request
         if ("Dashboard Analysis Request".equals(context) || "Custom Dashboard Query".equals(context)) {
-            return generateDashboardAnalysisResponse(message);
+            return generateDashboardAnalysisResponseAsync(message);
         }
         // Otherwise, use the ticket context behavior
-        return generateResponseWithTicketContext(message, context, null);
+        return generateResponseWithTicketContextAsync(message, context, null);
     }
     
     /**
      * Generate dashboard analysis response using Ollama
      */
-    private String generateDashboardAnalysisResponse(String analysisPrompt) {
-        try {
-            // Create system prompt for dashboard analysis
-            String systemPrompt = "You are an expert data analyst specializing in customer service metrics and business intelligence. " +
-                "Analyze the provided dashboard data and provide clear, actionable insights. " +
-                "Focus on trends, performance indicators, and business implications. " +
-                "Be professional, concise, and provide specific recommendations based on the data. " +
-                "Structure your response with key findings and practical insights. " +
-                "Avoid technical jargon and explain metrics in business terms.";
-            
-            StringBuilder fullPrompt = new StringBuilder();
-            fullPrompt.append(systemPrompt).append("\n\n");
-            fullPrompt.append(analysisPrompt);
-            
-            // Create request body for Ollama
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", "llama3.2:3b");
-            requestBody.put("prompt", fullPrompt.toString());
-            requestBody.put("stream", false);
-            requestBody.put("options", Map.of(
-                "temperature", 0.3,  // Lower temperature for more focused analysis
-                "top_p", 0.8,
-                "max_tokens", 300    // Allow longer responses for detailed analysis
-            ));
-            
-            // Call Ollama API
-            String response = webClient.post()
-                .uri("/api/generate")
-                .body(BodyInserters.fromValue(requestBody))
-                .retrieve()
-                .bodyToMono(String.class)
-                .block();
-            
-            // Parse response
-            JsonNode jsonResponse = objectMapper.readTree(response);
-            String aiResponse = jsonResponse.get("response").asText();
-            
-            // Clean up the response for dashboard analysis
-            aiResponse = cleanDashboardResponse(aiResponse);
-            
-            System.out.println("Generated dashboard analysis response: " + aiResponse);
-            return aiResponse;
-            
-        } catch (Exception e) {
-            System.err.println("Failed to generate dashboard analysis response: " + e.getMessage());
-            e.printStackTrace();
-            // Fallback response
-            return "I'm unable to analyze the dashboard data at the moment. Please ensure your metrics are properly configured and try again.";
-        }
+    private Mono<String> generateDashboardAnalysisResponseAsync(String analysisPrompt) {
+        // Create system prompt for dashboard analysis
+        String systemPrompt = "You are an expert data analyst specializing in customer service metrics and business intelligence. " +
+            "Analyze the provided dashboard data and provide clear, actionable insights. " +
+            "Focus on trends, performance indicators, and business implications. " +
+            "Be professional, concise, and provide specific recommendations based on the data. " +
+            "Structure your response with key findings and practical insights. " +
+            "Avoid technical jargon and explain metrics in business terms.";
+        
+        StringBuilder fullPrompt = new StringBuilder();
+        fullPrompt.append(systemPrompt).append("\n\n");
+        fullPrompt.append(analysisPrompt);
+        
+        // Create request body for Ollama
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", "llama3.2:3b");
+        requestBody.put("prompt", fullPrompt.toString());
+        requestBody.put("stream", false);
+        requestBody.put("options", Map.of(
+            "temperature", 0.3,  // Lower temperature for more focused analysis
+            "top_p", 0.8,
+            "max_tokens", 300,    // Allow longer responses for detailed analysis
+            "num_ctx", numCtx
+        ));
+        
+        // Dashboards are the first to give way when live conversations need the model
+        return generate(LlmRequestScheduler.Priority.BACKGROUND, requestBody)
+            .map(aiResponse -> {
+                // Clean up the response for dashboard analysis
+                aiResponse = cleanDashboardResponse(aiResponse);
+                
+                System.out.println("Generated dashboard analysis response: " + aiResponse);
+                return aiResponse;
+            })
+            .onErrorResume(e -> {
+                System.err.println("Failed to generate dashboard analysis response: " + e.getMessage());
+                if (e instanceof LlmRequestScheduler.LlmOverloadedException) {
+                    return Mono.just("The AI service is busy with live conversations right now. Please try the analysis again in a moment.");
+                }
+                e.printStackTrace();
+                // Fallback response
+                return Mono.just("I'm unable to analyze the dashboard data at the moment. Please ensure your metrics are properly configured and try again.");
+            });
     }
     
     /**
      * Generate AI response with full ticket conversation context
      */
     public String generateResponseWithTicketContext(String message, String context, Long ticketId) {
-        try {
-            // Get conversation history if ticket ID is provided
-            String conversationHistory = "";
-            String ticketContext = "";
-            
-            if (ticketId != null) {
-                Optional<Ticket> ticketOpt = ticketRepository.findById(ticketId);
-                if (ticketOpt.isPresent()) {
-                    Ticket ticket = ticketOpt.get();
-                    
-                    // Build ticket context
-                    ticketContext = String.format("Ticket #%d: %s - %s (Status: %s, Priority: %s)", 
-                        ticket.getId(), ticket.getSubject(), ticket.getDescription(),
-                        ticket.getStatus(), ticket.getPriority());
-                    
-                    // Get conversation history (last 10 messages for context)
-                    List<TicketMessage> messages = messageRepository.findByTicketIdOrderByCreatedAtAsc(ticketId);
-                    if (!messages.isEmpty()) {
-                        conversationHistory = buildConversationHistory(messages);
-                    }
+        return generateResponseWithTicketContextAsync(message, context, ticketId).block();
+    }
+    
+    /**
+     * Generate AI response with full ticket conversation context, without blocking the calling thread
+     */
+    public Mono<String> generateResponseWithTicketContextAsync(String message, String context, Long ticketId) {
+        // Ticket and message lookups are blocking JPA calls
+        return Mono.fromCallable(() -> ticketContextRequestBody(message, ticketId))
+            .subscribeOn(blockingScheduler)
+            .flatMap(requestBody -> generate(LlmRequestScheduler.Priority.INTERACTIVE, requestBody))
+            .map(aiResponse -> {
+                // Clean up the response
+                aiResponse = cleanResponse(aiResponse);
+                
+                System.out.println("Generated AI response with conversation context: " + aiResponse);
+                return aiResponse;
+            })
+            .onErrorResume(e -> {
+                System.err.println("Failed to generate AI response: " + e.getMessage());
+                e.printStackTrace();
+                // Fallback response
+                return Mono.just("I'm here to help! Could you tell me more about what you need assistance with?");
+            });
+    }
+    
+    private Map<String, Object> ticketContextRequestBody(String message, Long ticketId) {
+        // Get conversation history if ticket ID is provided
+        String conversationHistory = "";
+        String ticketContext = "";
+        
+        if (ticketId != null) {
+            Optional<Ticket> ticketOpt = ticketRepository.findById(ticketId);
+            if (ticketOpt.isPresent()) {
+                Ticket ticket = ticketOpt.get();
+                
+                // Build ticket context
+                ticketContext = String.format("Ticket #%d: %s - %s (Status: %s, Priority: %s)", 
+                    ticket.getId(), ticket.getSubject(), ticket.getDescription(),
+                    ticket.getStatus(), ticket.getPriority());
+                
+                // Get conversation history (recent messages, plus a summary of older ones on long tickets)
+                List<TicketMessage> messages = messageRepository.findByTicketIdOrderByCreatedAtAsc(ticketId);
+                if (!messages.isEmpty()) {
+                    conversationHistory = buildConversationHistory(ticketId, messages);
                 }
             }
-            
-            // Create the prompt with conversation memory
-            String systemPrompt = "You are a customer who has opened a support ticket and is communicating with a support agent. " +
-                "Respond like a typical customer would - be brief, direct, and to the point. Most customer responses are 1-2 sentences. " +
-                "Don't be overly polite or verbose. Ask short questions, give quick answers, show appreciation briefly. " +
-                "Use casual but respectful language. Keep responses under 30 words when possible. " +
-                "Don't put your response in quotes - just respond directly and naturally.";
-            
-            StringBuilder fullPrompt = new StringBuilder();
-            fullPrompt.append(systemPrompt).append("\n\n");
-            
-            if (!ticketContext.isEmpty()) {
-                fullPrompt.append("TICKET CONTEXT:\n").append(ticketContext).append("\n\n");
-            }
-            
-            if (!conversationHistory.isEmpty()) {
-                fullPrompt.append("CONVERSATION HISTORY:\n").append(conversationHistory).append("\n\n");
-            }
-            
-            fullPrompt.append("LATEST SUPPORT AGENT MESSAGE: ").append(message).append("\n\n");
-            fullPrompt.append("Your response as the customer:");
-            
-            // Create request body for Ollama
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", "llama3.2:3b");
-            requestBody.put("prompt", fullPrompt.toString());
-            requestBody.put("stream", false);
-            requestBody.put("options", Map.of(
-                "temperature", 0.7,
-                "top_p", 0.9,
-                "max_tokens", 80
-            ));
-            
-            // Call Ollama API
-            String response = webClient.post()
-                .uri("/api/generate")
-                .body(BodyInserters.fromValue(requestBody))
-                .retrieve()
-                .bodyToMono(String.class)
-                .block();
-            
-            // Parse response
-            JsonNode jsonResponse = objectMapper.readTree(response);
-            String aiResponse = jsonResponse.get("response").asText();
-            
-            // Clean up the response
-            aiResponse = cleanResponse(aiResponse);
-            
-            System.out.println("Generated AI response with conversation context: " + aiResponse);
-            return aiResponse;
-            
-        } catch (Exception e) {
-            System.err.println("Failed to generate AI response: " + e.getMessage());
-            e.printStackTrace();
-            // Fallback response
-            return "I'm here to help! Could you tell me more about what you need assistance with?";
         }
+        
+        // Create the prompt with conversation memory
+        String systemPrompt = "You are a customer who has opened a support ticket and is communicating with a support agent. " +
+            "Respond like a typical customer would - be brief, direct, and to the point. Most customer responses are 1-2 sentences. " +
+            "Don't be overly polite or verbose. Ask short questions, give quick answers, show appreciation briefly. " +
+            "Use casual but respectful language. Keep responses under 30 words when possible. " +
+            "Don't put your response in quotes - just respond directly and naturally.";
+        
+        StringBuilder fullPrompt = new StringBuilder();
+        fullPrompt.append(systemPrompt).append("\n\n");
+        
+        if (!ticketContext.isEmpty()) {
+            fullPrompt.append("TICKET CONTEXT:\n").append(ticketContext).append("\n\n");
+        }
+        
+        if (!conversationHistory.isEmpty()) {
+            fullPrompt.append("CONVERSATION HISTORY:\n").append(conversationHistory).append("\n\n");
+        }
+        
+        fullPrompt.append("LATEST SUPPORT AGENT MESSAGE: ").append(message).append("\n\n");
+        fullPrompt.append("Your response as the customer:");
+        
+        // Create request body for Ollama
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", "llama3.2:3b");
+        requestBody.put("prompt", fullPrompt.toString());
+        requestBody.put("stream", false);
+        requestBody.put("options", Map.of(
+            "temperature", 0.7,
+            "top_p", 0.9,
+            "max_tokens", 80,
+            "num_ctx", numCtx
+        ));
+        return requestBody;
     }
     
     /**
@@ -403,351 +445,585 @@ public class AIService {
      * @param isActionTriggered If true, suppress actions in response to prevent loops
      */
     public String generateAgentResponseForChatbot(String customerMessage, String conversationHistory, boolean isActionTriggered) {
-        try {
-            // Get AI configurations - try new rule-based system first, fall back to old system
-            String configurationContext = "";
-            try {
-                if (airuleService != null) {
-                    configurationContext = airuleService.getAllRulesAsPrompt(null);
-                    System.out.println("=== LOADED AI CONFIGURATION ===");
-                    System.out.println("Configuration length: " + (configurationContext != null ? configurationContext.length() : 0));
-                    System.out.println("Configuration preview: " + (configurationContext != null && configurationContext.length() > 200 ? 
-                        configurationContext.substring(0, 200) + "..." : configurationContext));
-                    System.out.println("=== END CONFIGURATION ===");
-                } else {
-                    configurationContext = configurationService.getAllActiveConfigurationsAsPrompt();
+        return generateAgentResponseForChatbotAsync(customerMessage, conversationHistory, isActionTriggered, null).block();
+    }
+    
+    /**
+     * Generate AI agent response for chatbot without blocking the calling thread
+     * @param isActionTriggered If true, suppress actions in response to prevent loops
+     * @param sessionId Client chat session id; when set, later turns continue from the model's stored context
+     */
+    public Mono<String> generateAgentResponseForChatbotAsync(String customerMessage, String conversationHistory, boolean isActionTriggered, String sessionId) {
+        return prepareChatbotPrompt(customerMessage, conversationHistory, isActionTriggered, sessionId)
+            .flatMap(prompt -> {
+                if (prompt.cachedResponse != null) {
+                    System.out.println("Returning cached AI agent response for chatbot: " + prompt.cachedResponse);
+                    return Mono.just(prompt.cachedResponse);
                 }
-            } catch (Exception e) {
-                System.err.println("Failed to load AI configurations: " + e.getMessage());
+                return llmScheduler.schedule(LlmRequestScheduler.Priority.INTERACTIVE, webClient.post()
+                        .uri("/api/generate")
+                        .body(BodyInserters.fromValue(chatbotRequestBody(prompt, false)))
+                        .retrieve()
+                        .bodyToMono(String.class))
+                    .map(response -> {
+                        JsonNode node = parseGenerateResponse(response);
+                        prompt.rememberContext(node);
+                        return node.path("response").asText("");
+                    })
+                    .map(aiResponse -> finishAgentResponse(aiResponse, prompt, customerMessage, conversationHistory, isActionTriggered));
+            })
+            .onErrorResume(e -> {
+                System.err.println("=== ERROR GENERATING CHATBOT RESPONSE ===");
+                System.err.println("Error message: " + e.getMessage());
+                System.err.println("Error class: " + e.getClass().getName());
                 e.printStackTrace();
-                // Fallback to old system
-                try {
-                    configurationContext = configurationService.getAllActiveConfigurationsAsPrompt();
-                } catch (Exception e2) {
-                    System.err.println("Failed to load AI configurations (fallback): " + e2.getMessage());
-                }
-            }
-            
-            // Determine if this is the first message
-            boolean isFirstMessage = (conversationHistory == null || conversationHistory.trim().isEmpty());
-            
-            StringBuilder fullPrompt = new StringBuilder();
-            
-            // MINIMAL PROMPT STRUCTURE - Configuration is the ONLY source of behavior
-            // Process configuration to handle variables - NO hardcoded behavior
-            String processedConfig = configurationContext;
-            if (processedConfig != null && !processedConfig.trim().isEmpty()) {
-                // Replace {{user.name}} with placeholder so configuration can reference it
-                // The configuration rule itself will instruct what to do with this placeholder
-                processedConfig = processedConfig.replaceAll("\\{\\{user\\.name\\}\\}", 
-                    isFirstMessage ? "[ASK_USER_FOR_NAME]" : "[CHECK_CONVERSATION_FOR_NAME_OR_ASK]");
-            }
-            
-            // Build the simplest possible prompt
-            fullPrompt.append("You are a customer service agent.\n\n");
-            
-            // Add configuration rules FIRST - this is the ONLY behavior definition
-            // NO hardcoded instructions - the configuration itself contains all behavior
-            if (processedConfig != null && !processedConfig.trim().isEmpty()) {
-                fullPrompt.append("=== CONFIGURATION RULES (MANDATORY - FOLLOW EXACTLY) ===\n");
-                fullPrompt.append("The following rules are defined in the platform configuration. ");
-                fullPrompt.append("These are MANDATORY instructions that you must follow exactly:\n\n");
-                fullPrompt.append(processedConfig).append("\n");
-                fullPrompt.append("=== END CONFIGURATION RULES ===\n\n");
-                
-                // Only explain placeholders if they exist in the config - no hardcoded behavior
-                if (processedConfig.contains("ASK_USER_FOR_NAME") || processedConfig.contains("CHECK_CONVERSATION_FOR_NAME_OR_ASK")) {
-                    fullPrompt.append("NOTE: [ASK_USER_FOR_NAME] means ask the user for their name. ");
-                    fullPrompt.append("[CHECK_CONVERSATION_FOR_NAME_OR_ASK] means check conversation history for a name, and if not found, ask for it.\n\n");
+                System.err.println("=== END ERROR ===");
+                return Mono.just(CHATBOT_FALLBACK_RESPONSE);
+            });
+    }
+    
+    /**
+     * Stream AI agent response for chatbot
+     * Emits "delta" events with display-ready text as Ollama generates tokens, then one "done" event with
+     * the fully post-processed response (what generateAgentResponseForChatbot would return), which
+     * supersedes the streamed text. Cached answers arrive as a single delta followed by done.
+     * @param sessionId Client chat session id; when set, later turns continue from the model's stored context
+     */
+    public Flux<ChatbotStreamEvent> streamAgentResponseForChatbot(String customerMessage, String conversationHistory, boolean isActionTriggered, String sessionId) {
+        return prepareChatbotPrompt(customerMessage, conversationHistory, isActionTriggered, sessionId)
+            .flatMapMany(prompt -> {
+                if (prompt.cachedResponse != null) {
+                    return Flux.just(ChatbotStreamEvent.delta(prompt.cachedResponse), ChatbotStreamEvent.done(prompt.cachedResponse));
                 }
-            }
-            
-            // Add available actions context (after configuration so rules can reference them)
-            if (chatbotActionService != null) {
-                try {
-                    List<com.prototype.entity.ChatbotAction> availableActions = chatbotActionService.getActiveActions();
-                    if (!availableActions.isEmpty()) {
-                        fullPrompt.append("=== AVAILABLE ACTIONS ===\n");
-                        fullPrompt.append("You can display interactive components by including action placeholders in your response.\n");
-                        fullPrompt.append("Available actions:\n");
-                        for (com.prototype.entity.ChatbotAction action : availableActions) {
-                            fullPrompt.append("- {action_").append(action.getActionKey()).append("} - ").append(action.getName());
-                            if (action.getDescription() != null && !action.getDescription().trim().isEmpty()) {
-                                fullPrompt.append(": ").append(action.getDescription());
-                            }
-                            fullPrompt.append("\n");
+                StreamingResponseCleaner cleaner = new StreamingResponseCleaner(requiresNewLinePerSentence(prompt.formattingInstructions));
+                // The scheduler slot is held until the whole response has streamed
+                Flux<ChatbotStreamEvent> deltas = llmScheduler.scheduleMany(LlmRequestScheduler.Priority.INTERACTIVE, webClient.post()
+                        .uri("/api/generate")
+                        .body(BodyInserters.fromValue(chatbotRequestBody(prompt, true)))
+                        .retrieve()
+                        // Ollama streams NDJSON; the string decoder yields one line per element
+                        .bodyToFlux(String.class))
+                    .filter(line -> !line.isBlank())
+                    .map(line -> {
+                        JsonNode node = parseGenerateResponse(line);
+                        // The closing line carries the context for the next turn
+                        if (node.path("done").asBoolean(false)) {
+                            prompt.rememberContext(node);
+                        }
+                        return cleaner.accept(node.path("response").asText(""));
+                    })
+                    .concatWith(Mono.fromCallable(cleaner::finish))
+                    .filter(delta -> !delta.isEmpty())
+                    .map(ChatbotStreamEvent::delta);
+                Mono<ChatbotStreamEvent> done = Mono.fromCallable(() -> ChatbotStreamEvent.done(
+                    finishAgentResponse(cleaner.getRawText(), prompt, customerMessage, conversationHistory, isActionTriggered)));
+                return deltas.concatWith(done);
+            })
+            .onErrorResume(e -> {
+                System.err.println("=== ERROR STREAMING CHATBOT RESPONSE ===");
+                System.err.println("Error message: " + e.getMessage());
+                System.err.println("=== END ERROR ===");
+                return Flux.just(ChatbotStreamEvent.done(CHATBOT_FALLBACK_RESPONSE));
+            });
+    }
+    
+    /**
+     * Build the chatbot prompt (rules, actions, history, knowledge base context) and consult the answer cache
+     * The ingredients load concurrently, so the wait before the model call is the slowest stage rather than
+     * the sum of all stages. Knowledge base retrieval only needs the question and starts right away. The
+     * answer cache lookup needs the rules and actions, and runs while retrieval is still going. A stage that
+     * times out or fails is left out of the prompt and the turn goes ahead without it.
+     */
+    private Mono<ChatbotPrompt> prepareChatbotPrompt(String customerMessage, String conversationHistory, boolean isActionTriggered, String sessionId) {
+        return Mono.defer(() -> {
+            PromptStageTimings.Trace trace = promptStageTimings.startTrace();
+            // Taken before retrieval reads the knowledge base; an article change after it keeps this turn's answer uncached
+            long cacheEpoch = answerCache != null ? answerCache.epoch() : 0;
+            // Subscribed now rather than when the prompt needs it; cancelled if a cached answer makes it unnecessary
+            // The answer cache and retrieval both need the question's embedding; compute it once for the turn
+            QuestionEmbedding questionEmbedding = new QuestionEmbedding(customerMessage);
+            java.util.concurrent.CompletableFuture<KnowledgeContext> knowledge = promptStage(trace, PromptStageTimings.KNOWLEDGE,
+                () -> loadKnowledgeContext(customerMessage, questionEmbedding), KnowledgeContext.NONE).toFuture();
+            Mono<ChatbotRules> rules = promptStage(trace, PromptStageTimings.RULES, this::loadChatbotRules, ChatbotRules.NONE);
+            Mono<String> actions = promptStage(trace, PromptStageTimings.ACTIONS, this::loadChatbotActionsPrompt, "");
+            
+            return Mono.zip(rules, actions)
+                .flatMap(loaded -> {
+                    String configurationContext = loaded.getT1().context;
+                    // Determine if this is the first message
+                    boolean isFirstMessage = (conversationHistory == null || conversationHistory.trim().isEmpty());
+                    // A prompt missing its rules or actions must not be cached or continued from
+                    boolean instructionsComplete = !trace.isDegraded(PromptStageTimings.RULES) && !trace.isDegraded(PromptStageTimings.ACTIONS);
+                    
+                    StringBuilder fullPrompt = new StringBuilder();
+                    appendChatbotInstructions(fullPrompt, configurationContext, isFirstMessage);
+                    
+                    // Add available actions context (after configuration so rules can reference them)
+                    fullPrompt.append(loaded.getT2());
+                    
+                    // Opening questions depend only on the question and the rules/actions above, so similar ones can share an answer
+                    String promptFingerprint = null;
+                    Mono<Optional<SemanticAnswerCache.Lookup>> cacheLookup = Mono.just(Optional.empty());
+                    if (answerCache != null && answerCache.isEnabled() && isFirstMessage && !isActionTriggered
+                            && instructionsComplete && loaded.getT1().answerCachingAllowed) {
+                        String fingerprint = sha256(fullPrompt.toString());
+                        promptFingerprint = fingerprint;
+                        cacheLookup = promptStage(trace, PromptStageTimings.ANSWER_CACHE,
+                            () -> Optional.of(answerCache.lookup(customerMessage, fingerprint, cacheEpoch, questionEmbedding::get)), Optional.empty());
+                    }
+                    
+                    String cacheFingerprint = promptFingerprint;
+                    return cacheLookup.flatMap(lookup -> {
+                        if (lookup.isPresent() && lookup.get().isHit()) {
+                            trace.finish("cached answer");
+                            return Mono.just(ChatbotPrompt.cached(lookup.get().getResponse()));
                         }
-                        fullPrompt.append("\n");
-                        fullPrompt.append("CRITICAL ACTION DISPLAY RULES:\n");
-                        fullPrompt.append("1. If the configuration rules mention displaying an action (e.g., 'display {action_Confirmation}'), ");
-                        fullPrompt.append("you MUST include that exact action placeholder in your response text.\n");
-                        fullPrompt.append("2. Use the EXACT placeholder format as shown in the rules (e.g., {action_Confirmation} or {action_order_selector}).\n");
-                        fullPrompt.append("3. CRITICAL TIMING RULE: If the rules say 'WAIT FOR USER TO MESSAGE', 'once user provides', or 'after user provides', ");
-                        fullPrompt.append("this means:\n");
-                        fullPrompt.append("   - DO NOT display the action in the same response where you ask for information\n");
-                        fullPrompt.append("   - ONLY display the action AFTER the user has provided the information in a SUBSEQUENT message\n");
-                        fullPrompt.append("   - Check the conversation history above - if the user has ALREADY provided the information in a previous message, THEN display the action\n");
-                        fullPrompt.append("   - If you are asking for information in your current response, DO NOT include any actions\n");
-                        fullPrompt.append("4. STRICT ACTION TRIGGERING RULE - THIS IS CRITICAL:\n");
-                        fullPrompt.append("   - Actions must ONLY be displayed when BOTH conditions are met:\n");
-                        fullPrompt.append("     a) The configuration rules explicitly mention displaying that SPECIFIC action\n");
-                        fullPrompt.append("     b) The user's current message ACTUALLY matches the condition in the rule\n");
-                        fullPrompt.append("   - Example: If a rule says 'If a user asks about an order then display {action_order_selector}', ");
-                        fullPrompt.append("you can ONLY display {action_order_selector} if the user ACTUALLY asked about an order.\n");
-                        fullPrompt.append("   - If the user said 'My name is John', they did NOT ask about an order, so DO NOT display {action_order_selector}.\n");
-                        fullPrompt.append("   - DO NOT display actions proactively, preemptively, or 'just in case'.\n");
-                        fullPrompt.append("   - DO NOT display actions that are available but not relevant to the current conversation.\n");
-                        fullPrompt.append("   - DO NOT add actions to responses unless the user's message explicitly triggers the rule condition.\n");
-                        fullPrompt.append("5. If the rules mention an action but say to wait, check the conversation history first:\n");
-                        fullPrompt.append("   - If the user has NOT yet provided the required information, ask for it WITHOUT displaying the action\n");
-                        fullPrompt.append("   - If the user HAS provided the required information in a previous message, THEN display the action\n");
-                        fullPrompt.append("6. FINAL CHECK: Before including any action placeholder, ask yourself:\n");
-                        fullPrompt.append("   - Does the configuration rule explicitly say to display this action?\n");
-                        fullPrompt.append("   - Does the user's current message match the condition in that rule?\n");
-                        fullPrompt.append("   - If either answer is NO, DO NOT include the action.\n\n");
+                        return Mono.fromFuture(knowledge).map(knowledgeContext -> {
+                            // An answer given without the knowledge base context must not be served to later askers
+                            SemanticAnswerCache.Lookup storeLookup = trace.isDegraded(PromptStageTimings.KNOWLEDGE) ? null : lookup.orElse(null);
+                            ChatbotPrompt prompt = assembleChatbotPrompt(fullPrompt, configurationContext, knowledgeContext,
+                                storeLookup, cacheFingerprint, instructionsComplete, customerMessage, conversationHistory, isFirstMessage, isActionTriggered, sessionId);
+                            trace.finish(prompt.sessionContext != null ? "continued session" : "prompt");
+                            return prompt;
+                        });
+                    });
+                })
+                .doFinally(signal -> knowledge.cancel(false));
+        });
+    }
+    
+    /**
+     * Run one prompt stage on the blocking scheduler, with the fallback as its result on timeout or failure
+     */
+    private <T> Mono<T> promptStage(PromptStageTimings.Trace trace, String stage, java.util.concurrent.Callable<T> work, T fallback) {
+        java.time.Duration timeout = promptStageTimings.getTimeout(stage);
+        return Mono.defer(() -> {
+            long startedAt = System.nanoTime();
+            return Mono.fromCallable(work)
+                .subscribeOn(blockingScheduler)
+                .timeout(timeout)
+                .doOnSuccess(result -> trace.record(stage, startedAt, PromptStageTimings.Outcome.OK))
+                .doOnCancel(() -> trace.record(stage, startedAt, PromptStageTimings.Outcome.CANCELLED))
+                .onErrorResume(e -> {
+                    if (e instanceof java.util.concurrent.TimeoutException) {
+                        trace.record(stage, startedAt, PromptStageTimings.Outcome.TIMEOUT);
+                        System.err.println("Chatbot prompt stage '" + stage + "' timed out after " + timeout.toMillis() + "ms, continuing without it");
+                    } else {
+                        trace.record(stage, startedAt, PromptStageTimings.Outcome.FAILED);
+                        System.err.println("Chatbot prompt stage '" + stage + "' failed, continuing without it: " + e.getMessage());
                     }
-                } catch (Exception e) {
-                    System.err.println("Failed to load chatbot actions: " + e.getMessage());
-                }
+                    return Mono.just(fallback);
+                });
+        });
+    }
+    
+    /**
+     * Rules stage: configuration rules for the chatbot, and whether its answers may be cached
+     */
+    private ChatbotRules loadChatbotRules() {
+        // Rules come from the in-memory snapshot; they change rarely and are the same for every turn
+        String configurationContext = "";
+        boolean answerCachingAllowed = false;
+        try {
+            if (configSnapshotService != null) {
+                AIConfigSnapshot configSnapshot = configSnapshotService.current();
+                configurationContext = airuleService != null ? configSnapshot.getRulesPrompt() : configSnapshot.getConfigurationPrompt();
+                answerCachingAllowed = configSnapshot.isAnswerCachingAllowed();
+                System.out.println("=== LOADED AI CONFIGURATION (version " + configSnapshot.getVersion() + ") ===");
+                System.out.println("Configuration length: " + (configurationContext != null ? configurationContext.length() : 0));
+                System.out.println("=== END CONFIGURATION ===");
+            } else if (airuleService != null) {
+                configurationContext = airuleService.getAllRulesAsPrompt(null);
+                answerCachingAllowed = airuleService.allowsAnswerCaching();
+                System.out.println("=== LOADED AI CONFIGURATION ===");
+                System.out.println("Configuration length: " + (configurationContext != null ? configurationContext.length() : 0));
+                System.out.println("Configuration preview: " + (configurationContext != null && configurationContext.length() > 200 ? 
+                    configurationContext.substring(0, 200) + "..." : configurationContext));
+                System.out.println("=== END CONFIGURATION ===");
+            } else {
+                configurationContext = configurationService.getAllActiveConfigurationsAsPrompt();
+                answerCachingAllowed = true;
             }
-            
-            // Add conversation history if available (only from current session)
-            if (!isFirstMessage && conversationHistory != null && !conversationHistory.trim().isEmpty()) {
-                fullPrompt.append("Previous conversation in this chat session:\n");
-                fullPrompt.append(conversationHistory).append("\n\n");
-                fullPrompt.append("IMPORTANT: Only reference the conversation above. Do not reference any other conversations or previous sessions.\n\n");
+        } catch (Exception e) {
+            System.err.println("Failed to load AI configurations: " + e.getMessage());
+            e.printStackTrace();
+            // Fallback to old system
+            try {
+                configurationContext = configurationService.getAllActiveConfigurationsAsPrompt();
+            } catch (Exception e2) {
+                System.err.println("Failed to load AI configurations (fallback): " + e2.getMessage());
             }
-            
-            // Add current customer message
-            fullPrompt.append("Current customer message (this is what the user just sent): ").append(customerMessage).append("\n\n");
-            
-            // Add explicit instruction about timing
-            fullPrompt.append("TIMING INSTRUCTION: The 'Current customer message' above is what the user JUST sent. ");
-            fullPrompt.append("The 'Previous conversation' above shows what happened BEFORE this message. ");
-            fullPrompt.append("If the rules say to wait for the user to provide information, check if that information is in the 'Current customer message' or 'Previous conversation'. ");
-            fullPrompt.append("If the information is in the 'Current customer message', you can display the action NOW. ");
-            fullPrompt.append("If the information is NOT yet provided, ask for it WITHOUT displaying the action.\n\n");
-            
-            // RAG: Retrieve relevant articles from knowledge base (if needed)
-            String knowledgeBaseContext = getKnowledgeBaseContext(customerMessage);
-            if (knowledgeBaseContext != null && !knowledgeBaseContext.trim().isEmpty()) {
-                fullPrompt.append("Knowledge base information:\n");
-                fullPrompt.append(knowledgeBaseContext).append("\n\n");
+        }
+        return new ChatbotRules(configurationContext != null ? configurationContext : "", answerCachingAllowed);
+    }
+    
+    /**
+     * Actions stage: the available actions section of the prompt
+     */
+    private String loadChatbotActionsPrompt() {
+        if (configSnapshotService != null) {
+            return configSnapshotService.current().getActionsPrompt();
+        }
+        if (chatbotActionService != null) {
+            return chatbotActionService.renderActionsAsPrompt(chatbotActionService.getActiveActions());
+        }
+        return "";
+    }
+    
+    /**
+     * Knowledge stage: knowledge base context for the question and the articles it was built from
+     */
+    private KnowledgeContext loadKnowledgeContext(String customerMessage, QuestionEmbedding questionEmbedding) {
+        // RAG: Retrieve relevant articles from knowledge base (if needed)
+        java.util.Set<Long> articleIds = new java.util.HashSet<>();
+        String context = getKnowledgeBaseContext(customerMessage, articleIds, questionEmbedding);
+        return new KnowledgeContext(context, articleIds);
+    }
+    
+    private void appendChatbotInstructions(StringBuilder fullPrompt, String configurationContext, boolean isFirstMessage) {
+        // MINIMAL PROMPT STRUCTURE - Configuration is the ONLY source of behavior
+        // Process configuration to handle variables - NO hardcoded behavior
+        String processedConfig = configurationContext;
+        if (processedConfig != null && !processedConfig.trim().isEmpty()) {
+            // Replace {{user.name}} with placeholder so configuration can reference it
+            // The configuration rule itself will instruct what to do with this placeholder
+            processedConfig = processedConfig.replaceAll("\\{\\{user\\.name\\}\\}", 
+                isFirstMessage ? "[ASK_USER_FOR_NAME]" : "[CHECK_CONVERSATION_FOR_NAME_OR_ASK]");
+        }
+        
+        // Build the simplest possible prompt
+        fullPrompt.append("You are a customer service agent.\n\n");
+        
+        // Add configuration rules FIRST - this is the ONLY behavior definition
+        // NO hardcoded instructions - the configuration itself contains all behavior
+        if (processedConfig != null && !processedConfig.trim().isEmpty()) {
+            fullPrompt.append("=== CONFIGURATION RULES (MANDATORY - FOLLOW EXACTLY) ===\n");
+            fullPrompt.append("The following rules are defined in the platform configuration. ");
+            fullPrompt.append("These are MANDATORY instructions that you must follow exactly:\n\n");
+            fullPrompt.append(processedConfig).append("\n");
+            fullPrompt.append("=== END CONFIGURATION RULES ===\n\n");
+            
+            // Only explain placeholders if they exist in the config - no hardcoded behavior
+            if (processedConfig.contains("ASK_USER_FOR_NAME") || processedConfig.contains("CHECK_CONVERSATION_FOR_NAME_OR_ASK")) {
+                fullPrompt.append("NOTE: [ASK_USER_FOR_NAME] means ask the user for their name. ");
+                fullPrompt.append("[CHECK_CONVERSATION_FOR_NAME_OR_ASK] means check conversation history for a name, and if not found, ask for it.\n\n");
             }
-            
-            // Extract formatting instructions for post-processing
-            String formattingInstructions = extractFormattingInstructions(configurationContext);
-            
-            // Final instruction - minimal, let configuration drive behavior
-            fullPrompt.append("Respond as a customer service agent following the configuration rules above.\n");
-            
-            // If this is an action-triggered message, suppress actions to prevent loops
-            if (isActionTriggered) {
-                fullPrompt.append("NOTE: This message was triggered by a user action. ");
-                fullPrompt.append("Do NOT include any action placeholders in your response.\n");
+        }
+    }
+    
+    /**
+     * Complete the prompt once all stages are in: session context, history, question and knowledge base context
+     * @param fullPrompt Instructions and actions so far
+     */
+    private ChatbotPrompt assembleChatbotPrompt(StringBuilder fullPrompt, String configurationContext, KnowledgeContext knowledge,
+                                                SemanticAnswerCache.Lookup cacheLookup, String promptFingerprint, boolean instructionsComplete,
+                                                String customerMessage, String conversationHistory, boolean isFirstMessage, boolean isActionTriggered, String sessionId) {
+        // Later turns of a session continue from the model's context, which already holds the rules, actions and history
+        String sessionFingerprint = null;
+        int[] sessionContext = null;
+        boolean keepContext = false;
+        if (sessionId != null && !sessionId.isBlank() && contextStore != null && contextStore.isEnabled() && instructionsComplete) {
+            // Fingerprint of the instructions as rendered, so a context is only resumed by turns that would see the same text
+            sessionFingerprint = sha256(fullPrompt.toString());
+            // An action-triggered turn carries a one-off "no actions" note, and a first turn may render
+            // {{user.name}} differently from later turns; neither context is fit to continue from
+            keepContext = !isActionTriggered
+                && !(isFirstMessage && configurationContext != null && configurationContext.contains("{{user.name}}"));
+            if (!isFirstMessage) {
+                sessionContext = contextStore.resume(sessionId, sessionFingerprint, conversationHistory, customerMessage);
             }
-            
-            fullPrompt.append("Your response:");
-            
-            // Log the full prompt for debugging
-            System.out.println("=== FULL PROMPT FOR AI ===");
-            System.out.println(fullPrompt.toString());
-            System.out.println("=== END PROMPT ===\n");
-            
-            // Create request body for Ollama
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", "llama3.2:3b");
-            requestBody.put("prompt", fullPrompt.toString());
-            requestBody.put("stream", false);
-            // Lower temperature for more consistent rule following
-            requestBody.put("options", Map.of(
-                "temperature", 0.3,  // Lower temperature for stricter rule following
-                "top_p", 0.9,
-                "max_tokens", 300
-            ));
-            
-            // Call Ollama API
-            String response = webClient.post()
+            if (sessionContext != null) {
+                System.out.println("Continuing chatbot session " + sessionId + " from " + sessionContext.length + " context tokens");
+                fullPrompt.setLength(0);
+            }
+        }
+        
+        // Add conversation history if available (only from current session)
+        if (sessionContext == null && !isFirstMessage && conversationHistory != null && !conversationHistory.trim().isEmpty()) {
+            fullPrompt.append("Previous conversation in this chat session:\n");
+            // Long sessions keep their latest lines verbatim and a running summary of the rest
+            fullPrompt.append(conversationSummaryService.historyForChat(sessionId, conversationHistory)).append("\n\n");
+            fullPrompt.append("IMPORTANT: Only reference the conversation above. Do not reference any other conversations or previous sessions.\n\n");
+        }
+        
+        // Add current customer message
+        fullPrompt.append("Current customer message (this is what the user just sent): ").append(customerMessage).append("\n\n");
+        
+        // Add explicit instruction about timing
+        fullPrompt.append("TIMING INSTRUCTION: The 'Current customer message' above is what the user JUST sent. ");
+        fullPrompt.append("The 'Previous conversation' above shows what happened BEFORE this message. ");
+        fullPrompt.append("If the rules say to wait for the user to provide information, check if that information is in the 'Current customer message' or 'Previous conversation'. ");
+        fullPrompt.append("If the information is in the 'Current customer message', you can display the action NOW. ");
+        fullPrompt.append("If the information is NOT yet provided, ask for it WITHOUT displaying the action.\n\n");
+        
+        if (knowledge.text != null && !knowledge.text.trim().isEmpty()) {
+            fullPrompt.append("Knowledge base information:\n");
+            fullPrompt.append(knowledge.text).append("\n\n");
+        }
+        
+        // Extract formatting instructions for post-processing
+        String formattingInstructions = extractFormattingInstructions(configurationContext);
+        
+        // Final instruction - minimal, let configuration drive behavior
+        fullPrompt.append("Respond as a customer service agent following the configuration rules above.\n");
+        
+        // If this is an action-triggered message, suppress actions to prevent loops
+        if (isActionTriggered) {
+            fullPrompt.append("NOTE: This message was triggered by a user action. ");
+            fullPrompt.append("Do NOT include any action placeholders in your response.\n");
+        }
+        
+        fullPrompt.append("Your response:");
+        
+        // Log the full prompt for debugging
+        System.out.println("=== FULL PROMPT FOR AI ===");
+        System.out.println(fullPrompt.toString());
+        System.out.println("=== END PROMPT ===\n");
+        
+        ChatbotPrompt prompt = new ChatbotPrompt(fullPrompt.toString(), formattingInstructions, cacheLookup, promptFingerprint, knowledge.articleIds);
+        if (sessionFingerprint != null) {
+            prompt.continueSession(sessionId, sessionFingerprint, sessionContext, keepContext);
+        }
+        return prompt;
+    }
+    
+    /**
+     * Call Ollama's generate endpoint without blocking, once the LLM scheduler admits the request
+     * @return The completion text
+     */
+    private Mono<String> generate(LlmRequestScheduler.Priority priority, Map<String, Object> requestBody) {
+        return llmScheduler.schedule(priority, webClient.post()
                 .uri("/api/generate")
                 .body(BodyInserters.fromValue(requestBody))
                 .retrieve()
-                .bodyToMono(String.class)
-                .block();
-            
-            // Parse response
-            JsonNode jsonResponse = objectMapper.readTree(response);
-            String aiResponse = jsonResponse.get("response").asText();
-            
-            // Clean up the response
-            aiResponse = cleanAgentResponse(aiResponse);
-            
-            // Log action placeholders before cleaning
-            Map<String, String> detectedActions = extractActionPlaceholders(aiResponse);
-            if (!detectedActions.isEmpty()) {
-                System.out.println("=== DETECTED ACTION PLACEHOLDERS ===");
-                System.out.println("WARNING: Actions were detected in AI response, but they should only appear if explicitly mentioned in rules!");
-                System.out.println("Customer message: " + customerMessage);
-                System.out.println("Is action-triggered: " + isActionTriggered);
-                for (Map.Entry<String, String> entry : detectedActions.entrySet()) {
-                    System.out.println("Action: " + entry.getKey() + " (param: " + entry.getValue() + ")");
+                .bodyToMono(String.class))
+            .map(response -> {
+                try {
+                    return objectMapper.readTree(response).get("response").asText();
+                } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+                    throw new IllegalStateException("Malformed Ollama response", e);
                 }
-                System.out.println("=== END ACTIONS ===");
-            } else {
-                System.out.println("=== NO ACTIONS DETECTED ===");
-                System.out.println("AI response does not contain any action placeholders (this is correct if rules don't mention actions)");
+            });
+    }
+    
+    private Map<String, Object> chatbotRequestBody(ChatbotPrompt prompt, boolean stream) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", "llama3.2:3b");
+        requestBody.put("prompt", prompt.text);
+        requestBody.put("stream", stream);
+        if (prompt.sessionFingerprint != null) {
+            if (prompt.sessionContext != null) {
+                requestBody.put("context", prompt.sessionContext);
             }
-            
-            // Remove any variable syntax that slipped through (but preserve action placeholders)
-            // Action placeholders use {action_key} format (single braces), so we need to preserve them
-            // First, temporarily replace action placeholders
-            Map<String, String> actionPlaceholders = new HashMap<>();
-            java.util.regex.Pattern actionPattern = java.util.regex.Pattern.compile("\\{action_([a-zA-Z0-9_]+)(?::([^}]+))?\\}");
-            java.util.regex.Matcher actionMatcher = actionPattern.matcher(aiResponse);
-            StringBuffer actionBuffer = new StringBuffer();
-            int actionIndex = 0;
-            while (actionMatcher.find()) {
-                String placeholder = actionMatcher.group(0);
-                String tempKey = "___ACTION_PLACEHOLDER_" + actionIndex + "___";
-                actionPlaceholders.put(tempKey, placeholder);
-                actionMatcher.appendReplacement(actionBuffer, tempKey);
-                actionIndex++;
+            // Keep the model loaded so its KV cache survives until the customer's next message
+            requestBody.put("keep_alive", contextStore.getKeepAlive());
+        }
+        // Lower temperature for more consistent rule following
+        requestBody.put("options", Map.of(
+            "temperature", 0.3,  // Lower temperature for stricter rule following
+            "top_p", 0.9,
+            "max_tokens", 300,
+            "num_ctx", numCtx
+        ));
+        return requestBody;
+    }
+    
+    /**
+     * Parse a generate response, or one line of Ollama's streaming output
+     */
+    private JsonNode parseGenerateResponse(String json) {
+        try {
+            JsonNode node = objectMapper.readTree(json);
+            if (node.has("error")) {
+                throw new IllegalStateException("Ollama error: " + node.get("error").asText());
             }
-            actionMatcher.appendTail(actionBuffer);
-            String tempResponse = actionBuffer.toString();
-            
-            // Now remove variable syntax
-            tempResponse = tempResponse.replaceAll("\\{\\{[^}]+\\}\\}", "").trim();
-            tempResponse = tempResponse.replaceAll("\\[.*?PLACEHOLDER.*?\\]", "").trim();
-            tempResponse = tempResponse.replaceAll("\\[ASK_USER_FOR_NAME\\]", "").trim();
-            tempResponse = tempResponse.replaceAll("\\[CHECK_CONVERSATION_FOR_NAME_OR_ASK\\]", "").trim();
-            
-            // Restore action placeholders
-            for (Map.Entry<String, String> entry : actionPlaceholders.entrySet()) {
-                tempResponse = tempResponse.replace(entry.getKey(), entry.getValue());
+            return node;
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalStateException("Malformed Ollama response: " + json, e);
+        }
+    }
+    
+    /**
+     * Post-process a raw chatbot completion (cleanup, action checks, formatting rules) and cache the result
+     */
+    private String finishAgentResponse(String aiResponse, ChatbotPrompt prompt, String customerMessage, String conversationHistory, boolean isActionTriggered) {
+        // Clean up the response
+        aiResponse = cleanAgentResponse(aiResponse);
+        
+        // Log action placeholders before cleaning
+        Map<String, String> detectedActions = extractActionPlaceholders(aiResponse);
+        if (!detectedActions.isEmpty()) {
+            System.out.println("=== DETECTED ACTION PLACEHOLDERS ===");
+            System.out.println("WARNING: Actions were detected in AI response, but they should only appear if explicitly mentioned in rules!");
+            System.out.println("Customer message: " + customerMessage);
+            System.out.println("Is action-triggered: " + isActionTriggered);
+            for (Map.Entry<String, String> entry : detectedActions.entrySet()) {
+                System.out.println("Action: " + entry.getKey() + " (param: " + entry.getValue() + ")");
             }
-            aiResponse = tempResponse;
-            
-            // Remove meta-commentary about instructions/prompts
-            aiResponse = aiResponse.replaceAll("(?i)(I notice|I see|the prompt|the instruction|the system|I will ignore|I'll ignore|to clarify|Here's my response:).*?\\n", "");
-            aiResponse = aiResponse.replaceAll("(?i)However, I notice.*?\\.", "");
-            
-            // Clean up any double spaces or empty lines (but preserve newlines from formatting)
-            // Only collapse multiple spaces, not newlines
-            aiResponse = aiResponse.replaceAll("[ ]+", " ").trim();
-            
-            // CRITICAL: Remove actions if the AI is asking for information
-            // This is a safety check to prevent actions from appearing when asking questions
-            // BUT: Don't remove confirmation actions if user has already provided the information
-            if (isAskingForInformation(aiResponse, customerMessage, conversationHistory)) {
-                System.out.println("=== DETECTED: AI is asking for information - checking if actions should be removed ===");
-                Map<String, String> actionsToRemove = extractActionPlaceholders(aiResponse);
-                if (!actionsToRemove.isEmpty()) {
-                    // Check if user has already provided information (e.g., name) and action is for confirmation
-                    // In this case, the confirmation action IS the way to confirm, so we should keep it
-                    List<String> actionsToKeep = new java.util.ArrayList<>();
-                    for (String actionKey : actionsToRemove.keySet()) {
-                        String lowerActionKey = actionKey.toLowerCase();
-                        // If it's a confirmation action and user has provided their name, keep it
-                        if (lowerActionKey.contains("confirm")) {
-                            // Check if user message or history contains name-like information
-                            String lowerCustomerMessage = customerMessage != null ? customerMessage.toLowerCase() : "";
-                            String lowerHistory = conversationHistory != null ? conversationHistory.toLowerCase() : "";
-                            boolean hasNameInfo = lowerCustomerMessage.contains("name is") || 
-                                                 lowerCustomerMessage.contains("i'm") ||
-                                                 lowerCustomerMessage.contains("i am") ||
-                                                 lowerHistory.contains("name is") ||
-                                                 lowerHistory.contains("i'm") ||
-                                                 lowerHistory.contains("i am");
-                            if (hasNameInfo) {
-                                System.out.println("Keeping confirmation action - user has provided name information");
-                                actionsToKeep.add(actionKey);
-                            }
-                        }
-                    }
-                    
-                    // Remove actions that should be removed (exclude ones we're keeping)
-                    List<String> finalActionsToRemove = new java.util.ArrayList<>();
-                    for (String actionKey : actionsToRemove.keySet()) {
-                        if (!actionsToKeep.contains(actionKey)) {
-                            finalActionsToRemove.add(actionKey);
-                        }
-                    }
-                    
-                    if (!finalActionsToRemove.isEmpty()) {
-                        System.out.println("Removing actions: " + finalActionsToRemove);
-                        // Remove action placeholders from the response
-                        for (String actionKey : finalActionsToRemove) {
-                            aiResponse = aiResponse.replaceAll("\\{action_" + actionKey + "(?::[^}]+)?\\}", "").trim();
+            System.out.println("=== END ACTIONS ===");
+        } else {
+            System.out.println("=== NO ACTIONS DETECTED ===");
+            System.out.println("AI response does not contain any action placeholders (this is correct if rules don't mention actions)");
+        }
+        
+        // Remove any variable syntax that slipped through (but preserve action placeholders)
+        // Action placeholders use {action_key} format (single braces), so we need to preserve them
+        // First, temporarily replace action placeholders
+        Map<String, String> actionPlaceholders = new HashMap<>();
+        java.util.regex.Pattern actionPattern = java.util.regex.Pattern.compile("\\{action_([a-zA-Z0-9_]+)(?::([^}]+))?\\}");
+        java.util.regex.Matcher actionMatcher = actionPattern.matcher(aiResponse);
+        StringBuffer actionBuffer = new StringBuffer();
+        int actionIndex = 0;
+        while (actionMatcher.find()) {
+            String placeholder = actionMatcher.group(0);
+            String tempKey = "___ACTION_PLACEHOLDER_" + actionIndex + "___";
+            actionPlaceholders.put(tempKey, placeholder);
+            actionMatcher.appendReplacement(actionBuffer, tempKey);
+            actionIndex++;
+        }
+        actionMatcher.appendTail(actionBuffer);
+        String tempResponse = actionBuffer.toString();
+        
+        // Now remove variable syntax
+        tempResponse = tempResponse.replaceAll("\\{\\{[^}]+\\}\\}", "").trim();
+        tempResponse = tempResponse.replaceAll("\\[.*?PLACEHOLDER.*?\\]", "").trim();
+        tempResponse = tempResponse.replaceAll("\\[ASK_USER_FOR_NAME\\]", "").trim();
+        tempResponse = tempResponse.replaceAll("\\[CHECK_CONVERSATION_FOR_NAME_OR_ASK\\]", "").trim();
+        
+        // Restore action placeholders
+        for (Map.Entry<String, String> entry : actionPlaceholders.entrySet()) {
+            tempResponse = tempResponse.replace(entry.getKey(), entry.getValue());
+        }
+        aiResponse = tempResponse;
+        
+        // Remove meta-commentary about instructions/prompts
+        aiResponse = aiResponse.replaceAll("(?i)(I notice|I see|the prompt|the instruction|the system|I will ignore|I'll ignore|to clarify|Here's my response:).*?\\n", "");
+        aiResponse = aiResponse.replaceAll("(?i)However, I notice.*?\\.", "");
+        
+        // Clean up any double spaces or empty lines (but preserve newlines from formatting)
+        // Only collapse multiple spaces, not newlines
+        aiResponse = aiResponse.replaceAll("[ ]+", " ").trim();
+        
+        // CRITICAL: Remove actions if the AI is asking for information
+        // This is a safety check to prevent actions from appearing when asking questions
+        // BUT: Don't remove confirmation actions if user has already provided the information
+        if (isAskingForInformation(aiResponse, customerMessage, conversationHistory)) {
+            System.out.println("=== DETECTED: AI is asking for information - checking if actions should be removed ===");
+            Map<String, String> actionsToRemove = extractActionPlaceholders(aiResponse);
+            if (!actionsToRemove.isEmpty()) {
+                // Check if user has already provided information (e.g., name) and action is for confirmation
+                // In this case, the confirmation action IS the way to confirm, so we should keep it
+                List<String> actionsToKeep = new java.util.ArrayList<>();
+                for (String actionKey : actionsToRemove.keySet()) {
+                    String lowerActionKey = actionKey.toLowerCase();
+                    // If it's a confirmation action and user has provided their name, keep it
+                    if (lowerActionKey.contains("confirm")) {
+                        // Check if user message or history contains name-like information
+                        String lowerCustomerMessage = customerMessage != null ? customerMessage.toLowerCase() : "";
+                        String lowerHistory = conversationHistory != null ? conversationHistory.toLowerCase() : "";
+                        boolean hasNameInfo = lowerCustomerMessage.contains("name is") || 
+                                             lowerCustomerMessage.contains("i'm") ||
+                                             lowerCustomerMessage.contains("i am") ||
+                                             lowerHistory.contains("name is") ||
+                                             lowerHistory.contains("i'm") ||
+                                             lowerHistory.contains("i am");
+                        if (hasNameInfo) {
+                            System.out.println("Keeping confirmation action - user has provided name information");
+                            actionsToKeep.add(actionKey);
                         }
-                        aiResponse = aiResponse.replaceAll("[ ]+", " ").trim();
-                        System.out.println("Response after removing actions: " + aiResponse);
-                    } else {
-                        System.out.println("All actions are confirmation actions with user info provided - keeping them");
                     }
                 }
-            }
-            
-            // CRITICAL: Remove actions that don't match the user's message context
-            // This prevents actions from appearing when they're not relevant
-            Map<String, String> contextActions = extractActionPlaceholders(aiResponse);
-            if (!contextActions.isEmpty() && customerMessage != null && !customerMessage.trim().isEmpty()) {
-                String lowerCustomerMessage = customerMessage.toLowerCase();
-                List<String> actionsToRemove = new java.util.ArrayList<>();
                 
-                for (String actionKey : contextActions.keySet()) {
-                    // Check if action matches user's message context
-                    boolean shouldKeep = isActionRelevantToMessage(actionKey, lowerCustomerMessage, conversationHistory);
-                    if (!shouldKeep) {
-                        actionsToRemove.add(actionKey);
-                        System.out.println("=== REMOVING IRRELEVANT ACTION ===");
-                        System.out.println("Action: " + actionKey);
-                        System.out.println("User message: " + customerMessage);
-                        System.out.println("Reason: Action does not match user's message context");
+                // Remove actions that should be removed (exclude ones we're keeping)
+                List<String> finalActionsToRemove = new java.util.ArrayList<>();
+                for (String actionKey : actionsToRemove.keySet()) {
+                    if (!actionsToKeep.contains(actionKey)) {
+                        finalActionsToRemove.add(actionKey);
                     }
                 }
                 
-                // Remove irrelevant actions
-                if (!actionsToRemove.isEmpty()) {
-                    for (String actionKey : actionsToRemove) {
+                if (!finalActionsToRemove.isEmpty()) {
+                    System.out.println("Removing actions: " + finalActionsToRemove);
+                    // Remove action placeholders from the response
+                    for (String actionKey : finalActionsToRemove) {
                         aiResponse = aiResponse.replaceAll("\\{action_" + actionKey + "(?::[^}]+)?\\}", "").trim();
                     }
                     aiResponse = aiResponse.replaceAll("[ ]+", " ").trim();
-                    System.out.println("Response after removing irrelevant actions: " + aiResponse);
+                    System.out.println("Response after removing actions: " + aiResponse);
+                } else {
+                    System.out.println("All actions are confirmation actions with user info provided - keeping them");
                 }
             }
-            
-            // Apply formatting rules post-processing to ensure they're followed
-            // This MUST happen after cleaning to preserve the formatting
-            if (formattingInstructions != null && !formattingInstructions.trim().isEmpty()) {
-                System.out.println("Applying formatting rules to response...");
-                aiResponse = applyFormattingRules(aiResponse, formattingInstructions);
-                System.out.println("Formatted response: " + aiResponse.replace("\n", "\\n"));
+        }
+        
+        // CRITICAL: Remove actions that don't match the user's message context
+        // This prevents actions from appearing when they're not relevant
+        Map<String, String> contextActions = extractActionPlaceholders(aiResponse);
+        if (!contextActions.isEmpty() && customerMessage != null && !customerMessage.trim().isEmpty()) {
+            String lowerCustomerMessage = customerMessage.toLowerCase();
+            List<String> actionsToRemove = new java.util.ArrayList<>();
+            
+            for (String actionKey : contextActions.keySet()) {
+                // Check if action matches user's message context
+                boolean shouldKeep = isActionRelevantToMessage(actionKey, lowerCustomerMessage, conversationHistory);
+                if (!shouldKeep) {
+                    actionsToRemove.add(actionKey);
+                    System.out.println("=== REMOVING IRRELEVANT ACTION ===");
+                    System.out.println("Action: " + actionKey);
+                    System.out.println("User message: " + customerMessage);
+                    System.out.println("Reason: Action does not match user's message context");
+                }
             }
             
-            // Final check: Log if action placeholders are still present
-            Map<String, String> finalActions = extractActionPlaceholders(aiResponse);
-            if (!finalActions.isEmpty()) {
-                System.out.println("=== FINAL ACTION CHECK ===");
-                System.out.println("Actions still in response: " + finalActions.keySet());
-                System.out.println("Response text: " + aiResponse);
-                System.out.println("These actions will be sent to frontend for rendering");
-            } else {
-                System.out.println("=== FINAL ACTION CHECK ===");
-                System.out.println("No action placeholders found in final response");
-                System.out.println("Response text: " + aiResponse);
-                System.out.println("If configuration mentioned an action, the AI may not have included it");
+            // Remove irrelevant actions
+            if (!actionsToRemove.isEmpty()) {
+                for (String actionKey : actionsToRemove) {
+                    aiResponse = aiResponse.replaceAll("\\{action_" + actionKey + "(?::[^}]+)?\\}", "").trim();
+                }
+                aiResponse = aiResponse.replaceAll("[ ]+", " ").trim();
+                System.out.println("Response after removing irrelevant actions: " + aiResponse);
             }
-            
-            System.out.println("Generated AI agent response for chatbot: " + aiResponse);
-            return aiResponse;
-            
-        } catch (Exception e) {
-            System.err.println("=== ERROR GENERATING CHATBOT RESPONSE ===");
-            System.err.println("Error message: " + e.getMessage());
-            System.err.println("Error class: " + e.getClass().getName());
-            e.printStackTrace();
-            System.err.println("=== END ERROR ===");
-            return "Thank you for contacting us. I'm here to help you with your inquiry. Could you please provide more details so I can assist you better?";
+        }
+        
+        // Apply formatting rules post-processing to ensure they're followed
+        // This MUST happen after cleaning to preserve the formatting
+        if (prompt.formattingInstructions != null && !prompt.formattingInstructions.trim().isEmpty()) {
+            System.out.println("Applying formatting rules to response...");
+            aiResponse = applyFormattingRules(aiResponse, prompt.formattingInstructions);
+            System.out.println("Formatted response: " + aiResponse.replace("\n", "\\n"));
+        }
+        
+        // Final check: Log if action placeholders are still present
+        Map<String, String> finalActions = extractActionPlaceholders(aiResponse);
+        if (!finalActions.isEmpty()) {
+            System.out.println("=== FINAL ACTION CHECK ===");
+            System.out.println("Actions still in response: " + finalActions.keySet());
+            System.out.println("Response text: " + aiResponse);
+            System.out.println("These actions will be sent to frontend for rendering");
+        } else {
+            System.out.println("=== FINAL ACTION CHECK ===");
+            System.out.println("No action placeholders found in final response");
+            System.out.println("Response text: " + aiResponse);
+            System.out.println("If configuration mentioned an action, the AI may not have included it");
+        }
+        
+        System.out.println("Generated AI agent response for chatbot: " + aiResponse);
+        if (prompt.cacheLookup != null) {
+            answerCache.put(prompt.cacheLookup, prompt.fingerprint, prompt.contextArticleIds, aiResponse);
+        }
+        if (prompt.sessionFingerprint != null && prompt.keepContext) {
+            contextStore.save(prompt.sessionId, prompt.sessionFingerprint, prompt.nextContext, aiResponse);
+        }
+        return aiResponse;
+    }
+    
+    private static String sha256(String text) {
+        try {
+            byte[] digest = java.security.MessageDigest.getInstance("SHA-256").digest(text.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            return java.util.HexFormat.of().formatHex(digest);
+        } catch (java.security.NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
         }
     }
     
@@ -974,6 +1250,14 @@ public class AIService {
      * Uses semantic search with embeddings if available, falls back to keyword search
      */
     private String getKnowledgeBaseContext(String customerMessage) {
+        return getKnowledgeBaseContext(customerMessage, null, null);
+    }
+    
+    /**
+     * Get relevant knowledge base context, collecting the IDs of the articles it was built from
+     * @param questionEmbedding Embedding of the message shared with other stages of the turn, or null to embed here
+     */
+    private String getKnowledgeBaseContext(String customerMessage, java.util.Set<Long> sourceArticleIds, QuestionEmbedding questionEmbedding) {
         try {
             if (customerMessage == null || customerMessage.trim().isEmpty()) {
                 System.out.println("RAG: Customer message is empty, skipping knowledge base search");
@@ -991,7 +1275,9 @@ public class AIService {
             if (ragPipeline != null) {
                 try {
                     // Retrieve chunks with stricter similarity threshold (now 0.65)
-                    String semanticContext = ragPipeline.retrieveContext(customerMessage, 5);
+                    String semanticContext = questionEmbedding != null
+                        ? ragPipeline.retrieveContext(customerMessage, questionEmbedding.get(), 5, null, sourceArticleIds)
+                        : ragPipeline.retrieveContext(customerMessage, 5, null, sourceArticleIds);
                     if (semanticContext != null && !semanticContext.trim().isEmpty()) {
                         System.out.println("RAG: Using semantic search (embeddings) - found relevant articles");
                         System.out.println("RAG: Generated context (length: " + semanticContext.length() + " chars)");
@@ -1031,14 +1317,12 @@ public class AIService {
                 if (article.getCategory() != null) {
                     context.append("Category: ").append(article.getCategory().getName()).append("\n");
                 }
-                // Strip HTML tags for cleaner context
-                String cleanContent = article.getContent().replaceAll("<[^>]*>", " ");
-                cleanContent = cleanContent.replaceAll("\\s+", " ").trim();
-                // Increase content length limit for better context
-                if (cleanContent.length() > 800) {
-                    cleanContent = cleanContent.substring(0, 800) + "...";
-                }
+                // HTML-stripped preview, cached per article version
+                String cleanContent = articleTextCache.get(article).getPreview();
                 context.append("Content: ").append(cleanContent).append("\n\n");
+                if (sourceArticleIds != null) {
+                    sourceArticleIds.add(article.getId());
+                }
             }
             
             String contextString = context.toString();
@@ -1054,236 +1338,238 @@ public class AIService {
     
     /**
      * Generate AI agent response for simulation - acts as a customer service agent
+     * @throws LlmRequestScheduler.LlmOverloadedException if the batch queue is full
      */
     public String generateAgentResponseForSimulation(String customerMessage, String context, Long ticketId) {
-        try {
-            // Get conversation history if ticket ID is provided
-            String conversationHistory = "";
-            String ticketContext = "";
-            
-            if (ticketId != null) {
-                Optional<Ticket> ticketOpt = ticketRepository.findById(ticketId);
-                if (ticketOpt.isPresent()) {
-                    Ticket ticket = ticketOpt.get();
-                    
-                    // Build ticket context
-                    ticketContext = String.format("Ticket #%d: %s - %s (Status: %s, Priority: %s, Category: %s)", 
-                        ticket.getId(), ticket.getSubject(), ticket.getDescription(),
-                        ticket.getStatus(), ticket.getPriority(), 
-                        ticket.getCategory() != null ? ticket.getCategory().toString() : "N/A");
-                    
-                    // Get conversation history (last 10 messages for context)
-                    List<TicketMessage> messages = messageRepository.findByTicketIdOrderByCreatedAtAsc(ticketId);
-                    if (!messages.isEmpty()) {
-                        conversationHistory = buildConversationHistoryForAgent(messages);
-                    }
+        return generateAgentResponseForSimulationAsync(customerMessage, context, ticketId).block();
+    }
+    
+    /**
+     * Generate AI agent response for simulation without blocking the calling thread
+     */
+    public Mono<String> generateAgentResponseForSimulationAsync(String customerMessage, String context, Long ticketId) {
+        // Prompt building reads the ticket and rules and searches the knowledge base
+        return Mono.fromCallable(() -> simulationRequest(customerMessage, ticketId))
+            .subscribeOn(blockingScheduler)
+            // Simulation runs queue behind live traffic instead of competing with it
+            .flatMap(request -> generate(LlmRequestScheduler.Priority.BATCH, request.body).map(aiResponse -> {
+                // Clean up the response first
+                aiResponse = cleanAgentResponse(aiResponse);
+                
+                // Apply formatting rules post-processing to ensure they're followed
+                // This MUST happen after cleaning to preserve the formatting
+                if (request.formattingInstructions != null && !request.formattingInstructions.trim().isEmpty()) {
+                    System.out.println("Applying formatting rules to simulation response...");
+                    aiResponse = applyFormattingRules(aiResponse, request.formattingInstructions);
+                    System.out.println("Formatted simulation response: " + aiResponse.replace("\n", "\\n"));
+                }
+                
+                System.out.println("Generated AI agent response for simulation: " + aiResponse);
+                return aiResponse;
+            }))
+            // A full batch queue is reported to the caller: a canned reply would be scored as the model's answer
+            .onErrorResume(e -> !(e instanceof LlmRequestScheduler.LlmOverloadedException), e -> {
+                System.err.println("Failed to generate AI agent response: " + e.getMessage());
+                e.printStackTrace();
+                // Fallback response
+                return Mono.just(CHATBOT_FALLBACK_RESPONSE);
+            });
+    }
+    
+    private PreparedRequest simulationRequest(String customerMessage, Long ticketId) {
+        // Get conversation history if ticket ID is provided
+        String conversationHistory = "";
+        String ticketContext = "";
+        
+        if (ticketId != null) {
+            Optional<Ticket> ticketOpt = ticketRepository.findById(ticketId);
+            if (ticketOpt.isPresent()) {
+                Ticket ticket = ticketOpt.get();
+                
+                // Build ticket context
+                ticketContext = String.format("Ticket #%d: %s - %s (Status: %s, Priority: %s, Category: %s)", 
+                    ticket.getId(), ticket.getSubject(), ticket.getDescription(),
+                    ticket.getStatus(), ticket.getPriority(), 
+                    ticket.getCategory() != null ? ticket.getCategory().toString() : "N/A");
+                
+                // Get conversation history (recent messages, plus a summary of older ones on long tickets)
+                List<TicketMessage> messages = messageRepository.findByTicketIdOrderByCreatedAtAsc(ticketId);
+                if (!messages.isEmpty()) {
+                    conversationHistory = buildConversationHistoryForAgent(ticketId, messages);
                 }
             }
-            
-                   // Get AI configurations - try new rule-based system first, fall back to old system
-                   String configurationContext = "";
-                   Ticket ticketForContext = null;
-                   try {
-                       if (ticketId != null) {
-                           Optional<Ticket> ticketOpt = ticketRepository.findById(ticketId);
-                           if (ticketOpt.isPresent()) {
-                               ticketForContext = ticketOpt.get();
-                           }
+        }
+               
+               // Get AI configurations - try new rule-based system first, fall back to old system
+               String configurationContext = "";
+               Ticket ticketForContext = null;
+               try {
+                   if (ticketId != null) {
+                       Optional<Ticket> ticketOpt = ticketRepository.findById(ticketId);
+                       if (ticketOpt.isPresent()) {
+                           ticketForContext = ticketOpt.get();
                        }
-                       
-                       if (airuleService != null) {
-                           configurationContext = airuleService.getAllRulesAsPrompt(ticketForContext);
+                   }
+                   
+                   if (airuleService != null && configSnapshotService != null) {
+                       configurationContext = airuleService.renderRulesAsPrompt(configSnapshotService.current().getRules(), ticketForContext);
+                   } else if (airuleService != null) {
+                       configurationContext = airuleService.getAllRulesAsPrompt(ticketForContext);
+                   } else {
+                       // Fallback to old system
+                       if (ticketForContext != null) {
+                           configurationContext = configurationService.getRelevantConfigurationsAsPrompt(ticketForContext);
                        } else {
-                           // Fallback to old system
-                           if (ticketForContext != null) {
-                               configurationContext = configurationService.getRelevantConfigurationsAsPrompt(ticketForContext);
-                           } else {
-                               configurationContext = configurationService.getAllActiveConfigurationsAsPrompt();
-                           }
+                           configurationContext = configurationService.getAllActiveConfigurationsAsPrompt();
                        }
-                   } catch (Exception e) {
-                       System.err.println("Failed to load AI configurations: " + e.getMessage());
-                       // Fallback to old system
-                       try {
-                           if (ticketForContext != null) {
-                               configurationContext = configurationService.getRelevantConfigurationsAsPrompt(ticketForContext);
-                           } else {
-                               configurationContext = configurationService.getAllActiveConfigurationsAsPrompt();
-                           }
-                       } catch (Exception e2) {
-                           System.err.println("Failed to load AI configurations (fallback): " + e2.getMessage());
+                   }
+               } catch (Exception e) {
+                   System.err.println("Failed to load AI configurations: " + e.getMessage());
+                   // Fallback to old system
+                   try {
+                       if (ticketForContext != null) {
+                           configurationContext = configurationService.getRelevantConfigurationsAsPrompt(ticketForContext);
+                       } else {
+                           configurationContext = configurationService.getAllActiveConfigurationsAsPrompt();
                        }
+                   } catch (Exception e2) {
+                       System.err.println("Failed to load AI configurations (fallback): " + e2.getMessage());
                    }
-            
-            // Create the base prompt for a customer service agent
-            String baseSystemPrompt = "You are a professional customer service agent responding to a customer inquiry. " +
-                "Your goal is to provide helpful, accurate, and empathetic support. " +
-                "Be professional, clear, and solution-oriented. " +
-                "Acknowledge the customer's concern, provide relevant information, and offer next steps when appropriate. " +
-                "Keep responses concise but complete - typically 2-4 sentences. " +
-                "Use a friendly but professional tone. " +
-                "Don't put your response in quotes - just respond directly as the agent.";
-            
-            StringBuilder fullPrompt = new StringBuilder();
-            
-            // RAG: Retrieve relevant articles from knowledge base FIRST (most important - facts)
-            System.out.println("=== RAG DEBUG [SIMULATION]: Starting knowledge base search ===");
-            System.out.println("Customer message: '" + customerMessage + "'");
-            String knowledgeBaseContext = getKnowledgeBaseContext(customerMessage);
-            if (knowledgeBaseContext != null && !knowledgeBaseContext.trim().isEmpty()) {
-                System.out.println("=== RAG DEBUG [SIMULATION]: Adding knowledge base context to prompt ===");
-                // Put RAG context FIRST and make it very prominent
-                fullPrompt.append("=== CRITICAL: KNOWLEDGE BASE INFORMATION ===\n");
-                fullPrompt.append("IMPORTANT: The following information from the knowledge base directly answers the customer's question. ");
-                fullPrompt.append("YOU MUST USE THIS INFORMATION to answer. Do not ask for information that is already provided here.\n\n");
-                fullPrompt.append(knowledgeBaseContext).append("\n\n");
-                fullPrompt.append("=== END KNOWLEDGE BASE ===\n\n");
-                fullPrompt.append("INSTRUCTION: If the knowledge base above contains information that answers the customer's question, ");
-                fullPrompt.append("use that information directly in your response. Do not ask the customer for information that is already in the knowledge base.\n\n");
-            } else {
-                System.out.println("=== RAG DEBUG [SIMULATION]: No knowledge base context found or empty ===");
-            }
-            
-            // Add comprehensive instruction system for AI customization
-            fullPrompt.append("=== AI CUSTOMIZATION INSTRUCTION SYSTEM ===\n");
-            fullPrompt.append("You are a highly configurable AI agent. The following instructions explain how to interpret and execute ");
-            fullPrompt.append("configuration rules provided by the platform administrator.\n\n");
-            
-            fullPrompt.append("1. TEMPLATE VARIABLES:\n");
-            fullPrompt.append("   - Variables like {{user.name}}, {{user.email}}, {{order.total}}, etc. refer to information from the ticket/user context.\n");
-            fullPrompt.append("   - These variables are automatically replaced with actual values when available.\n");
-            fullPrompt.append("   - If a configuration says 'if {{variable}} is empty, ask for it', check if the variable has a value.\n");
-            fullPrompt.append("   - If empty, follow the instruction to ask for it.\n");
-            fullPrompt.append("   - Once you have the information, use it throughout the conversation.\n\n");
-            
-            fullPrompt.append("2. RESPONSE FORMATTING:\n");
-            fullPrompt.append("   - Follow ALL formatting instructions exactly as specified in the configuration.\n");
-            fullPrompt.append("   - If instructed to use line breaks, new lines, or separate messages, do so precisely.\n");
-            fullPrompt.append("   - If instructed to respond in multiple messages, structure your response accordingly.\n");
-            fullPrompt.append("   - Formatting instructions are MANDATORY and must be followed.\n\n");
-            
-            fullPrompt.append("3. CONFIGURATION EXECUTION:\n");
-            fullPrompt.append("   - All instructions in the AI Configuration Guidelines section below are actionable rules.\n");
-            fullPrompt.append("   - Execute them as specified - they are not suggestions, they are requirements.\n");
-            fullPrompt.append("   - If a rule conflicts with general behavior, the rule takes precedence.\n");
-            fullPrompt.append("   - Complex behaviors (multiple messages, conditional logic, etc.) should be followed exactly.\n\n");
-            
-            fullPrompt.append("=== END INSTRUCTION SYSTEM ===\n\n");
-            
-            // Add configuration context AFTER RAG (guidelines, not facts)
-            if (configurationContext != null && !configurationContext.trim().isEmpty()) {
-                fullPrompt.append("=== AI CONFIGURATION GUIDELINES (EXECUTE THESE RULES) ===\n");
-                fullPrompt.append("The following are configuration rules set by the platform administrator. ");
-                fullPrompt.append("These are NOT suggestions - they are REQUIREMENTS that you must follow.\n\n");
-                fullPrompt.append("Execute these rules exactly as specified:\n\n");
-                fullPrompt.append(configurationContext).append("\n\n");
-                fullPrompt.append("=== END CONFIGURATION GUIDELINES ===\n\n");
-            }
-            
-            fullPrompt.append("=== BASE SYSTEM PROMPT ===\n");
-            fullPrompt.append(baseSystemPrompt).append("\n\n");
-            
-            if (!ticketContext.isEmpty()) {
-                fullPrompt.append("TICKET CONTEXT:\n").append(ticketContext).append("\n\n");
-            }
-            
-            // Extract and emphasize formatting instructions from configuration
-            String formattingInstructions = extractFormattingInstructions(configurationContext);
-            if (formattingInstructions != null && !formattingInstructions.trim().isEmpty()) {
-                fullPrompt.append("=== RESPONSE FORMATTING REQUIREMENTS (CRITICAL - MUST FOLLOW) ===\n");
-                fullPrompt.append("These formatting instructions are MANDATORY and must be strictly followed:\n\n");
-                fullPrompt.append(formattingInstructions).append("\n\n");
-                fullPrompt.append("=== END FORMATTING REQUIREMENTS ===\n\n");
-            }
-            
-            if (!conversationHistory.isEmpty()) {
-                fullPrompt.append("=== PREVIOUS CONVERSATION CONTEXT (FOR REFERENCE ONLY) ===\n");
-                fullPrompt.append("The following is previous conversation for context. ");
-                fullPrompt.append("IMPORTANT: Focus on the CURRENT MESSAGE below, not the old messages above.\n");
-                fullPrompt.append(conversationHistory).append("\n\n");
-                fullPrompt.append("=== END PREVIOUS CONTEXT ===\n\n");
-            }
-            
-            fullPrompt.append("=== CURRENT CUSTOMER MESSAGE (RESPOND TO THIS) ===\n");
-            fullPrompt.append("CRITICAL: The customer's current question is below. ");
-            fullPrompt.append("You MUST respond to THIS message, not previous messages in the conversation history.\n");
-            fullPrompt.append(customerMessage).append("\n\n");
-            fullPrompt.append("=== END CURRENT MESSAGE ===\n\n");
-            
-            // Reinforce formatting before response
-            if (formattingInstructions != null && !formattingInstructions.trim().isEmpty()) {
-                fullPrompt.append("CRITICAL FORMATTING REMINDER: You MUST follow the formatting requirements specified above. ");
-                fullPrompt.append("If the requirements specify line breaks, new lines, or sentence formatting, you MUST apply them exactly as specified. ");
-                fullPrompt.append("Do not ignore formatting instructions.\n\n");
-            }
-            fullPrompt.append("Your response as the customer service agent (apply all formatting requirements):");
-            
-            // Create request body for Ollama
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", "llama3.2:3b");
-            requestBody.put("prompt", fullPrompt.toString());
-            requestBody.put("stream", false);
-            requestBody.put("options", Map.of(
-                "temperature", 0.5,  // Lower temperature for more consistent, professional responses
-                "top_p", 0.8,
-                "max_tokens", 300    // Increased to allow formatted responses with line breaks
-            ));
-            
-            // Call Ollama API
-            String response = webClient.post()
-                .uri("/api/generate")
-                .body(BodyInserters.fromValue(requestBody))
-                .retrieve()
-                .bodyToMono(String.class)
-                .block();
-            
-            // Parse response
-            JsonNode jsonResponse = objectMapper.readTree(response);
-            String aiResponse = jsonResponse.get("response").asText();
-            
-            // Clean up the response first
-            aiResponse = cleanAgentResponse(aiResponse);
-            
-            // Apply formatting rules post-processing to ensure they're followed
-            // This MUST happen after cleaning to preserve the formatting
-            if (formattingInstructions != null && !formattingInstructions.trim().isEmpty()) {
-                System.out.println("Applying formatting rules to simulation response...");
-                aiResponse = applyFormattingRules(aiResponse, formattingInstructions);
-                System.out.println("Formatted simulation response: " + aiResponse.replace("\n", "\\n"));
-            }
-            
-            System.out.println("Generated AI agent response for simulation: " + aiResponse);
-            return aiResponse;
-            
-        } catch (Exception e) {
-            System.err.println("Failed to generate AI agent response: " + e.getMessage());
-            e.printStackTrace();
-            // Fallback response
-            return "Thank you for contacting us. I'm here to help you with your inquiry. Could you please provide more details so I can assist you better?";
+               }
+        
+        // Create the base prompt for a customer service agent
+        String baseSystemPrompt = "You are a professional customer service agent responding to a customer inquiry. " +
+            "Your goal is to provide helpful, accurate, and empathetic support. " +
+            "Be professional, clear, and solution-oriented. " +
+            "Acknowledge the customer's concern, provide relevant information, and offer next steps when appropriate. " +
+            "Keep responses concise but complete - typically 2-4 sentences. " +
+            "Use a friendly but professional tone. " +
+            "Don't put your response in quotes - just respond directly as the agent.";
+        
+        StringBuilder fullPrompt = new StringBuilder();
+        
+        // RAG: Retrieve relevant articles from knowledge base FIRST (most important - facts)
+        System.out.println("=== RAG DEBUG [SIMULATION]: Starting knowledge base search ===");
+        System.out.println("Customer message: '" + customerMessage + "'");
+        String knowledgeBaseContext = getKnowledgeBaseContext(customerMessage);
+        if (knowledgeBaseContext != null && !knowledgeBaseContext.trim().isEmpty()) {
+            System.out.println("=== RAG DEBUG [SIMULATION]: Adding knowledge base context to prompt ===");
+            // Put RAG context FIRST and make it very prominent
+            fullPrompt.append("=== CRITICAL: KNOWLEDGE BASE INFORMATION ===\n");
+            fullPrompt.append("IMPORTANT: The following information from the knowledge base directly answers the customer's question. ");
+            fullPrompt.append("YOU MUST USE THIS INFORMATION to answer. Do not ask for information that is already provided here.\n\n");
+            fullPrompt.append(knowledgeBaseContext).append("\n\n");
+            fullPrompt.append("=== END KNOWLEDGE BASE ===\n\n");
+            fullPrompt.append("INSTRUCTION: If the knowledge base above contains information that answers the customer's question, ");
+            fullPrompt.append("use that information directly in your response. Do not ask the customer for information that is already in the knowledge base.\n\n");
+        } else {
+            System.out.println("=== RAG DEBUG [SIMULATION]: No knowledge base context found or empty ===");
+        }
+        
+        // Add comprehensive instruction system for AI customization
+        fullPrompt.append("=== AI CUSTOMIZATION INSTRUCTION SYSTEM ===\n");
+        fullPrompt.append("You are a highly configurable AI agent. The following instructions explain how to interpret and execute ");
+        fullPrompt.append("configuration rules provided by the platform administrator.\n\n");
+        
+        fullPrompt.append("1. TEMPLATE VARIABLES:\n");
+        fullPrompt.append("   - Variables like {{user.name}}, {{user.email}}, {{order.total}}, etc. refer to information from the ticket/user context.\n");
+        fullPrompt.append("   - These variables are automatically replaced with actual values when available.\n");
+        fullPrompt.append("   - If a configuration says 'if {{variable}} is empty, ask for it', check if the variable has a value.\n");
+        fullPrompt.append("   - If empty, follow the instruction to ask for it.\n");
+        fullPrompt.append("   - Once you have the information, use it throughout the conversation.\n\n");
+        
+        fullPrompt.append("2. RESPONSE FORMATTING:\n");
+        fullPrompt.append("   - Follow ALL formatting instructions exactly as specified in the configuration.\n");
+        fullPrompt.append("   - If instructed to use line breaks, new lines, or separate messages, do so precisely.\n");
+        fullPrompt.append("   - If instructed to respond in multiple messages, structure your response accordingly.\n");
+        fullPrompt.append("   - Formatting instructions are MANDATORY and must be followed.\n\n");
+        
+        fullPrompt.append("3. CONFIGURATION EXECUTION:\n");
+        fullPrompt.append("   - All instructions in the AI Configuration Guidelines section below are actionable rules.\n");
+        fullPrompt.append("   - Execute them as specified - they are not suggestions, they are requirements.\n");
+        fullPrompt.append("   - If a rule conflicts with general behavior, the rule takes precedence.\n");
+        fullPrompt.append("   - Complex behaviors (multiple messages, conditional logic, etc.) should be followed exactly.\n\n");
+        
+        fullPrompt.append("=== END INSTRUCTION SYSTEM ===\n\n");
+        
+        // Add configuration context AFTER RAG (guidelines, not facts)
+        if (configurationContext != null && !configurationContext.trim().isEmpty()) {
+            fullPrompt.append("=== AI CONFIGURATION GUIDELINES (EXECUTE THESE RULES) ===\n");
+            fullPrompt.append("The following are configuration rules set by the platform administrator. ");
+            fullPrompt.append("These are NOT suggestions - they are REQUIREMENTS that you must follow.\n\n");
+            fullPrompt.append("Execute these rules exactly as specified:\n\n");
+            fullPrompt.append(configurationContext).append("\n\n");
+            fullPrompt.append("=== END CONFIGURATION GUIDELINES ===\n\n");
+        }
+        
+        fullPrompt.append("=== BASE SYSTEM PROMPT ===\n");
+        fullPrompt.append(baseSystemPrompt).append("\n\n");
+        
+        if (!ticketContext.isEmpty()) {
+            fullPrompt.append("TICKET CONTEXT:\n").append(ticketContext).append("\n\n");
+        }
+        
+        // Extract and emphasize formatting instructions from configuration
+        String formattingInstructions = extractFormattingInstructions(configurationContext);
+        if (formattingInstructions != null && !formattingInstructions.trim().isEmpty()) {
+            fullPrompt.append("=== RESPONSE FORMATTING REQUIREMENTS (CRITICAL - MUST FOLLOW) ===\n");
+            fullPrompt.append("These formatting instructions are MANDATORY and must be strictly followed:\n\n");
+            fullPrompt.append(formattingInstructions).append("\n\n");
+            fullPrompt.append("=== END FORMATTING REQUIREMENTS ===\n\n");
+        }
+        
+        if (!conversationHistory.isEmpty()) {
+            fullPrompt.append("=== PREVIOUS CONVERSATION CONTEXT (FOR REFERENCE ONLY) ===\n");
+            fullPrompt.append("The following is previous conversation for context. ");
+            fullPrompt.append("IMPORTANT: Focus on the CURRENT MESSAGE below, not the old messages above.\n");
+            fullPrompt.append(conversationHistory).append("\n\n");
+            fullPrompt.append("=== END PREVIOUS CONTEXT ===\n\n");
+        }
+        
+        fullPrompt.append("=== CURRENT CUSTOMER MESSAGE (RESPOND TO THIS) ===\n");
+        fullPrompt.append("CRITICAL: The customer's current question is below. ");
+        fullPrompt.append("You MUST respond to THIS message, not previous messages in the conversation history.\n");
+        fullPrompt.append(customerMessage).append("\n\n");
+        fullPrompt.append("=== END CURRENT MESSAGE ===\n\n");
+        
+        // Reinforce formatting before response
+        if (formattingInstructions != null && !formattingInstructions.trim().isEmpty()) {
+            fullPrompt.append("CRITICAL FORMATTING REMINDER: You MUST follow the formatting requirements specified above. ");
+            fullPrompt.append("If the requirements specify line breaks, new lines, or sentence formatting, you MUST apply them exactly as specified. ");
+            fullPrompt.append("Do not ignore formatting instructions.\n\n");
         }
+        fullPrompt.append("Your response as the customer service agent (apply all formatting requirements):");
+        
+        // Create request body for Ollama
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", "llama3.2:3b");
+        requestBody.put("prompt", fullPrompt.toString());
+        requestBody.put("stream", false);
+        requestBody.put("options", Map.of(
+            "temperature", 0.5,  // Lower temperature for more consistent, professional responses
+            "top_p", 0.8,
+            "max_tokens", 300,    // Increased to allow formatted responses with line breaks
+            "num_ctx", numCtx
+        ));
+        return new PreparedRequest(requestBody, formattingInstructions);
     }
     
     /**
      * Build conversation history string from messages (for agent perspective)
+     * Bounded in size; older messages of long tickets are replaced by their running summary
      */
-    private String buildConversationHistoryForAgent(List<TicketMessage> messages) {
-        // Get last 8 messages to keep context manageable but comprehensive
-        List<TicketMessage> recentMessages = messages.size() > 8 ? 
-            messages.subList(messages.size() - 8, messages.size()) : messages;
-            
-        return recentMessages.stream()
-            .map(msg -> {
-                String sender;
-                if (msg.getSenderType().toString().equals("USER")) {
-                    sender = "Customer";
-                } else if (msg.getSenderType().toString().equals("AGENT")) {
-                    sender = "Agent";
-                } else {
-                    sender = "System";
-                }
-                return String.format("%s: %s", sender, msg.getMessage());
-            })
-            .collect(Collectors.joining("\n"));
+    private String buildConversationHistoryForAgent(Long ticketId, List<TicketMessage> messages) {
+        return conversationSummaryService.historyForTicket(ticketId, messages, msg -> {
+            String sender;
+            if (msg.getSenderType().toString().equals("USER")) {
+                sender = "Customer";
+            } else if (msg.getSenderType().toString().equals("AGENT")) {
+                sender = "Agent";
+            } else {
+                sender = "System";
+            }
+            return String.format("%s: %s", sender, msg.getMessage());
+        });
     }
     
     /**
@@ -1419,6 +1705,19 @@ public class AIService {
         return result.isEmpty() ? null : result;
     }
     
+    /**
+     * Check if formatting rules require each sentence on a new line
+     */
+    private boolean requiresNewLinePerSentence(String formattingInstructions) {
+        if (formattingInstructions == null) {
+            return false;
+        }
+        String lowerFormatting = formattingInstructions.toLowerCase();
+        return (lowerFormatting.contains("each sentence") || lowerFormatting.contains("sentence")) && 
+               (lowerFormatting.contains("new line") || lowerFormatting.contains("separate line") || 
+                lowerFormatting.contains("on a new") || lowerFormatting.contains("per line"));
+    }
+    
     /**
      * Post-process AI response to apply formatting rules if needed
      * This ensures formatting instructions are actually applied even if the AI model doesn't follow them perfectly
@@ -1428,14 +1727,7 @@ public class AIService {
             return response;
         }
         
-        String lowerFormatting = formattingInstructions.toLowerCase();
-        
-        // Check if formatting requires each sentence on a new line
-        boolean requiresNewLinePerSentence = (lowerFormatting.contains("each sentence") || lowerFormatting.contains("sentence")) && 
-                                            (lowerFormatting.contains("new line") || lowerFormatting.contains("separate line") || 
-                                             lowerFormatting.contains("on a new") || lowerFormatting.contains("per line"));
-        
-        if (requiresNewLinePerSentence) {
+        if (requiresNewLinePerSentence(formattingInstructions)) {
             System.out.println("Formatting rule detected: Each sentence on a new line");
             System.out.println("Original response: " + response);
             
@@ -1477,30 +1769,25 @@ public class AIService {
     
     /**
      * Build conversation history string from messages
+     * Bounded in size; older messages of long tickets are replaced by their running summary
      */
-    private String buildConversationHistory(List<TicketMessage> messages) {
-        // Get last 8 messages to keep context manageable but comprehensive
-        List<TicketMessage> recentMessages = messages.size() > 8 ? 
-            messages.subList(messages.size() - 8, messages.size()) : messages;
-            
-                    return recentMessages.stream()
-            .map(msg -> {
-                String sender;
-                if (msg.getSenderType().toString().equals("USER")) {
-                    // Check if it's an AI customer message
-                    if (msg.getSenderName() != null && msg.getSenderName().contains("Customer (AI)")) {
-                        sender = "You (Customer)";
-                    } else {
-                        sender = "Customer";
-                    }
-                } else if (msg.getSenderType().toString().equals("AGENT")) {
-                    sender = "Support Agent";
+    private String buildConversationHistory(Long ticketId, List<TicketMessage> messages) {
+        return conversationSummaryService.historyForTicket(ticketId, messages, msg -> {
+            String sender;
+            if (msg.getSenderType().toString().equals("USER")) {
+                // Check if it's an AI customer message
+                if (msg.getSenderName() != null && msg.getSenderName().contains("Customer (AI)")) {
+                    sender = "You (Customer)";
                 } else {
-                    sender = "System";
+                    sender = "Customer";
                 }
-                return String.format("%s: %s", sender, msg.getMessage());
-            })
-            .collect(Collectors.joining("\n"));
+            } else if (msg.getSenderType().toString().equals("AGENT")) {
+                sender = "Support Agent";
+            } else {
+                sender = "System";
+            }
+            return String.format("%s: %s", sender, msg.getMessage());
+        });
     }
     
     private String cleanResponse(String response) {
@@ -1589,4 +1876,180 @@ public class AIService {
             return label;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Ollama request body plus the formatting rules to apply to its response
+     */
+    private static class PreparedRequest {
+        final Map<String, Object> body;
+        final String formattingInstructions;
+        
+        PreparedRequest(Map<String, Object> body, String formattingInstructions) {
+            this.body = body;
+            this.formattingInstructions = formattingInstructions;
+        }
+    }
+    
+    /**
+     * Prompt for one chatbot turn, or the cached answer that makes generation unnecessary
+     */
+    private static class ChatbotPrompt {
+        final String text;
+        final String formattingInstructions;
+        final SemanticAnswerCache.Lookup cacheLookup;
+        final String fingerprint;
+        final java.util.Set<Long> contextArticleIds;
+        final String cachedResponse;
+        String sessionId;
+        String sessionFingerprint;
+        // Context sent with the request (null when the prompt was built in full)
+        int[] sessionContext;
+        // Whether the context after this turn may be resumed by the next one
+        boolean keepContext;
+        // Context returned by Ollama, kept for the session's next turn
+        volatile int[] nextContext;
+        
+        ChatbotPrompt(String text, String formattingInstructions, SemanticAnswerCache.Lookup cacheLookup,
+                      String fingerprint, java.util.Set<Long> contextArticleIds) {
+            this.text = text;
+            this.formattingInstructions = formattingInstructions;
+            this.cacheLookup = cacheLookup;
+            this.fingerprint = fingerprint;
+            this.contextArticleIds = contextArticleIds;
+            this.cachedResponse = null;
+        }
+        
+        private ChatbotPrompt(String cachedResponse) {
+            this.text = null;
+            this.formattingInstructions = null;
+            this.cacheLookup = null;
+            this.fingerprint = null;
+            this.contextArticleIds = null;
+            this.cachedResponse = cachedResponse;
+        }
+        
+        static ChatbotPrompt cached(String response) {
+            return new ChatbotPrompt(response);
+        }
+        
+        void continueSession(String sessionId, String sessionFingerprint, int[] sessionContext, boolean keepContext) {
+            this.sessionId = sessionId;
+            this.sessionFingerprint = sessionFingerprint;
+            this.sessionContext = sessionContext;
+            this.keepContext = keepContext;
+        }
+        
+        void rememberContext(JsonNode response) {
+            JsonNode context = response.get("context");
+            if (sessionFingerprint == null || !keepContext || context == null || !context.isArray()) {
+                return;
+            }
+            int[] tokens = new int[context.size()];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = context.get(i).asInt();
+            }
+            nextContext = tokens;
+        }
+    }
+    
+    /**
+     * Result of the rules stage of a chatbot prompt
+     */
+    private static class ChatbotRules {
+        static final ChatbotRules NONE = new ChatbotRules("", false);
+        
+        final String context;
+        final boolean answerCachingAllowed;
+        
+        ChatbotRules(String context, boolean answerCachingAllowed) {
+            this.context = context;
+            this.answerCachingAllowed = answerCachingAllowed;
+        }
+    }
+    
+    /**
+     * Embedding of a turn's question, computed by whichever stage asks first and shared with the others.
+     * Waiters join a future instead of holding a lock, so virtual threads are not pinned during the call.
+     */
+    private class QuestionEmbedding {
+        private final String question;
+        private final java.util.concurrent.CompletableFuture<float[]> result = new java.util.concurrent.CompletableFuture<>();
+        private final java.util.concurrent.atomic.AtomicBoolean started = new java.util.concurrent.atomic.AtomicBoolean();
+        
+        QuestionEmbedding(String question) {
+            this.question = question;
+        }
+        
+        float[] get() throws Exception {
+            if (started.compareAndSet(false, true)) {
+                try {
+                    if (embeddingService == null) {
+                        throw new IllegalStateException("No embedding service available");
+                    }
+                    result.complete(embeddingService.generateEmbeddingVector(question));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            }
+            try {
+                return result.join();
+            } catch (java.util.concurrent.CompletionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Result of the knowledge stage of a chatbot prompt
+     */
+    private static class KnowledgeContext {
+        static final KnowledgeContext NONE = new KnowledgeContext(null, java.util.Set.of());
+        
+        final String text;
+        final java.util.Set<Long> articleIds;
+        
+        KnowledgeContext(String text, java.util.Set<Long> articleIds) {
+            this.text = text;
+            this.articleIds = articleIds;
+        }
+    }
+    
+    /**
+     * One event of a streamed chatbot response: "delta" (text to append) or "done" (final response)
+     */
+    public static class ChatbotStreamEvent {
+        public static final String DELTA = "delta";
+        public static final String DONE = "done";
+        
+        private final String type;
+        private final String text;
+        
+        private ChatbotStreamEvent(String type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+        
+        public static ChatbotStreamEvent delta(String text) {
+            return new ChatbotStreamEvent(DELTA, text);
+        }
+        
+        public static ChatbotStreamEvent done(String response) {
+            return new ChatbotStreamEvent(DONE, response);
+        }
+        
+        public String getType() {
+            return type;
+        }
+        
+        public String getText() {
+            return text;
+        }
+        
+        public boolean isDone() {
+            return DONE.equals(type);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.prototype.service;
+
+import com.prototype.entity.Article;
+import com.prototype.entity.ArticleIndexTask;
+import com.prototype.rag.indexing.IncrementalIndexer;
+import com.prototype.rag.storage.VectorStore;
+import com.prototype.repository.ArticleIndexTaskRepository;
+import com.prototype.repository.ArticleRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains the article indexing outbox in the background
+ * Article writes only record a task; this worker embeds them off the request thread,
+ * retrying failures with exponential backoff.
+ */
+@Service
+public class ArticleIndexQueueWorker {
+    
+    @Autowired
+    private ArticleIndexTaskRepository taskRepository;
+    
+    @Autowired
+    private ArticleRepository articleRepository;
+    
+    @Autowired(required = false)
+    private IncrementalIndexer incrementalIndexer;
+    
+    @Autowired(required = false)
+    private VectorStore vectorStore;
+    
+    @Autowired(required = false)
+    private SemanticAnswerCache answerCache;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    private final long pollIntervalMs;
+    private final int batchSize;
+    private final long initialBackoffSeconds;
+    private final long maxBackoffSeconds;
+    
+    private final ScheduledExecutorService poller;
+    private final ExecutorService workers;
+    // Articles currently being processed; a task is never picked up twice concurrently
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile LocalDateTime lastDrainAt;
+    
+    private TransactionTemplate readTransaction;
+    
+    public ArticleIndexQueueWorker(@Value("${rag.indexing.threads:4}") int threads,
+                                   @Value("${rag.indexing.queue.poll-interval-ms:1000}") long pollIntervalMs,
+                                   @Value("${rag.indexing.queue.batch-size:50}") int batchSize,
+                                   @Value("${rag.indexing.queue.initial-backoff-seconds:5}") long initialBackoffSeconds,
+                                   @Value("${rag.indexing.queue.max-backoff-seconds:900}") long maxBackoffSeconds) {
+        this.pollIntervalMs = Math.max(100, pollIntervalMs);
+        this.batchSize = Math.max(1, batchSize);
+        this.initialBackoffSeconds = Math.max(1, initialBackoffSeconds);
+        this.maxBackoffSeconds = Math.max(this.initialBackoffSeconds, maxBackoffSeconds);
+        this.poller = Executors.newSingleThreadScheduledExecutor(namedThreads("rag-index-queue-poller"));
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), namedThreads("rag-index-queue-worker"));
+    }
+    
+    @PostConstruct
+    public void start() {
+        readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+        poller.scheduleWithFixedDelay(this::drain, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("ArticleIndexQueueWorker started (poll interval: " + pollIntervalMs + "ms)");
+    }
+    
+    /**
+     * Drain the queue now instead of waiting for the next poll
+     * Called after an article write commits.
+     */
+    public void wakeUp() {
+        try {
+            poller.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+    
+    /**
+     * Run an indexing action for one article while no queue task for it runs
+     * The queue skips the article until the action returns, so index writes for one article never
+     * interleave and the one that reads the article last also writes last.
+     */
+    public <T> T runExclusive(Long articleId, Callable<T> action) throws Exception {
+        synchronized (inFlight) {
+            while (!inFlight.add(articleId)) {
+                inFlight.wait();
+            }
+        }
+        try {
+            return action.call();
+        } finally {
+            release(articleId);
+        }
+    }
+    
+    private void release(Long articleId) {
+        synchronized (inFlight) {
+            inFlight.remove(articleId);
+            inFlight.notifyAll();
+        }
+    }
+    
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("pending", taskRepository.countByPendingTrue());
+        status.put("retrying", taskRepository.countByPendingTrueAndAttemptsGreaterThan(0));
+        status.put("inFlight", inFlight.size());
+        status.put("processed", processed.get());
+        status.put("failures", failures.get());
+        status.put("lastDrainAt", lastDrainAt);
+        return status;
+    }
+    
+    // Runs on the single poller thread, so batches are never fetched concurrently
+    private void drain() {
+        if (incrementalIndexer == null || vectorStore == null) {
+            return;
+        }
+        try {
+            lastDrainAt = LocalDateTime.now();
+            List<ArticleIndexTask> due = taskRepository.findByPendingTrueAndNextAttemptAtLessThanEqualOrderByNextAttemptAtAsc(
+                LocalDateTime.now(), PageRequest.of(0, batchSize));
+            for (ArticleIndexTask task : due) {
+                if (inFlight.add(task.getArticleId())) {
+                    TaskSnapshot snapshot = new TaskSnapshot(task);
+                    workers.execute(() -> process(snapshot));
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        } catch (Exception e) {
+            System.err.println("ArticleIndexQueue: Failed to poll index tasks: " + e.getMessage());
+        }
+    }
+    
+    private void process(TaskSnapshot task) {
+        boolean superseded = false;
+        try {
+            ArticleSnapshot article = task.operation == ArticleIndexTask.Operation.INDEX
+                ? readTransaction.execute(status -> articleRepository.findById(task.articleId)
+                    .filter(a -> Boolean.TRUE.equals(a.getIsActive()))
+                    .map(ArticleSnapshot::new)
+                    .orElse(null))
+                : null;
+            
+            if (article == null) {
+                vectorStore.removeChunksByArticleId(task.articleId);
+            } else {
+                IncrementalIndexer.IndexResult result = incrementalIndexer.indexArticle(
+                    article.id, article.title, article.content, article.category, false);
+                if (result.getFailed() > 0) {
+                    throw new IllegalStateException(result.getFailed() + " chunk(s) failed to embed");
+                }
+            }
+            
+            // Answers cached between the article write and this re-index were built from the old chunks
+            if (answerCache != null) {
+                answerCache.invalidateArticle(task.articleId);
+            }
+            processed.incrementAndGet();
+            // Zero rows means the article was edited while we worked; the task stays pending
+            superseded = taskRepository.markCompleted(task.id, task.version, LocalDateTime.now()) == 0;
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            long delay = backoffSeconds(task.attempts);
+            System.err.println("ArticleIndexQueue: Indexing article " + task.articleId + " failed (attempt " +
+                (task.attempts + 1) + "), retrying in " + delay + "s: " + e.getMessage());
+            try {
+                LocalDateTime now = LocalDateTime.now();
+                taskRepository.markFailed(task.id, task.version, now.plusSeconds(delay), truncate(e.getMessage()), now);
+            } catch (Exception updateError) {
+                System.err.println("ArticleIndexQueue: Failed to record retry for article " + task.articleId + ": " +
+                    updateError.getMessage());
+            }
+        } finally {
+            release(task.articleId);
+        }
+        if (superseded) {
+            wakeUp();
+        }
+    }
+    
+    private long backoffSeconds(int attempts) {
+        long delay = initialBackoffSeconds << Math.min(attempts, 20);
+        return Math.min(delay, maxBackoffSeconds);
+    }
+    
+    private static String truncate(String message) {
+        if (message == null) {
+            return null;
+        }
+        return message.length() > 1000 ? message.substring(0, 1000) : message;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+        workers.shutdownNow();
+    }
+    
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    private static class TaskSnapshot {
+        final Long id;
+        final Long articleId;
+        final ArticleIndexTask.Operation operation;
+        final Long version;
+        final int attempts;
+        
+        TaskSnapshot(ArticleIndexTask task) {
+            this.id = task.getId();
+            this.articleId = task.getArticleId();
+            this.operation = task.getOperation();
+            this.version = task.getVersion();
+            this.attempts = task.getAttempts() != null ? task.getAttempts() : 0;
+        }
+    }
+    
+    private static class ArticleSnapshot {
+        final Long id;
+        final String title;
+        final String content;
+        final String category;
+        
+        ArticleSnapshot(Article article) {
+            this.id = article.getId();
+            this.title = article.getTitle();
+            this.content = article.getContent();
+            this.category = article.getCategory() != null ? article.getCategory().getName() : null;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.prototype.service;
+
+import com.prototype.entity.Article;
+import com.prototype.rag.chunking.HtmlTextReader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of text derived from article HTML (plain text and a context preview)
+ * Entries are keyed by article ID and versioned by the article's updatedAt, so a stale entry is
+ * recomputed on read; article writes also invalidate entries directly.
+ */
+@Component
+public class ArticleTextCache {
+    
+    private final int maxEntries;
+    private final int previewLength;
+    private final Map<Long, ArticleText> entries;
+    
+    public ArticleTextCache(@Value("${rag.text-cache.max-entries:2000}") int maxEntries,
+                            @Value("${rag.text-cache.preview-length:800}") int previewLength) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.previewLength = Math.max(1, previewLength);
+        // Access-ordered so the least recently used article is evicted first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ArticleText> eldest) {
+                return size() > ArticleTextCache.this.maxEntries;
+            }
+        };
+    }
+    
+    /**
+     * Get the derived text for an article, computing it if missing or out of date
+     */
+    public ArticleText get(Article article) {
+        Long id = article.getId();
+        LocalDateTime version = article.getUpdatedAt();
+        if (id != null) {
+            synchronized (entries) {
+                ArticleText cached = entries.get(id);
+                if (cached != null && Objects.equals(cached.version, version)) {
+                    return cached;
+                }
+            }
+        }
+        
+        // Strip outside the lock; concurrent misses for the same article just compute twice
+        ArticleText text = new ArticleText(version, HtmlTextReader.toPlainText(article.getContent()), previewLength);
+        if (id != null) {
+            synchronized (entries) {
+                entries.put(id, text);
+            }
+        }
+        return text;
+    }
+    
+    public void invalidate(Long articleId) {
+        synchronized (entries) {
+            entries.remove(articleId);
+        }
+    }
+    
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    
+    public static class ArticleText {
+        private final LocalDateTime version;
+        private final String plainText;
+        private final String preview;
+        
+        ArticleText(LocalDateTime version, String plainText, int previewLength) {
+            this.version = version;
+            this.plainText = plainText;
+            this.preview = plainText.length() > previewLength ? plainText.substring(0, previewLength) + "..." : plainText;
+        }
+        
+        public String getPlainText() { return plainText; }
+        public String getPreview() { return preview; }
+    }
+}
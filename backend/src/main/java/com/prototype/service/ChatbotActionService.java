@@ -3,6 +3,7 @@ package com.prototype.service;
 import com.prototype.entity.ChatbotAction;
 import com.prototype.repository.ChatbotActionRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -14,6 +15,9 @@ public class ChatbotActionService {
     @Autowired
     private ChatbotActionRepository actionRepository;
     
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
     public List<ChatbotAction> getAllActions() {
         return actionRepository.findAllByOrderByIdAsc();
     }
@@ -40,7 +44,9 @@ public class ChatbotActionService {
         if (actionRepository.findByActionKey(action.getActionKey()).isPresent()) {
             throw new RuntimeException("Action key already exists: " + action.getActionKey());
         }
-        return actionRepository.save(action);
+        ChatbotAction saved = actionRepository.save(action);
+        eventPublisher.publishEvent(new AIConfigChangedEvent("action created"));
+        return saved;
     }
     
     @Transactional
@@ -61,12 +67,65 @@ public class ChatbotActionService {
         existing.setDescription(action.getDescription());
         existing.setIsActive(action.getIsActive());
         
-        return actionRepository.save(existing);
+        ChatbotAction saved = actionRepository.save(existing);
+        eventPublisher.publishEvent(new AIConfigChangedEvent("action updated"));
+        return saved;
     }
     
     @Transactional
     public void deleteAction(Long id) {
         actionRepository.deleteById(id);
+        eventPublisher.publishEvent(new AIConfigChangedEvent("action deleted"));
+    }
+    
+    /**
+     * Describe actions for the chatbot prompt, with the rules for when to display them
+     * @return Prompt section, or an empty string if there are no actions
+     */
+    public String renderActionsAsPrompt(List<ChatbotAction> actions) {
+        if (actions.isEmpty()) {
+            return "";
+        }
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("=== AVAILABLE ACTIONS ===\n");
+        prompt.append("You can display interactive components by including action placeholders in your response.\n");
+        prompt.append("Available actions:\n");
+        for (ChatbotAction action : actions) {
+            prompt.append("- {action_").append(action.getActionKey()).append("} - ").append(action.getName());
+            if (action.getDescription() != null && !action.getDescription().trim().isEmpty()) {
+                prompt.append(": ").append(action.getDescription());
+            }
+            prompt.append("\n");
+        }
+        prompt.append("\n");
+        prompt.append("CRITICAL ACTION DISPLAY RULES:\n");
+        prompt.append("1. If the configuration rules mention displaying an action (e.g., 'display {action_Confirmation}'), ");
+        prompt.append("you MUST include that exact action placeholder in your response text.\n");
+        prompt.append("2. Use the EXACT placeholder format as shown in the rules (e.g., {action_Confirmation} or {action_order_selector}).\n");
+        prompt.append("3. CRITICAL TIMING RULE: If the rules say 'WAIT FOR USER TO MESSAGE', 'once user provides', or 'after user provides', ");
+        prompt.append("this means:\n");
+        prompt.append("   - DO NOT display the action in the same response where you ask for information\n");
+        prompt.append("   - ONLY display the action AFTER the user has provided the information in a SUBSEQUENT message\n");
+        prompt.append("   - Check the conversation history above - if the user has ALREADY provided the information in a previous message, THEN display the action\n");
+        prompt.append("   - If you are asking for information in your current response, DO NOT include any actions\n");
+        prompt.append("4. STRICT ACTION TRIGGERING RULE - THIS IS CRITICAL:\n");
+        prompt.append("   - Actions must ONLY be displayed when BOTH conditions are met:\n");
+        prompt.append("     a) The configuration rules explicitly mention displaying that SPECIFIC action\n");
+        prompt.append("     b) The user's current message ACTUALLY matches the condition in the rule\n");
+        prompt.append("   - Example: If a rule says 'If a user asks about an order then display {action_order_selector}', ");
+        prompt.append("you can ONLY display {action_order_selector} if the user ACTUALLY asked about an order.\n");
+        prompt.append("   - If the user said 'My name is John', they did NOT ask about an order, so DO NOT display {action_order_selector}.\n");
+        prompt.append("   - DO NOT display actions proactively, preemptively, or 'just in case'.\n");
+        prompt.append("   - DO NOT display actions that are available but not relevant to the current conversation.\n");
+        prompt.append("   - DO NOT add actions to responses unless the user's message explicitly triggers the rule condition.\n");
+        prompt.append("5. If the rules mention an action but say to wait, check the conversation history first:\n");
+        prompt.append("   - If the user has NOT yet provided the required information, ask for it WITHOUT displaying the action\n");
+        prompt.append("   - If the user HAS provided the required information in a previous message, THEN display the action\n");
+        prompt.append("6. FINAL CHECK: Before including any action placeholder, ask yourself:\n");
+        prompt.append("   - Does the configuration rule explicitly say to display this action?\n");
+        prompt.append("   - Does the user's current message match the condition in that rule?\n");
+        prompt.append("   - If either answer is NO, DO NOT include the action.\n\n");
+        return prompt.toString();
     }
 }
 
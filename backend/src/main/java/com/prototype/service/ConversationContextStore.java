@@ -0,0 +1,168 @@
+package com.prototype.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ollama context tokens of ongoing chatbot sessions
+ * After each turn the model's context (prompt plus answer, as token ids) is kept per session, so the
+ * next turn only sends the new customer message and Ollama does not re-evaluate the rules block and
+ * history. A stored context is only resumed while the rules/actions fingerprint is unchanged, the
+ * client's history still ends with the answer that produced it, and it is under the token limit;
+ * otherwise the caller rebuilds the full prompt and starts a new context. The limit stays below the
+ * num_ctx sent to Ollama, which would otherwise silently drop the oldest tokens (the rules) first.
+ */
+@Component
+public class ConversationContextStore {
+    
+    private final boolean enabled;
+    private final int maxSessions;
+    private final long ttlMillis;
+    private final int maxContextTokens;
+    private final String keepAlive;
+    
+    // Access-ordered for LRU eviction; keyed by session id
+    private final Map<String, Entry> sessions;
+    
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong rebuilt = new AtomicLong();
+    
+    public ConversationContextStore(@Value("${chatbot.context-reuse.enabled:true}") boolean enabled,
+                                    @Value("${chatbot.context-reuse.max-sessions:1000}") int maxSessions,
+                                    @Value("${chatbot.context-reuse.ttl-minutes:30}") long ttlMinutes,
+                                    @Value("${chatbot.context-reuse.max-context-tokens:3072}") int maxContextTokens,
+                                    @Value("${chatbot.context-reuse.keep-alive:30m}") String keepAlive,
+                                    @Value("${ollama.num-ctx:8192}") int numCtx) {
+        if (maxContextTokens >= numCtx) {
+            throw new IllegalArgumentException("chatbot.context-reuse.max-context-tokens (" + maxContextTokens +
+                ") must be below ollama.num-ctx (" + numCtx + ") to leave room for the next turn");
+        }
+        this.enabled = enabled;
+        this.maxSessions = Math.max(1, maxSessions);
+        this.ttlMillis = Math.max(1, ttlMinutes) * 60_000L;
+        this.maxContextTokens = maxContextTokens;
+        this.keepAlive = keepAlive;
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ConversationContextStore.this.maxSessions;
+            }
+        };
+        System.out.println("ConversationContextStore initialized (enabled: " + enabled + ", max sessions: " + this.maxSessions +
+            ", ttl: " + ttlMinutes + "m, max context tokens: " + maxContextTokens + " of num_ctx " + numCtx + ")");
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * How long Ollama should keep the model (and its KV cache) loaded between turns
+     */
+    public String getKeepAlive() {
+        return keepAlive;
+    }
+    
+    /**
+     * Context to continue a session from
+     * @param sessionId Client chat session id
+     * @param fingerprint Hash of the rules and actions the current prompt would be built from
+     * @param conversationHistory History sent by the client for this turn
+     * @param customerMessage The new message (some clients already include it as the last history line)
+     * @return Context tokens, or null if the prompt has to be rebuilt
+     */
+    public int[] resume(String sessionId, String fingerprint, String conversationHistory, String customerMessage) {
+        Entry entry;
+        synchronized (sessions) {
+            entry = sessions.remove(sessionId);
+        }
+        String history = conversationHistory != null ? conversationHistory.trim() : "";
+        String reason = null;
+        if (entry == null) {
+            reason = "no stored context";
+        } else if (System.currentTimeMillis() >= entry.expiresAt) {
+            reason = "context expired";
+        } else if (!entry.fingerprint.equals(fingerprint)) {
+            reason = "rules or actions changed";
+        } else if (entry.context.length > maxContextTokens) {
+            reason = "context over " + maxContextTokens + " tokens";
+        } else if (!continuesFrom(history, entry.lastResponse, customerMessage)) {
+            // A failed turn or an edited transcript: the stored context no longer matches what the customer saw
+            reason = "history diverged";
+        }
+        if (reason != null) {
+            rebuilt.incrementAndGet();
+            System.out.println("ConversationContextStore: Rebuilding prompt for session " + sessionId + " (" + reason + ")");
+            return null;
+        }
+        resumed.incrementAndGet();
+        return entry.context;
+    }
+    
+    // The history must end with the stored answer, optionally followed by a line with the new message
+    private static boolean continuesFrom(String history, String lastResponse, String customerMessage) {
+        int at = lastResponse.isEmpty() ? -1 : history.lastIndexOf(lastResponse);
+        if (at < 0) {
+            return false;
+        }
+        String rest = history.substring(at + lastResponse.length()).trim();
+        return rest.isEmpty()
+            || (customerMessage != null && rest.indexOf('\n') < 0 && rest.endsWith(customerMessage.trim()));
+    }
+    
+    /**
+     * Remember the context after a turn
+     * @param context Context tokens returned by Ollama
+     * @param response The final answer shown to the customer
+     */
+    public void save(String sessionId, String fingerprint, int[] context, String response) {
+        if (sessionId == null || fingerprint == null || context == null || context.length == 0) {
+            return;
+        }
+        Entry entry = new Entry(fingerprint, context, response != null ? response.trim() : "",
+            System.currentTimeMillis() + ttlMillis);
+        synchronized (sessions) {
+            sessions.put(sessionId, entry);
+        }
+    }
+    
+    public void invalidate(String sessionId) {
+        synchronized (sessions) {
+            sessions.remove(sessionId);
+        }
+    }
+    
+    public void clear() {
+        synchronized (sessions) {
+            sessions.clear();
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (sessions) {
+            stats.put("sessions", sessions.size());
+        }
+        stats.put("enabled", enabled);
+        stats.put("resumedTurns", resumed.get());
+        stats.put("rebuiltTurns", rebuilt.get());
+        return stats;
+    }
+    
+    private static class Entry {
+        final String fingerprint;
+        final int[] context;
+        final String lastResponse;
+        final long expiresAt;
+        
+        Entry(String fingerprint, int[] context, String lastResponse, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.context = context;
+            this.lastResponse = lastResponse;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.prototype.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.prototype.entity.ConversationSummary;
+import com.prototype.entity.TicketMessage;
+import com.prototype.repository.ConversationSummaryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Conversation history for prompts, bounded no matter how long the conversation runs
+ * A history under the token threshold goes into the prompt verbatim. A longer one becomes a running
+ * summary of the older messages followed by the most recent messages verbatim. The summary is stored
+ * per ticket (per session for chatbot conversations). Messages that leave the recent window stay verbatim
+ * until they add up to refresh-tokens; they are then folded into the summary in the background, a chunk
+ * at a time. A prompt never waits for a refresh and uses the summary as it stands, so prompt history is
+ * at most the summary plus the recent and refresh budgets.
+ */
+@Service
+public class ConversationSummaryService {
+    
+    @Autowired
+    private ConversationSummaryRepository summaryRepository;
+    
+    @Autowired
+    private LlmRequestScheduler llmScheduler;
+    
+    // Where summaries are saved once the model has answered
+    @Autowired
+    private Scheduler blockingScheduler;
+    
+    @Value("${conversation.summary.enabled:true}")
+    private boolean enabled;
+    
+    // History up to this size goes into the prompt verbatim
+    @Value("${conversation.summary.threshold-tokens:1000}")
+    private int thresholdTokens;
+    
+    @Value("${conversation.summary.recent-messages:8}")
+    private int recentMessages;
+    
+    @Value("${conversation.summary.max-recent-tokens:800}")
+    private int maxRecentTokens;
+    
+    // Unsummarized messages before the recent window are folded in once they reach this size
+    @Value("${conversation.summary.refresh-tokens:400}")
+    private int refreshTokens;
+    
+    @Value("${conversation.summary.max-summary-words:150}")
+    private int maxSummaryWords;
+    
+    // Messages folded into the summary per model call
+    @Value("${conversation.summary.max-chunk-tokens:1500}")
+    private int maxChunkTokens;
+    
+    @Value("${conversation.summary.max-chat-sessions:1000}")
+    private int maxChatSessions;
+    
+    // Same context window as the chatbot's requests, so the shared model is not reloaded
+    @Value("${ollama.num-ctx:8192}")
+    private int numCtx;
+    
+    private final WebClient webClient;
+    private final ObjectMapper objectMapper;
+    
+    // Conversations with a refresh under way, so each is summarized by one chain at a time
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    // Chatbot sessions have no ticket; their summaries live here, least recently used evicted first
+    private final Map<String, ChatSummary> chatSummaries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChatSummary> eldest) {
+            return size() > Math.max(1, maxChatSessions);
+        }
+    };
+    
+    private final AtomicLong condensedHistories = new AtomicLong();
+    private final AtomicLong refreshedChunks = new AtomicLong();
+    private final AtomicLong failedRefreshes = new AtomicLong();
+    
+    public ConversationSummaryService(@Value("${ollama.base-url:http://localhost:11434}") String ollamaBaseUrl) {
+        this.webClient = WebClient.builder()
+            .baseUrl(ollamaBaseUrl)
+            .build();
+        this.objectMapper = new ObjectMapper();
+    }
+    
+    /**
+     * History of a ticket for a prompt
+     * @param messages All messages of the ticket, oldest first
+     * @param formatter Renders one message as a prompt line (e.g. "Customer: ...")
+     */
+    public String historyForTicket(Long ticketId, List<TicketMessage> messages, Function<TicketMessage, String> formatter) {
+        List<String> lines = new ArrayList<>(messages.size());
+        for (TicketMessage message : messages) {
+            lines.add(formatter.apply(message));
+        }
+        if (!enabled || ticketId == null) {
+            // Previous behavior: the last messages, without a summary of the earlier ones
+            return String.join("\n", lines.subList(Math.max(0, lines.size() - recentMessages), lines.size()));
+        }
+        if (estimateTokens(lines) <= thresholdTokens) {
+            return String.join("\n", lines);
+        }
+        
+        int recentStart = recentStart(lines);
+        String summary = "";
+        int summarized = 0;
+        Optional<ConversationSummary> stored = summaryRepository.findByTicketId(ticketId);
+        if (stored.isPresent()) {
+            ConversationSummary row = stored.get();
+            int count = row.getSummarizedMessages();
+            // A summary of messages that have since been deleted is rebuilt from the start
+            if (count > 0 && count <= messages.size() && Objects.equals(messages.get(count - 1).getId(), row.getLastMessageId())) {
+                summary = row.getSummary();
+                summarized = count;
+            }
+        }
+        
+        int base = summarized;
+        boolean refresh = needsRefresh(lines, base, recentStart);
+        if (refresh) {
+            List<Long> ids = messages.stream().map(TicketMessage::getId).toList();
+            refreshAsync("ticket:" + ticketId, summary, lines.subList(base, recentStart),
+                (updated, folded) -> saveTicketSummary(ticketId, updated, base + folded, ids.get(base + folded - 1)));
+        }
+        condensedHistories.incrementAndGet();
+        return render(summary, lines.subList(refresh ? pendingStart(lines, base, recentStart) : Math.min(base, recentStart), lines.size()));
+    }
+    
+    /**
+     * History of a chatbot session for a prompt
+     * @param sessionId Client chat session id; without one, older lines are dropped instead of summarized
+     * @param conversationHistory History as sent by the client, one message per line
+     */
+    public String historyForChat(String sessionId, String conversationHistory) {
+        if (!enabled || conversationHistory == null) {
+            return conversationHistory;
+        }
+        List<String> lines = conversationHistory.lines().filter(line -> !line.isBlank()).toList();
+        if (estimateTokens(lines) <= thresholdTokens) {
+            return conversationHistory;
+        }
+        
+        int recentStart = recentStart(lines);
+        List<String> older = lines.subList(0, recentStart);
+        String summary = "";
+        int pendingFrom = 0;
+        // Without a session the older lines are dropped
+        int verbatimFrom = recentStart;
+        if (sessionId != null && !sessionId.isBlank()) {
+            ChatSummary stored;
+            synchronized (chatSummaries) {
+                stored = chatSummaries.get(sessionId);
+            }
+            if (stored != null) {
+                summary = stored.summary;
+                // Lines after the last one already folded in; the client's window may have slid past it, then all are new
+                pendingFrom = lines.lastIndexOf(stored.lastLine) + 1;
+            }
+            boolean refresh = needsRefresh(lines, pendingFrom, recentStart);
+            verbatimFrom = refresh ? pendingStart(lines, pendingFrom, recentStart) : Math.min(pendingFrom, recentStart);
+            if (refresh) {
+                List<String> pending = older.subList(pendingFrom, older.size());
+                refreshAsync("chat:" + sessionId, summary, pending, (updated, folded) -> {
+                    synchronized (chatSummaries) {
+                        chatSummaries.put(sessionId, new ChatSummary(updated, pending.get(folded - 1)));
+                    }
+                });
+            }
+        }
+        condensedHistories.incrementAndGet();
+        return render(summary, lines.subList(verbatimFrom, lines.size()));
+    }
+    
+    public void forgetChatSession(String sessionId) {
+        synchronized (chatSummaries) {
+            chatSummaries.remove(sessionId);
+        }
+    }
+    
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("thresholdTokens", thresholdTokens);
+        stats.put("refreshTokens", refreshTokens);
+        stats.put("condensedHistories", condensedHistories.get());
+        stats.put("refreshedChunks", refreshedChunks.get());
+        stats.put("failedRefreshes", failedRefreshes.get());
+        stats.put("refreshesInProgress", refreshing.size());
+        synchronized (chatSummaries) {
+            stats.put("chatSessions", chatSummaries.size());
+        }
+        stats.put("ticketSummaries", summaryRepository.count());
+        return stats;
+    }
+    
+    // First line of the verbatim part: at most recentMessages lines within maxRecentTokens, but always the last line
+    private int recentStart(List<String> lines) {
+        int start = lines.size();
+        int tokens = 0;
+        while (start > 0 && lines.size() - start < recentMessages) {
+            int lineTokens = estimateTokens(lines.get(start - 1));
+            if (start < lines.size() && tokens + lineTokens > maxRecentTokens) {
+                break;
+            }
+            tokens += lineTokens;
+            start--;
+        }
+        return start;
+    }
+    
+    // Whether the unsummarized lines before the recent window are due to be folded in; until then they stay verbatim
+    private boolean needsRefresh(List<String> lines, int summarized, int recentStart) {
+        return summarized < recentStart && estimateTokens(lines.subList(summarized, recentStart)) >= refreshTokens;
+    }
+    
+    // Until a refresh has folded them in, the latest unsummarized lines within refreshTokens stay verbatim
+    private int pendingStart(List<String> lines, int summarized, int recentStart) {
+        int start = recentStart;
+        int tokens = 0;
+        while (start > summarized && tokens + estimateTokens(lines.get(start - 1)) <= refreshTokens) {
+            tokens += estimateTokens(lines.get(start - 1));
+            start--;
+        }
+        return start;
+    }
+    
+    private String render(String summary, List<String> recent) {
+        StringBuilder history = new StringBuilder();
+        if (summary != null && !summary.isBlank()) {
+            history.append("Summary of the earlier conversation: ").append(summary).append("\n");
+        }
+        for (String line : recent) {
+            // The latest message may exceed the budget on its own
+            history.append(truncate(line, maxRecentTokens * 4)).append("\n");
+        }
+        return history.toString().trim();
+    }
+    
+    private void refreshAsync(String key, String summary, List<String> pending, BiConsumer<String, Integer> store) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        // Copied so the chain does not hold on to the caller's list
+        List<String> lines = List.copyOf(pending);
+        foldChunks(summary, lines, 0, store)
+            .doFinally(signal -> refreshing.remove(key))
+            .subscribe(ignored -> { }, e -> {
+                failedRefreshes.incrementAndGet();
+                // Shed under load or the model is unavailable; the next prompt for this conversation tries again
+                System.err.println("ConversationSummaryService: Could not refresh summary for " + key + ": " + e.getMessage());
+            });
+    }
+    
+    // Fold the pending lines into the summary one chunk per model call, storing after each chunk
+    private Mono<Void> foldChunks(String summary, List<String> pending, int folded, BiConsumer<String, Integer> store) {
+        if (folded >= pending.size()) {
+            return Mono.empty();
+        }
+        int end = folded;
+        int tokens = 0;
+        while (end < pending.size() && (end == folded || tokens + estimateTokens(pending.get(end)) <= maxChunkTokens)) {
+            tokens += estimateTokens(pending.get(end));
+            end++;
+        }
+        int chunkEnd = end;
+        return summarize(summary, pending.subList(folded, chunkEnd))
+            .publishOn(blockingScheduler)
+            .flatMap(updated -> {
+                store.accept(updated, chunkEnd);
+                refreshedChunks.incrementAndGet();
+                return foldChunks(updated, pending, chunkEnd, store);
+            });
+    }
+    
+    private Mono<String> summarize(String summary, List<String> lines) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("You keep a running summary of a customer support conversation.\n\n");
+        prompt.append("Summary so far:\n").append(summary == null || summary.isBlank() ? "(none)" : summary).append("\n\n");
+        prompt.append("Messages that follow it:\n");
+        for (String line : lines) {
+            prompt.append(truncate(line, maxChunkTokens * 4)).append("\n");
+        }
+        prompt.append("\nWrite the updated summary in at most ").append(maxSummaryWords).append(" words. ");
+        prompt.append("Keep the customer's name, problem and details (order numbers, products, dates), what was tried, ");
+        prompt.append("what was promised and what is still open. Reply with the summary only.\n\n");
+        prompt.append("Updated summary:");
+        
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", "llama3.2:3b");
+        requestBody.put("prompt", prompt.toString());
+        requestBody.put("stream", false);
+        requestBody.put("options", Map.of(
+            "temperature", 0.2,
+            // Roughly two tokens per word, so the summary cannot outgrow its budget
+            "num_predict", maxSummaryWords * 2,
+            "num_ctx", numCtx
+        ));
+        
+        // Ahead of dashboard analyses: the next turn of a live conversation is waiting on this summary
+        return llmScheduler.schedule(LlmRequestScheduler.Priority.BATCH, webClient.post()
+                .uri("/api/generate")
+                .body(BodyInserters.fromValue(requestBody))
+                .retrieve()
+                .bodyToMono(String.class))
+            .map(response -> {
+                try {
+                    JsonNode node = objectMapper.readTree(response);
+                    String updated = node.path("response").asText("").trim();
+                    if (updated.isEmpty()) {
+                        throw new IllegalStateException("Empty summary");
+                    }
+                    return truncate(updated, maxSummaryWords * 8);
+                } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+                    throw new IllegalStateException("Malformed Ollama response", e);
+                }
+            });
+    }
+    
+    private void saveTicketSummary(Long ticketId, String summary, int summarizedMessages, Long lastMessageId) {
+        ConversationSummary row = summaryRepository.findByTicketId(ticketId).orElseGet(() -> new ConversationSummary(ticketId));
+        row.setSummary(summary);
+        row.setSummarizedMessages(summarizedMessages);
+        row.setLastMessageId(lastMessageId);
+        summaryRepository.save(row);
+        System.out.println("ConversationSummaryService: Ticket " + ticketId + " summary now covers " + summarizedMessages + " messages");
+    }
+    
+    // About four characters per token for English text
+    private static int estimateTokens(String text) {
+        return text.length() / 4 + 1;
+    }
+    
+    private static int estimateTokens(List<String> lines) {
+        int tokens = 0;
+        for (String line : lines) {
+            tokens += estimateTokens(line);
+        }
+        return tokens;
+    }
+    
+    private static String truncate(String text, int maxChars) {
+        return text.length() <= maxChars ? text : text.substring(0, maxChars) + "...";
+    }
+    
+    private static class ChatSummary {
+        final String summary;
+        // Last history line folded into the summary
+        final String lastLine;
+        
+        ChatSummary(String summary, String lastLine) {
+            this.summary = summary;
+            this.lastLine = lastLine;
+        }
+    }
+}
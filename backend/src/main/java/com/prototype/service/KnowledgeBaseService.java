@@ -1,16 +1,25 @@
 package com.prototype.service;
 
 import com.prototype.entity.Article;
+import com.prototype.entity.ArticleIndexTask;
 import com.prototype.entity.Category;
+import com.prototype.repository.ArticleIndexTaskRepository;
 import com.prototype.repository.ArticleRepository;
 import com.prototype.repository.CategoryRepository;
-import com.prototype.rag.chunking.DocumentChunk;
-import com.prototype.rag.chunking.DocumentChunker;
 import com.prototype.rag.embedding.EmbeddingService;
+import com.prototype.rag.indexing.AutocompleteIndex;
+import com.prototype.rag.indexing.InvertedIndex;
+import com.prototype.rag.storage.ReducingVectorStore;
 import com.prototype.rag.storage.VectorStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
 
@@ -29,7 +38,32 @@ public class KnowledgeBaseService {
     @Autowired(required = false)
     private VectorStore vectorStore;
     
-    private final DocumentChunker documentChunker = new DocumentChunker();
+    @Autowired(required = false)
+    private ReducingVectorStore reducingVectorStore;
+    
+    @Autowired(required = false)
+    private InvertedIndex invertedIndex;
+    
+    @Autowired(required = false)
+    private AutocompleteIndex autocompleteIndex;
+    
+    // A lock rather than synchronized: the build reads from the database, which would pin a virtual thread
+    private final java.util.concurrent.locks.ReentrantLock searchIndexLock = new java.util.concurrent.locks.ReentrantLock();
+    
+    @Autowired
+    private ArticleTextCache articleTextCache;
+    
+    @Autowired(required = false)
+    private SemanticAnswerCache answerCache;
+    
+    @Autowired
+    private ArticleIndexTaskRepository indexTaskRepository;
+    
+    @Autowired
+    private ArticleIndexQueueWorker indexQueueWorker;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
     
     // Category methods
     public List<Category> getAllCategories() {
@@ -191,93 +225,174 @@ public class KnowledgeBaseService {
         // Use saveAndFlush to force immediate write to database
         Article saved = articleRepository.saveAndFlush(article);
         
-        // Index the article in the vector store for RAG
-        indexArticleForRAG(saved);
+        // Queue the article for RAG indexing; it is embedded in the background after commit
+        enqueueIndexTask(saved.getId(), ArticleIndexTask.Operation.INDEX);
+        updateKeywordIndex(saved);
         
         return saved;
     }
     
     /**
-     * Index an article in the vector store for semantic search
+     * Record an indexing task in the current transaction (outbox)
+     * Repeated edits to the same article coalesce into its single pending task. The task is updated
+     * with a bulk update rather than a versioned entity save, so concurrent saves of one article both
+     * commit (last write wins) instead of one failing on an optimistic lock.
      */
-    private void indexArticleForRAG(Article article) {
-        if (embeddingService == null || vectorStore == null) {
-            // RAG components not available, skip indexing
-            return;
+    private void enqueueIndexTask(Long articleId, ArticleIndexTask.Operation operation) {
+        if (indexTaskRepository.requeue(articleId, operation, java.time.LocalDateTime.now()) == 0) {
+            createIndexTask(articleId, operation);
+            indexTaskRepository.requeue(articleId, operation, java.time.LocalDateTime.now());
         }
         
+        // Wake the worker once the task is visible to other transactions
+        runAfterCommit(indexQueueWorker::wakeUp);
+    }
+    
+    /**
+     * Insert an article's task row in its own transaction, so a concurrent insert for the same article
+     * fails there (and is ignored) instead of rolling back the article write
+     * The row is created idle; the caller's requeue marks it pending when the write commits.
+     */
+    private void createIndexTask(Long articleId, ArticleIndexTask.Operation operation) {
+        TransactionTemplate insert = new TransactionTemplate(transactionManager);
+        insert.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            insert.executeWithoutResult(status -> {
+                ArticleIndexTask task = new ArticleIndexTask(articleId, operation);
+                task.setPending(false);
+                indexTaskRepository.saveAndFlush(task);
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Another write created the row first
+        }
+    }
+    
+    /**
+     * Apply an article write to the derived-text cache and search indexes once the transaction commits
+     */
+    private void updateKeywordIndex(Article article) {
+        Long id = article.getId();
+        articleTextCache.invalidate(id);
+        runAfterCommit(() -> {
+            articleTextCache.invalidate(id);
+            if (answerCache != null) {
+                answerCache.invalidateArticle(id);
+            }
+            boolean active = Boolean.TRUE.equals(article.getIsActive());
+            String plainText = active ? articleTextCache.get(article).getPlainText() : null;
+            if (invertedIndex != null) {
+                if (active) {
+                    invertedIndex.indexArticle(id, article.getTitle(), plainText, article.getUpdatedAt());
+                } else {
+                    invertedIndex.removeArticle(id);
+                }
+            }
+            if (autocompleteIndex != null) {
+                if (active) {
+                    autocompleteIndex.indexArticle(id, article.getTitle(), plainText);
+                } else {
+                    autocompleteIndex.removeArticle(id);
+                }
+            }
+        });
+    }
+    
+    private void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+    
+    /**
+     * Load every active article into the keyword and autocomplete indexes on first use
+     */
+    private void ensureSearchIndexesBuilt() {
+        if ((invertedIndex == null || invertedIndex.isBuilt()) && (autocompleteIndex == null || autocompleteIndex.isBuilt())) {
+            return;
+        }
+        searchIndexLock.lock();
         try {
-            // Remove old chunks for this article
-            vectorStore.removeChunksByArticleId(article.getId());
-            
-            // Chunk the article
-            String categoryName = article.getCategory() != null ? article.getCategory().getName() : null;
-            List<DocumentChunk> chunks = documentChunker.chunkArticle(
-                article.getId(),
-                article.getTitle(),
-                article.getContent(),
-                categoryName
-            );
-            
-            if (chunks.isEmpty()) {
+            boolean buildKeyword = invertedIndex != null && !invertedIndex.isBuilt();
+            boolean buildAutocomplete = autocompleteIndex != null && !autocompleteIndex.isBuilt();
+            if (!buildKeyword && !buildAutocomplete) {
                 return;
             }
-            
-            System.out.println("Indexing article '" + article.getTitle() + "' into vector store (" + chunks.size() + " chunks)");
-            System.out.println("Original article content length: " + (article.getContent() != null ? article.getContent().length() : 0));
-            
-            // Generate embeddings for each chunk
-            for (int i = 0; i < chunks.size(); i++) {
-                DocumentChunk chunk = chunks.get(i);
-                System.out.println("  Chunk " + (i+1) + "/" + chunks.size() + " - Content length: " + 
-                    (chunk.getContent() != null ? chunk.getContent().length() : 0) + 
-                    " chars, Preview: " + (chunk.getContent() != null && chunk.getContent().length() > 50 ? 
-                    chunk.getContent().substring(0, Math.min(50, chunk.getContent().length())) + "..." : chunk.getContent()));
-                
-                try {
-                    List<Float> embedding = embeddingService.generateEmbedding(chunk.getContent());
-                    chunk.setEmbedding(embedding);
-                    vectorStore.addChunk(chunk);
-                    System.out.println("    ✓ Embedded and stored chunk " + (i+1));
-                } catch (Exception e) {
-                    System.err.println("    ✗ Failed to generate embedding for chunk " + (i+1) + ": " + e.getMessage());
-                    e.printStackTrace();
+            java.util.Map<Long, String> titles = new java.util.HashMap<>();
+            java.util.Map<Long, String> texts = new java.util.HashMap<>();
+            for (Article article : articleRepository.findByIsActiveTrue()) {
+                String plainText = articleTextCache.get(article).getPlainText();
+                if (buildKeyword) {
+                    invertedIndex.indexArticle(article.getId(), article.getTitle(), plainText, article.getUpdatedAt());
                 }
+                titles.put(article.getId(), article.getTitle());
+                texts.put(article.getId(), plainText);
             }
-            
-            System.out.println("Successfully indexed " + chunks.size() + " chunks for article '" + article.getTitle() + "'");
-        } catch (Exception e) {
-            System.err.println("Failed to index article for RAG: " + e.getMessage());
-            e.printStackTrace();
+            if (buildKeyword) {
+                invertedIndex.markBuilt();
+                System.out.println("Keyword index built: " + invertedIndex.getDocumentCount() + " articles, " +
+                    invertedIndex.getTermCount() + " terms");
+            }
+            if (buildAutocomplete) {
+                autocompleteIndex.rebuild(titles, texts);
+                System.out.println("Autocomplete index built: " + titles.size() + " articles");
+            }
+        } finally {
+            searchIndexLock.unlock();
         }
     }
     
     /**
-     * Re-index all active articles in the vector store
+     * Search-box suggestions (article titles and frequent terms) for a typed prefix
+     */
+    public List<AutocompleteIndex.Suggestion> suggest(String prefix, int limit) {
+        if (autocompleteIndex == null) {
+            return List.of();
+        }
+        ensureSearchIndexesBuilt();
+        return autocompleteIndex.suggest(prefix, limit);
+    }
+    
+    /**
+     * Queue all active articles for re-indexing
      * Useful for initial setup or after RAG system initialization
      */
     @Transactional
     public void reindexAllArticles() {
-        if (embeddingService == null || vectorStore == null) {
-            System.out.println("RAG components not available, skipping reindexing");
-            return;
-        }
-        
-        System.out.println("Reindexing all active articles...");
         List<Article> articles = getActiveArticles();
-        
         for (Article article : articles) {
-            indexArticleForRAG(article);
+            enqueueIndexTask(article.getId(), ArticleIndexTask.Operation.INDEX);
         }
-        
-        System.out.println("Reindexing complete. Total chunks in vector store: " + vectorStore.getChunkCount());
+        System.out.println("Queued " + articles.size() + " articles for reindexing");
     }
     
+    public java.util.Map<String, Object> getIndexQueueStatus() {
+        return indexQueueWorker.getStatus();
+    }
+    
+    /**
+     * Recall of the reduced-dimension index against full-dimension search
+     */
+    public java.util.Map<String, Object> getReductionRecallReport(int k, int maxQueries) {
+        if (reducingVectorStore == null) {
+            return java.util.Map.of("mode", "none");
+        }
+        return reducingVectorStore.getRecallReport(k, maxQueries);
+    }
+    
+    @Transactional
     public Article updateArticle(Long id, Article article) {
         Article existing = getArticleById(id);
         existing.setTitle(article.getTitle());
         existing.setContent(article.getContent());
         existing.setIsActive(article.getIsActive());
+        existing.setUpdatedAt(java.time.LocalDateTime.now());
         
         if (article.getCategory() != null && article.getCategory().getId() != null) {
             Category category = getCategoryById(article.getCategory().getId());
@@ -288,151 +403,66 @@ public class KnowledgeBaseService {
         
         Article saved = articleRepository.save(existing);
         
-        // Re-index the article in the vector store if it's active
-        if (saved.getIsActive()) {
-            indexArticleForRAG(saved);
-        } else {
-            // Remove from vector store if article is deactivated
-            if (vectorStore != null) {
-                vectorStore.removeChunksByArticleId(saved.getId());
-            }
-        }
+        // Re-index the article if it's active, remove it from the vector store if deactivated
+        enqueueIndexTask(saved.getId(), Boolean.TRUE.equals(saved.getIsActive())
+            ? ArticleIndexTask.Operation.INDEX
+            : ArticleIndexTask.Operation.REMOVE);
+        updateKeywordIndex(saved);
         
         return saved;
     }
     
+    @Transactional
     public void deleteArticle(Long id) {
-        // Remove from vector store before deleting
-        if (vectorStore != null) {
-            vectorStore.removeChunksByArticleId(id);
-        }
         articleRepository.deleteById(id);
+        // Remove from vector store once the delete commits
+        enqueueIndexTask(id, ArticleIndexTask.Operation.REMOVE);
+        runAfterCommit(() -> {
+            articleTextCache.invalidate(id);
+            if (invertedIndex != null) {
+                invertedIndex.removeArticle(id);
+            }
+            if (autocompleteIndex != null) {
+                autocompleteIndex.removeArticle(id);
+            }
+        });
     }
     
     /**
      * Search articles by content (for RAG)
-     * Enhanced text search with keyword matching and relevance scoring
+     * Ranks articles with BM25 over the inverted index; whole-phrase matches score higher
      */
     @Transactional(readOnly = true)
     public List<Article> searchArticles(String query) {
-        List<Article> allActive = getActiveArticles();
-        if (allActive.isEmpty()) {
-            System.out.println("No active articles found for search");
+        if (invertedIndex == null) {
             return List.of();
         }
+        ensureSearchIndexesBuilt();
         
-        String lowerQuery = query.toLowerCase().trim();
-        System.out.println("Searching articles with query: '" + query + "'");
-        
-        // Extract keywords from query (split by spaces, remove punctuation, filter common words)
-        String[] queryWords = lowerQuery.split("\\s+");
-        java.util.Set<String> stopWords = java.util.Set.of("what", "is", "are", "the", "a", "an", "and", "or", "but", "in", "on", "at", "to", "for", "of", "with", "from", "by", "as", "this", "that", "these", "those", "i", "you", "he", "she", "it", "we", "they", "do", "does", "did", "can", "could", "will", "would", "should");
-        java.util.Set<String> keywords = new java.util.HashSet<>();
-        for (String word : queryWords) {
-            // Remove punctuation and convert to lowercase
-            String cleanWord = word.replaceAll("[^a-z0-9]", "").toLowerCase();
-            if (cleanWord.length() > 2 && !stopWords.contains(cleanWord)) {
-                keywords.add(cleanWord);
-            }
+        List<InvertedIndex.ScoredArticle> scored = invertedIndex.search(query, 5);
+        System.out.println("Keyword search for '" + query + "': " + scored.size() + " matches");
+        if (scored.isEmpty()) {
+            return List.of();
         }
         
-        System.out.println("Search keywords (filtered): " + keywords);
-        System.out.println("Total active articles to search: " + allActive.size());
-        
-        // Score articles based on keyword matches
-        java.util.List<java.util.Map.Entry<Article, Integer>> scoredArticles = new java.util.ArrayList<>();
+        List<Long> ids = scored.stream().map(InvertedIndex.ScoredArticle::getArticleId).toList();
+        java.util.Map<Long, Article> byId = new java.util.HashMap<>();
+        for (Article article : articleRepository.findAllById(ids)) {
+            byId.put(article.getId(), article);
+        }
         
-        for (Article article : allActive) {
-            int score = 0;
-            String titleLower = article.getTitle().toLowerCase();
-            // Strip HTML and normalize whitespace
-            String contentLower = article.getContent().replaceAll("<[^>]*>", " ")
-                .replaceAll("\\s+", " ")
-                .toLowerCase()
-                .trim();
-            
-            System.out.println("  Checking article: '" + article.getTitle() + "'");
-            System.out.println("    Content preview: " + (contentLower.length() > 100 ? contentLower.substring(0, 100) + "..." : contentLower));
-            
-            // Check for exact phrase match (highest priority) - remove punctuation from query too
-            String queryNoPunct = lowerQuery.replaceAll("[^a-z0-9\\s]", " ");
-            if (contentLower.contains(queryNoPunct) || titleLower.contains(queryNoPunct)) {
-                score += 100;
-                System.out.println("    ✓ Exact phrase match (+100)");
-            }
-            
-            // Check for individual keyword matches (case-insensitive, flexible matching)
-            for (String keyword : keywords) {
-                // Generate variations of the keyword (singular/plural, etc.)
-                java.util.Set<String> keywordVariations = new java.util.HashSet<>();
-                keywordVariations.add(keyword); // Original
-                
-                // Handle common plural/singular variations
-                if (keyword.endsWith("s") && keyword.length() > 3) {
-                    // Remove 's' for singular (e.g., "connors" -> "connor")
-                    keywordVariations.add(keyword.substring(0, keyword.length() - 1));
-                } else if (!keyword.endsWith("s")) {
-                    // Add 's' for plural (e.g., "connor" -> "connors")
-                    keywordVariations.add(keyword + "s");
-                }
-                
-                boolean titleMatch = false;
-                boolean contentMatch = false;
-                
-                // Try each variation
-                for (String variation : keywordVariations) {
-                    // Try exact word match first (with word boundaries)
-                    String keywordPattern = "\\b" + java.util.regex.Pattern.quote(variation) + "\\b";
-                    if (!titleMatch && titleLower.matches(".*" + keywordPattern + ".*")) {
-                        titleMatch = true;
-                        System.out.println("    ✓ Title keyword match: '" + variation + "' (from '" + keyword + "') (+10)");
-                    }
-                    if (!contentMatch && contentLower.matches(".*" + keywordPattern + ".*")) {
-                        contentMatch = true;
-                        System.out.println("    ✓ Content keyword match: '" + variation + "' (from '" + keyword + "') (+5)");
-                    }
-                }
-                
-                // If still no match, try partial match (substring) as last resort
-                if (!titleMatch && !contentMatch) {
-                    for (String variation : keywordVariations) {
-                        if (titleLower.contains(variation)) {
-                            titleMatch = true;
-                            System.out.println("    ⚠ Title partial match: '" + variation + "' (from '" + keyword + "') (+10)");
-                        }
-                        if (contentLower.contains(variation)) {
-                            contentMatch = true;
-                            System.out.println("    ⚠ Content partial match: '" + variation + "' (from '" + keyword + "') (+5)");
-                        }
-                    }
-                }
-                
-                if (titleMatch) {
-                    score += 10; // Title matches are more important
-                }
-                if (contentMatch) {
-                    score += 5; // Content matches
+        // Keep score order; skip anything deleted or deactivated since it was indexed
+        List<Article> results = new java.util.ArrayList<>(ids.size());
+        for (InvertedIndex.ScoredArticle match : scored) {
+            Article article = byId.get(match.getArticleId());
+            if (article != null && Boolean.TRUE.equals(article.getIsActive())) {
+                if (article.getCategory() != null) {
+                    article.getCategory().getName(); // Force load
                 }
-            }
-            
-            if (score > 0) {
-                scoredArticles.add(new java.util.AbstractMap.SimpleEntry<>(article, score));
-                System.out.println("    → Final score: " + score);
-            } else {
-                System.out.println("    → No matches (score: 0)");
+                results.add(article);
+                System.out.println("  - '" + article.getTitle() + "' (score: " + String.format("%.2f", match.getScore()) + ")");
             }
         }
-        
-        // Sort by score (descending) and return top results
-        scoredArticles.sort((a, b) -> b.getValue().compareTo(a.getValue()));
-        
-        List<Article> results = scoredArticles.stream()
-            .map(java.util.Map.Entry::getKey)
-            .limit(5) // Return top 5 most relevant articles
-            .toList();
-        
-        System.out.println("Found " + results.size() + " relevant articles");
         return results;
     }
 }
-
@@ -0,0 +1,299 @@
+package com.prototype.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for generation requests to the model server
+ * At most max-in-flight requests run at once; the rest wait in one queue per priority class. When a slot
+ * frees up the classes share it by weight (stride scheduling), so interactive chat is served first but
+ * batch work still progresses. Some slots are reserved for interactive requests, so a live customer never
+ * waits behind a full batch run. Under load, background work is shed: it is rejected when its queue is
+ * full or interactive requests are already waiting. Batch work is deferred rather than shed, but its queue
+ * is bounded too: past batch.max-queue it is rejected with LlmOverloadedException, which callers must handle.
+ */
+@Component
+public class LlmRequestScheduler {
+    
+    /**
+     * Request classes, highest priority first
+     */
+    public enum Priority {
+        // Live chatbot turns and agent-requested ticket replies
+        INTERACTIVE,
+        // Simulation runs and conversation summary refreshes
+        BATCH,
+        // Dashboard analyses and queries
+        BACKGROUND
+    }
+    
+    private final int maxInFlight;
+    private final int reservedForInteractive;
+    private final boolean enabled;
+    private final ClassState[] classes = new ClassState[Priority.values().length];
+    
+    private final Object lock = new Object();
+    private int inFlight = 0;
+    private int nonInteractiveInFlight = 0;
+    
+    public LlmRequestScheduler(@Value("${llm.scheduler.enabled:true}") boolean enabled,
+                               @Value("${llm.scheduler.max-in-flight:2}") int maxInFlight,
+                               @Value("${llm.scheduler.reserved-for-interactive:1}") int reservedForInteractive,
+                               @Value("${llm.scheduler.interactive.weight:8}") int interactiveWeight,
+                               @Value("${llm.scheduler.interactive.max-queue:200}") int interactiveMaxQueue,
+                               @Value("${llm.scheduler.interactive.queue-timeout-seconds:60}") long interactiveTimeout,
+                               @Value("${llm.scheduler.batch.weight:2}") int batchWeight,
+                               @Value("${llm.scheduler.batch.max-queue:1000}") int batchMaxQueue,
+                               @Value("${llm.scheduler.batch.queue-timeout-seconds:0}") long batchTimeout,
+                               @Value("${llm.scheduler.background.weight:1}") int backgroundWeight,
+                               @Value("${llm.scheduler.background.max-queue:10}") int backgroundMaxQueue,
+                               @Value("${llm.scheduler.background.queue-timeout-seconds:30}") long backgroundTimeout) {
+        this.enabled = enabled;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        // At least one slot stays available to lower classes
+        this.reservedForInteractive = Math.max(0, Math.min(reservedForInteractive, this.maxInFlight - 1));
+        classes[Priority.INTERACTIVE.ordinal()] = new ClassState(interactiveWeight, interactiveMaxQueue, interactiveTimeout);
+        classes[Priority.BATCH.ordinal()] = new ClassState(batchWeight, batchMaxQueue, batchTimeout);
+        classes[Priority.BACKGROUND.ordinal()] = new ClassState(backgroundWeight, backgroundMaxQueue, backgroundTimeout);
+        System.out.println("LlmRequestScheduler initialized (enabled: " + enabled + ", max in flight: " + this.maxInFlight +
+            ", reserved for interactive: " + this.reservedForInteractive + ")");
+    }
+    
+    /**
+     * Run a request once a slot is free; the slot is held until the request completes, fails or is cancelled
+     * @throws LlmOverloadedException (as error signal) when the request is shed or waited longer than its queue timeout
+     */
+    public <T> Mono<T> schedule(Priority priority, Mono<T> request) {
+        if (!enabled) {
+            return request;
+        }
+        return Mono.usingWhen(acquire(priority), permit -> request, Permit::releaseAsync);
+    }
+    
+    /**
+     * Streaming variant of schedule(); the slot is held until the stream ends
+     */
+    public <T> Flux<T> scheduleMany(Priority priority, Flux<T> request) {
+        if (!enabled) {
+            return request;
+        }
+        return Flux.usingWhen(acquire(priority), permit -> request, Permit::releaseAsync);
+    }
+    
+    private Mono<Permit> acquire(Priority priority) {
+        ClassState state = classes[priority.ordinal()];
+        Mono<Permit> permit = Mono.create(sink -> {
+            Waiter waiter = new Waiter(priority, sink);
+            sink.onCancel(waiter::cancel);
+            String rejection = null;
+            List<Waiter> granted = List.of();
+            synchronized (lock) {
+                if (priority == Priority.BACKGROUND && !classes[Priority.INTERACTIVE.ordinal()].queue.isEmpty()) {
+                    rejection = "interactive requests are waiting";
+                } else if (state.queue.size() >= state.maxQueue) {
+                    rejection = priority + " queue is full (" + state.maxQueue + ")";
+                } else {
+                    state.queue.addLast(waiter);
+                    granted = dispatch();
+                }
+            }
+            if (rejection != null) {
+                state.rejected.incrementAndGet();
+                sink.error(new LlmOverloadedException("LLM request shed: " + rejection));
+                return;
+            }
+            start(granted);
+        });
+        if (state.queueTimeout != null) {
+            permit = permit.timeout(state.queueTimeout)
+                .onErrorMap(TimeoutException.class, e -> {
+                    state.timedOut.incrementAndGet();
+                    return new LlmOverloadedException("LLM request waited longer than " + state.queueTimeout.toSeconds() + "s for a slot");
+                });
+        }
+        return permit;
+    }
+    
+    // Hand free slots to waiting requests; caller holds lock and passes the result to start() after releasing it
+    private List<Waiter> dispatch() {
+        List<Waiter> granted = new ArrayList<>();
+        while (inFlight < maxInFlight) {
+            ClassState next = null;
+            Priority nextPriority = null;
+            for (Priority priority : Priority.values()) {
+                ClassState candidate = classes[priority.ordinal()];
+                if (candidate.queue.isEmpty()) {
+                    continue;
+                }
+                if (priority != Priority.INTERACTIVE && nonInteractiveInFlight >= maxInFlight - reservedForInteractive) {
+                    continue;
+                }
+                if (next == null || candidate.pass < next.pass) {
+                    next = candidate;
+                    nextPriority = priority;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            Waiter waiter = next.queue.pollFirst();
+            waiter.permit = new Permit(nextPriority);
+            if (!waiter.grant()) {
+                // Cancelled while queued (timeout or client gone)
+                continue;
+            }
+            // A class that was idle does not get to catch up on the turns it missed
+            next.pass = Math.max(next.pass, minActivePass()) + next.stride;
+            inFlight++;
+            if (nextPriority != Priority.INTERACTIVE) {
+                nonInteractiveInFlight++;
+            }
+            next.admitted.incrementAndGet();
+            next.totalWaitMillis.addAndGet(System.currentTimeMillis() - waiter.enqueuedAt);
+            granted.add(waiter);
+        }
+        return granted;
+    }
+    
+    // Outside the lock: success() subscribes the waiting request on this thread
+    private void start(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            waiter.sink.success(waiter.permit);
+        }
+    }
+    
+    private double minActivePass() {
+        double min = Double.MAX_VALUE;
+        for (ClassState state : classes) {
+            if (!state.queue.isEmpty()) {
+                min = Math.min(min, state.pass);
+            }
+        }
+        return min == Double.MAX_VALUE ? 0 : min;
+    }
+    
+    private void release(Permit permit) {
+        List<Waiter> granted;
+        synchronized (lock) {
+            inFlight--;
+            if (permit.priority != Priority.INTERACTIVE) {
+                nonInteractiveInFlight--;
+            }
+            granted = dispatch();
+        }
+        start(granted);
+    }
+    
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("reservedForInteractive", reservedForInteractive);
+        synchronized (lock) {
+            stats.put("inFlight", inFlight);
+            for (Priority priority : Priority.values()) {
+                ClassState state = classes[priority.ordinal()];
+                Map<String, Object> classStats = new LinkedHashMap<>();
+                long admitted = state.admitted.get();
+                classStats.put("queued", state.queue.size());
+                classStats.put("admitted", admitted);
+                classStats.put("rejected", state.rejected.get());
+                classStats.put("timedOut", state.timedOut.get());
+                classStats.put("avgQueueWaitMs", admitted > 0 ? state.totalWaitMillis.get() / admitted : 0);
+                stats.put(priority.name().toLowerCase(), classStats);
+            }
+        }
+        return stats;
+    }
+    
+    private static class ClassState {
+        final double stride;
+        final int maxQueue;
+        final Duration queueTimeout;
+        final Deque<Waiter> queue = new ArrayDeque<>();
+        double pass = 0;
+        final AtomicLong admitted = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong timedOut = new AtomicLong();
+        final AtomicLong totalWaitMillis = new AtomicLong();
+        
+        ClassState(int weight, int maxQueue, long queueTimeoutSeconds) {
+            this.stride = 1.0 / Math.max(1, weight);
+            this.maxQueue = Math.max(0, maxQueue);
+            this.queueTimeout = queueTimeoutSeconds > 0 ? Duration.ofSeconds(queueTimeoutSeconds) : null;
+        }
+    }
+    
+    private class Waiter {
+        static final int WAITING = 0;
+        static final int GRANTED = 1;
+        static final int CANCELLED = 2;
+        
+        final Priority priority;
+        final MonoSink<Permit> sink;
+        final long enqueuedAt = System.currentTimeMillis();
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        volatile Permit permit;
+        
+        Waiter(Priority priority, MonoSink<Permit> sink) {
+            this.priority = priority;
+            this.sink = sink;
+        }
+        
+        boolean grant() {
+            return state.compareAndSet(WAITING, GRANTED);
+        }
+        
+        void cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                synchronized (lock) {
+                    classes[priority.ordinal()].queue.remove(this);
+                }
+            } else if (state.get() == GRANTED) {
+                // Granted but possibly not yet delivered; a delivered permit is released by usingWhen, and releasing twice is a no-op
+                permit.releaseAsync().subscribe();
+            }
+        }
+    }
+    
+    /**
+     * One occupied slot; released exactly once
+     */
+    private class Permit {
+        final Priority priority;
+        final AtomicBoolean released = new AtomicBoolean(false);
+        
+        Permit(Priority priority) {
+            this.priority = priority;
+        }
+        
+        Mono<Void> releaseAsync() {
+            return Mono.fromRunnable(() -> {
+                if (released.compareAndSet(false, true)) {
+                    release(this);
+                }
+            });
+        }
+    }
+    
+    /**
+     * A generation request was shed or timed out waiting for a slot
+     */
+    public static class LlmOverloadedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        
+        public LlmOverloadedException(String message) {
+            super(message);
+        }
+    }
+}
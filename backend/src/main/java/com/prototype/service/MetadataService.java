@@ -376,61 +376,82 @@ public class MetadataService {
      * @return The resolved value, or null if not found
      */
     public String getMappedValue(String internalVariable, com.prototype.entity.Ticket ticket) {
-        if (ticket == null) {
-            return null;
-        }
-        
-        // Find active mapping for this variable that is AI accessible
-        List<MetadataFieldMapping> mappings = mappingRepository.findAll().stream()
-            .filter(m -> m.getIsActive() 
-                    && m.getAiAccessible() != null && m.getAiAccessible() 
-                    && internalVariable.equals(m.getInternalVariable()))
-            .toList();
-        
-        if (mappings.isEmpty()) {
-            return null; // Variable not accessible by AI
+        return getMappedValues(Set.of(internalVariable), ticket).get(internalVariable);
+    }
+    
+    /**
+     * Get mapped values for several template variables at once
+     * Mappings are loaded once and each connection's data is fetched once, however many variables map to it.
+     * 
+     * @param internalVariables Template variables (e.g., "{{order.total}}")
+     * @param ticket The ticket context (contains user info for data isolation)
+     * @return Resolved values by variable; variables that could not be resolved are absent
+     */
+    public Map<String, String> getMappedValues(Set<String> internalVariables, com.prototype.entity.Ticket ticket) {
+        Map<String, String> values = new HashMap<>();
+        if (ticket == null || internalVariables.isEmpty()) {
+            return values;
         }
         
-        MetadataFieldMapping mapping = mappings.get(0);
-        MetadataConnection connection = mapping.getConnection();
-        
-        if (connection == null || !connection.getIsActive()) {
-            return null;
+        // First active mapping that is AI accessible, per variable
+        Map<String, MetadataFieldMapping> mappingsByVariable = new LinkedHashMap<>();
+        for (MetadataFieldMapping m : mappingRepository.findAll()) {
+            if (m.getIsActive()
+                    && m.getAiAccessible() != null && m.getAiAccessible()
+                    && internalVariables.contains(m.getInternalVariable())) {
+                mappingsByVariable.putIfAbsent(m.getInternalVariable(), m);
+            }
         }
         
-        try {
-            // Fetch data from external API with user context
-            Map<String, Object> externalData = fetchUserData(connection, ticket);
-            
-            if (externalData == null || externalData.isEmpty()) {
-                return null;
-            }
-            
-            // Extract value using ETL pipeline for transformation
-            String externalPath = mapping.getExternalFieldPath();
-            Object rawValue = extractValueFromPath(externalData, externalPath);
+        Map<Long, Map<String, Object>> dataByConnection = new HashMap<>();
+        for (Map.Entry<String, MetadataFieldMapping> entry : mappingsByVariable.entrySet()) {
+            String internalVariable = entry.getKey();
+            MetadataFieldMapping mapping = entry.getValue();
+            MetadataConnection connection = mapping.getConnection();
             
-            if (rawValue == null) {
-                return null;
+            if (connection == null || !connection.getIsActive()) {
+                continue;
             }
             
-            // Transform value using ETL pipeline
-            if (etlPipeline != null) {
-                Object transformedValue = etlPipeline.transformValue(rawValue, mapping);
-                return transformedValue != null ? transformedValue.toString() : null;
+            try {
+                // Fetch data from external API with user context (once per connection)
+                if (!dataByConnection.containsKey(connection.getId())) {
+                    dataByConnection.put(connection.getId(), fetchUserData(connection, ticket));
+                }
+                Map<String, Object> externalData = dataByConnection.get(connection.getId());
+                
+                if (externalData == null || externalData.isEmpty()) {
+                    continue;
+                }
+                
+                // Extract value using ETL pipeline for transformation
+                String externalPath = mapping.getExternalFieldPath();
+                Object rawValue = extractValueFromPath(externalData, externalPath);
+                
+                if (rawValue == null) {
+                    continue;
+                }
+                
+                // Transform value using ETL pipeline
+                if (etlPipeline != null) {
+                    Object transformedValue = etlPipeline.transformValue(rawValue, mapping);
+                    if (transformedValue != null) {
+                        values.put(internalVariable, transformedValue.toString());
+                    }
+                } else {
+                    values.put(internalVariable, rawValue.toString());
+                }
+            } catch (Exception e) {
+                System.err.println("=== ERROR FETCHING MAPPED VALUE ===");
+                System.err.println("Variable: " + internalVariable);
+                System.err.println("Ticket: " + ticket.getId());
+                System.err.println("Error: " + e.getMessage());
+                System.err.println("Error class: " + e.getClass().getName());
+                e.printStackTrace();
+                System.err.println("=== END ERROR ===");
             }
-            
-            return rawValue.toString();
-        } catch (Exception e) {
-            System.err.println("=== ERROR FETCHING MAPPED VALUE ===");
-            System.err.println("Variable: " + internalVariable);
-            System.err.println("Ticket: " + (ticket != null ? ticket.getId() : "null"));
-            System.err.println("Error: " + e.getMessage());
-            System.err.println("Error class: " + e.getClass().getName());
-            e.printStackTrace();
-            System.err.println("=== END ERROR ===");
-            return null;
         }
+        return values;
     }
     
     /**
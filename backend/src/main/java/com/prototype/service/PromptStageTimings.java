@@ -0,0 +1,139 @@
+package com.prototype.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timeouts and timing statistics of the chatbot prompt stages
+ * The stages (rules, actions, knowledge base retrieval, answer cache lookup) run concurrently. Each one
+ * has a timeout, and a stage that times out or fails contributes a fallback instead of failing the
+ * turn. Every turn gets a Trace, which logs one line with the stage timings and adds them to the
+ * per-stage statistics.
+ */
+@Component
+public class PromptStageTimings {
+    
+    public static final String RULES = "rules";
+    public static final String ACTIONS = "actions";
+    public static final String KNOWLEDGE = "knowledge";
+    public static final String ANSWER_CACHE = "answerCache";
+    
+    public enum Outcome { OK, TIMEOUT, FAILED, CANCELLED }
+    
+    private final Map<String, Duration> timeouts = new HashMap<>();
+    private final Map<String, StageStats> stats = new ConcurrentHashMap<>();
+    private final StageStats total = new StageStats();
+    
+    public PromptStageTimings(@Value("${chatbot.prompt-stages.rules-timeout-ms:2000}") long rulesTimeoutMs,
+                              @Value("${chatbot.prompt-stages.actions-timeout-ms:2000}") long actionsTimeoutMs,
+                              @Value("${chatbot.prompt-stages.knowledge-timeout-ms:3000}") long knowledgeTimeoutMs,
+                              @Value("${chatbot.prompt-stages.answer-cache-timeout-ms:1500}") long answerCacheTimeoutMs) {
+        timeouts.put(RULES, Duration.ofMillis(Math.max(1, rulesTimeoutMs)));
+        timeouts.put(ACTIONS, Duration.ofMillis(Math.max(1, actionsTimeoutMs)));
+        timeouts.put(KNOWLEDGE, Duration.ofMillis(Math.max(1, knowledgeTimeoutMs)));
+        timeouts.put(ANSWER_CACHE, Duration.ofMillis(Math.max(1, answerCacheTimeoutMs)));
+        System.out.println("PromptStageTimings initialized (timeouts: " + timeouts + ")");
+    }
+    
+    public Duration getTimeout(String stage) {
+        return timeouts.getOrDefault(stage, Duration.ofSeconds(5));
+    }
+    
+    public Trace startTrace() {
+        return new Trace();
+    }
+    
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", total.toMap());
+        for (String stage : List.of(RULES, ACTIONS, KNOWLEDGE, ANSWER_CACHE)) {
+            StageStats stageStats = stats.get(stage);
+            if (stageStats != null) {
+                result.put(stage, stageStats.toMap());
+            }
+        }
+        Map<String, Object> timeoutMillis = new LinkedHashMap<>();
+        timeouts.forEach((stage, timeout) -> timeoutMillis.put(stage, timeout.toMillis()));
+        result.put("timeoutsMs", timeoutMillis);
+        return result;
+    }
+    
+    /**
+     * Stage timings of one chatbot turn; stages may report from different threads
+     */
+    public class Trace {
+        private final long startedAt = System.nanoTime();
+        // Insertion-ordered by completion, which is the order the log line shows them in
+        private final Map<String, String> entries = Collections.synchronizedMap(new LinkedHashMap<>());
+        private final Set<String> degraded = ConcurrentHashMap.newKeySet();
+        
+        public void record(String stage, long startNanos, Outcome outcome) {
+            long millis = (System.nanoTime() - startNanos) / 1_000_000;
+            entries.put(stage, millis + "ms" + (outcome == Outcome.OK ? "" : " " + outcome.name().toLowerCase()));
+            if (outcome == Outcome.TIMEOUT || outcome == Outcome.FAILED) {
+                degraded.add(stage);
+            }
+            stats.computeIfAbsent(stage, s -> new StageStats()).add(millis, outcome);
+        }
+        
+        /**
+         * Whether a stage fell back to its partial result
+         */
+        public boolean isDegraded(String stage) {
+            return degraded.contains(stage);
+        }
+        
+        /**
+         * Log the stage timings once the prompt is ready
+         * @param result What the turn continues with (e.g. "prompt" or "cached answer")
+         */
+        public void finish(String result) {
+            long millis = (System.nanoTime() - startedAt) / 1_000_000;
+            total.add(millis, Outcome.OK);
+            StringBuilder line = new StringBuilder("Chatbot prompt stages (").append(millis).append("ms, ").append(result).append("):");
+            synchronized (entries) {
+                entries.forEach((stage, timing) -> line.append(' ').append(stage).append('=').append(timing));
+            }
+            System.out.println(line);
+        }
+    }
+    
+    private static class StageStats {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalMillis = new AtomicLong();
+        final AtomicLong maxMillis = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong cancelled = new AtomicLong();
+        
+        void add(long millis, Outcome outcome) {
+            count.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+            if (outcome == Outcome.TIMEOUT) {
+                timeouts.incrementAndGet();
+            } else if (outcome == Outcome.FAILED) {
+                failures.incrementAndGet();
+            } else if (outcome == Outcome.CANCELLED) {
+                cancelled.incrementAndGet();
+            }
+        }
+        
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            long n = count.get();
+            map.put("count", n);
+            map.put("avgMs", n > 0 ? totalMillis.get() / n : 0);
+            map.put("maxMs", maxMillis.get());
+            map.put("timeouts", timeouts.get());
+            map.put("failures", failures.get());
+            map.put("cancelled", cancelled.get());
+            return map;
+        }
+    }
+}
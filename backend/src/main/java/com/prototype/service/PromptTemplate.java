@@ -0,0 +1,100 @@
+package com.prototype.service;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rule or configuration text parsed into literal parts and {{variable}} slots
+ * Parsed once per distinct text; rendering appends the parts and the resolved values in one pass,
+ * so it is linear in the output size and never re-scans the text.
+ */
+public final class PromptTemplate {
+    
+    // Template variables like {{user.name}}, {{user.location}}, etc.
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\{\\{([^}]+)\\}\\}");
+    
+    private final String source;
+    // literals[i] precedes slots[i]; the last literal follows the last slot
+    private final String[] literals;
+    private final String[] slots;
+    private final List<String> variables;
+    private final int literalLength;
+    
+    private PromptTemplate(String source, String[] literals, String[] slots) {
+        this.source = source;
+        this.literals = literals;
+        this.slots = slots;
+        this.variables = List.copyOf(new LinkedHashSet<>(Arrays.asList(slots)));
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+    
+    public static PromptTemplate compile(String text) {
+        String source = text != null ? text : "";
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        Matcher matcher = VARIABLE_PATTERN.matcher(source);
+        int position = 0;
+        while (matcher.find()) {
+            literals.add(source.substring(position, matcher.start()));
+            slots.add(matcher.group(1).trim());
+            position = matcher.end();
+        }
+        literals.add(source.substring(position));
+        return new PromptTemplate(source, literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+    
+    public String getSource() {
+        return source;
+    }
+    
+    /**
+     * Distinct variable names (without braces), in order of first appearance
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+    
+    public boolean hasVariables() {
+        return slots.length > 0;
+    }
+    
+    /**
+     * Length of the rendered text for the given values
+     */
+    public int renderedLength(Map<String, String> values) {
+        int length = literalLength;
+        for (String slot : slots) {
+            String value = values.get(slot);
+            length += value != null ? value.length() : 0;
+        }
+        return length;
+    }
+    
+    /**
+     * Append the text with each variable replaced by its value (missing values render as empty)
+     */
+    public void renderTo(StringBuilder out, Map<String, String> values) {
+        for (int i = 0; i < slots.length; i++) {
+            out.append(literals[i]);
+            String value = values.get(slots[i]);
+            if (value != null) {
+                out.append(value);
+            }
+        }
+        out.append(literals[slots.length]);
+    }
+    
+    public String render(Map<String, String> values) {
+        if (slots.length == 0) {
+            return source;
+        }
+        StringBuilder out = new StringBuilder(renderedLength(values));
+        renderTo(out, values);
+        return out.toString();
+    }
+}
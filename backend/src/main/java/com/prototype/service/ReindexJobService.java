@@ -0,0 +1,336 @@
+package com.prototype.service;
+
+import com.prototype.entity.Article;
+import com.prototype.rag.indexing.IncrementalIndexer;
+import com.prototype.rag.storage.ReducingVectorStore;
+import com.prototype.rag.storage.VectorStore;
+import com.prototype.repository.ArticleRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs knowledge-base re-indexing as a background job
+ * Articles are embedded in parallel on a bounded pool; progress can be polled and the job cancelled.
+ * Only one job runs at a time - starting a new one cancels the current one and starts once the
+ * cancelled job's running articles are done. Each article is read and indexed while holding the
+ * indexing queue's claim on it, so the job never overwrites a newer edit indexed by the queue.
+ * A job that fails, or leaves articles unindexed (e.g. the embedding server is down), is retried with
+ * exponential backoff unless another job has started since.
+ */
+@Service
+public class ReindexJobService {
+    
+    public enum JobState { IDLE, RUNNING, COMPLETED, CANCELLED, FAILED }
+    
+    @Autowired
+    private KnowledgeBaseService knowledgeBaseService;
+    
+    @Autowired(required = false)
+    private IncrementalIndexer incrementalIndexer;
+    
+    @Autowired(required = false)
+    private VectorStore vectorStore;
+    
+    @Autowired(required = false)
+    private ReducingVectorStore reducingVectorStore;
+    
+    @Autowired
+    private ArticleRepository articleRepository;
+    
+    @Autowired
+    private ArticleIndexQueueWorker indexQueueWorker;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    private TransactionTemplate readTransaction;
+    
+    private final ExecutorService coordinator;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService retries;
+    private final long initialRetrySeconds;
+    private final long maxRetrySeconds;
+    
+    private volatile Job currentJob;
+    // Becomes true once the first job has finished, even with failures (reported in the status), so
+    // readiness does not hang on an unreachable embedding server; later jobs run on top of it
+    private volatile boolean warm = false;
+    // Jobs in a row that failed or left articles unindexed; drives the retry backoff
+    private int failedJobsInRow = 0;
+    private volatile LocalDateTime nextRetryAt;
+    
+    public ReindexJobService(@Value("${rag.indexing.threads:4}") int threads,
+                             @Value("${rag.indexing.retry.initial-backoff-seconds:30}") long initialRetrySeconds,
+                             @Value("${rag.indexing.retry.max-backoff-seconds:900}") long maxRetrySeconds) {
+        this.coordinator = Executors.newSingleThreadExecutor(namedThreads("rag-reindex-coordinator"));
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), namedThreads("rag-reindex-worker"));
+        this.retries = Executors.newSingleThreadScheduledExecutor(namedThreads("rag-reindex-retry"));
+        this.initialRetrySeconds = Math.max(1, initialRetrySeconds);
+        this.maxRetrySeconds = Math.max(this.initialRetrySeconds, maxRetrySeconds);
+        System.out.println("ReindexJobService initialized with " + threads + " worker threads");
+    }
+    
+    @PostConstruct
+    public void init() {
+        readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+    }
+    
+    /**
+     * Start a background re-index of all active articles
+     * @param rebuild Re-embed every chunk and refit the embedding reduction (needed when the
+     *                embedding space changed); otherwise only changed chunks are embedded
+     * @return Status of the started job
+     */
+    public synchronized Map<String, Object> start(boolean rebuild) {
+        if (incrementalIndexer == null || vectorStore == null) {
+            System.out.println("RAG components not available, skipping reindexing");
+            return getStatus();
+        }
+        
+        Job previous = currentJob;
+        if (previous != null && previous.state == JobState.RUNNING) {
+            System.out.println("ReindexJob: Cancelling running job to start a new one");
+            previous.cancel();
+        }
+        
+        Job job = new Job(rebuild);
+        currentJob = job;
+        nextRetryAt = null;
+        job.future = coordinator.submit(() -> run(job));
+        return getStatus();
+    }
+    
+    /**
+     * Cancel the running job; articles already indexed stay indexed
+     * @return Status after cancellation was requested
+     */
+    public synchronized Map<String, Object> cancel() {
+        Job job = currentJob;
+        if (job != null && job.state == JobState.RUNNING) {
+            job.cancel();
+        }
+        return getStatus();
+    }
+    
+    public boolean isWarm() {
+        return warm;
+    }
+    
+    public Map<String, Object> getStatus() {
+        Job job = currentJob;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("warm", warm);
+        if (nextRetryAt != null) {
+            status.put("nextRetryAt", nextRetryAt);
+        }
+        if (job == null) {
+            status.put("state", JobState.IDLE);
+            return status;
+        }
+        status.put("state", job.state);
+        status.put("rebuild", job.rebuild);
+        status.put("totalArticles", job.total);
+        status.put("processedArticles", job.processed.get());
+        status.put("failedArticles", job.failed.get());
+        status.put("chunksEmbedded", job.chunksEmbedded.get());
+        status.put("chunksUnchanged", job.chunksUnchanged.get());
+        status.put("chunksShared", job.chunksShared.get());
+        status.put("startedAt", job.startedAt);
+        status.put("finishedAt", job.finishedAt);
+        if (job.error != null) {
+            status.put("error", job.error);
+        }
+        return status;
+    }
+    
+    private void run(Job job) {
+        try {
+            // Only ids are taken up front; each worker reads its article when it gets to it
+            List<Long> articles = new ArrayList<>();
+            for (Article article : knowledgeBaseService.getActiveArticles()) {
+                articles.add(article.getId());
+            }
+            job.total = articles.size();
+            System.out.println("ReindexJob: Indexing " + articles.size() + " articles (rebuild: " + job.rebuild + ")");
+            
+            if (job.rebuild && reducingVectorStore != null) {
+                reducingVectorStore.beginRebuild();
+            }
+            
+            List<Future<?>> tasks = new ArrayList<>(articles.size());
+            for (Long articleId : articles) {
+                tasks.add(workers.submit(() -> indexArticle(job, articleId)));
+            }
+            
+            // Also waited for after a cancel: queued tasks return at once, and the next job only
+            // starts on the coordinator once no task of this one is still writing
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            
+            if (job.cancelled.get()) {
+                if (job.rebuild && reducingVectorStore != null) {
+                    reducingVectorStore.cancelRebuild();
+                }
+                job.finish(JobState.CANCELLED, null);
+                System.out.println("ReindexJob: Cancelled after " + job.processed.get() + "/" + job.total + " articles");
+                return;
+            }
+            
+            if (job.rebuild && reducingVectorStore != null) {
+                reducingVectorStore.finishRebuild();
+            }
+            
+            job.finish(JobState.COMPLETED, null);
+            System.out.println("ReindexJob: Complete (" + job.processed.get() + " articles, " + job.failed.get() +
+                " failed). Total chunks in vector store: " + vectorStore.getChunkCount());
+        } catch (Exception e) {
+            if (job.rebuild && reducingVectorStore != null) {
+                reducingVectorStore.cancelRebuild();
+            }
+            job.finish(JobState.FAILED, e.getMessage());
+            System.err.println("ReindexJob: Failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+        warm = true;
+        scheduleRetry(job);
+    }
+    
+    private synchronized void scheduleRetry(Job job) {
+        if (job.state == JobState.COMPLETED && job.failed.get() == 0) {
+            failedJobsInRow = 0;
+            return;
+        }
+        failedJobsInRow++;
+        long delay = Math.min(maxRetrySeconds, initialRetrySeconds << Math.min(failedJobsInRow - 1, 20));
+        nextRetryAt = LocalDateTime.now().plusSeconds(delay);
+        System.out.println("ReindexJob: Retrying in " + delay + "s (" + failedJobsInRow + " incomplete jobs in a row)");
+        try {
+            retries.schedule(() -> retry(job), delay, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+    
+    private synchronized void retry(Job job) {
+        // A job started since (manually or by a provider switch) supersedes the retry
+        if (currentJob != job) {
+            return;
+        }
+        // After a completed rebuild only the articles that failed still need embedding
+        start(job.rebuild && job.state != JobState.COMPLETED);
+    }
+    
+    private void indexArticle(Job job, Long articleId) {
+        if (job.cancelled.get()) {
+            return;
+        }
+        try {
+            indexQueueWorker.runExclusive(articleId, () -> {
+                ArticleSnapshot article = readTransaction.execute(status -> articleRepository.findById(articleId)
+                    .filter(a -> Boolean.TRUE.equals(a.getIsActive()))
+                    .map(ArticleSnapshot::new)
+                    .orElse(null));
+                if (article == null) {
+                    // Deleted or deactivated since the job started; its queue task removes the chunks
+                    return null;
+                }
+                IncrementalIndexer.IndexResult result = incrementalIndexer.indexArticle(
+                    article.id, article.title, article.content, article.category, job.rebuild);
+                job.chunksEmbedded.addAndGet(result.getAdded());
+                job.chunksUnchanged.addAndGet(result.getUnchanged());
+                job.chunksShared.addAndGet(result.getDuplicates());
+                if (result.getFailed() > 0) {
+                    job.failed.incrementAndGet();
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            job.failed.incrementAndGet();
+            System.err.println("ReindexJob: Failed to index article " + articleId + ": " + e.getMessage());
+        } finally {
+            job.processed.incrementAndGet();
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        Job job = currentJob;
+        if (job != null) {
+            job.cancel();
+        }
+        retries.shutdownNow();
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+    
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    private static class Job {
+        final boolean rebuild;
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger chunksEmbedded = new AtomicInteger();
+        final AtomicInteger chunksUnchanged = new AtomicInteger();
+        final AtomicInteger chunksShared = new AtomicInteger();
+        final LocalDateTime startedAt = LocalDateTime.now();
+        
+        volatile JobState state = JobState.RUNNING;
+        volatile int total = 0;
+        volatile LocalDateTime finishedAt;
+        volatile String error;
+        volatile Future<?> future;
+        
+        Job(boolean rebuild) {
+            this.rebuild = rebuild;
+        }
+        
+        void cancel() {
+            // Queued tasks see the flag and return; running ones finish their article
+            cancelled.set(true);
+        }
+        
+        void finish(JobState finalState, String error) {
+            this.error = error;
+            this.finishedAt = LocalDateTime.now();
+            this.state = finalState;
+        }
+    }
+    
+    private static class ArticleSnapshot {
+        final Long id;
+        final String title;
+        final String content;
+        final String category;
+        
+        ArticleSnapshot(Article article) {
+            this.id = article.getId();
+            this.title = article.getTitle();
+            this.content = article.getContent();
+            this.category = article.getCategory() != null ? article.getCategory().getName() : null;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.prototype.service;
+
+import com.prototype.rag.embedding.EmbeddingProviderChangedEvent;
+import com.prototype.rag.embedding.EmbeddingService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of chatbot answers keyed by query embedding
+ * A new question is answered from the cache when it is within the similarity threshold of a cached
+ * question asked under the same rules/actions (prompt fingerprint). Entries expire after a TTL,
+ * are evicted least-recently-used beyond max-entries, and are dropped when an article that was
+ * part of their knowledge base context changes. Articles added later do not invalidate answers;
+ * the TTL bounds how long those stay unseen.
+ * Questions carrying personal details (numbers, email addresses, a name) and answers that repeat such
+ * details from their question are only served for the exact same question, never for a similar one.
+ * An answer is not stored if one of its articles changed after the turn started (see epoch()).
+ */
+@Component
+public class SemanticAnswerCache {
+    
+    private final EmbeddingService embeddingService;
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final long ttlMillis;
+    private final int maxEntries;
+    
+    // Access-ordered for LRU eviction; keyed by the normalized question
+    private final Map<String, Entry> entries;
+    
+    private static final Pattern EMAIL = Pattern.compile("[^\\s@]+@[^\\s@]+\\.[^\\s@]+");
+    private static final Pattern SELF_IDENTIFICATION = Pattern.compile(
+        "\\b(?:i'm|i am|im|this is|my name is|my name's)\\s+\\p{Lu}\\p{L}+|\\bmy name\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DETAIL_TOKEN = Pattern.compile("[^\\s,.!?;:()]*\\d[^\\s,.!?;:()]*|" + EMAIL.pattern());
+    
+    // Invalidation clock: lookups remember it, invalidations advance it
+    private final AtomicLong clock = new AtomicLong();
+    // Guarded by entries; clock value of each article's latest invalidation
+    private final Map<Long, Long> invalidatedAt = new HashMap<>();
+    private long clearedAt = 0;
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong semanticHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    public SemanticAnswerCache(EmbeddingService embeddingService,
+                               @Value("${rag.answer-cache.enabled:true}") boolean enabled,
+                               @Value("${rag.answer-cache.similarity-threshold:0.92}") double similarityThreshold,
+                               @Value("${rag.answer-cache.ttl-minutes:60}") long ttlMinutes,
+                               @Value("${rag.answer-cache.max-entries:500}") int maxEntries) {
+        this.embeddingService = embeddingService;
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.ttlMillis = Math.max(1, ttlMinutes) * 60_000L;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SemanticAnswerCache.this.maxEntries;
+            }
+        };
+        System.out.println("SemanticAnswerCache initialized (enabled: " + enabled + ", threshold: " + similarityThreshold +
+            ", ttl: " + ttlMinutes + "m, max entries: " + this.maxEntries + ")");
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Current invalidation epoch
+     * Take it before reading the knowledge base for a turn and pass it to lookup(), so an article
+     * change that lands while the answer is generated keeps that answer out of the cache.
+     */
+    public long epoch() {
+        return clock.get();
+    }
+    
+    /**
+     * Look up a cached answer
+     * @param question The customer's message
+     * @param fingerprint Hash of everything else the answer depends on (rules, actions)
+     * @param epoch epoch() taken when the turn started
+     * @return Lookup holding the answer on a hit; pass it to put() after generating on a miss
+     */
+    public Lookup lookup(String question, String fingerprint, long epoch) {
+        return lookup(question, fingerprint, epoch, () -> embeddingService.generateEmbeddingVector(question));
+    }
+    
+    /**
+     * Look up a cached answer, embedding the question through the caller
+     * @param questionEmbedding Embeds the question; only called on an exact miss, and may share its
+     *                          result with other users of the same embedding (e.g. retrieval)
+     */
+    public Lookup lookup(String question, String fingerprint, long epoch, Callable<float[]> questionEmbedding) {
+        String key = normalize(question);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry exact = entries.get(key);
+            if (exact != null && exact.fingerprint.equals(fingerprint) && !exact.isExpired(now)) {
+                hits.incrementAndGet();
+                return new Lookup(key, null, exact.response, epoch, false);
+            }
+        }
+        
+        // A question with personal details (an order number, a name) gets an answer of its own
+        boolean personal = isPersonal(question);
+        if (personal) {
+            misses.incrementAndGet();
+            return new Lookup(key, null, null, epoch, true);
+        }
+        
+        // Embed outside the lock; this is the only remote call on the lookup path
+        float[] embedding = null;
+        try {
+            embedding = questionEmbedding.call();
+        } catch (Exception e) {
+            System.err.println("SemanticAnswerCache: Failed to embed question, skipping cache: " + e.getMessage());
+        }
+        if (embedding == null) {
+            misses.incrementAndGet();
+            return new Lookup(key, null, null, epoch, false);
+        }
+        
+        double norm = norm(embedding);
+        Entry best = null;
+        double bestSimilarity = similarityThreshold;
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.isExpired(now)) {
+                    iterator.remove();
+                    continue;
+                }
+                if (!entry.fingerprint.equals(fingerprint) || entry.embedding == null || entry.embedding.length != embedding.length) {
+                    continue;
+                }
+                double similarity = cosine(embedding, norm, entry.embedding, entry.norm);
+                if (similarity >= bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+            if (best != null) {
+                // Touch for LRU
+                entries.get(best.key);
+            }
+        }
+        if (best != null) {
+            // Logged outside the lock: a virtual thread waiting on System.out while holding a monitor pins its carrier
+            semanticHits.incrementAndGet();
+            System.out.println("SemanticAnswerCache: Serving cached answer (similarity " +
+                String.format("%.3f", bestSimilarity) + " to \"" + best.key + "\")");
+            return new Lookup(key, embedding, best.response, epoch, false);
+        }
+        misses.incrementAndGet();
+        return new Lookup(key, embedding, null, epoch, false);
+    }
+    
+    /**
+     * Store a freshly generated answer
+     * @param lookup The missed lookup for this question
+     * @param fingerprint Same fingerprint as used for the lookup
+     * @param articleIds Articles the knowledge base context was built from
+     * @param response The final answer
+     */
+    public void put(Lookup lookup, String fingerprint, Set<Long> articleIds, String response) {
+        if (lookup == null || response == null || response.isBlank()) {
+            return;
+        }
+        Set<Long> sources = new HashSet<>(articleIds != null ? articleIds : Set.of());
+        // Without an embedding the entry only serves the exact same question
+        boolean exactOnly = lookup.personal || lookup.embedding == null || echoesDetails(lookup.key, response);
+        Entry entry = new Entry(lookup.key, fingerprint, exactOnly ? null : lookup.embedding, sources, response,
+            System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            if (clearedAt > lookup.epoch) {
+                return;
+            }
+            for (Long articleId : sources) {
+                Long changedAt = invalidatedAt.get(articleId);
+                if (changedAt != null && changedAt > lookup.epoch) {
+                    // Generated from the article as it was before the change
+                    return;
+                }
+            }
+            entries.put(lookup.key, entry);
+        }
+    }
+    
+    /**
+     * Drop answers whose context included the given article
+     */
+    public void invalidateArticle(Long articleId) {
+        if (articleId == null) {
+            return;
+        }
+        synchronized (entries) {
+            invalidatedAt.put(articleId, clock.incrementAndGet());
+            entries.values().removeIf(entry -> entry.articleIds.contains(articleId));
+        }
+    }
+    
+    public void clear() {
+        synchronized (entries) {
+            clearedAt = clock.incrementAndGet();
+            entries.clear();
+        }
+    }
+    
+    /**
+     * Cached question embeddings belong to the old embedding space
+     */
+    @EventListener
+    public void onEmbeddingProviderChanged(EmbeddingProviderChangedEvent event) {
+        clear();
+    }
+    
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("enabled", enabled);
+        stats.put("exactHits", hits.get());
+        stats.put("semanticHits", semanticHits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+    
+    /**
+     * Whether a question carries details of the person asking (numbers such as order ids, an email, a name)
+     */
+    static boolean isPersonal(String question) {
+        if (question == null) {
+            return false;
+        }
+        return question.chars().anyMatch(Character::isDigit) || EMAIL.matcher(question).find()
+            || SELF_IDENTIFICATION.matcher(question).find();
+    }
+    
+    /**
+     * Whether the answer repeats a number or email address from the (normalized) question
+     */
+    private static boolean echoesDetails(String question, String response) {
+        String lowerResponse = response.toLowerCase();
+        var tokens = DETAIL_TOKEN.matcher(question);
+        while (tokens.find()) {
+            if (lowerResponse.contains(tokens.group())) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String normalize(String question) {
+        if (question == null) {
+            return "";
+        }
+        return question.toLowerCase().trim().replaceAll("\\s+", " ").replaceAll("[\\s?!.]+$", "");
+    }
+    
+    private static double norm(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        return Math.sqrt(sum);
+    }
+    
+    private static double cosine(float[] a, double normA, float[] b, double normB) {
+        if (normA == 0 || normB == 0) {
+            return 0;
+        }
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot / (normA * normB);
+    }
+    
+    private static class Entry {
+        final String key;
+        final String fingerprint;
+        final float[] embedding;
+        final double norm;
+        final Set<Long> articleIds;
+        final String response;
+        final long expiresAt;
+        
+        Entry(String key, String fingerprint, float[] embedding, Set<Long> articleIds, String response, long expiresAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.embedding = embedding;
+            this.norm = embedding != null ? norm(embedding) : 0;
+            this.articleIds = articleIds;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+        
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+    
+    public static class Lookup {
+        private final String key;
+        private final float[] embedding;
+        private final String response;
+        private final long epoch;
+        private final boolean personal;
+        
+        Lookup(String key, float[] embedding, String response, long epoch, boolean personal) {
+            this.key = key;
+            this.embedding = embedding;
+            this.response = response;
+            this.epoch = epoch;
+            this.personal = personal;
+        }
+        
+        public boolean isHit() { return response != null; }
+        public String getResponse() { return response; }
+    }
+}
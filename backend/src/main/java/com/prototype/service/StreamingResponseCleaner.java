@@ -0,0 +1,145 @@
+package com.prototype.service;
+
+import java.util.regex.Pattern;
+
+/**
+ * Incremental version of the chatbot response cleanup, applied to tokens as they stream in
+ * Strips agent prefixes and a leading quote, capitalizes the first letter, drops template variables,
+ * internal markers and action placeholders, collapses spaces and, if the formatting rules ask for it,
+ * breaks lines after sentences. Text that might still turn into one of those is held back until it
+ * is complete. The streamed text is a preview; the full post-processing runs on the raw text at the end.
+ */
+class StreamingResponseCleaner {
+    
+    private static final String[] PREFIXES = {"Agent:", "Response:", "Customer service agent:", "Support agent:"};
+    // Longest "{...}" or "[...]" held back waiting for its closing bracket
+    private static final int MAX_HELD_MARKUP = 80;
+    private static final Pattern ACTION_PLACEHOLDER = Pattern.compile("\\{action_[a-zA-Z0-9_]+(?::[^}]+)?\\}", Pattern.CASE_INSENSITIVE);
+    
+    private final boolean newLinePerSentence;
+    private final StringBuilder raw = new StringBuilder();
+    private final StringBuilder pending = new StringBuilder();
+    private boolean started = false;
+    private char lastEmitted = 0;
+    
+    StreamingResponseCleaner(boolean newLinePerSentence) {
+        this.newLinePerSentence = newLinePerSentence;
+    }
+    
+    /**
+     * Add a token
+     * @return Text that can be shown now (may be empty)
+     */
+    String accept(String token) {
+        raw.append(token);
+        pending.append(token);
+        return drain(false);
+    }
+    
+    /**
+     * Flush whatever is still held back at the end of the stream
+     */
+    String finish() {
+        return drain(true);
+    }
+    
+    String getRawText() {
+        return raw.toString();
+    }
+    
+    private String drain(boolean end) {
+        StringBuilder out = new StringBuilder();
+        if (!started && !start(end)) {
+            return "";
+        }
+        
+        int i = 0;
+        while (i < pending.length()) {
+            char c = pending.charAt(i);
+            if (c == '{' || c == '[') {
+                String close = c == '[' ? "]" : (i + 1 < pending.length() && pending.charAt(i + 1) == '{' ? "}}" : "}");
+                int closeAt = pending.indexOf(close, i + 1);
+                if (closeAt < 0) {
+                    if (!end && pending.length() - i < MAX_HELD_MARKUP) {
+                        break;
+                    }
+                    // Never closed - plain text after all
+                    emit(out, c);
+                    i++;
+                    continue;
+                }
+                String markup = pending.substring(i, closeAt + close.length());
+                if (!isHidden(markup)) {
+                    for (int k = 0; k < markup.length(); k++) {
+                        emit(out, markup.charAt(k));
+                    }
+                }
+                i = closeAt + close.length();
+                continue;
+            }
+            emit(out, c);
+            i++;
+        }
+        pending.delete(0, i);
+        return out.toString();
+    }
+    
+    // Strip the leading prefix and quote; false while the start of the response is still ambiguous
+    private boolean start(boolean end) {
+        trimLeadingWhitespace();
+        for (String prefix : PREFIXES) {
+            if (startsWith(prefix)) {
+                pending.delete(0, prefix.length());
+                trimLeadingWhitespace();
+            } else if (!end && prefix.length() > pending.length() && prefix.startsWith(pending.toString())) {
+                return false;
+            }
+        }
+        if (pending.length() > 0 && (pending.charAt(0) == '"' || pending.charAt(0) == '\'')) {
+            pending.deleteCharAt(0);
+            trimLeadingWhitespace();
+        }
+        if (pending.length() == 0) {
+            return end;
+        }
+        if (Character.isLowerCase(pending.charAt(0))) {
+            pending.setCharAt(0, Character.toUpperCase(pending.charAt(0)));
+        }
+        started = true;
+        return true;
+    }
+    
+    private void emit(StringBuilder out, char c) {
+        if (newLinePerSentence && Character.isWhitespace(c)) {
+            if (lastEmitted == '.' || lastEmitted == '!' || lastEmitted == '?') {
+                c = '\n';
+            } else if (lastEmitted == '\n') {
+                return;
+            }
+        }
+        if (c == ' ' && (lastEmitted == ' ' || lastEmitted == '\n')) {
+            return;
+        }
+        out.append(c);
+        lastEmitted = c;
+    }
+    
+    private static boolean isHidden(String markup) {
+        return markup.startsWith("{{")
+            || ACTION_PLACEHOLDER.matcher(markup).matches()
+            || (markup.startsWith("[") && (markup.contains("PLACEHOLDER")
+                || markup.equals("[ASK_USER_FOR_NAME]") || markup.equals("[CHECK_CONVERSATION_FOR_NAME_OR_ASK]")));
+    }
+    
+    private boolean startsWith(String prefix) {
+        return pending.length() >= prefix.length() && pending.substring(0, prefix.length()).equals(prefix);
+    }
+    
+    private void trimLeadingWhitespace() {
+        int i = 0;
+        while (i < pending.length() && Character.isWhitespace(pending.charAt(i))) {
+            i++;
+        }
+        pending.delete(0, i);
+    }
+}
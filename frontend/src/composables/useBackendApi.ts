@@ -114,11 +114,12 @@ export function useBackendApi() {
     return api.post<{score: number, label: string}>('/ai/sentiment', { text: message })
   }
 
-  const generateChatbotResponse = (message: string, conversationHistory: string, isActionTriggered: boolean = false) => {
+  const generateChatbotResponse = (message: string, conversationHistory: string, isActionTriggered: boolean = false, sessionId?: string) => {
     return api.post<{response: string, actions: Record<string, string>}>('/ai/chatbot/response', { 
       message, 
       conversationHistory,
-      isActionTriggered 
+      isActionTriggered,
+      sessionId
     })
   }
 
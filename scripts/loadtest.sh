@@ -0,0 +1,30 @@
+#!/bin/bash
+
+# Load test helpers (JDK 21 only, no build needed)
+# Runs the fake Ollama server or the chatbot load driver from backend/loadtest
+#
+#   ./scripts/loadtest.sh fake [options]    start the fake Ollama server (default port 11435)
+#   ./scripts/loadtest.sh drive [options]   replay recorded chatbot sessions against the backend
+#
+# Options are documented at the top of backend/loadtest/FakeOllamaServer.java and ChatbotLoadDriver.java
+
+set -e
+
+cd "$(dirname "$0")/.."
+
+case "$1" in
+    fake)
+        shift
+        echo "🤖 Starting fake Ollama server..."
+        exec java backend/loadtest/FakeOllamaServer.java "$@"
+        ;;
+    drive)
+        shift
+        echo "📈 Starting chatbot load driver..."
+        exec java backend/loadtest/ChatbotLoadDriver.java "$@"
+        ;;
+    *)
+        echo "Usage: $0 fake|drive [options]"
+        exit 1
+        ;;
+esac